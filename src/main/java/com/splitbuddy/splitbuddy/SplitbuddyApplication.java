@@ -2,10 +2,12 @@ package com.splitbuddy.splitbuddy;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 @SpringBootApplication
+@EnableScheduling
 public class SplitbuddyApplication {
 
 	public static void main(String[] args) {
@@ -3,15 +3,23 @@ package com.splitbuddy.splitbuddy.controllers;
 import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendExpensesResponse;
 import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.SettlementResponse;
 import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.services.BalanceLedgerService;
+import com.splitbuddy.splitbuddy.services.BalanceNettingService;
+import com.splitbuddy.splitbuddy.services.BalanceProjector;
 import com.splitbuddy.splitbuddy.services.BalanceService;
+import com.splitbuddy.splitbuddy.services.SettlementService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 /**
@@ -20,7 +28,8 @@ import java.util.List;
  * Handles balance calculations and summaries for users, friends, and groups.
  * 
  * Frontend Types: See expo/splitbuddy/src/types/api-contracts.ts
- * - UserBalanceSummaryResponse, FriendBalanceResponse, GroupBalanceResponse, FriendExpensesResponse
+ * - UserBalanceSummaryResponse, FriendBalanceResponse, GroupBalanceResponse, FriendExpensesResponse,
+ *   SettlementResponse, NetBalanceResponse
  * 
  * API Documentation: See backend/API_DOCUMENTATION.md#balances
  * OpenAPI Spec: See backend/openapi.yaml#/paths/balances
@@ -34,9 +43,15 @@ import java.util.List;
 public class BalanceController {
 
     private final BalanceService balanceService;
+    private final SettlementService settlementService;
+    private final BalanceLedgerService balanceLedgerService;
+    private final BalanceNettingService balanceNettingService;
+    private final BalanceProjector balanceProjector;
 
     @GetMapping("/summary")
-    public ResponseEntity<UserBalanceSummaryResponse> getUserBalanceSummary() {
+    public ResponseEntity<UserBalanceSummaryResponse> getUserBalanceSummary(
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
@@ -53,7 +68,9 @@ public class BalanceController {
     }
 
     @GetMapping("/friends")
-    public ResponseEntity<List<FriendBalanceResponse>> getFriendBalances() {
+    public ResponseEntity<List<FriendBalanceResponse>> getFriendBalances(
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
@@ -69,19 +86,35 @@ public class BalanceController {
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/friend/{friendId}")
+    public ResponseEntity<FriendBalanceResponse> getFriendBalance(@PathVariable Long friendId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime asOf,
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        Long userId = Long.valueOf(authentication.getName());
+
+        FriendBalanceResponse response = balanceService.getFriendBalance(userId, friendId, asOf);
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/friend/{friendId}/expenses")
-    public ResponseEntity<FriendExpensesResponse> getFriendExpenses(@PathVariable String friendId) {
+    public ResponseEntity<FriendExpensesResponse> getFriendExpenses(@PathVariable String friendId,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer size) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
         Long friendIdLong = Long.valueOf(friendId);
 
-        FriendExpensesResponse response = balanceService.getFriendExpenses(userId, friendIdLong);
+        FriendExpensesResponse response = balanceService.getFriendExpenses(userId, friendIdLong, pageToken, size);
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/groups")
-    public ResponseEntity<List<GroupBalanceResponse>> getUserGroupBalances() {
+    public ResponseEntity<List<GroupBalanceResponse>> getUserGroupBalances(
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
@@ -97,16 +130,87 @@ public class BalanceController {
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/net")
+    public ResponseEntity<List<NetBalanceResponse>> getNetBalances(
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        Long userId = Long.valueOf(authentication.getName());
+
+        List<NetBalanceResponse> response = balanceNettingService.getNetBalances(userId);
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/user/{userId}/net")
+    public ResponseEntity<List<NetBalanceResponse>> getNetBalancesById(@PathVariable String userId) {
+        Long userIdLong = Long.valueOf(userId);
+        List<NetBalanceResponse> response = balanceNettingService.getNetBalances(userIdLong);
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/group/{groupId}")
+    public ResponseEntity<GroupBalanceResponse> getGroupBalance(@PathVariable Long groupId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime asOf,
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        Long userId = Long.valueOf(authentication.getName());
+
+        GroupBalanceResponse response = balanceService.getGroupBalance(userId, groupId, asOf);
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/group/{groupId}/balances")
-    public ResponseEntity<List<GroupBalanceResponse>> getGroupBalances(@PathVariable Long groupId) {
+    public ResponseEntity<List<GroupBalanceResponse>> getGroupBalances(@PathVariable Long groupId,
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
         List<GroupBalanceResponse> response = balanceService.getGroupBalancesForGroup(groupId);
         return ResponseEntity.ok(response);
     }
 
+    @GetMapping("/group/{groupId}/settlements")
+    public ResponseEntity<List<SettlementResponse>> getGroupSettlements(@PathVariable Long groupId,
+            @RequestHeader(name = BalanceProjector.VERSION_HEADER, required = false) Long version) {
+        awaitVersion(version);
+        List<SettlementResponse> response = settlementService.getSettlementsForGroup(groupId);
+        return ResponseEntity.ok(response);
+    }
+
     @PostMapping("/recalculate")
     public ResponseEntity<String> recalculateAllBalances() {
         log.info("Starting balance recalculation...");
         balanceService.recalculateAllBalances();
         return ResponseEntity.ok("Balance recalculation completed successfully");
     }
+
+    @PostMapping("/recalculate/ledger")
+    public ResponseEntity<String> recalculateFromLedger() {
+        balanceLedgerService.rebuildFromLedger();
+        return ResponseEntity.ok("Balance recalculation from ledger completed successfully");
+    }
+
+    @PostMapping("/recalculate/friend/{userId}/{friendId}")
+    public ResponseEntity<String> recalculateFriendBalance(@PathVariable Long userId, @PathVariable Long friendId) {
+        balanceService.recalculateFriendBalance(userId, friendId);
+        return ResponseEntity.ok("Friend balance recalculation completed successfully");
+    }
+
+    @PostMapping("/recalculate/group/{groupId}")
+    public ResponseEntity<String> recalculateGroupBalances(@PathVariable Long groupId) {
+        balanceService.recalculateGroupBalances(groupId);
+        return ResponseEntity.ok("Group balance recalculation completed successfully");
+    }
+
+    @PostMapping("/recalculate/user/{userId}")
+    public ResponseEntity<String> recalculateUserBalances(@PathVariable Long userId) {
+        balanceService.recalculateUserBalances(userId);
+        return ResponseEntity.ok("User balance recalculation completed successfully");
+    }
+
+    // Read-your-writes: wait for the change a client was handed the version of
+    private void awaitVersion(Long version) {
+        if (version != null) {
+            balanceProjector.awaitVersion(version);
+        }
+    }
 }
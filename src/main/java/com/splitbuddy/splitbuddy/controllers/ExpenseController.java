@@ -3,21 +3,31 @@ package com.splitbuddy.splitbuddy.controllers;
 import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
 import com.splitbuddy.splitbuddy.dto.request.UpdateExpenseRequest;
 import com.splitbuddy.splitbuddy.dto.request.UpdatePaymentStatusRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpensePage;
 import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendExpensesResponse;
 import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.SettlementResponse;
 import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.services.BalanceProjector;
+import com.splitbuddy.splitbuddy.services.ExpenseExportService;
+import com.splitbuddy.splitbuddy.services.ExpenseImportService;
+import com.splitbuddy.splitbuddy.services.ExpensePager;
 import com.splitbuddy.splitbuddy.services.ExpenseService;
 
 import jakarta.validation.Valid;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.Reader;
 import java.util.List;
 
 /**
@@ -35,16 +45,62 @@ import java.util.List;
  */
 @RestController
 @RequestMapping("/api/expenses")
-@CrossOrigin(origins = "*")
+@CrossOrigin(origins = "*", exposedHeaders = { BalanceProjector.VERSION_HEADER, ExpensePager.NEXT_PAGE_HEADER,
+        ExpensePager.DEPRECATION_HEADER })
 public class ExpenseController {
 
     @Autowired
     private ExpenseService expenseService;
 
+    @Autowired
+    private ExpenseImportService expenseImportService;
+
+    @Autowired
+    private ExpenseExportService expenseExportService;
+
     @PostMapping
     public ResponseEntity<ExpenseResponse> createExpense(@RequestBody CreateExpenseRequest request) {
         ExpenseResponse response = expenseService.createExpense(request);
-        return new ResponseEntity<>(response, HttpStatus.CREATED);
+        return versioned(ResponseEntity.status(HttpStatus.CREATED), response.getBalanceVersion()).body(response);
+    }
+
+    @PostMapping("/batch")
+    public ResponseEntity<List<ExpenseResponse>> createExpenses(@RequestBody List<CreateExpenseRequest> requests) {
+        List<ExpenseResponse> response = expenseService.createExpenses(requests);
+        return versioned(ResponseEntity.status(HttpStatus.CREATED), response.get(0).getBalanceVersion())
+                .body(response);
+    }
+
+    // The body is read as it arrives, so uploads are not limited in size
+    @PostMapping(value = "/import", consumes = "text/csv")
+    public ResponseEntity<ExpenseImportResponse> importCsv(Reader body) {
+        ExpenseImportResponse response = expenseImportService.importCsv(body);
+        return versioned(ResponseEntity.ok(), response.getBalanceVersion()).body(response);
+    }
+
+    @PostMapping(value = "/import", consumes = { "application/x-ofx", "application/vnd.intu.qfx" })
+    public ResponseEntity<ExpenseImportResponse> importOfx(Reader body,
+            @RequestParam(required = false) Long groupId) {
+        ExpenseImportResponse response = expenseImportService.importOfx(body, groupId);
+        return versioned(ResponseEntity.ok(), response.getBalanceVersion()).body(response);
+    }
+
+    // Exports are written while they are read, so history size does not matter
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportExpenses(@RequestParam(defaultValue = "csv") String format) {
+        return download(expenseExportService.exportForUser(format));
+    }
+
+    @GetMapping("/export/group/{groupId}")
+    public ResponseEntity<StreamingResponseBody> exportGroupExpenses(@PathVariable Long groupId,
+            @RequestParam(defaultValue = "csv") String format) {
+        return download(expenseExportService.exportForGroup(groupId, format));
+    }
+
+    @GetMapping("/export/friend/{friendId}")
+    public ResponseEntity<StreamingResponseBody> exportFriendExpenses(@PathVariable Long friendId,
+            @RequestParam(defaultValue = "csv") String format) {
+        return download(expenseExportService.exportForFriend(friendId, format));
     }
 
     @PutMapping("/{expenseId}")
@@ -52,13 +108,13 @@ public class ExpenseController {
             @PathVariable Long expenseId,
             @Valid @RequestBody UpdateExpenseRequest request) {
         ExpenseResponse response = expenseService.updateExpense(expenseId, request);
-        return ResponseEntity.ok(response);
+        return versioned(ResponseEntity.ok(), response.getBalanceVersion()).body(response);
     }
 
     @DeleteMapping("/{expenseId}")
     public ResponseEntity<Void> deleteExpense(@PathVariable Long expenseId) {
-        expenseService.deleteExpense(expenseId);
-        return ResponseEntity.noContent().build();
+        Long balanceVersion = expenseService.deleteExpense(expenseId);
+        return versioned(ResponseEntity.status(HttpStatus.NO_CONTENT), balanceVersion).build();
     }
 
     @PatchMapping("/{expenseId}/participants/{participantId}/payment")
@@ -66,8 +122,9 @@ public class ExpenseController {
             @PathVariable Long expenseId,
             @PathVariable Long participantId,
             @RequestBody UpdatePaymentStatusRequest request) {
-        expenseService.updateParticipantPaymentStatus(expenseId, participantId, request.isPaid());
-        return ResponseEntity.ok().build();
+        Long balanceVersion = expenseService.updateParticipantPaymentStatus(expenseId, participantId,
+                request.isPaid());
+        return versioned(ResponseEntity.ok(), balanceVersion).build();
     }
 
     @GetMapping("/{expenseId}")
@@ -76,16 +133,22 @@ public class ExpenseController {
         return ResponseEntity.ok(response);
     }
 
+    // Lists are paged newest first; the next page's token is in X-Next-Page-Token.
+    // Without pageToken and size the whole list is returned (deprecated)
     @GetMapping("/group/{groupId}")
-    public ResponseEntity<List<ExpenseResponse>> getExpensesByGroup(@PathVariable Long groupId) {
-        List<ExpenseResponse> response = expenseService.getExpensesByGroup(groupId);
-        return ResponseEntity.ok(response);
+    public ResponseEntity<List<ExpenseResponse>> getExpensesByGroup(@PathVariable Long groupId,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer size) {
+        ExpensePage page = expenseService.getExpensesByGroup(groupId, pageToken, size);
+        return page(page, pageToken, size);
     }
 
     @GetMapping
-    public ResponseEntity<List<ExpenseResponse>> getExpensesByUser() {
-        List<ExpenseResponse> response = expenseService.getExpensesByUser();
-        return ResponseEntity.ok(response);
+    public ResponseEntity<List<ExpenseResponse>> getExpensesByUser(
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer size) {
+        ExpensePage page = expenseService.getExpensesByUser(pageToken, size);
+        return page(page, pageToken, size);
     }
 
     @GetMapping("/user/{userId}/balances")
@@ -113,15 +176,19 @@ public class ExpenseController {
     }
 
     @GetMapping("/friend/{friendId}/expenses")
-    public ResponseEntity<FriendExpensesResponse> getExpensesBetweenFriends(@PathVariable String friendId) {
-        FriendExpensesResponse response = expenseService.getExpensesBetweenFriends(friendId);
+    public ResponseEntity<FriendExpensesResponse> getExpensesBetweenFriends(@PathVariable String friendId,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer size) {
+        FriendExpensesResponse response = expenseService.getExpensesBetweenFriends(friendId, pageToken, size);
         return ResponseEntity.ok(response);
     }
 
     @GetMapping("/group/{groupId}/all")
-    public ResponseEntity<List<ExpenseResponse>> getAllExpensesForGroup(@PathVariable Long groupId) {
-        List<ExpenseResponse> response = expenseService.getAllExpensesForGroup(groupId);
-        return ResponseEntity.ok(response);
+    public ResponseEntity<List<ExpenseResponse>> getAllExpensesForGroup(@PathVariable Long groupId,
+            @RequestParam(required = false) String pageToken,
+            @RequestParam(required = false) Integer size) {
+        ExpensePage page = expenseService.getAllExpensesForGroup(groupId, pageToken, size);
+        return page(page, pageToken, size);
     }
 
     @GetMapping("/group/{groupId}/balances")
@@ -135,4 +202,31 @@ public class ExpenseController {
         List<GroupBalanceResponse> response = expenseService.getUserGroupBalances(userId);
         return ResponseEntity.ok(response);
     }
+
+    // Read-your-writes: hands the client the version of a queued balance change
+    private static ResponseEntity.BodyBuilder versioned(ResponseEntity.BodyBuilder response, Long balanceVersion) {
+        if (balanceVersion != null) {
+            response.header(BalanceProjector.VERSION_HEADER, balanceVersion.toString());
+        }
+        return response;
+    }
+
+    private static ResponseEntity<List<ExpenseResponse>> page(ExpensePage page, String pageToken, Integer size) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (ExpensePager.isUnpaged(pageToken, size)) {
+            response.header(ExpensePager.DEPRECATION_HEADER, "true");
+        }
+        if (page.getNextPageToken() != null) {
+            response.header(ExpensePager.NEXT_PAGE_HEADER, page.getNextPageToken());
+        }
+        return response.body(page.getExpenses());
+    }
+
+    private static ResponseEntity<StreamingResponseBody> download(ExpenseExportService.Export export) {
+        return ResponseEntity.ok()
+                .contentType(export.contentType())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(export.fileName()).build().toString())
+                .body(export.body());
+    }
 }
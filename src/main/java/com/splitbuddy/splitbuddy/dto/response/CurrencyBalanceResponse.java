@@ -0,0 +1,10 @@
+package com.splitbuddy.splitbuddy.dto.response;
+
+import java.math.BigDecimal;
+import lombok.Data;
+
+@Data
+public class CurrencyBalanceResponse {
+    private String currency;
+    private BigDecimal netBalance; // Part of the net balance from expenses in this currency
+}
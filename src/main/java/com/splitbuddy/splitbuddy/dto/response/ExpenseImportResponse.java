@@ -0,0 +1,31 @@
+package com.splitbuddy.splitbuddy.dto.response;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+public class ExpenseImportResponse {
+    private long rowsRead; // Records after the CSV header, or OFX transactions
+    private long imported;
+    private long skipped; // OFX credits, which are not expenses
+    private long failed;
+    private boolean completed; // False when the file could not be read to its end
+    private List<RowError> errors = new ArrayList<>(); // The first expense.import.max-errors failures
+    private boolean errorsTruncated;
+    @JsonIgnore
+    private Long balanceVersion; // Sent as X-Balance-Version when the balance changes are queued
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class RowError {
+        private long line;
+        private String message;
+    }
+}
@@ -0,0 +1,15 @@
+package com.splitbuddy.splitbuddy.dto.response;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExpensePage {
+    private List<ExpenseResponse> expenses; // Newest first
+    private String nextPageToken; // Null on the last page
+}
@@ -5,6 +5,7 @@ import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
 
 import lombok.Data;
@@ -23,6 +24,8 @@ public class ExpenseResponse {
     private Long paidBy; // ID of the user who paid
     private String paidByName; // Name of the user who paid
     private List<ParticipantResponse> participants;
+    @JsonIgnore
+    private Long balanceVersion; // Sent as X-Balance-Version when the balance change is queued
 
     @Data
     public static class ParticipantResponse {
@@ -1,6 +1,7 @@
 package com.splitbuddy.splitbuddy.dto.response;
 
 import java.math.BigDecimal;
+import java.util.List;
 
 import lombok.Data;
 
@@ -8,5 +9,7 @@ import lombok.Data;
 public class FriendBalanceResponse {
     private Long friendId;
     private String friendName;
-    private BigDecimal balance;
+    private BigDecimal balance; // Null when a single balance has no rate to the base currency
+    private String currency;
+    private List<CurrencyBalanceResponse> currencyBalances; // Only for a single friend: the balance per currency
 }
@@ -11,5 +11,8 @@ public class FriendExpensesResponse {
     private BigDecimal totalOwedToFriend; // Amount user owes to friend
     private BigDecimal totalOwedByFriend; // Amount friend owes to user
     private BigDecimal netBalance; // totalOwedByFriend - totalOwedToFriend (positive means friend owes user)
-    private List<ExpenseResponse> sharedExpenses;
+    private String currency; // The base currency all three amounts are converted to
+    private List<CurrencyBalanceResponse> currencyBalances; // The net balance per currency
+    private List<ExpenseResponse> sharedExpenses; // One page, newest first
+    private String nextPageToken; // Null on the last page
 }
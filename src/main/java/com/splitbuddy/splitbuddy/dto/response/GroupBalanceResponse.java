@@ -1,6 +1,7 @@
 package com.splitbuddy.splitbuddy.dto.response;
 
 import java.math.BigDecimal;
+import java.util.List;
 import lombok.Data;
 
 @Data
@@ -10,5 +11,7 @@ public class GroupBalanceResponse {
     private Long userId; // Optional: only included when getting all balances for a group
     private String userName; // Optional: only included when getting all balances for a group
     private BigDecimal balance; // Positive means user is owed money by the group, negative means user owes the
-                                // group
+                                // group; null when a single balance has no rate to the base currency
+    private String currency;
+    private List<CurrencyBalanceResponse> currencyBalances; // Only for a single group: the balance per currency
 }
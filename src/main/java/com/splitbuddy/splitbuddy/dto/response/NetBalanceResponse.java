@@ -0,0 +1,25 @@
+package com.splitbuddy.splitbuddy.dto.response;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+
+import lombok.Data;
+
+@Data
+public class NetBalanceResponse {
+    private Long counterpartyId;
+    private String counterpartyName;
+    private BigDecimal netBalance; // Positive means the counterparty owes the user, across every context
+    private String currency;
+    private List<ContextBalance> contexts; // Unpaid shares between the two, per direct or group context
+
+    @Data
+    public static class ContextBalance {
+        private ParticipantSource source;
+        private Long groupId; // Only for GROUP contexts
+        private String groupName;
+        private BigDecimal balance;
+    }
+}
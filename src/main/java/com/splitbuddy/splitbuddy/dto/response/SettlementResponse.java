@@ -12,4 +12,8 @@ public class SettlementResponse {
     private Long toUserId;
     private String toUserName;
     private BigDecimal amount;
+    private String currency;
+    // Set on group transfers to or from a payer outside the group, whose side
+    // has no user id
+    private Boolean outsideGroup;
 }
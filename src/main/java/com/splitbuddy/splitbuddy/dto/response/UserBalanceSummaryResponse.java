@@ -1,6 +1,7 @@
 package com.splitbuddy.splitbuddy.dto.response;
 
 import java.math.BigDecimal;
+import java.util.List;
 import lombok.Data;
 
 @Data
@@ -10,4 +11,7 @@ public class UserBalanceSummaryResponse {
     private BigDecimal totalOwed; // Amount others owe to this user
     private BigDecimal totalOwes; // Amount this user owes to others
     private BigDecimal netBalance; // totalOwed - totalOwes (positive means net owed to user)
+    private List<CurrencyBalanceResponse> currencyBalances; // netBalance split by expense currency
+    private String baseCurrency;
+    private BigDecimal convertedNetBalance; // currencyBalances converted to baseCurrency, absent without rates
 }
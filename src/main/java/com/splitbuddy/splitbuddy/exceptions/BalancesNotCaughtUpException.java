@@ -0,0 +1,18 @@
+package com.splitbuddy.splitbuddy.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class BalancesNotCaughtUpException extends RuntimeException {
+    private final long retryAfterSeconds;
+
+    public BalancesNotCaughtUpException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -1,17 +1,19 @@
 package com.splitbuddy.splitbuddy.models;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.Formula;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "balance_aggregates", uniqueConstraints = {
-        @UniqueConstraint(columnNames = { "user1_id", "user2_id", "balance_type" }),
-        @UniqueConstraint(columnNames = { "user_id", "group_id", "balance_type" })
+        @UniqueConstraint(name = "uk_friend_balance", columnNames = { "user1_id", "user2_id", "balance_type", "currency" }),
+        @UniqueConstraint(name = "uk_group_balance", columnNames = { "user_id", "group_id", "balance_type", "currency" })
 })
 @Getter
 @Setter
@@ -41,9 +43,19 @@ public class BalanceAggregate {
     @Column(name = "balance_type", nullable = false)
     private BalanceType balanceType;
 
+    // Expense currency the balance is kept in; balances never mix currencies
+    @Column(nullable = false, length = 3)
+    private String currency = "USD";
+
     @Column(precision = 10, scale = 2, nullable = false)
     private BigDecimal balance = BigDecimal.ZERO;
 
+    // Deltas of a hot group balance not folded into this row yet
+    @Formula("(SELECT coalesce(sum(s.balance), 0) FROM balance_aggregate_stripes s " +
+            "WHERE s.user_id = user_id AND s.group_id = group_id AND s.currency = currency)")
+    @Setter(AccessLevel.NONE)
+    private BigDecimal stripedBalance;
+
     @Column(nullable = false)
     private LocalDateTime lastUpdated = LocalDateTime.now();
 
@@ -75,6 +87,14 @@ public class BalanceAggregate {
         this.lastUpdated = LocalDateTime.now();
     }
 
+    /**
+     * The balance including the deltas still spread over
+     * {@link BalanceAggregateStripe} rows
+     */
+    public BigDecimal getTotalBalance() {
+        return stripedBalance == null ? balance : balance.add(stripedBalance);
+    }
+
     @PreUpdate
     protected void onUpdate() {
         lastUpdated = LocalDateTime.now();
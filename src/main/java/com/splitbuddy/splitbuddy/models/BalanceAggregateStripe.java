@@ -0,0 +1,57 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Part of a hot USER_TO_GROUP balance that has not been folded into its
+ * {@link BalanceAggregate} row yet. Writers spread the deltas of a hot row
+ * over several stripes so they do not all wait for the same row lock; the
+ * balance is the aggregate row plus all of its stripes.
+ */
+@Entity
+@Table(name = "balance_aggregate_stripes")
+@IdClass(BalanceAggregateStripe.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class BalanceAggregateStripe {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Id
+    @Column(name = "group_id")
+    private Long groupId;
+
+    @Id
+    @Column(length = 3)
+    private String currency;
+
+    @Id
+    private Integer stripe;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal balance = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private LocalDateTime lastUpdated = LocalDateTime.now();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private Long userId;
+        private Long groupId;
+        private String currency;
+        private Integer stripe;
+    }
+}
@@ -0,0 +1,37 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Every balance as of {@code periodEnd} (exclusive), computed from the ledger
+ * rows up to and including {@code ledgerHighWaterMark}. Rows written later
+ * with an earlier effective time are picked up by readers through their id.
+ * Its entries are stored in {@link BalanceCheckpointEntry}.
+ */
+@Entity
+@Table(name = "balance_checkpoints")
+@Getter
+@Setter
+@NoArgsConstructor
+public class BalanceCheckpoint {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, unique = true)
+    private LocalDateTime periodEnd;
+
+    @Column(nullable = false)
+    private Long ledgerHighWaterMark;
+
+    @Column(nullable = false)
+    private Integer entryCount = 0;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
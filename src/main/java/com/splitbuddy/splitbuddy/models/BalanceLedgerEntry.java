@@ -0,0 +1,81 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One signed change to a balance. Rows are only ever appended; summing the
+ * rows of a key gives its balance. Keys use the same columns as
+ * {@link BalanceAggregate}, currency included.
+ *
+ * {@code effectiveAt} is when the change applies to the balance (an expense's
+ * paidAt, or the time a share was paid) and may be earlier than
+ * {@code createdAt} for backdated expenses and deletions.
+ */
+@Entity
+@Table(name = "balance_ledger", indexes = {
+        @Index(name = "idx_balance_ledger_friend", columnList = "user1_id, user2_id, id"),
+        @Index(name = "idx_balance_ledger_group", columnList = "user_id, group_id, id"),
+        @Index(name = "idx_balance_ledger_expense", columnList = "expense_id"),
+        @Index(name = "idx_balance_ledger_friend_effective", columnList = "user1_id, user2_id, effective_at"),
+        @Index(name = "idx_balance_ledger_group_effective", columnList = "user_id, group_id, effective_at"),
+        @Index(name = "idx_balance_ledger_effective", columnList = "effective_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class BalanceLedgerEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "balance_type", nullable = false, length = 20)
+    private BalanceAggregate.BalanceType balanceType;
+
+    @Column(name = "user1_id")
+    private Long user1Id;
+
+    @Column(name = "user2_id")
+    private Long user2Id;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "group_id")
+    private Long groupId;
+
+    @Column(nullable = false, length = 3)
+    private String currency = "USD";
+
+    @Column(name = "expense_id")
+    private Long expenseId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Operation operation;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal delta;
+
+    @Column(nullable = false)
+    private LocalDateTime effectiveAt;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    public enum Operation {
+        OPENING_BALANCE, // Balance carried over from before the ledger existed, less its BACKFILL rows
+        EXPENSE_CREATED, // Expense created, or re-applied after an update
+        EXPENSE_REVERSED, // Expense deleted, or reversed before an update
+        PAYMENT_MARKED, // Participant share marked as paid
+        PAYMENT_UNMARKED, // Participant share marked as unpaid again
+        RECALCULATION, // Correction written by a recalculation
+        BACKFILL // Change from before the ledger existed, at the time it took effect
+    }
+}
@@ -0,0 +1,53 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+
+/**
+ * A balance change waiting to be projected onto the aggregates, written in
+ * the transaction of the expense change when the outbox is enabled. The
+ * deltas are stored in cents as flattened (first key, second key, cents)
+ * triples with the same keys as the in-memory deltas. Rows are deleted once
+ * projected, and their id is the version token clients wait for.
+ */
+@Entity
+@Table(name = "balance_outbox")
+@Getter
+@Setter
+@NoArgsConstructor
+public class BalanceOutboxEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "expense_id")
+    private Long expenseId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private BalanceLedgerEntry.Operation operation;
+
+    @Column(nullable = false)
+    private LocalDateTime effectiveAt;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(nullable = false, columnDefinition = "bigint[]")
+    private long[] friendDeltas;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(nullable = false, columnDefinition = "bigint[]")
+    private long[] groupDeltas;
+
+    @JdbcTypeCode(SqlTypes.ARRAY)
+    @Column(nullable = false, columnDefinition = "bigint[]")
+    private long[] currencyDeltas;
+
+    @Column(nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -0,0 +1,50 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+
+@Entity
+@Table(name = "balance_snapshot_entries", indexes = {
+        @Index(name = "idx_balance_snapshot_entries_friend", columnList = "snapshot_id, user1_id, user2_id"),
+        @Index(name = "idx_balance_snapshot_entries_group", columnList = "snapshot_id, user_id, group_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class BalanceSnapshotEntry {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "snapshot_id", nullable = false)
+    private Long snapshotId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "balance_type", nullable = false, length = 20)
+    private BalanceAggregate.BalanceType balanceType;
+
+    @Column(name = "user1_id")
+    private Long user1Id;
+
+    @Column(name = "user2_id")
+    private Long user2Id;
+
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Column(name = "group_id")
+    private Long groupId;
+
+    @Column(nullable = false, length = 3)
+    private String currency = "USD";
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal balance;
+
+    @Column(name = "last_expense_id")
+    private Long lastExpenseId;
+}
@@ -14,13 +14,18 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "expenses")
+@Table(name = "expenses", indexes = {
+        @Index(name = "idx_expenses_paid_by", columnList = "paid_by"),
+        @Index(name = "idx_expenses_created_at_id", columnList = "created_at, id"),
+        @Index(name = "idx_expenses_paid_by_created_at_id", columnList = "paid_by, created_at, id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
 public class Expense {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "expenses_id_seq")
+    @SequenceGenerator(name = "expenses_id_seq", sequenceName = "expenses_id_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false)
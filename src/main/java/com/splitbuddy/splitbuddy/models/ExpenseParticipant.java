@@ -11,13 +11,20 @@ import java.math.BigDecimal;
 import java.time.Instant;
 
 @Entity
-@Table(name = "expense_participants")
+@Table(name = "expense_participants", indexes = {
+        @Index(name = "idx_expense_participants_expense", columnList = "expense_id"),
+        @Index(name = "idx_expense_participants_user", columnList = "user_id"),
+        @Index(name = "idx_expense_participants_source", columnList = "source, source_id"),
+        @Index(name = "idx_expense_participants_user_expense", columnList = "user_id, expense_id"),
+        @Index(name = "idx_expense_participants_source_expense", columnList = "source, source_id, expense_id")
+})
 @Getter
 @Setter
 @NoArgsConstructor
 public class ExpenseParticipant {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "expense_participants_id_seq")
+    @SequenceGenerator(name = "expense_participants_id_seq", sequenceName = "expense_participants_id_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
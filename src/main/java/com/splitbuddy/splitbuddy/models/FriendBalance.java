@@ -0,0 +1,57 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A friend balance from one side. Every FRIEND_TO_FRIEND
+ * {@link BalanceAggregate} appears twice, once per owner, so a user's friend
+ * balances are one range of the primary key instead of an OR over user1 and
+ * user2. Positive means the counterparty owes the owner, in {@code currency}.
+ */
+@Entity
+@Table(name = "friend_balances")
+@IdClass(FriendBalance.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class FriendBalance {
+    @Id
+    @Column(name = "owner_id")
+    private Long ownerId;
+
+    @Id
+    @Column(name = "counterparty_id")
+    private Long counterpartyId;
+
+    @Id
+    @Column(length = 3)
+    private String currency;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "counterparty_id", insertable = false, updatable = false)
+    private User counterparty;
+
+    @Column(precision = 10, scale = 2, nullable = false)
+    private BigDecimal balance = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private LocalDateTime lastUpdated = LocalDateTime.now();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private Long ownerId;
+        private Long counterpartyId;
+        private String currency;
+    }
+}
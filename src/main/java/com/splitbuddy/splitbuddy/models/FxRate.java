@@ -0,0 +1,30 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Units of the base currency ({@code balance.fx.base-currency}) one unit of
+ * {@code currency} is worth
+ */
+@Entity
+@Table(name = "fx_rates")
+@Getter
+@Setter
+@NoArgsConstructor
+public class FxRate {
+    @Id
+    @Column(length = 3)
+    private String currency;
+
+    @Column(precision = 20, scale = 10, nullable = false)
+    private BigDecimal rate;
+
+    @Column(nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+}
@@ -0,0 +1,45 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * A user's net balance across all friend and group balances, kept in step
+ * with balance_aggregates in the same transaction as every change to them.
+ * {@code version} goes up by one with every change.
+ */
+@Entity
+@Table(name = "user_balance_summary")
+@Getter
+@Setter
+@NoArgsConstructor
+public class UserBalanceSummary {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @OneToOne(fetch = FetchType.LAZY)
+    @MapsId
+    @JoinColumn(name = "user_id")
+    private User user;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal totalOwed = BigDecimal.ZERO;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal totalOwes = BigDecimal.ZERO;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal netBalance = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private Long version = 0L;
+
+    @Column(nullable = false)
+    private LocalDateTime lastUpdated = LocalDateTime.now();
+}
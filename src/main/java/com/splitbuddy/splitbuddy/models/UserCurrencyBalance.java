@@ -0,0 +1,47 @@
+package com.splitbuddy.splitbuddy.models;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * The part of a user's net balance that comes from expenses in one currency.
+ * Kept in step with {@link UserBalanceSummary} in the same transaction; the
+ * summary's net balance is the nominal sum of these rows.
+ */
+@Entity
+@Table(name = "user_currency_balances")
+@IdClass(UserCurrencyBalance.Key.class)
+@Getter
+@Setter
+@NoArgsConstructor
+public class UserCurrencyBalance {
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+
+    @Id
+    @Column(length = 3)
+    private String currency;
+
+    @Column(precision = 12, scale = 2, nullable = false)
+    private BigDecimal netBalance = BigDecimal.ZERO;
+
+    @Column(nullable = false)
+    private LocalDateTime lastUpdated = LocalDateTime.now();
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private Long userId;
+        private String currency;
+    }
+}
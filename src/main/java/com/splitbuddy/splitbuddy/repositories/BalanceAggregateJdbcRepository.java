@@ -0,0 +1,409 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceLedgerEntry;
+import com.splitbuddy.splitbuddy.utility.LongPairSumMap;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Set-based writes to balance_aggregates that JPA cannot express.
+ *
+ * Each method applies any number of deltas in a single
+ * {@code INSERT ... ON CONFLICT DO UPDATE} statement, passing the keys and
+ * amounts as PostgreSQL arrays. The increment happens inside the database, so
+ * concurrent writers to the same row are serialized by its row lock instead of
+ * overwriting each other. Rows are always touched in key order so two
+ * transactions sharing several keys cannot deadlock. Every row holds the
+ * balance in one currency, which is part of its key.
+ *
+ * Friend deltas are also applied to friend_balances, which holds every friend
+ * balance once from each side, right after the aggregate rows and in key
+ * order as well.
+ *
+ * Callers record the same deltas in balance_ledger through
+ * {@link #appendLedger}, in the same transaction, split by the time each
+ * change takes effect.
+ *
+ * Writers hold {@link #WRITE_LOCK_KEY} in shared mode until commit. While a
+ * rebuild is running, {@link #SHADOW_TABLE} exists and every delta is applied
+ * to it as well, so the rebuilt table does not miss writes made during the scan.
+ *
+ * Group deltas of hot rows can be added to one of several rows of
+ * {@link #STRIPES_TABLE} instead, so concurrent writers lock different rows; a
+ * group balance is its aggregate row plus its stripes. {@link #foldStripes}
+ * moves them back into the aggregate row. No stripes are written while a
+ * rebuild is running, and rebuilds fold all of them first.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BalanceAggregateJdbcRepository {
+
+    public static final String LIVE_TABLE = "balance_aggregates";
+    public static final String SHADOW_TABLE = "balance_aggregates_shadow";
+    public static final String STRIPES_TABLE = "balance_aggregate_stripes";
+
+    /** Advisory lock held shared by writers and exclusively by a rebuild while it switches phase */
+    public static final long WRITE_LOCK_KEY = 0x5B_0001L;
+
+    private static final String UPSERT_FRIEND_BALANCES_SQL = "INSERT INTO %1$s " +
+            "(user1_id, user2_id, currency, balance_type, balance, last_updated, last_expense_id) " +
+            "SELECT d.user1_id, d.user2_id, d.currency, 'FRIEND_TO_FRIEND', d.delta, now(), ? " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user1_id, user2_id, currency, delta) " +
+            "ORDER BY d.user1_id, d.user2_id, d.currency " +
+            "ON CONFLICT (user1_id, user2_id, balance_type, currency) DO UPDATE " +
+            "SET balance = %1$s.balance + EXCLUDED.balance, " +
+            "last_updated = EXCLUDED.last_updated, last_expense_id = EXCLUDED.last_expense_id";
+
+    private static final String UPSERT_GROUP_BALANCES_SQL = "INSERT INTO %1$s " +
+            "(user_id, group_id, currency, balance_type, balance, last_updated, last_expense_id) " +
+            "SELECT d.user_id, d.group_id, d.currency, 'USER_TO_GROUP', d.delta, now(), ? " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user_id, group_id, currency, delta) " +
+            "ORDER BY d.user_id, d.group_id, d.currency " +
+            "ON CONFLICT (user_id, group_id, balance_type, currency) DO UPDATE " +
+            "SET balance = %1$s.balance + EXCLUDED.balance, " +
+            "last_updated = EXCLUDED.last_updated, last_expense_id = EXCLUDED.last_expense_id";
+
+    // Striped rows are only read through their aggregate row, which must exist
+    private static final String ENSURE_GROUP_BALANCES_SQL = "INSERT INTO " + LIVE_TABLE + " " +
+            "(user_id, group_id, currency, balance_type, balance, last_updated, last_expense_id) " +
+            "SELECT d.user_id, d.group_id, d.currency, 'USER_TO_GROUP', 0, now(), ? " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user_id, group_id, currency, delta) " +
+            "ORDER BY d.user_id, d.group_id, d.currency " +
+            "ON CONFLICT (user_id, group_id, balance_type, currency) DO NOTHING";
+
+    private static final String ADD_GROUP_STRIPES_SQL = "INSERT INTO " + STRIPES_TABLE + " AS s " +
+            "(user_id, group_id, currency, stripe, balance, last_updated) " +
+            "SELECT d.user_id, d.group_id, d.currency, ?, d.delta, now() " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user_id, group_id, currency, delta) " +
+            "ORDER BY d.user_id, d.group_id, d.currency " +
+            "ON CONFLICT (user_id, group_id, currency, stripe) DO UPDATE " +
+            "SET balance = s.balance + EXCLUDED.balance, last_updated = EXCLUDED.last_updated";
+
+    private static final String FOLD_STRIPES_SQL = "WITH folded AS (DELETE FROM " + STRIPES_TABLE + " %s" +
+            "RETURNING user_id, group_id, currency, balance) " +
+            "INSERT INTO " + LIVE_TABLE + " AS ba " +
+            "(user_id, group_id, currency, balance_type, balance, last_updated, last_expense_id) " +
+            "SELECT user_id, group_id, currency, 'USER_TO_GROUP', sum(balance), now(), 0 FROM folded " +
+            "GROUP BY user_id, group_id, currency ORDER BY user_id, group_id, currency " +
+            "ON CONFLICT (user_id, group_id, balance_type, currency) DO UPDATE " +
+            "SET balance = ba.balance + EXCLUDED.balance, last_updated = EXCLUDED.last_updated";
+
+    private static final String UPSERT_DIRECTIONAL_FRIEND_BALANCES_SQL = "INSERT INTO friend_balances AS fb " +
+            "(owner_id, counterparty_id, currency, balance, last_updated) " +
+            "SELECT v.owner_id, v.counterparty_id, d.currency, v.delta, now() " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user1_id, user2_id, currency, delta) " +
+            "CROSS JOIN LATERAL (VALUES (d.user1_id, d.user2_id, d.delta), (d.user2_id, d.user1_id, -d.delta)) " +
+            "AS v(owner_id, counterparty_id, delta) " +
+            "ORDER BY v.owner_id, v.counterparty_id, d.currency " +
+            "ON CONFLICT (owner_id, counterparty_id, currency) DO UPDATE " +
+            "SET balance = fb.balance + EXCLUDED.balance, last_updated = EXCLUDED.last_updated";
+
+    // Both sides of the FRIEND_TO_FRIEND aggregates, as friend_balances rows
+    private static final String DIRECTIONAL_ROWS_SELECT = "SELECT v.owner_id, v.counterparty_id, ba.currency, v.balance, " +
+            "ba.last_updated FROM " + LIVE_TABLE + " ba CROSS JOIN LATERAL (VALUES " +
+            "(ba.user1_id, ba.user2_id, ba.balance), (ba.user2_id, ba.user1_id, -ba.balance)) " +
+            "AS v(owner_id, counterparty_id, balance) ";
+
+    private static final String DELETE_DIRECTIONAL_PAIRS_SQL = "DELETE FROM friend_balances fb " +
+            "USING unnest(?::bigint[], ?::bigint[]) AS p(user1_id, user2_id) " +
+            "WHERE (fb.owner_id = p.user1_id AND fb.counterparty_id = p.user2_id) " +
+            "OR (fb.owner_id = p.user2_id AND fb.counterparty_id = p.user1_id)";
+
+    private static final String INSERT_DIRECTIONAL_PAIRS_SQL = "INSERT INTO friend_balances " +
+            "(owner_id, counterparty_id, currency, balance, last_updated) " +
+            DIRECTIONAL_ROWS_SELECT +
+            "JOIN unnest(?::bigint[], ?::bigint[]) AS p(user1_id, user2_id) " +
+            "ON ba.user1_id = p.user1_id AND ba.user2_id = p.user2_id " +
+            "WHERE ba.balance_type = 'FRIEND_TO_FRIEND'";
+
+    private static final String INSERT_ALL_DIRECTIONAL_SQL = "INSERT INTO friend_balances " +
+            "(owner_id, counterparty_id, currency, balance, last_updated) " +
+            DIRECTIONAL_ROWS_SELECT +
+            "WHERE ba.balance_type = 'FRIEND_TO_FRIEND'";
+
+    private static final String APPEND_FRIEND_LEDGER_SQL = "INSERT INTO balance_ledger " +
+            "(user1_id, user2_id, currency, balance_type, delta, expense_id, operation, effective_at, created_at) " +
+            "SELECT d.user1_id, d.user2_id, d.currency, 'FRIEND_TO_FRIEND', d.delta, ?, ?, ?, now() " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user1_id, user2_id, currency, delta) " +
+            "WHERE d.delta <> 0";
+
+    private static final String APPEND_GROUP_LEDGER_SQL = "INSERT INTO balance_ledger " +
+            "(user_id, group_id, currency, balance_type, delta, expense_id, operation, effective_at, created_at) " +
+            "SELECT d.user_id, d.group_id, d.currency, 'USER_TO_GROUP', d.delta, ?, ?, ?, now() " +
+            "FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) AS d(user_id, group_id, currency, delta) " +
+            "WHERE d.delta <> 0";
+
+    private static final String LOCK_SHARED_SQL = "SELECT 1 FROM (SELECT pg_advisory_xact_lock_shared(?)) AS l";
+
+    // Read from pg_tables with a fresh snapshot once the lock is held. A check in
+    // the statement waiting for the lock, or through to_regclass and its
+    // relation cache, can miss a shadow table created or dropped meanwhile.
+    private static final String FIND_SHADOW_SQL = "SELECT EXISTS (SELECT 1 FROM pg_tables " +
+            "WHERE schemaname = current_schema() AND tablename = '" + SHADOW_TABLE + "')";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Add friend deltas keyed by (user1 id, user2 id, currency key) with
+     * user1 id < user2 id
+     */
+    public int upsertFriendBalances(LongTripleSumMap deltas, Long lastExpenseId) {
+        return upsert(UPSERT_FRIEND_BALANCES_SQL, UPSERT_DIRECTIONAL_FRIEND_BALANCES_SQL, deltas, lastExpenseId,
+                (userId, groupId) -> false, 0);
+    }
+
+    /**
+     * Add group deltas keyed by (user id, group id, currency key)
+     */
+    public int upsertGroupBalances(LongTripleSumMap deltas, Long lastExpenseId) {
+        return upsertGroupBalances(deltas, lastExpenseId, (userId, groupId) -> false, 0);
+    }
+
+    /**
+     * Add group deltas keyed by (user id, group id, currency key), adding
+     * those of the (user id, group id) keys {@code striped} accepts to their
+     * row {@code stripe} in {@link #STRIPES_TABLE} instead unless a rebuild is
+     * running
+     */
+    public int upsertGroupBalances(LongTripleSumMap deltas, Long lastExpenseId, KeyFilter striped, int stripe) {
+        return upsert(UPSERT_GROUP_BALANCES_SQL, null, deltas, lastExpenseId, striped, stripe);
+    }
+
+    /**
+     * Keys of the group balances that have stripes, as (user id, group id)
+     */
+    public List<long[]> findStripedKeys() {
+        return jdbcTemplate.query("SELECT DISTINCT user_id, group_id FROM " + STRIPES_TABLE,
+                (rs, rowNum) -> new long[] { rs.getLong(1), rs.getLong(2) });
+    }
+
+    /**
+     * Move the stripes of one group balance into its aggregate row
+     * @return the number of aggregate rows written, 0 if it had no stripes left
+     */
+    public int foldStripes(long userId, long groupId) {
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            lockShared(connection);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    FOLD_STRIPES_SQL.formatted("WHERE user_id = ? AND group_id = ? "))) {
+                statement.setLong(1, userId);
+                statement.setLong(2, groupId);
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Move every stripe into its aggregate row, on a connection managed by the
+     * caller that keeps writers paused
+     */
+    public static int foldAllStripes(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            return statement.executeUpdate(FOLD_STRIPES_SQL.formatted(""));
+        }
+    }
+
+    /**
+     * Record friend and group deltas in balance_ledger as taking effect at
+     * {@code effectiveAt}. Takes the shared write lock first so the rows get
+     * ids a concurrent snapshot or checkpoint can rely on.
+     */
+    public void appendLedger(LongTripleSumMap friendDeltas, LongTripleSumMap groupDeltas, Long expenseId,
+            BalanceLedgerEntry.Operation operation, LocalDateTime effectiveAt) {
+        if (friendDeltas.isEmpty() && groupDeltas.isEmpty()) {
+            return;
+        }
+
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            lockShared(connection);
+            appendLedger(connection, APPEND_FRIEND_LEDGER_SQL, friendDeltas, expenseId, operation, effectiveAt);
+            appendLedger(connection, APPEND_GROUP_LEDGER_SQL, groupDeltas, expenseId, operation, effectiveAt);
+            return null;
+        });
+    }
+
+    /**
+     * Add friend and group deltas to {@code table} on a connection managed by the caller
+     */
+    public static void addBalances(Connection connection, String table, LongTripleSumMap friendDeltas,
+            LongTripleSumMap groupDeltas, long lastExpenseId) throws SQLException {
+        execute(connection, UPSERT_FRIEND_BALANCES_SQL.formatted(table), friendDeltas, lastExpenseId);
+        execute(connection, UPSERT_GROUP_BALANCES_SQL.formatted(table), groupDeltas, lastExpenseId);
+    }
+
+    /**
+     * Rewrite both sides of the given friend pairs, in every currency, in
+     * friend_balances from balance_aggregates, on a connection managed by the
+     * caller
+     */
+    public static void refreshFriendBalances(Connection connection, LongPairSumMap pairs) throws SQLException {
+        if (pairs.isEmpty()) {
+            return;
+        }
+
+        for (String sql : new String[] { DELETE_DIRECTIONAL_PAIRS_SQL, INSERT_DIRECTIONAL_PAIRS_SQL }) {
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                bindPairs(connection, statement, 1, pairs);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Rewrite all of friend_balances from balance_aggregates, on a connection
+     * managed by the caller
+     */
+    public static void refreshAllFriendBalances(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM friend_balances");
+            statement.executeUpdate(INSERT_ALL_DIRECTIONAL_SQL);
+        }
+    }
+
+    private int upsert(String sql, String directionalSql, LongTripleSumMap deltas, Long lastExpenseId,
+            KeyFilter striped, int stripe) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        // Pending JPA changes must reach the database before rows are upserted
+        // behind Hibernate's back on the same connection
+        entityManager.flush();
+
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            lockShared(connection);
+            boolean rebuilding;
+            try (PreparedStatement statement = connection.prepareStatement(FIND_SHADOW_SQL)) {
+                try (var resultSet = statement.executeQuery()) {
+                    rebuilding = resultSet.next() && resultSet.getBoolean(1);
+                }
+            }
+            LongTripleSumMap stripedDeltas = rebuilding ? new LongTripleSumMap(1) : select(deltas, striped, true);
+            LongTripleSumMap rowDeltas = stripedDeltas.isEmpty() ? deltas : select(deltas, striped, false);
+            int rows = execute(connection, sql.formatted(LIVE_TABLE), rowDeltas, lastExpenseId);
+            if (directionalSql != null) {
+                try (PreparedStatement statement = connection.prepareStatement(directionalSql)) {
+                    bindDeltas(connection, statement, 1, rowDeltas);
+                    statement.executeUpdate();
+                }
+            }
+            if (rebuilding) {
+                execute(connection, sql.formatted(SHADOW_TABLE), rowDeltas, lastExpenseId);
+            }
+            if (!stripedDeltas.isEmpty()) {
+                execute(connection, ENSURE_GROUP_BALANCES_SQL, stripedDeltas, lastExpenseId);
+                rows += execute(connection, ADD_GROUP_STRIPES_SQL, stripedDeltas, stripe);
+            }
+            return rows;
+        });
+    }
+
+    private static LongTripleSumMap select(LongTripleSumMap deltas, KeyFilter filter, boolean accepted) {
+        LongTripleSumMap selected = new LongTripleSumMap(deltas.size());
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot) && filter.test(deltas.firstKey(slot), deltas.secondKey(slot)) == accepted) {
+                selected.add(deltas.firstKey(slot), deltas.secondKey(slot), deltas.thirdKey(slot), deltas.value(slot));
+            }
+        }
+        return selected;
+    }
+
+    static void lockShared(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(LOCK_SHARED_SQL)) {
+            statement.setLong(1, WRITE_LOCK_KEY);
+            statement.executeQuery().close();
+        }
+    }
+
+    private static int execute(Connection connection, String sql, LongTripleSumMap deltas, long lastExpenseId)
+            throws SQLException {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, lastExpenseId);
+            bindDeltas(connection, statement, 2, deltas);
+            return statement.executeUpdate();
+        }
+    }
+
+    private static void appendLedger(Connection connection, String sql, LongTripleSumMap deltas, Long expenseId,
+            BalanceLedgerEntry.Operation operation, LocalDateTime effectiveAt) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setObject(1, expenseId);
+            statement.setString(2, operation.name());
+            statement.setObject(3, effectiveAt);
+            bindDeltas(connection, statement, 4, deltas);
+            statement.executeUpdate();
+        }
+    }
+
+    // Binds the keys, currency codes and amounts as four arrays starting at parameter index
+    static void bindDeltas(Connection connection, PreparedStatement statement, int index,
+            LongTripleSumMap deltas) throws SQLException {
+        Long[] firstKeys = new Long[deltas.size()];
+        Long[] secondKeys = new Long[deltas.size()];
+        String[] currencies = new String[deltas.size()];
+        BigDecimal[] amounts = new BigDecimal[deltas.size()];
+        int row = 0;
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot)) {
+                firstKeys[row] = deltas.firstKey(slot);
+                secondKeys[row] = deltas.secondKey(slot);
+                currencies[row] = MoneyUtil.currencyCode(deltas.thirdKey(slot));
+                amounts[row] = MoneyUtil.fromCents(deltas.value(slot));
+                row++;
+            }
+        }
+
+        statement.setArray(index, connection.createArrayOf("bigint", firstKeys));
+        statement.setArray(index + 1, connection.createArrayOf("bigint", secondKeys));
+        statement.setArray(index + 2, connection.createArrayOf("varchar", currencies));
+        statement.setArray(index + 3, connection.createArrayOf("numeric", amounts));
+    }
+
+    // Binds the keys of the pairs as two arrays starting at parameter index
+    private static void bindPairs(Connection connection, PreparedStatement statement, int index,
+            LongPairSumMap pairs) throws SQLException {
+        Long[] firstKeys = new Long[pairs.size()];
+        Long[] secondKeys = new Long[pairs.size()];
+        int row = 0;
+        for (int slot = 0; slot < pairs.capacity(); slot++) {
+            if (pairs.isUsed(slot)) {
+                firstKeys[row] = pairs.firstKey(slot);
+                secondKeys[row] = pairs.secondKey(slot);
+                row++;
+            }
+        }
+
+        statement.setArray(index, connection.createArrayOf("bigint", firstKeys));
+        statement.setArray(index + 1, connection.createArrayOf("bigint", secondKeys));
+    }
+
+    @FunctionalInterface
+    public interface KeyFilter {
+        boolean test(long first, long second);
+    }
+}
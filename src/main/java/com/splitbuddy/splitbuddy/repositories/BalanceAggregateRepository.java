@@ -8,29 +8,15 @@ import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface BalanceAggregateRepository extends JpaRepository<BalanceAggregate, Long> {
 
-    // Find balance between two specific friends
-    @Query("SELECT ba FROM BalanceAggregate ba " +
-            "WHERE ba.balanceType = 'FRIEND_TO_FRIEND' " +
-            "AND ((ba.user1.id = :userId1 AND ba.user2.id = :userId2) " +
-            "OR (ba.user1.id = :userId2 AND ba.user2.id = :userId1))")
-    Optional<BalanceAggregate> findFriendBalance(@Param("userId1") Long userId1, @Param("userId2") Long userId2);
-
-    // Find all friend balances for a user
-    @Query("SELECT ba FROM BalanceAggregate ba " +
-            "WHERE ba.balanceType = 'FRIEND_TO_FRIEND' " +
-            "AND (ba.user1.id = :userId OR ba.user2.id = :userId)")
-    List<BalanceAggregate> findAllFriendBalancesForUser(@Param("userId") Long userId);
-
-    // Find balance between a user and a group
+    // Find the balances between a user and a group, one per currency
     @Query("SELECT ba FROM BalanceAggregate ba " +
             "WHERE ba.balanceType = 'USER_TO_GROUP' " +
-            "AND ba.user.id = :userId AND ba.group.id = :groupId")
-    Optional<BalanceAggregate> findGroupBalance(@Param("userId") Long userId, @Param("groupId") Long groupId);
+            "AND ba.user.id = :userId AND ba.group.id = :groupId ORDER BY ba.currency")
+    List<BalanceAggregate> findGroupBalances(@Param("userId") Long userId, @Param("groupId") Long groupId);
 
     // Find all group balances for a user
     @Query("SELECT ba FROM BalanceAggregate ba " +
@@ -44,17 +30,8 @@ public interface BalanceAggregateRepository extends JpaRepository<BalanceAggrega
             "AND ba.group.id = :groupId")
     List<BalanceAggregate> findAllBalancesForGroup(@Param("groupId") Long groupId);
 
-    // Get total balance for a user (sum of all friend balances)
-    @Query("SELECT COALESCE(SUM(CASE " +
-            "WHEN ba.user1.id = :userId THEN ba.balance " +
-            "WHEN ba.user2.id = :userId THEN -ba.balance " +
-            "END), 0) FROM BalanceAggregate ba " +
-            "WHERE ba.balanceType = 'FRIEND_TO_FRIEND' " +
-            "AND (ba.user1.id = :userId OR ba.user2.id = :userId)")
-    BigDecimal getTotalFriendBalanceForUser(@Param("userId") Long userId);
-
-    // Get total balance for a user across all groups
-    @Query("SELECT COALESCE(SUM(ba.balance), 0) FROM BalanceAggregate ba " +
+    // Get total balance for a user across all groups and currencies, stripes included
+    @Query("SELECT COALESCE(SUM(ba.balance + ba.stripedBalance), 0) FROM BalanceAggregate ba " +
             "WHERE ba.balanceType = 'USER_TO_GROUP' " +
             "AND ba.user.id = :userId")
     BigDecimal getTotalGroupBalanceForUser(@Param("userId") Long userId);
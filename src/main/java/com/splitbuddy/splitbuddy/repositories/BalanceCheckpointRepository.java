@@ -0,0 +1,17 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+@Repository
+public interface BalanceCheckpointRepository extends JpaRepository<BalanceCheckpoint, Long> {
+
+    Optional<BalanceCheckpoint> findTopByOrderByPeriodEndDesc();
+
+    // Closest checkpoint at or before a point in time, the starting point for an as-of read
+    Optional<BalanceCheckpoint> findTopByPeriodEndLessThanEqualOrderByPeriodEndDesc(LocalDateTime time);
+}
@@ -0,0 +1,290 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceCheckpoint;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.LIVE_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.WRITE_LOCK_KEY;
+
+/**
+ * Reads and compaction of balance_ledger.
+ *
+ * Keys include the currency, so every balance is recorded per currency.
+ *
+ * The recorded state of a key is its entry in the latest snapshot plus every
+ * ledger row after that snapshot's high-water mark. Ledger ids are allocated
+ * while writers hold {@link BalanceAggregateJdbcRepository#WRITE_LOCK_KEY}, so
+ * once the lock has been taken exclusively every row up to the current maximum
+ * id is committed and later rows get larger ids.
+ *
+ * The balance of a key at a point in time is its entry in the closest earlier
+ * checkpoint plus the ledger rows that take effect between the checkpoint's
+ * period end and that time. Rows written after the checkpoint was computed but
+ * taking effect before its period end are found through their id.
+ *
+ * Balances from before the ledger existed were carried over by V5 as one
+ * OPENING_BALANCE row per key, taking effect when it was deployed. The
+ * changes of those expenses are later recorded as BACKFILL rows at the times
+ * they took effect, offset by further OPENING_BALANCE rows at the deployment
+ * time so the balances from then on stay the same.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BalanceLedgerJdbcRepository {
+
+    public static final String KEY_COLUMNS = "balance_type, user1_id, user2_id, user_id, group_id, currency";
+
+    public static final String FRIEND_KEY_CONDITION = "balance_type = 'FRIEND_TO_FRIEND' AND user1_id = ? AND user2_id = ?";
+    public static final String GROUP_KEY_CONDITION = "balance_type = 'USER_TO_GROUP' AND user_id = ? AND group_id = ?";
+
+    private static final String LATEST_SNAPSHOT_ID = "(SELECT max(id) FROM balance_snapshots)";
+    private static final String LATEST_HIGH_WATER_MARK = "coalesce((SELECT ledger_high_water_mark " +
+            "FROM balance_snapshots WHERE id = " + LATEST_SNAPSHOT_ID + "), 0)";
+
+    private static final String COMPACT_SQL = "INSERT INTO balance_snapshot_entries " +
+            "(snapshot_id, " + KEY_COLUMNS + ", balance, last_expense_id) " +
+            "SELECT ?, " + KEY_COLUMNS + ", sum(balance), max(last_expense_id) FROM (" +
+            "SELECT " + KEY_COLUMNS + ", balance, last_expense_id FROM balance_snapshot_entries WHERE snapshot_id = ? " +
+            "UNION ALL SELECT " + KEY_COLUMNS + ", delta, expense_id FROM balance_ledger WHERE id > ? AND id <= ?" +
+            ") AS state GROUP BY " + KEY_COLUMNS;
+
+    private static final String CHECKPOINT_SQL = "INSERT INTO balance_checkpoint_entries " +
+            "(checkpoint_id, " + KEY_COLUMNS + ", balance) " +
+            "SELECT ?, " + KEY_COLUMNS + ", sum(balance) FROM (" +
+            "SELECT " + KEY_COLUMNS + ", balance FROM balance_checkpoint_entries WHERE checkpoint_id = ? " +
+            "UNION ALL SELECT " + KEY_COLUMNS + ", delta FROM balance_ledger " +
+            "WHERE id <= ? AND effective_at < ? AND (effective_at >= ? OR id > ?)" +
+            ") AS state GROUP BY " + KEY_COLUMNS + " HAVING sum(balance) <> 0";
+
+    // Expenses whose creation is not recorded as EXPENSE_CREATED and that have
+    // not been backfilled: those changed or deleted since the ledger exists,
+    // and those created before it and never changed
+    private static final String PRE_LEDGER_EXPENSE_IDS_SQL = "SELECT expense_id FROM (" +
+            "SELECT DISTINCT ON (expense_id) expense_id, operation FROM balance_ledger " +
+            "WHERE expense_id IS NOT NULL AND operation NOT IN ('OPENING_BALANCE', 'RECALCULATION') " +
+            "ORDER BY expense_id, id) AS first_change " +
+            "WHERE operation NOT IN ('EXPENSE_CREATED', 'BACKFILL') AND NOT EXISTS (" +
+            "SELECT 1 FROM balance_ledger b WHERE b.expense_id = first_change.expense_id AND b.operation = 'BACKFILL') " +
+            "UNION SELECT e.id FROM expenses e WHERE e.created_at < ? AND NOT EXISTS (" +
+            "SELECT 1 FROM balance_ledger l WHERE l.expense_id = e.id " +
+            "AND l.operation NOT IN ('OPENING_BALANCE', 'RECALCULATION')) " +
+            "ORDER BY 1";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * A ledger row recorded for an expense
+     */
+    public record ExpenseChange(long expenseId, boolean friend, long first, long second, String currency,
+            BigDecimal delta, LocalDateTime effectiveAt) {
+    }
+
+    /**
+     * Recorded balances matching {@code condition} as rows of
+     * ({@link #KEY_COLUMNS}, balance, last_expense_id). Every {@code ?} in the
+     * condition appears twice in the result, so its arguments must be bound twice.
+     */
+    public static String recordedStateSql(String condition) {
+        return "SELECT " + KEY_COLUMNS + ", sum(balance) AS balance, max(last_expense_id) AS last_expense_id FROM (" +
+                "SELECT " + KEY_COLUMNS + ", balance, last_expense_id FROM balance_snapshot_entries " +
+                "WHERE snapshot_id = " + LATEST_SNAPSHOT_ID + " AND (" + condition + ") " +
+                "UNION ALL SELECT " + KEY_COLUMNS + ", delta, expense_id FROM balance_ledger " +
+                "WHERE id > " + LATEST_HIGH_WATER_MARK + " AND (" + condition + ")" +
+                ") AS recorded GROUP BY " + KEY_COLUMNS;
+    }
+
+    /**
+     * Statement appending RECALCULATION rows so the recorded balances matching
+     * {@code condition} become those in {@code table}. The first parameter is
+     * the time the corrections take effect, that of the state {@code table}
+     * was computed from; the condition's arguments follow, bound three times.
+     */
+    public static String appendCorrectionsSql(String table, String condition) {
+        return "INSERT INTO balance_ledger (" + KEY_COLUMNS + ", delta, operation, effective_at, created_at) " +
+                "SELECT " + KEY_COLUMNS + ", sum(balance), 'RECALCULATION', CAST(? AS timestamp), now() FROM (" +
+                "SELECT " + KEY_COLUMNS + ", balance FROM " + table + " WHERE (" + condition + ") " +
+                "UNION ALL SELECT " + KEY_COLUMNS + ", -balance FROM (" + recordedStateSql(condition) + ") AS r" +
+                ") AS difference GROUP BY " + KEY_COLUMNS + " HAVING sum(balance) <> 0";
+    }
+
+    /**
+     * Wait for in-flight writers and return the largest committed ledger id.
+     * Must run inside a transaction; writers stay paused until it ends.
+     */
+    public long lockWritersAndGetHighWaterMark() {
+        lockWriters();
+        return jdbcTemplate.queryForObject("SELECT coalesce(max(id), 0) FROM balance_ledger", Long.class);
+    }
+
+    /**
+     * Write the entries of a new snapshot from the previous snapshot plus the
+     * ledger rows in (previousHighWaterMark, highWaterMark]
+     * @return the number of entries written
+     */
+    public int compact(long snapshotId, long previousSnapshotId, long previousHighWaterMark, long highWaterMark) {
+        return jdbcTemplate.update(COMPACT_SQL, snapshotId, previousSnapshotId, previousHighWaterMark, highWaterMark);
+    }
+
+    public int deleteSnapshotEntries(List<Long> snapshotIds) {
+        return jdbcTemplate.update("DELETE FROM balance_snapshot_entries WHERE snapshot_id = ANY(?)",
+                (Object) snapshotIds.toArray(Long[]::new));
+    }
+
+    /**
+     * Recorded friend balances by currency keyed by (user1 id, user2 id) with
+     * user1 id < user2 id
+     */
+    public Map<String, BigDecimal> findFriendBalance(long user1Id, long user2Id) {
+        return findBalance(FRIEND_KEY_CONDITION, user1Id, user2Id);
+    }
+
+    /**
+     * Recorded group balances by currency keyed by (user id, group id)
+     */
+    public Map<String, BigDecimal> findGroupBalance(long userId, long groupId) {
+        return findBalance(GROUP_KEY_CONDITION, userId, groupId);
+    }
+
+    /**
+     * Write the entries of a checkpoint at {@code periodEnd} from the previous
+     * checkpoint plus the ledger rows up to {@code highWaterMark} that take
+     * effect in between. Pass a previous id and high-water mark of 0 when there
+     * is no previous checkpoint.
+     * @return the number of entries written
+     */
+    public int writeCheckpoint(long checkpointId, long previousCheckpointId, LocalDateTime previousPeriodEnd,
+            long previousHighWaterMark, LocalDateTime periodEnd, long highWaterMark) {
+        return jdbcTemplate.update(CHECKPOINT_SQL, checkpointId, previousCheckpointId, highWaterMark, periodEnd,
+                previousPeriodEnd, previousHighWaterMark);
+    }
+
+    /**
+     * Effective time of the balances V5 carried over, or null if there were none
+     */
+    public LocalDateTime findOpeningTime() {
+        return jdbcTemplate.queryForObject("SELECT min(effective_at) FROM balance_ledger " +
+                "WHERE operation = 'OPENING_BALANCE'", LocalDateTime.class);
+    }
+
+    /**
+     * Ids of the expenses whose creation is part of the opening balances and
+     * has not been backfilled yet, in ascending order. Deleted expenses are
+     * included; expenses created at or after {@code openedAt} without any
+     * ledger row changed no balance and are not.
+     */
+    public List<Long> findPreLedgerExpenseIds(LocalDateTime openedAt) {
+        return jdbcTemplate.queryForList(PRE_LEDGER_EXPENSE_IDS_SQL, Long.class, openedAt);
+    }
+
+    /**
+     * The ledger rows recorded for the expenses by their own changes, leaving
+     * out opening balances, corrections and backfills
+     */
+    public List<ExpenseChange> findExpenseChanges(List<Long> expenseIds) {
+        return jdbcTemplate.query("SELECT expense_id, balance_type, user1_id, user2_id, user_id, group_id, " +
+                "currency, delta, effective_at FROM balance_ledger WHERE expense_id = ANY(?) " +
+                "AND operation NOT IN ('OPENING_BALANCE', 'RECALCULATION', 'BACKFILL')",
+                (resultSet, rowNum) -> {
+                    boolean friend = "FRIEND_TO_FRIEND".equals(resultSet.getString(2));
+                    return new ExpenseChange(resultSet.getLong(1), friend,
+                            resultSet.getLong(friend ? 3 : 5), resultSet.getLong(friend ? 4 : 6),
+                            resultSet.getString(7), resultSet.getBigDecimal(8),
+                            resultSet.getObject(9, LocalDateTime.class));
+                },
+                (Object) expenseIds.toArray(Long[]::new));
+    }
+
+    /**
+     * Effective time of the earliest ledger row, or null if the ledger is empty
+     */
+    public LocalDateTime findEarliestEffectiveAt() {
+        return jdbcTemplate.queryForObject("SELECT min(effective_at) FROM balance_ledger", LocalDateTime.class);
+    }
+
+    /**
+     * Friend balances by currency keyed by (user1 id, user2 id) as of
+     * {@code asOf}, inclusive, starting from {@code checkpoint} (null to read
+     * the whole history)
+     */
+    public Map<String, BigDecimal> findFriendBalanceAsOf(long user1Id, long user2Id, BalanceCheckpoint checkpoint,
+            LocalDateTime asOf) {
+        return findBalanceAsOf(FRIEND_KEY_CONDITION, user1Id, user2Id, checkpoint, asOf);
+    }
+
+    /**
+     * Group balances by currency keyed by (user id, group id) as of
+     * {@code asOf}, inclusive, starting from {@code checkpoint} (null to read
+     * the whole history)
+     */
+    public Map<String, BigDecimal> findGroupBalanceAsOf(long userId, long groupId, BalanceCheckpoint checkpoint,
+            LocalDateTime asOf) {
+        return findBalanceAsOf(GROUP_KEY_CONDITION, userId, groupId, checkpoint, asOf);
+    }
+
+    /**
+     * Replace every aggregate with its recorded balance and recompute the
+     * directional friend balances and user summaries from them. Must run inside
+     * a transaction; writers are paused until it ends.
+     * @return the number of aggregates written
+     */
+    public int replaceAggregatesWithRecordedState() {
+        lockWriters();
+        jdbcTemplate.update("DELETE FROM " + BalanceAggregateJdbcRepository.STRIPES_TABLE);
+        jdbcTemplate.update("DELETE FROM " + LIVE_TABLE);
+        int aggregates = jdbcTemplate.update("INSERT INTO " + LIVE_TABLE + " (" + KEY_COLUMNS +
+                ", balance, last_updated, last_expense_id) " +
+                "SELECT " + KEY_COLUMNS + ", balance, now(), coalesce(last_expense_id, 0) " +
+                "FROM (" + recordedStateSql("TRUE") + ") AS recorded");
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            BalanceAggregateJdbcRepository.refreshAllFriendBalances(connection);
+            return null;
+        });
+        jdbcTemplate.update(UserBalanceSummaryJdbcRepository.REFRESH_ALL_SQL);
+        return aggregates;
+    }
+
+    private void lockWriters() {
+        jdbcTemplate.queryForObject("SELECT 1 FROM (SELECT pg_advisory_xact_lock(?)) AS l", Integer.class, WRITE_LOCK_KEY);
+    }
+
+    private Map<String, BigDecimal> findBalanceAsOf(String condition, long first, long second, BalanceCheckpoint checkpoint,
+            LocalDateTime asOf) {
+        // Without a checkpoint every row counts, as every id is above 0
+        long checkpointId = checkpoint == null ? 0 : checkpoint.getId();
+        LocalDateTime periodEnd = checkpoint == null ? asOf : checkpoint.getPeriodEnd();
+        long highWaterMark = checkpoint == null ? 0 : checkpoint.getLedgerHighWaterMark();
+
+        return queryBalances("SELECT currency, sum(balance) FROM (" +
+                "SELECT currency, balance FROM balance_checkpoint_entries WHERE checkpoint_id = ? AND (" + condition + ") " +
+                "UNION ALL SELECT currency, delta FROM balance_ledger WHERE (" + condition + ") " +
+                "AND effective_at <= ? AND (effective_at >= ? OR id > ?)" +
+                ") AS as_of GROUP BY currency",
+                checkpointId, first, second, first, second, asOf, periodEnd, highWaterMark);
+    }
+
+    private Map<String, BigDecimal> findBalance(String condition, long first, long second) {
+        return queryBalances("SELECT currency, balance FROM (" + recordedStateSql(condition) + ") AS recorded",
+                first, second, first, second);
+    }
+
+    // Non-zero balances of (currency, balance) rows, ordered by currency
+    private Map<String, BigDecimal> queryBalances(String sql, Object... args) {
+        Map<String, BigDecimal> balances = new TreeMap<>();
+        jdbcTemplate.query(sql, resultSet -> {
+            BigDecimal balance = resultSet.getBigDecimal(2);
+            if (balance.signum() != 0) {
+                balances.put(resultSet.getString(1), balance);
+            }
+        }, args);
+        return balances;
+    }
+}
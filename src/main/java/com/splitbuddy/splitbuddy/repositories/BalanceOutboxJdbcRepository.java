@@ -0,0 +1,192 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceLedgerEntry;
+import com.splitbuddy.splitbuddy.utility.LongPairSumMap;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes of balance_outbox, the balance changes committed with their
+ * expense changes but not yet projected onto the aggregates.
+ *
+ * Writers append under {@link BalanceAggregateJdbcRepository#WRITE_LOCK_KEY}
+ * in shared mode, like every other balance write, so a rebuild holding it
+ * exclusively sees a fixed set of pending rows. Projectors take the same lock
+ * before claiming rows with {@code FOR UPDATE SKIP LOCKED}, so several nodes
+ * can drain the outbox at once without waiting on each other's batches.
+ */
+@Repository
+@RequiredArgsConstructor
+public class BalanceOutboxJdbcRepository {
+
+    private static final String COLUMNS = "id, expense_id, operation, effective_at, " +
+            "friend_deltas, group_deltas, currency_deltas";
+
+    private static final String APPEND_SQL = "INSERT INTO balance_outbox (expense_id, operation, effective_at, " +
+            "friend_deltas, group_deltas, currency_deltas, created_at) VALUES (?, ?, ?, ?, ?, ?, localtimestamp) " +
+            "RETURNING id";
+
+    private static final String CLAIM_SQL = "SELECT " + COLUMNS + " FROM balance_outbox " +
+            "ORDER BY id LIMIT ? FOR UPDATE SKIP LOCKED";
+
+    private static final String PENDING_SQL = "SELECT " + COLUMNS + " FROM balance_outbox ORDER BY id";
+
+    private static final String LAG_SQL = "SELECT coalesce(extract(epoch FROM localtimestamp - min(created_at)), 0) " +
+            "FROM balance_outbox";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Append one balance change taking effect at {@code effectiveAt}
+     * @return the id of the new row, the version that includes the change
+     */
+    public long append(Long expenseId, BalanceLedgerEntry.Operation operation, LocalDateTime effectiveAt,
+            LongTripleSumMap friendDeltas, LongTripleSumMap groupDeltas, LongPairSumMap currencyDeltas) {
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            BalanceAggregateJdbcRepository.lockShared(connection);
+            try (PreparedStatement statement = connection.prepareStatement(APPEND_SQL)) {
+                statement.setObject(1, expenseId);
+                statement.setString(2, operation.name());
+                statement.setObject(3, effectiveAt);
+                statement.setArray(4, toArray(connection, friendDeltas));
+                statement.setArray(5, toArray(connection, groupDeltas));
+                statement.setArray(6, toArray(connection, currencyDeltas));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Lock and read the oldest {@code limit} rows no other transaction has
+     * claimed, holding the shared write lock until the transaction ends
+     */
+    public List<OutboxEntry> claim(int limit) {
+        return jdbcTemplate.execute((ConnectionCallback<List<OutboxEntry>>) connection -> {
+            BalanceAggregateJdbcRepository.lockShared(connection);
+            try (PreparedStatement statement = connection.prepareStatement(CLAIM_SQL)) {
+                statement.setInt(1, limit);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return read(resultSet);
+                }
+            }
+        });
+    }
+
+    public int delete(List<OutboxEntry> entries) {
+        Long[] ids = entries.stream().map(OutboxEntry::id).toArray(Long[]::new);
+        return jdbcTemplate.update("DELETE FROM balance_outbox WHERE id = ANY(?)", (Object) ids);
+    }
+
+    /**
+     * Whether a row with an id up to {@code version} has not been projected yet
+     */
+    public boolean isPending(long version) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM balance_outbox WHERE id <= ?)", Boolean.class, version));
+    }
+
+    /**
+     * Seconds since the oldest pending row was written, 0 when none is pending
+     */
+    public double findLagSeconds() {
+        Double lag = jdbcTemplate.queryForObject(LAG_SQL, Double.class);
+        return lag == null ? 0 : lag;
+    }
+
+    /**
+     * Every pending row, on a connection managed by the caller
+     */
+    public static List<OutboxEntry> readPending(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(PENDING_SQL)) {
+            return read(resultSet);
+        }
+    }
+
+    private static List<OutboxEntry> read(ResultSet resultSet) throws SQLException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        while (resultSet.next()) {
+            long expenseId = resultSet.getLong(2);
+            entries.add(new OutboxEntry(
+                    resultSet.getLong(1),
+                    resultSet.wasNull() ? null : expenseId,
+                    BalanceLedgerEntry.Operation.valueOf(resultSet.getString(3)),
+                    resultSet.getObject(4, LocalDateTime.class),
+                    fromTripleArray(resultSet.getArray(5)),
+                    fromTripleArray(resultSet.getArray(6)),
+                    fromArray(resultSet.getArray(7))));
+        }
+        return entries;
+    }
+
+    // Flattens the deltas into (first key, second key, cents) triples
+    private static Array toArray(Connection connection, LongPairSumMap deltas) throws SQLException {
+        Long[] values = new Long[deltas.size() * 3];
+        int index = 0;
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot)) {
+                values[index++] = deltas.firstKey(slot);
+                values[index++] = deltas.secondKey(slot);
+                values[index++] = deltas.value(slot);
+            }
+        }
+        return connection.createArrayOf("bigint", values);
+    }
+
+    // Flattens the deltas into (first key, second key, currency key, cents) quadruples
+    private static Array toArray(Connection connection, LongTripleSumMap deltas) throws SQLException {
+        Long[] values = new Long[deltas.size() * 4];
+        int index = 0;
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot)) {
+                values[index++] = deltas.firstKey(slot);
+                values[index++] = deltas.secondKey(slot);
+                values[index++] = deltas.thirdKey(slot);
+                values[index++] = deltas.value(slot);
+            }
+        }
+        return connection.createArrayOf("bigint", values);
+    }
+
+    private static LongTripleSumMap fromTripleArray(Array array) throws SQLException {
+        Long[] values = (Long[]) array.getArray();
+        LongTripleSumMap deltas = new LongTripleSumMap(Math.max(1, values.length / 4));
+        for (int index = 0; index < values.length; index += 4) {
+            deltas.add(values[index], values[index + 1], values[index + 2], values[index + 3]);
+        }
+        return deltas;
+    }
+
+    private static LongPairSumMap fromArray(Array array) throws SQLException {
+        Long[] values = (Long[]) array.getArray();
+        LongPairSumMap deltas = new LongPairSumMap(Math.max(1, values.length / 3));
+        for (int index = 0; index < values.length; index += 3) {
+            deltas.add(values[index], values[index + 1], values[index + 2]);
+        }
+        return deltas;
+    }
+
+    /**
+     * One pending balance change with its deltas in cents
+     */
+    public record OutboxEntry(long id, Long expenseId, BalanceLedgerEntry.Operation operation,
+            LocalDateTime effectiveAt, LongTripleSumMap friendDeltas, LongTripleSumMap groupDeltas,
+            LongPairSumMap currencyDeltas) {
+    }
+}
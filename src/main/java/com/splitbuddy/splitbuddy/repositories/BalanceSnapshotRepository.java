@@ -0,0 +1,17 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface BalanceSnapshotRepository extends JpaRepository<BalanceSnapshot, Long> {
+
+    // Most recent snapshot, the starting point for reading the ledger
+    Optional<BalanceSnapshot> findTopByOrderByIdDesc();
+
+    List<BalanceSnapshot> findAllByOrderByIdDesc();
+}
@@ -0,0 +1,107 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inserts expenses with their participants in JDBC batches.
+ *
+ * Ids are reserved in one query from the same pooled sequences the entities
+ * use: like Hibernate's pooled optimizer, each value v of a sequence that
+ * increments by n stands for the ids v - n + 1 to v, so both can hand out ids
+ * side by side. The rows are then sent {@code expense.batch.jdbc-batch-size}
+ * statements at a time. The entities are not attached to the persistence
+ * context.
+ */
+@Repository
+public class ExpenseJdbcRepository {
+
+    private static final String RESERVE_IDS_SQL = "SELECT nextval(?::regclass) FROM generate_series(1, ?)";
+
+    private static final String INCREMENT_SQL = "SELECT increment_by FROM pg_sequences " +
+            "WHERE schemaname = current_schema() AND sequencename = ?";
+
+    private static final String INSERT_EXPENSE_SQL = "INSERT INTO expenses (id, title, description, amount, " +
+            "currency, category, paid_at, created_at, updated_at, paid_by) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String INSERT_PARTICIPANT_SQL = "INSERT INTO expense_participants (id, expense_id, " +
+            "user_id, amount, source, source_id, is_active, is_paid, paid_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+    private final Map<String, Long> increments = new ConcurrentHashMap<>();
+
+    public ExpenseJdbcRepository(JdbcTemplate jdbcTemplate,
+            @Value("${expense.batch.jdbc-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Insert new expenses and their participants, setting their ids
+     */
+    public void insertAll(List<Expense> expenses) {
+        List<ExpenseParticipant> participants = new ArrayList<>();
+        expenses.forEach(expense -> participants.addAll(expense.getParticipants()));
+
+        List<Long> expenseIds = reserveIds("expenses_id_seq", expenses.size());
+        for (int i = 0; i < expenses.size(); i++) {
+            expenses.get(i).setId(expenseIds.get(i));
+        }
+        List<Long> participantIds = reserveIds("expense_participants_id_seq", participants.size());
+        for (int i = 0; i < participants.size(); i++) {
+            participants.get(i).setId(participantIds.get(i));
+        }
+
+        jdbcTemplate.batchUpdate(INSERT_EXPENSE_SQL, expenses, batchSize, (statement, expense) -> {
+            statement.setLong(1, expense.getId());
+            statement.setString(2, expense.getTitle());
+            statement.setString(3, expense.getDescription());
+            statement.setBigDecimal(4, expense.getAmount());
+            statement.setString(5, expense.getCurrency());
+            statement.setString(6, expense.getCategory());
+            statement.setObject(7, expense.getPaidAt());
+            statement.setObject(8, expense.getCreatedAt());
+            statement.setObject(9, expense.getUpdatedAt());
+            statement.setLong(10, expense.getPaidBy().getId());
+        });
+        jdbcTemplate.batchUpdate(INSERT_PARTICIPANT_SQL, participants, batchSize, (statement, participant) -> {
+            statement.setLong(1, participant.getId());
+            statement.setLong(2, participant.getExpense().getId());
+            statement.setLong(3, participant.getUser().getId());
+            statement.setBigDecimal(4, participant.getAmount());
+            statement.setString(5, participant.getSource().name());
+            statement.setObject(6, participant.getSourceId(), Types.BIGINT);
+            statement.setBoolean(7, participant.isActive());
+            statement.setBoolean(8, participant.isPaid());
+            statement.setTimestamp(9, participant.getPaidAt() != null ? Timestamp.from(participant.getPaidAt()) : null);
+        });
+    }
+
+    private List<Long> reserveIds(String sequence, int count) {
+        // Read once, as Hibernate sizes its blocks once at startup
+        long increment = increments.computeIfAbsent(sequence,
+                name -> jdbcTemplate.queryForObject(INCREMENT_SQL, Long.class, name));
+        List<Long> ids = new ArrayList<>(count);
+        while (ids.size() < count) {
+            long blocks = (count - ids.size() + increment - 1) / increment;
+            for (long value : jdbcTemplate.queryForList(RESERVE_IDS_SQL, Long.class, sequence, blocks)) {
+                // A fresh sequence starts at 1, which only stands for itself
+                for (long id = Math.max(1, value - increment + 1); id <= value && ids.size() < count; id++) {
+                    ids.add(id);
+                }
+            }
+        }
+        return ids;
+    }
+}
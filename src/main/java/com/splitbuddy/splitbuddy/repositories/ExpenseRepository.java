@@ -6,6 +6,8 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -14,11 +16,64 @@ public interface ExpenseRepository extends JpaRepository<Expense, Long> {
         // Find expenses where user is the payer
         List<Expense> findByPaidByIdOrderByCreatedAtDesc(Long paidById);
 
-        // Find expenses where user is a participant
-        @Query(value = "SELECT e.* FROM public.expenses e " +
-                        "JOIN public.expense_participants ep ON e.id = ep.expense_id " +
-                        "WHERE ep.user_id = :userId", nativeQuery = true)
-        List<Expense> findExpensesByParticipantId(@Param("userId") Long userId);
+        // Keyset pages: ids of up to :limit expenses before (:createdAt, :id),
+        // newest first; see ExpensePager
+
+        // Expenses where user is a participant
+        @Query(value = "SELECT e.id FROM expenses e " +
+                        "WHERE EXISTS (SELECT 1 FROM expense_participants ep " +
+                        "WHERE ep.expense_id = e.id AND ep.user_id = :userId) " +
+                        "AND (e.created_at, e.id) < (:createdAt, :id) " +
+                        "ORDER BY e.created_at DESC, e.id DESC LIMIT :limit", nativeQuery = true)
+        List<Long> findParticipantExpenseIdsBefore(@Param("userId") Long userId,
+                        @Param("createdAt") LocalDateTime createdAt, @Param("id") long id,
+                        @Param("limit") int limit);
+
+        // Expenses where any participant is from the group
+        @Query(value = "SELECT e.id FROM expenses e " +
+                        "WHERE EXISTS (SELECT 1 FROM expense_participants ep WHERE ep.expense_id = e.id " +
+                        "AND ep.source = 'GROUP' AND ep.source_id = :groupId) " +
+                        "AND (e.created_at, e.id) < (:createdAt, :id) " +
+                        "ORDER BY e.created_at DESC, e.id DESC LIMIT :limit", nativeQuery = true)
+        List<Long> findGroupExpenseIdsBefore(@Param("groupId") Long groupId,
+                        @Param("createdAt") LocalDateTime createdAt, @Param("id") long id,
+                        @Param("limit") int limit);
+
+        // Expenses shared between two users (regardless of source): both take
+        // part, or one paid and the other takes part. Each case reads at most
+        // one page from its own index before the pages are merged; a single
+        // OR of the cases would scan every expense.
+        @Query(value = "SELECT id FROM (" +
+                        "(SELECT e.id, e.created_at FROM expenses e " +
+                        "WHERE EXISTS (SELECT 1 FROM expense_participants ep " +
+                        "WHERE ep.expense_id = e.id AND ep.user_id = :userId1) " +
+                        "AND EXISTS (SELECT 1 FROM expense_participants ep " +
+                        "WHERE ep.expense_id = e.id AND ep.user_id = :userId2) " +
+                        "AND (e.created_at, e.id) < (:createdAt, :id) " +
+                        "ORDER BY e.created_at DESC, e.id DESC LIMIT :limit) " +
+                        "UNION (SELECT e.id, e.created_at FROM expenses e " +
+                        "WHERE e.paid_by = :userId1 AND EXISTS (SELECT 1 FROM expense_participants ep " +
+                        "WHERE ep.expense_id = e.id AND ep.user_id = :userId2) " +
+                        "AND (e.created_at, e.id) < (:createdAt, :id) " +
+                        "ORDER BY e.created_at DESC, e.id DESC LIMIT :limit) " +
+                        "UNION (SELECT e.id, e.created_at FROM expenses e " +
+                        "WHERE e.paid_by = :userId2 AND EXISTS (SELECT 1 FROM expense_participants ep " +
+                        "WHERE ep.expense_id = e.id AND ep.user_id = :userId1) " +
+                        "AND (e.created_at, e.id) < (:createdAt, :id) " +
+                        "ORDER BY e.created_at DESC, e.id DESC LIMIT :limit)" +
+                        ") e ORDER BY e.created_at DESC, e.id DESC LIMIT :limit", nativeQuery = true)
+        List<Long> findExpenseIdsBetweenFriendsBefore(@Param("userId1") Long userId1,
+                        @Param("userId2") Long userId2, @Param("createdAt") LocalDateTime createdAt,
+                        @Param("id") long id, @Param("limit") int limit);
+
+        // Expenses with their payer, participants and participant users, in
+        // one query
+        @Query("SELECT DISTINCT e FROM Expense e " +
+                        "JOIN FETCH e.paidBy " +
+                        "LEFT JOIN FETCH e.participants ep " +
+                        "LEFT JOIN FETCH ep.user " +
+                        "WHERE e.id IN :ids")
+        List<Expense> findWithParticipantsByIdIn(@Param("ids") Collection<Long> ids);
 
         // Find all expenses for a user (either as payer or participant)
         @Query("SELECT DISTINCT e FROM Expense e " +
@@ -27,30 +82,4 @@ public interface ExpenseRepository extends JpaRepository<Expense, Long> {
                         +
                         "ORDER BY e.createdAt DESC")
         List<Expense> findAllExpensesForUser(@Param("userId") Long userId);
-
-        // Find expenses by group (where any participant is from the group)
-        @Query("SELECT DISTINCT e FROM Expense e " +
-                        "JOIN e.participants ep " +
-                        "WHERE ep.source = 'GROUP' AND ep.sourceId = :groupId " +
-                        "ORDER BY e.createdAt DESC")
-        List<Expense> findExpensesByGroupId(@Param("groupId") Long groupId);
-
-        // Find expenses shared between two specific users (regardless of source)
-        // Find expenses shared between two specific users (regardless of source)
-        @Query("SELECT DISTINCT e FROM Expense e " +
-                        "WHERE " +
-                        "(e.paidBy.id = :userId1 OR EXISTS (SELECT ep FROM ExpenseParticipant ep WHERE ep.expense = e AND ep.user.id = :userId1)) "
-                        +
-                        "AND " +
-                        "(e.paidBy.id = :userId2 OR EXISTS (SELECT ep FROM ExpenseParticipant ep WHERE ep.expense = e AND ep.user.id = :userId2)) "
-                        +
-                        "ORDER BY e.createdAt DESC")
-        List<Expense> findExpensesBetweenFriends(@Param("userId1") Long userId1, @Param("userId2") Long userId2);
-
-        // Find all expenses for a specific group with detailed information
-        @Query("SELECT DISTINCT e FROM Expense e " +
-                        "JOIN e.participants ep " +
-                        "WHERE ep.source = 'GROUP' AND ep.sourceId = :groupId " +
-                        "ORDER BY e.createdAt DESC")
-        List<Expense> findAllExpensesForGroup(@Param("groupId") Long groupId);
 }
@@ -0,0 +1,37 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.FriendBalance;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Repository
+public interface FriendBalanceRepository extends JpaRepository<FriendBalance, FriendBalance.Key> {
+
+    // Find the balances between two specific friends from the first user's side, one per currency
+    @Query("SELECT fb FROM FriendBalance fb WHERE fb.ownerId = :userId AND fb.counterpartyId = :friendId " +
+            "ORDER BY fb.currency")
+    List<FriendBalance> findFriendBalances(@Param("userId") Long userId, @Param("friendId") Long friendId);
+
+    // Find all friend balances for a user, with the friend loaded
+    @Query("SELECT fb FROM FriendBalance fb JOIN FETCH fb.counterparty WHERE fb.ownerId = :userId")
+    List<FriendBalance> findAllFriendBalancesForUser(@Param("userId") Long userId);
+
+    // Get total balance for a user (sum of all friend balances, in all currencies)
+    @Query("SELECT COALESCE(SUM(fb.balance), 0) FROM FriendBalance fb WHERE fb.ownerId = :userId")
+    BigDecimal getTotalFriendBalanceForUser(@Param("userId") Long userId);
+
+    // Find all non-zero friend balances between a user and their counterparties,
+    // including balances between two counterparties (user1_id, user2_id, currency, balance)
+    @Query(value = "WITH circle AS (" +
+            "SELECT counterparty_id AS id FROM friend_balances WHERE owner_id = :userId " +
+            "UNION SELECT CAST(:userId AS BIGINT)) " +
+            "SELECT fb.owner_id, fb.counterparty_id, fb.currency, fb.balance FROM friend_balances fb " +
+            "WHERE fb.owner_id IN (SELECT id FROM circle) AND fb.counterparty_id IN (SELECT id FROM circle) " +
+            "AND fb.owner_id < fb.counterparty_id AND fb.balance <> 0", nativeQuery = true)
+    List<Object[]> findFriendBalanceCircleForUser(@Param("userId") Long userId);
+}
@@ -3,8 +3,11 @@ package com.splitbuddy.splitbuddy.repositories;
 import com.splitbuddy.splitbuddy.models.Friendship;
 import com.splitbuddy.splitbuddy.models.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -14,4 +17,8 @@ public interface FriendshipRepository extends JpaRepository<Friendship, Long> {
 
     boolean existsByUserAndFriend(User user, User friend);
 
+    // Find every friendship between two of the given users, in either direction
+    @Query("SELECT f FROM Friendship f WHERE f.user.id IN :userIds AND f.friend.id IN :userIds")
+    List<Friendship> findAllBetween(@Param("userIds") Collection<Long> userIds);
+
 }
@@ -0,0 +1,273 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.utility.LongPairSumMap;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.LIVE_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.STRIPES_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.WRITE_LOCK_KEY;
+
+/**
+ * Writes to user_balance_summary, which holds each user's net balance: the sum
+ * of their friend balances from their side plus their group balances, in all
+ * currencies.
+ *
+ * Incremental changes are applied as database-side increments right after the
+ * aggregate upserts, touching summary rows in user id order, so writers lock
+ * aggregate rows before summary rows and cannot deadlock. Rebuilds recompute
+ * the summaries of the users whose aggregates they replaced. Group balance
+ * stripes count towards the summaries like their aggregate rows.
+ *
+ * The same net balance split by expense currency lives in
+ * user_currency_balances, keyed by (user id, currency). Its deltas are applied
+ * right after the summaries, also in key order; rebuilds replace its rows
+ * with totals folded from the expenses.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserBalanceSummaryJdbcRepository {
+
+    private static final String COLUMNS = "user_id, total_owed, total_owes, net_balance, version, last_updated";
+
+    private static final String APPLY_DELTAS_SQL = "INSERT INTO user_balance_summary AS s (" + COLUMNS + ") " +
+            "SELECT d.user_id, greatest(sum(d.delta), 0), greatest(-sum(d.delta), 0), sum(d.delta), 1, now() FROM (" +
+            "SELECT v.user_id, v.delta FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) " +
+            "AS f(user1_id, user2_id, currency, delta) " +
+            "CROSS JOIN LATERAL (VALUES (f.user1_id, f.delta), (f.user2_id, -f.delta)) AS v(user_id, delta) " +
+            "UNION ALL SELECT g.user_id, g.delta FROM unnest(?::bigint[], ?::bigint[], ?::varchar[], ?::numeric[]) " +
+            "AS g(user_id, group_id, currency, delta)" +
+            ") AS d GROUP BY d.user_id HAVING sum(d.delta) <> 0 ORDER BY d.user_id " +
+            "ON CONFLICT (user_id) DO UPDATE SET " +
+            "total_owed = greatest(s.net_balance + EXCLUDED.net_balance, 0), " +
+            "total_owes = greatest(-(s.net_balance + EXCLUDED.net_balance), 0), " +
+            "net_balance = s.net_balance + EXCLUDED.net_balance, " +
+            "version = s.version + 1, last_updated = EXCLUDED.last_updated";
+
+    // Every user's net balance from balance_aggregates as rows of (user_id, net)
+    private static final String AGGREGATE_NET_SQL = "SELECT user_id, sum(balance) AS net FROM (" +
+            "SELECT user1_id AS user_id, balance FROM " + LIVE_TABLE + " WHERE balance_type = 'FRIEND_TO_FRIEND' " +
+            "UNION ALL SELECT user2_id, -balance FROM " + LIVE_TABLE + " WHERE balance_type = 'FRIEND_TO_FRIEND' " +
+            "UNION ALL SELECT user_id, balance FROM " + LIVE_TABLE + " WHERE balance_type = 'USER_TO_GROUP' " +
+            "UNION ALL SELECT user_id, balance FROM " + STRIPES_TABLE +
+            ") AS b GROUP BY user_id";
+
+    private static final String UPSERT_RECOMPUTED_SQL = "ON CONFLICT (user_id) DO UPDATE SET " +
+            "total_owed = EXCLUDED.total_owed, total_owes = EXCLUDED.total_owes, net_balance = EXCLUDED.net_balance, " +
+            "version = s.version + 1, last_updated = EXCLUDED.last_updated " +
+            "WHERE s.net_balance <> EXCLUDED.net_balance OR s.total_owed <> EXCLUDED.total_owed " +
+            "OR s.total_owes <> EXCLUDED.total_owes";
+
+    /** Recompute the summaries of the users in the bound bigint array */
+    private static final String REFRESH_USERS_SQL = "INSERT INTO user_balance_summary AS s (" + COLUMNS + ") " +
+            "SELECT u.id, greatest(t.net, 0), greatest(-t.net, 0), t.net, 1, now() " +
+            "FROM unnest(?::bigint[]) AS u(id) CROSS JOIN LATERAL (SELECT coalesce(sum(b.balance), 0) AS net FROM (" +
+            "SELECT balance FROM " + LIVE_TABLE + " WHERE balance_type = 'FRIEND_TO_FRIEND' AND user1_id = u.id " +
+            "UNION ALL SELECT -balance FROM " + LIVE_TABLE + " WHERE balance_type = 'FRIEND_TO_FRIEND' AND user2_id = u.id " +
+            "UNION ALL SELECT balance FROM " + LIVE_TABLE + " WHERE balance_type = 'USER_TO_GROUP' AND user_id = u.id " +
+            "UNION ALL SELECT balance FROM " + STRIPES_TABLE + " WHERE user_id = u.id" +
+            ") AS b) AS t ORDER BY u.id " + UPSERT_RECOMPUTED_SQL;
+
+    /** Recompute the summary of every user from balance_aggregates */
+    public static final String REFRESH_ALL_SQL = "INSERT INTO user_balance_summary AS s (" + COLUMNS + ") " +
+            "SELECT u.id, greatest(coalesce(t.net, 0), 0), greatest(-coalesce(t.net, 0), 0), coalesce(t.net, 0), 1, now() " +
+            "FROM users u LEFT JOIN (" + AGGREGATE_NET_SQL + ") AS t ON t.user_id = u.id ORDER BY u.id " +
+            UPSERT_RECOMPUTED_SQL;
+
+    private static final String MISMATCHED_USERS_SQL = "SELECT coalesce(s.user_id, t.user_id) " +
+            "FROM user_balance_summary s FULL JOIN (" + AGGREGATE_NET_SQL + ") AS t ON t.user_id = s.user_id " +
+            "WHERE coalesce(s.net_balance, 0) <> coalesce(t.net, 0) " +
+            "OR s.total_owed <> greatest(s.net_balance, 0) OR s.total_owes <> greatest(-s.net_balance, 0)";
+
+    private static final String ADD_CURRENCY_BALANCES_SQL = "INSERT INTO user_currency_balances AS c " +
+            "(user_id, currency, net_balance, last_updated) " +
+            "SELECT d.user_id, d.currency, d.delta, now() " +
+            "FROM unnest(?::bigint[], ?::varchar[], ?::numeric[]) AS d(user_id, currency, delta) " +
+            "WHERE d.delta <> 0 ORDER BY d.user_id, d.currency " +
+            "ON CONFLICT (user_id, currency) DO UPDATE " +
+            "SET net_balance = c.net_balance + EXCLUDED.net_balance, last_updated = EXCLUDED.last_updated";
+
+    private static final String DELETE_CURRENCY_BALANCES_SQL = "DELETE FROM user_currency_balances " +
+            "WHERE user_id = ANY(?::bigint[])";
+
+    // Amounts come back in cents so readers never build a BigDecimal per row
+    private static final String CURRENCY_BALANCES_SQL = "SELECT currency, (net_balance * 100)::bigint " +
+            "FROM user_currency_balances WHERE user_id = ? AND net_balance <> 0 ORDER BY currency";
+
+    private static final String ALL_CURRENCY_BALANCES_SQL = "SELECT user_id, currency, (net_balance * 100)::bigint " +
+            "FROM user_currency_balances";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Add the net effect of friend deltas keyed by (user1 id, user2 id, currency
+     * key) and group deltas keyed by (user id, group id, currency key) to the
+     * summaries of their users
+     */
+    public int applyDeltas(LongTripleSumMap friendDeltas, LongTripleSumMap groupDeltas) {
+        if (friendDeltas.isEmpty() && groupDeltas.isEmpty()) {
+            return 0;
+        }
+
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(APPLY_DELTAS_SQL)) {
+                BalanceAggregateJdbcRepository.bindDeltas(connection, statement, 1, friendDeltas);
+                BalanceAggregateJdbcRepository.bindDeltas(connection, statement, 5, groupDeltas);
+                return statement.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Add currency deltas keyed by (user id, currency key) to the users'
+     * per-currency balances
+     */
+    public int applyCurrencyDeltas(LongPairSumMap currencyDeltas) {
+        if (currencyDeltas.isEmpty()) {
+            return 0;
+        }
+
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection ->
+                addCurrencyBalances(connection, currencyDeltas));
+    }
+
+    /**
+     * Non-zero per-currency balances of a user, ordered by currency
+     */
+    public CurrencyBalances findCurrencyBalances(long userId) {
+        List<String> currencies = new ArrayList<>();
+        List<Long> cents = new ArrayList<>();
+        jdbcTemplate.query(CURRENCY_BALANCES_SQL, resultSet -> {
+            currencies.add(resultSet.getString(1));
+            cents.add(resultSet.getLong(2));
+        }, userId);
+
+        long[] currencyKeys = new long[currencies.size()];
+        long[] amounts = new long[currencies.size()];
+        for (int i = 0; i < amounts.length; i++) {
+            currencyKeys[i] = MoneyUtil.currencyKey(currencies.get(i));
+            amounts[i] = cents.get(i);
+        }
+        return new CurrencyBalances(currencyKeys, amounts);
+    }
+
+    /**
+     * Add currency deltas keyed by (user id, currency key) on a connection
+     * managed by the caller
+     */
+    public static int addCurrencyBalances(Connection connection, LongPairSumMap currencyDeltas) throws SQLException {
+        if (currencyDeltas.isEmpty()) {
+            return 0;
+        }
+
+        Long[] userIds = new Long[currencyDeltas.size()];
+        String[] currencies = new String[currencyDeltas.size()];
+        BigDecimal[] amounts = new BigDecimal[currencyDeltas.size()];
+        int row = 0;
+        for (int slot = 0; slot < currencyDeltas.capacity(); slot++) {
+            if (currencyDeltas.isUsed(slot)) {
+                userIds[row] = currencyDeltas.firstKey(slot);
+                currencies[row] = MoneyUtil.currencyCode(currencyDeltas.secondKey(slot));
+                amounts[row] = MoneyUtil.fromCents(currencyDeltas.value(slot));
+                row++;
+            }
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(ADD_CURRENCY_BALANCES_SQL)) {
+            statement.setArray(1, connection.createArrayOf("bigint", userIds));
+            statement.setArray(2, connection.createArrayOf("varchar", currencies));
+            statement.setArray(3, connection.createArrayOf("numeric", amounts));
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Replace the per-currency balances of {@code userIds} with {@code balances},
+     * keyed by (user id, currency key), on a connection managed by the caller
+     */
+    public static void replaceCurrencyBalances(Connection connection, Collection<Long> userIds,
+            LongPairSumMap balances) throws SQLException {
+        if (userIds.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(DELETE_CURRENCY_BALANCES_SQL)) {
+            statement.setArray(1, connection.createArrayOf("bigint", userIds.toArray(Long[]::new)));
+            statement.executeUpdate();
+        }
+        addCurrencyBalances(connection, balances);
+    }
+
+    /**
+     * Every per-currency balance keyed by (user id, currency key), read on a
+     * connection managed by the caller
+     */
+    public static LongPairSumMap readAllCurrencyBalances(Connection connection) throws SQLException {
+        LongPairSumMap balances = new LongPairSumMap();
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery(ALL_CURRENCY_BALANCES_SQL)) {
+            while (resultSet.next()) {
+                balances.add(resultSet.getLong(1), MoneyUtil.currencyKey(resultSet.getString(2)),
+                        resultSet.getLong(3));
+            }
+        }
+        return balances;
+    }
+
+    /**
+     * Users whose summary differs from the sums of their aggregates, read from
+     * one consistent snapshot
+     */
+    public List<Long> findMismatchedUserIds() {
+        return jdbcTemplate.queryForList(MISMATCHED_USERS_SQL, Long.class);
+    }
+
+    /**
+     * Recompute the summaries of {@code userIds} while writers are paused. Must
+     * run inside a transaction.
+     * @return the number of summaries changed
+     */
+    public int refreshUsers(Collection<Long> userIds) {
+        jdbcTemplate.queryForObject("SELECT 1 FROM (SELECT pg_advisory_xact_lock(?)) AS l", Integer.class, WRITE_LOCK_KEY);
+        return jdbcTemplate.execute((ConnectionCallback<Integer>) connection -> refreshUsers(connection, userIds));
+    }
+
+    /**
+     * Recompute the summaries of {@code userIds} on a connection managed by the caller
+     */
+    public static int refreshUsers(Connection connection, Collection<Long> userIds) throws SQLException {
+        if (userIds.isEmpty()) {
+            return 0;
+        }
+
+        try (PreparedStatement statement = connection.prepareStatement(REFRESH_USERS_SQL)) {
+            statement.setArray(1, connection.createArrayOf("bigint", userIds.toArray(Long[]::new)));
+            return statement.executeUpdate();
+        }
+    }
+
+    /**
+     * A user's balances per currency as parallel arrays of
+     * {@link MoneyUtil#currencyKey currency keys} and cents
+     */
+    public record CurrencyBalances(long[] currencyKeys, long[] cents) {
+
+        public int size() {
+            return cents.length;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.UserBalanceSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface UserBalanceSummaryRepository extends JpaRepository<UserBalanceSummary, Long> {
+
+    // Summary and user name in one primary-key lookup
+    @Query("SELECT s FROM UserBalanceSummary s JOIN FETCH s.user WHERE s.userId = :userId")
+    Optional<UserBalanceSummary> findWithUserByUserId(@Param("userId") Long userId);
+}
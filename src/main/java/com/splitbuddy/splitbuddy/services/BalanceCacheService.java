@@ -0,0 +1,178 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.splitbuddy.splitbuddy.dto.response.CurrencyBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.utility.TransactionHooks;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Per-user cache of the balance summary, friend balance, group balance and
+ * net balance responses.
+ *
+ * Each cache holds at most {@code balance.cache.maximum-size} users for
+ * {@code balance.cache.expire-after-write}. Balance changes evict the users
+ * they touched once their transaction commits; rebuilds evict everything.
+ * Evictions are also published through {@link CacheInvalidationBus} so other
+ * nodes drop the same users, and passed on to {@link BalanceReadStore}, which
+ * the friend and group balance responses are loaded from.
+ *
+ * Hit, miss and eviction counts are published as the {@code cache.*} meters
+ * tagged {@code cache=balance.summary}, {@code balance.friends},
+ * {@code balance.groups} and {@code balance.net}.
+ */
+@Service
+public class BalanceCacheService {
+
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final BalanceReadStore balanceReadStore;
+    private final Cache<Long, UserBalanceSummaryResponse> summaries;
+    private final Cache<Long, List<FriendBalanceResponse>> friendBalances;
+    private final Cache<Long, List<GroupBalanceResponse>> groupBalances;
+    private final Cache<Long, List<NetBalanceResponse>> netBalances;
+
+    // Bumped on every eviction so a response read concurrently with a balance
+    // change is not cached
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BalanceCacheService(CacheInvalidationBus cacheInvalidationBus, BalanceReadStore balanceReadStore,
+            MeterRegistry meterRegistry,
+            @Value("${balance.cache.maximum-size:10000}") long maximumSize,
+            @Value("${balance.cache.expire-after-write:PT5M}") Duration expireAfterWrite) {
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.balanceReadStore = balanceReadStore;
+        this.summaries = monitored(meterRegistry, "balance.summary", maximumSize, expireAfterWrite);
+        this.friendBalances = monitored(meterRegistry, "balance.friends", maximumSize, expireAfterWrite);
+        this.groupBalances = monitored(meterRegistry, "balance.groups", maximumSize, expireAfterWrite);
+        this.netBalances = monitored(meterRegistry, "balance.net", maximumSize, expireAfterWrite);
+    }
+
+    /**
+     * The summary is mutable, so every caller gets its own copy of the cached one
+     */
+    public UserBalanceSummaryResponse getSummary(Long userId, Supplier<UserBalanceSummaryResponse> loader) {
+        return copyOf(get(summaries, userId, loader));
+    }
+
+    public List<FriendBalanceResponse> getFriendBalances(Long userId, Supplier<List<FriendBalanceResponse>> loader) {
+        return get(friendBalances, userId, () -> List.copyOf(loader.get()));
+    }
+
+    public List<GroupBalanceResponse> getGroupBalances(Long userId, Supplier<List<GroupBalanceResponse>> loader) {
+        return get(groupBalances, userId, () -> List.copyOf(loader.get()));
+    }
+
+    public List<NetBalanceResponse> getNetBalances(Long userId, Supplier<List<NetBalanceResponse>> loader) {
+        return get(netBalances, userId, () -> List.copyOf(loader.get()));
+    }
+
+    /**
+     * Evict the cached responses of the given users once the current
+     * transaction commits
+     */
+    public void evictUsers(Collection<Long> userIds) {
+        if (userIds.isEmpty()) {
+            return;
+        }
+
+        cacheInvalidationBus.publishUsers(userIds);
+        TransactionHooks.afterCommit(() -> evictLocally(userIds));
+    }
+
+    /**
+     * Evict every cached summary on this node only, for changes every node
+     * picks up by itself such as new FX rates
+     */
+    public void evictSummaries() {
+        evictions.incrementAndGet();
+        summaries.invalidateAll();
+    }
+
+    @EventListener
+    public void onCacheInvalidation(CacheInvalidationEvent event) {
+        if (event.isAll()) {
+            evictAllLocally();
+        } else if (!event.getUserIds().isEmpty()) {
+            evictLocally(event.getUserIds());
+        }
+    }
+
+    private void evictLocally(Collection<Long> userIds) {
+        balanceReadStore.evictUsers(userIds);
+        evictions.incrementAndGet();
+        summaries.invalidateAll(userIds);
+        friendBalances.invalidateAll(userIds);
+        groupBalances.invalidateAll(userIds);
+        netBalances.invalidateAll(userIds);
+    }
+
+    private void evictAllLocally() {
+        balanceReadStore.evictAll();
+        evictions.incrementAndGet();
+        summaries.invalidateAll();
+        friendBalances.invalidateAll();
+        groupBalances.invalidateAll();
+        netBalances.invalidateAll();
+    }
+
+    private <T> T get(Cache<Long, T> cache, Long userId, Supplier<T> loader) {
+        T cached = cache.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long evictionsBefore = evictions.get();
+        T value = loader.get();
+        // Checked under the entry's lock, which an eviction of the user also
+        // takes after bumping the counter
+        cache.asMap().compute(userId, (id, current) -> evictions.get() == evictionsBefore ? value : current);
+        return value;
+    }
+
+    private static UserBalanceSummaryResponse copyOf(UserBalanceSummaryResponse summary) {
+        UserBalanceSummaryResponse copy = new UserBalanceSummaryResponse();
+        copy.setUserId(summary.getUserId());
+        copy.setUserName(summary.getUserName());
+        copy.setTotalOwed(summary.getTotalOwed());
+        copy.setTotalOwes(summary.getTotalOwes());
+        copy.setNetBalance(summary.getNetBalance());
+        copy.setBaseCurrency(summary.getBaseCurrency());
+        copy.setConvertedNetBalance(summary.getConvertedNetBalance());
+        if (summary.getCurrencyBalances() != null) {
+            copy.setCurrencyBalances(summary.getCurrencyBalances().stream()
+                    .map(balance -> {
+                        CurrencyBalanceResponse currencyBalance = new CurrencyBalanceResponse();
+                        currencyBalance.setCurrency(balance.getCurrency());
+                        currencyBalance.setNetBalance(balance.getNetBalance());
+                        return currencyBalance;
+                    })
+                    .collect(Collectors.toList()));
+        }
+        return copy;
+    }
+
+    private static <T> Cache<Long, T> monitored(MeterRegistry meterRegistry, String name, long maximumSize,
+            Duration expireAfterWrite) {
+        Cache<Long, T> cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+    }
+}
@@ -0,0 +1,19 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.BalanceLedgerEntry;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository.OutboxEntry;
+
+import java.time.LocalDateTime;
+
+/**
+ * Deltas of one expense change that take effect at the same time, with what
+ * the ledger records them as
+ */
+record BalanceChange(Long expenseId, BalanceLedgerEntry.Operation operation, LocalDateTime effectiveAt,
+        BalanceDeltas deltas) {
+
+    static BalanceChange of(OutboxEntry entry) {
+        return new BalanceChange(entry.expenseId(), entry.operation(), entry.effectiveAt(),
+                new BalanceDeltas(entry.friendDeltas(), entry.groupDeltas(), entry.currencyDeltas()));
+    }
+}
@@ -0,0 +1,192 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.utility.LongPairSumMap;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+
+/**
+ * Balance changes folded in memory, in cents, before they are written.
+ *
+ * Friend deltas are keyed by the canonical pair (smaller user id, larger user
+ * id) and the {@link MoneyUtil#currencyKey} of the expense currency; a positive
+ * value means user2 owes user1 more. Group deltas are keyed by (user id, group
+ * id, currency key); a positive value means the group owes the user more.
+ * Currency deltas are keyed by (user id, currency key) and hold the change of
+ * each user's net balance in the expense currencies.
+ */
+class BalanceDeltas {
+
+    private final LongTripleSumMap friendDeltas;
+    private final LongTripleSumMap groupDeltas;
+    private final LongPairSumMap currencyDeltas;
+
+    BalanceDeltas() {
+        this(16);
+    }
+
+    BalanceDeltas(int expectedSize) {
+        friendDeltas = new LongTripleSumMap(expectedSize);
+        groupDeltas = new LongTripleSumMap(expectedSize);
+        currencyDeltas = new LongPairSumMap(expectedSize);
+    }
+
+    BalanceDeltas(LongTripleSumMap friendDeltas, LongTripleSumMap groupDeltas, LongPairSumMap currencyDeltas) {
+        this.friendDeltas = friendDeltas;
+        this.groupDeltas = groupDeltas;
+        this.currencyDeltas = currencyDeltas;
+    }
+
+    /**
+     * Deltas that creating {@code expense} applies to the aggregates
+     */
+    static BalanceDeltas forExpense(Expense expense) {
+        BalanceDeltas deltas = new BalanceDeltas(expense.getParticipants().size());
+        deltas.addExpense(expense, 1);
+        return deltas;
+    }
+
+    /**
+     * Fold the effect of an expense in, multiplied by {@code sign} (1 to apply,
+     * -1 to reverse). Participants already marked as paid contribute nothing,
+     * matching what {@link #addPayment} did when they were marked.
+     */
+    void addExpense(Expense expense, int sign) {
+        addShares(expense, sign);
+        for (ExpenseParticipant participant : expense.getParticipants()) {
+            if (participant.isPaid()) {
+                addPayment(expense, participant, sign);
+            }
+        }
+    }
+
+    /**
+     * Fold in every share of an expense as if none had been paid yet
+     */
+    void addShares(Expense expense, int sign) {
+        long payerId = expense.getPaidBy().getId();
+        long currencyKey = MoneyUtil.currencyKey(expense.getCurrency());
+        long amount = sign * MoneyUtil.toCents(expense.getAmount());
+
+        for (ExpenseParticipant participant : expense.getParticipants()) {
+            long participantId = participant.getUser().getId();
+            long share = sign * MoneyUtil.toCents(participant.getAmount());
+
+            if (participant.getSource() == ExpenseParticipant.ParticipantSource.GROUP
+                    && participantId == payerId) {
+                // Payer covered everyone else's share in the group
+                addGroupCredit(participantId, participant.getSourceId(), amount - share, currencyKey);
+            }
+            if (participantId == payerId) {
+                continue;
+            }
+
+            // Participant owes the payer their share until it is paid
+            addFriendDebt(payerId, participantId, share, currencyKey);
+            if (participant.getSource() == ExpenseParticipant.ParticipantSource.GROUP) {
+                addGroupCredit(participantId, participant.getSourceId(), -share, currencyKey);
+            }
+        }
+    }
+
+    /**
+     * Fold in a participant settling their share ({@code sign} 1) or the
+     * settlement being undone ({@code sign} -1)
+     */
+    void addPayment(Expense expense, ExpenseParticipant participant, int sign) {
+        long payerId = expense.getPaidBy().getId();
+        long participantId = participant.getUser().getId();
+        if (participantId == payerId) {
+            return;
+        }
+
+        long currencyKey = MoneyUtil.currencyKey(expense.getCurrency());
+        long share = sign * MoneyUtil.toCents(participant.getAmount());
+        addFriendDebt(payerId, participantId, -share, currencyKey);
+
+        if (participant.getSource() == ExpenseParticipant.ParticipantSource.GROUP && participant.getSourceId() != null) {
+            Long groupId = participant.getSourceId();
+            // Participant no longer owes the group their share
+            addGroupCredit(participantId, groupId, share, currencyKey);
+            // Payer is owed less by the group, if they take part in it
+            if (isGroupParticipant(expense, payerId, groupId)) {
+                addGroupCredit(payerId, groupId, -share, currencyKey);
+            }
+        }
+    }
+
+    /**
+     * Record that {@code debtorId} owes {@code creditorId} {@code cents} more
+     */
+    void addFriendDebt(long creditorId, long debtorId, long cents, long currencyKey) {
+        if (creditorId < debtorId) {
+            friendDeltas.add(creditorId, debtorId, currencyKey, cents);
+        } else {
+            friendDeltas.add(debtorId, creditorId, currencyKey, -cents);
+        }
+        currencyDeltas.add(creditorId, currencyKey, cents);
+        currencyDeltas.add(debtorId, currencyKey, -cents);
+    }
+
+    /**
+     * Record that the group owes {@code userId} {@code cents} more
+     */
+    void addGroupCredit(long userId, long groupId, long cents, long currencyKey) {
+        groupDeltas.add(userId, groupId, currencyKey, cents);
+        currencyDeltas.add(userId, currencyKey, cents);
+    }
+
+    private static boolean isGroupParticipant(Expense expense, long userId, Long groupId) {
+        return expense.getParticipants().stream()
+                .anyMatch(ep -> ep.getSource() == ExpenseParticipant.ParticipantSource.GROUP
+                        && groupId.equals(ep.getSourceId())
+                        && ep.getUser().getId() == userId);
+    }
+
+    /** Add every delta of {@code other} into this one. */
+    void addAll(BalanceDeltas other) {
+        friendDeltas.addAll(other.friendDeltas);
+        groupDeltas.addAll(other.groupDeltas);
+        currencyDeltas.addAll(other.currencyDeltas);
+    }
+
+    /** Subtract every delta of {@code other} from this one. */
+    void subtractAll(BalanceDeltas other) {
+        subtract(friendDeltas, other.friendDeltas);
+        subtract(groupDeltas, other.groupDeltas);
+        subtract(currencyDeltas, other.currencyDeltas);
+    }
+
+    private static void subtract(LongTripleSumMap deltas, LongTripleSumMap other) {
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.isUsed(slot)) {
+                deltas.add(other.firstKey(slot), other.secondKey(slot), other.thirdKey(slot), -other.value(slot));
+            }
+        }
+    }
+
+    private static void subtract(LongPairSumMap deltas, LongPairSumMap other) {
+        for (int slot = 0; slot < other.capacity(); slot++) {
+            if (other.isUsed(slot)) {
+                deltas.add(other.firstKey(slot), other.secondKey(slot), -other.value(slot));
+            }
+        }
+    }
+
+    LongTripleSumMap friendDeltas() {
+        return friendDeltas;
+    }
+
+    LongTripleSumMap groupDeltas() {
+        return groupDeltas;
+    }
+
+    LongPairSumMap currencyDeltas() {
+        return currencyDeltas;
+    }
+
+    boolean isEmpty() {
+        return friendDeltas.isEmpty() && groupDeltas.isEmpty();
+    }
+}
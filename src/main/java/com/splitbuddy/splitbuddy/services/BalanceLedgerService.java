@@ -0,0 +1,310 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.BalanceCheckpoint;
+import com.splitbuddy.splitbuddy.models.BalanceLedgerEntry;
+import com.splitbuddy.splitbuddy.models.BalanceSnapshot;
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceCheckpointRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceLedgerJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceSnapshotRepository;
+import com.splitbuddy.splitbuddy.repositories.ExpenseRepository;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshots and reads of the append-only balance ledger.
+ *
+ * Every balance change is appended to balance_ledger. A snapshot compacts the
+ * previous snapshot and the ledger rows written since into one entry per key,
+ * so a balance can be recomputed from one snapshot entry plus a short ledger
+ * tail instead of replaying expenses.
+ *
+ * Monthly checkpoints do the same along the effective time of the changes, so
+ * a balance as of any date is one checkpoint entry plus the ledger rows of
+ * less than a month.
+ *
+ * Balances from before the ledger existed only take effect when they were
+ * carried over, until {@link #backfillOpeningBalances} dates the changes of
+ * the expenses behind them. It runs at startup and before every rebuild from
+ * the ledger.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class BalanceLedgerService {
+
+    private final BalanceLedgerJdbcRepository balanceLedgerJdbcRepository;
+    private final BalanceSnapshotRepository balanceSnapshotRepository;
+    private final BalanceCheckpointRepository balanceCheckpointRepository;
+    private final BalanceAggregateJdbcRepository balanceAggregateJdbcRepository;
+    private final ExpenseRepository expenseRepository;
+    private final CacheInvalidationBus cacheInvalidationBus;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${balance.ledger.snapshots-retained:3}")
+    private int snapshotsRetained;
+
+    @Value("${balance.ledger.backfill-chunk-size:500}")
+    private int backfillChunkSize;
+
+    @Scheduled(fixedDelayString = "${balance.ledger.snapshot-interval:PT1H}",
+            initialDelayString = "${balance.ledger.snapshot-interval:PT1H}")
+    public void createScheduledSnapshot() {
+        createSnapshot();
+    }
+
+    /**
+     * Compact the ledger written so far into a new snapshot and drop snapshots
+     * beyond the retention count
+     * @return the new snapshot, or the latest one if the ledger has not grown
+     */
+    public BalanceSnapshot createSnapshot() {
+        // Pause writers only long enough to fix the high-water mark
+        long highWaterMark = transactionTemplate.execute(status -> balanceLedgerJdbcRepository
+                .lockWritersAndGetHighWaterMark());
+
+        return transactionTemplate.execute(status -> {
+            BalanceSnapshot previous = balanceSnapshotRepository.findTopByOrderByIdDesc().orElse(null);
+            long previousId = previous == null ? 0 : previous.getId();
+            long previousHighWaterMark = previous == null ? 0 : previous.getLedgerHighWaterMark();
+            if (previous != null && previousHighWaterMark >= highWaterMark) {
+                return previous;
+            }
+
+            BalanceSnapshot snapshot = new BalanceSnapshot();
+            snapshot.setLedgerHighWaterMark(highWaterMark);
+            snapshot = balanceSnapshotRepository.saveAndFlush(snapshot);
+            int entryCount = balanceLedgerJdbcRepository.compact(snapshot.getId(), previousId,
+                    previousHighWaterMark, highWaterMark);
+            snapshot.setEntryCount(entryCount);
+
+            List<BalanceSnapshot> expired = balanceSnapshotRepository.findAllByOrderByIdDesc().stream()
+                    .skip(Math.max(1, snapshotsRetained))
+                    .toList();
+            if (!expired.isEmpty()) {
+                balanceLedgerJdbcRepository.deleteSnapshotEntries(
+                        expired.stream().map(BalanceSnapshot::getId).toList());
+                balanceSnapshotRepository.deleteAll(expired);
+            }
+
+            log.info("Created balance snapshot {} with {} entries up to ledger ID {}",
+                    snapshot.getId(), entryCount, highWaterMark);
+            return snapshot;
+        });
+    }
+
+    @Scheduled(cron = "${balance.ledger.checkpoint-cron:0 15 0 * * *}")
+    public void createScheduledCheckpoints() {
+        createMissingCheckpoints();
+    }
+
+    /**
+     * Create a checkpoint for every month start up to the current one that
+     * does not have one yet, beginning after the latest checkpoint or the
+     * month of the earliest ledger row
+     * @return the checkpoints created, oldest first
+     */
+    public List<BalanceCheckpoint> createMissingCheckpoints() {
+        long highWaterMark = transactionTemplate.execute(status -> balanceLedgerJdbcRepository
+                .lockWritersAndGetHighWaterMark());
+
+        BalanceCheckpoint previous = balanceCheckpointRepository.findTopByOrderByPeriodEndDesc().orElse(null);
+        LocalDateTime periodEnd;
+        if (previous != null) {
+            periodEnd = previous.getPeriodEnd().plusMonths(1);
+        } else {
+            LocalDateTime earliest = balanceLedgerJdbcRepository.findEarliestEffectiveAt();
+            if (earliest == null) {
+                return List.of();
+            }
+            periodEnd = startOfMonth(earliest).plusMonths(1);
+        }
+
+        LocalDateTime currentMonth = startOfMonth(LocalDateTime.now());
+        List<BalanceCheckpoint> created = new ArrayList<>();
+        for (; !periodEnd.isAfter(currentMonth); periodEnd = periodEnd.plusMonths(1)) {
+            previous = createCheckpoint(previous, periodEnd, highWaterMark);
+            created.add(previous);
+        }
+        return created;
+    }
+
+    private BalanceCheckpoint createCheckpoint(BalanceCheckpoint previous, LocalDateTime periodEnd,
+            long highWaterMark) {
+        return transactionTemplate.execute(status -> {
+            BalanceCheckpoint checkpoint = new BalanceCheckpoint();
+            checkpoint.setPeriodEnd(periodEnd);
+            checkpoint.setLedgerHighWaterMark(highWaterMark);
+            checkpoint = balanceCheckpointRepository.saveAndFlush(checkpoint);
+            int entryCount = previous == null
+                    ? balanceLedgerJdbcRepository.writeCheckpoint(checkpoint.getId(), 0, periodEnd, 0,
+                            periodEnd, highWaterMark)
+                    : balanceLedgerJdbcRepository.writeCheckpoint(checkpoint.getId(), previous.getId(),
+                            previous.getPeriodEnd(), previous.getLedgerHighWaterMark(), periodEnd, highWaterMark);
+            checkpoint.setEntryCount(entryCount);
+
+            log.info("Created balance checkpoint for {} with {} entries up to ledger ID {}",
+                    periodEnd, entryCount, highWaterMark);
+            return checkpoint;
+        });
+    }
+
+    /**
+     * Friend balances by currency as of {@code asOf}, inclusive, from the
+     * user's perspective. Positive means the friend owes the user.
+     */
+    public Map<String, BigDecimal> getFriendBalanceAsOf(Long userId, Long friendId, LocalDateTime asOf) {
+        Map<String, BigDecimal> balances = balanceLedgerJdbcRepository.findFriendBalanceAsOf(
+                Math.min(userId, friendId), Math.max(userId, friendId), findCheckpoint(asOf), asOf);
+        return fromUserSide(balances, userId, friendId);
+    }
+
+    /**
+     * Group balances by currency as of {@code asOf}, inclusive. Positive means
+     * the group owes the user.
+     */
+    public Map<String, BigDecimal> getGroupBalanceAsOf(Long userId, Long groupId, LocalDateTime asOf) {
+        return balanceLedgerJdbcRepository.findGroupBalanceAsOf(userId, groupId, findCheckpoint(asOf), asOf);
+    }
+
+    private BalanceCheckpoint findCheckpoint(LocalDateTime asOf) {
+        return balanceCheckpointRepository.findTopByPeriodEndLessThanEqualOrderByPeriodEndDesc(asOf).orElse(null);
+    }
+
+    private static LocalDateTime startOfMonth(LocalDateTime time) {
+        return time.toLocalDate().withDayOfMonth(1).atStartOfDay();
+    }
+
+    /**
+     * Friend balances by currency recorded in the ledger, from the user's
+     * perspective. Positive means the friend owes the user.
+     */
+    public Map<String, BigDecimal> getFriendBalance(Long userId, Long friendId) {
+        Map<String, BigDecimal> balances = balanceLedgerJdbcRepository.findFriendBalance(
+                Math.min(userId, friendId), Math.max(userId, friendId));
+        return fromUserSide(balances, userId, friendId);
+    }
+
+    /**
+     * Group balances by currency recorded in the ledger. Positive means the
+     * group owes the user.
+     */
+    public Map<String, BigDecimal> getGroupBalance(Long userId, Long groupId) {
+        return balanceLedgerJdbcRepository.findGroupBalance(userId, groupId);
+    }
+
+    // Ledger keys hold friend balances from the side of the smaller user id
+    private static Map<String, BigDecimal> fromUserSide(Map<String, BigDecimal> balances, Long userId, Long friendId) {
+        if (userId > friendId) {
+            balances.replaceAll((currency, balance) -> balance.negate());
+        }
+        return balances;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillOnStartup() {
+        backfillOpeningBalances();
+    }
+
+    /**
+     * Record the changes behind the opening balances at the times they took
+     * effect, so balances as of dates before the ledger existed are no longer
+     * zero.
+     *
+     * Each expense created before then gets BACKFILL rows for its shares at
+     * its paidAt and its paid shares at their paidAt, the rules of
+     * {@link BalanceDeltas}, less the rows recorded since for its later
+     * changes: an expense updated or deleted since is backfilled as it was,
+     * and payments marked since are not counted twice. OPENING_BALANCE rows
+     * at the time of the opening balances take the same amounts off again, so
+     * balances from then on, snapshots and checkpoints stay as they are.
+     * Expenses already backfilled are skipped. Writers are paused meanwhile.
+     * @return the number of expenses backfilled
+     */
+    public int backfillOpeningBalances() {
+        int backfilled = transactionTemplate.execute(status -> {
+            balanceLedgerJdbcRepository.lockWritersAndGetHighWaterMark();
+            LocalDateTime openedAt = balanceLedgerJdbcRepository.findOpeningTime();
+            if (openedAt == null) {
+                return 0;
+            }
+
+            List<Long> expenseIds = balanceLedgerJdbcRepository.findPreLedgerExpenseIds(openedAt);
+            BalanceDeltas offsets = new BalanceDeltas();
+            for (int from = 0; from < expenseIds.size(); from += backfillChunkSize) {
+                backfill(expenseIds.subList(from, Math.min(from + backfillChunkSize, expenseIds.size())), offsets);
+            }
+            balanceAggregateJdbcRepository.appendLedger(offsets.friendDeltas(), offsets.groupDeltas(), null,
+                    BalanceLedgerEntry.Operation.OPENING_BALANCE, openedAt);
+            return expenseIds.size();
+        });
+        if (backfilled > 0) {
+            log.info("Backfilled the ledger changes of {} expenses from before the ledger", backfilled);
+        }
+        return backfilled;
+    }
+
+    // Appends the BACKFILL rows of the expenses and takes them off the offsets
+    private void backfill(List<Long> expenseIds, BalanceDeltas offsets) {
+        Map<Long, Map<LocalDateTime, BalanceDeltas>> changes = new TreeMap<>();
+        for (Expense expense : expenseRepository.findWithParticipantsByIdIn(expenseIds)) {
+            Map<LocalDateTime, BalanceDeltas> expenseChanges = changes.computeIfAbsent(expense.getId(),
+                    id -> new TreeMap<>());
+            changesAt(expenseChanges, expense.getPaidAt()).addShares(expense, 1);
+            for (ExpenseParticipant participant : expense.getParticipants()) {
+                if (participant.isPaid()) {
+                    changesAt(expenseChanges, BalanceService.effectiveTime(participant.getPaidAt(), expense))
+                            .addPayment(expense, participant, 1);
+                }
+            }
+        }
+        for (BalanceLedgerJdbcRepository.ExpenseChange change : balanceLedgerJdbcRepository
+                .findExpenseChanges(expenseIds)) {
+            BalanceDeltas deltas = changesAt(changes.computeIfAbsent(change.expenseId(), id -> new TreeMap<>()),
+                    change.effectiveAt());
+            (change.friend() ? deltas.friendDeltas() : deltas.groupDeltas()).add(change.first(), change.second(),
+                    MoneyUtil.currencyKey(change.currency()), -MoneyUtil.toCents(change.delta()));
+        }
+
+        changes.forEach((expenseId, expenseChanges) -> expenseChanges.forEach((effectiveAt, deltas) -> {
+            balanceAggregateJdbcRepository.appendLedger(deltas.friendDeltas(), deltas.groupDeltas(), expenseId,
+                    BalanceLedgerEntry.Operation.BACKFILL, effectiveAt);
+            offsets.subtractAll(deltas);
+        }));
+    }
+
+    private static BalanceDeltas changesAt(Map<LocalDateTime, BalanceDeltas> changes, LocalDateTime effectiveAt) {
+        return changes.computeIfAbsent(effectiveAt, time -> new BalanceDeltas());
+    }
+
+    /**
+     * Replace every balance aggregate with the latest snapshot plus the ledger
+     * tail, in one transaction, after backfilling the opening balances
+     * @return the number of aggregates written
+     */
+    public int rebuildFromLedger() {
+        backfillOpeningBalances();
+        int aggregates = transactionTemplate.execute(status -> {
+            cacheInvalidationBus.evictAll();
+            return balanceLedgerJdbcRepository.replaceAggregatesWithRecordedState();
+        });
+        log.info("Rebuilt {} balance aggregates from the ledger", aggregates);
+        return aggregates;
+    }
+}
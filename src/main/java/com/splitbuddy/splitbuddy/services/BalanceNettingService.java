@@ -0,0 +1,96 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse.ContextBalance;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Nets a user's balances across the direct and group contexts into one
+ * settle-up amount per counterparty and currency.
+ *
+ * Every share owed between two users counts towards their FRIEND_TO_FRIEND
+ * aggregate whether the expense was direct or shared in a group, so the
+ * directional friend balance already is the net position and is kept up to
+ * date by each write. The response adds, per context, the unpaid shares
+ * behind it, which the USER_TO_GROUP aggregates cannot provide since they
+ * only hold each member's position against the whole group.
+ *
+ * Responses are cached per user in {@link BalanceCacheService} and evicted
+ * with the user's other balances, so only the users a change touched are
+ * recomputed.
+ */
+@Service
+@RequiredArgsConstructor
+public class BalanceNettingService {
+
+    // Unpaid shares between the user and each counterparty, positive when the
+    // counterparty owes the user, per currency; each branch follows one index
+    private static final String CONTEXT_BALANCES_SQL = "SELECT shares.counterparty_id, shares.source, " +
+            "shares.source_id, g.name, sum(shares.amount), shares.currency FROM (" +
+            "SELECT p.user_id AS counterparty_id, p.source, p.source_id, e.currency, p.amount " +
+            "FROM expenses e JOIN expense_participants p ON p.expense_id = e.id " +
+            "WHERE e.paid_by = ? AND p.user_id <> e.paid_by AND NOT p.is_paid " +
+            "UNION ALL SELECT e.paid_by, p.source, p.source_id, e.currency, -p.amount " +
+            "FROM expense_participants p JOIN expenses e ON e.id = p.expense_id " +
+            "WHERE p.user_id = ? AND e.paid_by <> p.user_id AND NOT p.is_paid) AS shares " +
+            "LEFT JOIN groups g ON shares.source = 'GROUP' AND g.id = shares.source_id " +
+            "GROUP BY shares.counterparty_id, shares.currency, shares.source, shares.source_id, g.name " +
+            "HAVING sum(shares.amount) <> 0 " +
+            "ORDER BY shares.counterparty_id, shares.currency, shares.source, shares.source_id";
+
+    private final BalanceCacheService balanceCacheService;
+    private final BalanceReadStore balanceReadStore;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Get one net amount per counterparty and currency the user has a balance
+     * or an unpaid share in, ordered by counterparty id and currency
+     */
+    public List<NetBalanceResponse> getNetBalances(Long userId) {
+        return balanceCacheService.getNetBalances(userId, () -> loadNetBalances(userId));
+    }
+
+    private List<NetBalanceResponse> loadNetBalances(Long userId) {
+        Map<Long, Map<String, List<ContextBalance>>> contexts = new HashMap<>();
+        jdbcTemplate.query(CONTEXT_BALANCES_SQL, (RowCallbackHandler) resultSet -> {
+            ContextBalance context = new ContextBalance();
+            context.setSource(ParticipantSource.valueOf(resultSet.getString(2)));
+            if (context.getSource() == ParticipantSource.GROUP) {
+                context.setGroupId(resultSet.getLong(3));
+                context.setGroupName(resultSet.getString(4));
+            }
+            context.setBalance(resultSet.getBigDecimal(5));
+            contexts.computeIfAbsent(resultSet.getLong(1), counterpartyId -> new HashMap<>())
+                    .computeIfAbsent(resultSet.getString(6), currency -> new ArrayList<>()).add(context);
+        }, userId, userId);
+
+        List<NetBalanceResponse> netBalances = new ArrayList<>();
+        for (FriendBalanceResponse friendBalance : balanceReadStore.getFriendBalances(userId)) {
+            List<ContextBalance> counterpartyContexts = contexts
+                    .getOrDefault(friendBalance.getFriendId(), Map.of())
+                    .getOrDefault(friendBalance.getCurrency(), List.of());
+            if (friendBalance.getBalance().signum() == 0 && counterpartyContexts.isEmpty()) {
+                continue;
+            }
+
+            NetBalanceResponse netBalance = new NetBalanceResponse();
+            netBalance.setCounterpartyId(friendBalance.getFriendId());
+            netBalance.setCounterpartyName(friendBalance.getFriendName());
+            netBalance.setNetBalance(friendBalance.getBalance());
+            netBalance.setCurrency(friendBalance.getCurrency());
+            netBalance.setContexts(counterpartyContexts);
+            netBalances.add(netBalance);
+        }
+        return netBalances;
+    }
+}
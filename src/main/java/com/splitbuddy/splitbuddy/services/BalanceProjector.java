@@ -0,0 +1,145 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.exceptions.BalancesNotCaughtUpException;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository.OutboxEntry;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Applies the balance changes queued in balance_outbox to the aggregates.
+ *
+ * With {@code balance.projection.outbox.enabled}, expense changes only append
+ * their deltas to the outbox, so their transactions no longer lock aggregate
+ * rows. Every {@code balance.projection.outbox.interval} the projector claims
+ * up to {@code balance.projection.outbox.batch-size} rows, folds them into one
+ * set of deltas so each pair, group and user is updated once per batch, and
+ * applies it, the ledger rows and the cache evictions the way synchronous
+ * writes do, deleting the rows in the same transaction. It keeps going until
+ * the outbox is empty. Rows left behind after switching the outbox off are
+ * still drained.
+ *
+ * The id of a change's last outbox row is its version, returned to the writer
+ * in the {@value #VERSION_HEADER} response header. Balance reads sending it
+ * back wait until every row up to it is projected, helping with the draining
+ * themselves, for at most {@code balance.projection.outbox.read-timeout}; after
+ * that they are answered 503 with a Retry-After header.
+ *
+ * {@code balance.projection.lag} reports the age in seconds of the oldest
+ * unprojected change as of the last drain, and {@code balance.projection.batch}
+ * times the batches.
+ */
+@Service
+@Slf4j
+public class BalanceProjector {
+
+    public static final String VERSION_HEADER = "X-Balance-Version";
+
+    // Readers that time out are asked to come back after this long
+    private static final long RETRY_AFTER_SECONDS = 1;
+
+    private final BalanceOutboxJdbcRepository balanceOutboxJdbcRepository;
+    private final BalanceService balanceService;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final Duration readTimeout;
+    private final Timer batchTimer;
+
+    // One drain at a time per node; readers waiting for a version take it too,
+    // so they never return while a local batch is still evicting caches
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private volatile double lagSeconds;
+
+    public BalanceProjector(BalanceOutboxJdbcRepository balanceOutboxJdbcRepository, BalanceService balanceService,
+            TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+            @Value("${balance.projection.outbox.batch-size:500}") int batchSize,
+            @Value("${balance.projection.outbox.read-timeout:PT5S}") Duration readTimeout) {
+        this.balanceOutboxJdbcRepository = balanceOutboxJdbcRepository;
+        this.balanceService = balanceService;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.readTimeout = readTimeout;
+        this.batchTimer = Timer.builder("balance.projection.batch")
+                .description("Time to project one batch of outbox rows")
+                .register(meterRegistry);
+        Gauge.builder("balance.projection.lag", this, projector -> projector.lagSeconds)
+                .description("Age in seconds of the oldest unprojected balance change")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${balance.projection.outbox.interval:PT0.2S}")
+    public void drainScheduled() {
+        drain();
+    }
+
+    /**
+     * Project batches until the outbox has no unclaimed rows left
+     * @return the number of rows projected
+     */
+    public int drain() {
+        drainLock.lock();
+        try {
+            int projected = 0;
+            int batch;
+            do {
+                batch = batchTimer.record(this::projectBatch);
+                projected += batch;
+            } while (batch == batchSize);
+            lagSeconds = balanceOutboxJdbcRepository.findLagSeconds();
+            if (projected > 0) {
+                log.debug("Projected {} balance changes", projected);
+            }
+            return projected;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * Return once every change up to {@code version} is visible to balance reads
+     * @throws BalancesNotCaughtUpException if that takes longer than the read timeout
+     */
+    public void awaitVersion(long version) {
+        long deadline = System.nanoTime() + readTimeout.toNanos();
+        while (true) {
+            drain();
+            if (!balanceOutboxJdbcRepository.isPending(version)) {
+                return;
+            }
+            if (System.nanoTime() - deadline > 0) {
+                throw new BalancesNotCaughtUpException("Balances have not caught up with version " + version + " yet",
+                        RETRY_AFTER_SECONDS);
+            }
+            // Another node is projecting the rest
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for balance version " + version, e);
+            }
+        }
+    }
+
+    private int projectBatch() {
+        return transactionTemplate.execute(status -> {
+            List<OutboxEntry> entries = balanceOutboxJdbcRepository.claim(batchSize);
+            if (entries.isEmpty()) {
+                return 0;
+            }
+            balanceService.applyChanges(entries.stream().map(BalanceChange::of).toList());
+            balanceOutboxJdbcRepository.delete(entries);
+            return entries.size();
+        });
+    }
+}
@@ -0,0 +1,407 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node-local read model of every user's friend and group balances.
+ *
+ * Each user's balances are held as one immutable slice of primitive arrays
+ * (counterparty or group ids, currency keys and balances in cents, sorted by
+ * id and currency) plus the names the responses need, so reads neither query the database nor allocate
+ * entities. All slices are loaded at startup by one streaming scan of a
+ * consistent snapshot.
+ *
+ * Balance changes drop the slices of the users they touched when
+ * {@link BalanceCacheService} evicts them, on this node or another one, and
+ * the next read reloads that user alone. Applying the deltas in place instead
+ * could count a change twice when a reload raced with its commit. Rebuilds drop
+ * everything and start a new full load.
+ *
+ * Publishes {@code balance.read-store.users}, {@code .entries} and an
+ * estimate of the heap the slices use in {@code .memory}, and times full loads
+ * in {@code balance.read-store.load}.
+ */
+@Service
+@Slf4j
+public class BalanceReadStore {
+
+    private static final String FRIEND_ROWS_SELECT = "SELECT fb.owner_id, fb.counterparty_id, u.name, fb.currency, " +
+            "fb.balance " +
+            "FROM friend_balances fb JOIN users u ON u.id = fb.counterparty_id ";
+
+    private static final String GROUP_ROWS_SELECT = "SELECT ba.user_id, ba.group_id, g.name, ba.currency, " +
+            "ba.balance + coalesce((SELECT sum(s.balance) FROM balance_aggregate_stripes s " +
+            "WHERE s.user_id = ba.user_id AND s.group_id = ba.group_id AND s.currency = ba.currency), 0) " +
+            "FROM balance_aggregates ba JOIN groups g ON g.id = ba.group_id " +
+            "WHERE ba.balance_type = 'USER_TO_GROUP' ";
+
+    private static final String ALL_FRIEND_ROWS_SQL = FRIEND_ROWS_SELECT +
+            "ORDER BY fb.owner_id, fb.counterparty_id, fb.currency";
+
+    private static final String ALL_GROUP_ROWS_SQL = GROUP_ROWS_SELECT +
+            "ORDER BY ba.user_id, ba.group_id, ba.currency";
+
+    private static final String USER_FRIEND_ROWS_SQL = FRIEND_ROWS_SELECT +
+            "WHERE fb.owner_id = ? ORDER BY fb.counterparty_id, fb.currency";
+
+    private static final String USER_GROUP_ROWS_SQL = GROUP_ROWS_SELECT +
+            "AND ba.user_id = ? ORDER BY ba.group_id, ba.currency";
+
+    private final DataSource dataSource;
+    private final RequestCoalescer requestCoalescer;
+    private final int fetchSize;
+    private final Timer loadTimer;
+
+    // Writes to slices, entries and bytes hold the store's lock
+    private final Map<Long, Slice> slices = new ConcurrentHashMap<>();
+    private volatile long entries;
+    private volatile long bytes;
+    private long evictions;
+
+    // Users evicted while a full load runs, which it must not install
+    private Set<Long> evictedDuringLoad;
+    private boolean loadInvalidated;
+    private boolean loading;
+
+    public BalanceReadStore(DataSource dataSource, RequestCoalescer requestCoalescer, MeterRegistry meterRegistry,
+            @Value("${balance.read-store.fetch-size:5000}") int fetchSize) {
+        this.dataSource = dataSource;
+        this.requestCoalescer = requestCoalescer;
+        this.fetchSize = fetchSize;
+        this.loadTimer = Timer.builder("balance.read-store.load")
+                .description("Time to load every user's balances into the read store")
+                .register(meterRegistry);
+        Gauge.builder("balance.read-store.users", slices, Map::size)
+                .description("Users whose balances are in the read store")
+                .register(meterRegistry);
+        Gauge.builder("balance.read-store.entries", this, store -> store.entries)
+                .description("Friend and group balances in the read store")
+                .register(meterRegistry);
+        Gauge.builder("balance.read-store.memory", this, store -> store.bytes)
+                .description("Estimated heap used by the read store slices")
+                .baseUnit(BaseUnits.BYTES)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Friend balances of a user from the user's side, one per currency,
+     * ordered by friend id and currency
+     */
+    public List<FriendBalanceResponse> getFriendBalances(Long userId) {
+        Slice slice = sliceOf(userId);
+        List<FriendBalanceResponse> responses = new ArrayList<>(slice.friendIds.length);
+        for (int i = 0; i < slice.friendIds.length; i++) {
+            FriendBalanceResponse response = new FriendBalanceResponse();
+            response.setFriendId(slice.friendIds[i]);
+            response.setFriendName(slice.friendNames[i]);
+            response.setBalance(MoneyUtil.fromCents(slice.friendCents[i]));
+            response.setCurrency(MoneyUtil.currencyCode(slice.friendCurrencies[i]));
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /**
+     * Group balances of a user, one per currency, ordered by group id and
+     * currency
+     */
+    public List<GroupBalanceResponse> getGroupBalances(Long userId) {
+        Slice slice = sliceOf(userId);
+        List<GroupBalanceResponse> responses = new ArrayList<>(slice.groupIds.length);
+        for (int i = 0; i < slice.groupIds.length; i++) {
+            GroupBalanceResponse response = new GroupBalanceResponse();
+            response.setGroupId(slice.groupIds[i]);
+            response.setGroupName(slice.groupNames[i]);
+            response.setBalance(MoneyUtil.fromCents(slice.groupCents[i]));
+            response.setCurrency(MoneyUtil.currencyCode(slice.groupCurrencies[i]));
+            responses.add(response);
+        }
+        return responses;
+    }
+
+    /**
+     * Drop the balances of these users; their next read reloads them
+     */
+    public synchronized void evictUsers(Collection<Long> userIds) {
+        evictions++;
+        if (evictedDuringLoad != null) {
+            evictedDuringLoad.addAll(userIds);
+        }
+        for (Long userId : userIds) {
+            remove(userId);
+        }
+    }
+
+    /**
+     * Drop every user's balances and load them all again in the background
+     */
+    public void evictAll() {
+        synchronized (this) {
+            evictions++;
+            for (Long userId : new ArrayList<>(slices.keySet())) {
+                remove(userId);
+            }
+            if (loading) {
+                loadInvalidated = true;
+                return;
+            }
+        }
+        startLoad();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startLoad() {
+        synchronized (this) {
+            if (loading) {
+                return;
+            }
+            loading = true;
+        }
+
+        Thread thread = new Thread(this::loadAll, "balance-read-store-load");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Load every user's balances, retrying while rebuilds invalidate the scan
+     * @return the number of users loaded
+     */
+    int loadAll() {
+        synchronized (this) {
+            loading = true;
+        }
+        try {
+            while (true) {
+                synchronized (this) {
+                    evictedDuringLoad = new HashSet<>();
+                    loadInvalidated = false;
+                }
+
+                long start = System.nanoTime();
+                Map<Long, Slice> loaded = scanAll();
+                synchronized (this) {
+                    if (loadInvalidated) {
+                        continue;
+                    }
+                    int installed = 0;
+                    for (Map.Entry<Long, Slice> entry : loaded.entrySet()) {
+                        if (!evictedDuringLoad.contains(entry.getKey()) && !slices.containsKey(entry.getKey())) {
+                            put(entry.getKey(), entry.getValue());
+                            installed++;
+                        }
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    loadTimer.record(elapsed, TimeUnit.NANOSECONDS);
+                    log.info("Loaded balances of {} users into the read store ({} entries, ~{} KiB) in {} ms",
+                            installed, entries, bytes / 1024, TimeUnit.NANOSECONDS.toMillis(elapsed));
+                    return installed;
+                }
+            }
+        } catch (SQLException e) {
+            log.warn("Loading the balance read store failed, reads will load users one by one: {}", e.getMessage());
+            return 0;
+        } finally {
+            synchronized (this) {
+                evictedDuringLoad = null;
+                loading = false;
+            }
+        }
+    }
+
+    private Slice sliceOf(Long userId) {
+        Slice slice = slices.get(userId);
+        if (slice != null) {
+            return slice;
+        }
+        return requestCoalescer.forUser("balance.read-store", userId, () -> loadUser(userId));
+    }
+
+    private Slice loadUser(long userId) {
+        long evictionsBefore;
+        synchronized (this) {
+            evictionsBefore = evictions;
+        }
+
+        Slice slice;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+            }
+            SliceBuilder builder = new SliceBuilder(new HashMap<>());
+            scan(connection, USER_FRIEND_ROWS_SQL, userId,
+                    (owner, id, name, currency, cents) -> builder.addFriend(id, name, currency, cents));
+            scan(connection, USER_GROUP_ROWS_SQL, userId,
+                    (owner, id, name, currency, cents) -> builder.addGroup(id, name, currency, cents));
+            connection.commit();
+            slice = builder.build();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not load balances of user " + userId, e);
+        }
+
+        synchronized (this) {
+            // A balance change committed meanwhile may be missing from the slice
+            if (evictions == evictionsBefore && (evictedDuringLoad == null || !evictedDuringLoad.contains(userId))) {
+                put(userId, slice);
+            }
+        }
+        return slice;
+    }
+
+    private Map<Long, Slice> scanAll() throws SQLException {
+        Map<Long, SliceBuilder> builders = new HashMap<>();
+        Map<String, String> names = new HashMap<>();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+            }
+            scan(connection, ALL_FRIEND_ROWS_SQL, null, (owner, id, name, currency, cents) -> builders
+                    .computeIfAbsent(owner, key -> new SliceBuilder(names)).addFriend(id, name, currency, cents));
+            scan(connection, ALL_GROUP_ROWS_SQL, null, (owner, id, name, currency, cents) -> builders
+                    .computeIfAbsent(owner, key -> new SliceBuilder(names)).addGroup(id, name, currency, cents));
+            connection.commit();
+        }
+
+        Map<Long, Slice> loaded = new HashMap<>(builders.size() * 2);
+        builders.forEach((userId, builder) -> loaded.put(userId, builder.build()));
+        return loaded;
+    }
+
+    private void scan(Connection connection, String sql, Long userId, RowHandler handler) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setFetchSize(fetchSize);
+            if (userId != null) {
+                statement.setLong(1, userId);
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    handler.accept(resultSet.getLong(1), resultSet.getLong(2), resultSet.getString(3),
+                            MoneyUtil.currencyKey(resultSet.getString(4)), MoneyUtil.toCents(resultSet.getBigDecimal(5)));
+                }
+            }
+        }
+    }
+
+    private void put(Long userId, Slice slice) {
+        Slice previous = slices.put(userId, slice);
+        entries += slice.entries() - (previous == null ? 0 : previous.entries());
+        bytes += slice.bytes() - (previous == null ? 0 : previous.bytes());
+    }
+
+    private void remove(Long userId) {
+        Slice previous = slices.remove(userId);
+        if (previous != null) {
+            entries -= previous.entries();
+            bytes -= previous.bytes();
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        void accept(long userId, long id, String name, long currencyKey, long cents);
+    }
+
+    private static final class Slice {
+        private final long[] friendIds;
+        private final long[] friendCurrencies;
+        private final long[] friendCents;
+        private final String[] friendNames;
+        private final long[] groupIds;
+        private final long[] groupCurrencies;
+        private final long[] groupCents;
+        private final String[] groupNames;
+
+        private Slice(long[] friendIds, long[] friendCurrencies, long[] friendCents, String[] friendNames,
+                long[] groupIds, long[] groupCurrencies, long[] groupCents, String[] groupNames) {
+            this.friendIds = friendIds;
+            this.friendCurrencies = friendCurrencies;
+            this.friendCents = friendCents;
+            this.friendNames = friendNames;
+            this.groupIds = groupIds;
+            this.groupCurrencies = groupCurrencies;
+            this.groupCents = groupCents;
+            this.groupNames = groupNames;
+        }
+
+        int entries() {
+            return friendIds.length + groupIds.length;
+        }
+
+        // Slice, its eight arrays and the map entry; names are shared between slices
+        long bytes() {
+            return 48 + 8 * 16 + 64 + 28L * entries();
+        }
+    }
+
+    private static final class SliceBuilder {
+        private final Map<String, String> names;
+        private final List<Object[]> friends = new ArrayList<>();
+        private final List<Object[]> groups = new ArrayList<>();
+
+        private SliceBuilder(Map<String, String> names) {
+            this.names = names;
+        }
+
+        void addFriend(long id, String name, long currencyKey, long cents) {
+            friends.add(new Object[] { id, names.computeIfAbsent(name, key -> key), currencyKey, cents });
+        }
+
+        void addGroup(long id, String name, long currencyKey, long cents) {
+            groups.add(new Object[] { id, names.computeIfAbsent(name, key -> key), currencyKey, cents });
+        }
+
+        Slice build() {
+            long[] friendIds = new long[friends.size()];
+            long[] friendCurrencies = new long[friends.size()];
+            long[] friendCents = new long[friends.size()];
+            String[] friendNames = new String[friends.size()];
+            for (int i = 0; i < friendIds.length; i++) {
+                friendIds[i] = (Long) friends.get(i)[0];
+                friendNames[i] = (String) friends.get(i)[1];
+                friendCurrencies[i] = (Long) friends.get(i)[2];
+                friendCents[i] = (Long) friends.get(i)[3];
+            }
+            long[] groupIds = new long[groups.size()];
+            long[] groupCurrencies = new long[groups.size()];
+            long[] groupCents = new long[groups.size()];
+            String[] groupNames = new String[groups.size()];
+            for (int i = 0; i < groupIds.length; i++) {
+                groupIds[i] = (Long) groups.get(i)[0];
+                groupNames[i] = (String) groups.get(i)[1];
+                groupCurrencies[i] = (Long) groups.get(i)[2];
+                groupCents[i] = (Long) groups.get(i)[3];
+            }
+            return new Slice(friendIds, friendCurrencies, friendCents, friendNames, groupIds, groupCurrencies,
+                    groupCents, groupNames);
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceLedgerJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository.OutboxEntry;
+import com.splitbuddy.splitbuddy.repositories.UserBalanceSummaryJdbcRepository;
+import com.splitbuddy.splitbuddy.utility.LongPairSumMap;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.LIVE_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.SHADOW_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.WRITE_LOCK_KEY;
+
+/**
+ * Rebuilds balance_aggregates from expenses without blocking readers.
+ *
+ * The rebuild runs in four phases:
+ * <ol>
+ * <li>An empty shadow table is created; from then on every writer also applies
+ * its deltas to it.</li>
+ * <li>Writers are paused just long enough to clear the shadow table and export
+ * a database snapshot, so each write is either in the snapshot or in the
+ * shadow table, never both.</li>
+ * <li>Workers in a fork-join pool scan disjoint expense id ranges of that
+ * snapshot in keyset-paginated chunks and fold them into primitive maps, which
+ * are merged and added to the shadow table.</li>
+ * <li>Writers are paused again while the shadow rows replace the live rows in
+ * one transaction. Readers see the old aggregates until it commits.</li>
+ * </ol>
+ *
+ * Scoped rebuilds recompute only the rows of one friend pair, one group or one
+ * user. They stream just the expenses touching that scope and overwrite its
+ * rows in a single short transaction while writers are paused.
+ *
+ * Both kinds append RECALCULATION rows to the balance ledger for every balance
+ * that differs from what the ledger recorded, so the ledger keeps matching the
+ * aggregates. The rows take effect at the time of the state the rebuild read:
+ * when the snapshot was exported, or when writers were paused for a scoped
+ * rebuild. Both kinds also recompute the directional friend balances and user summaries
+ * of the rows they touched.
+ *
+ * Per-currency user balances span every friend and group of a user, so they
+ * are folded from the expenses rather than from the rebuilt rows. A user
+ * rebuild replaces the user's rows with the totals folded from all of their
+ * expenses. A full rebuild also reads the table in its
+ * snapshot and, when swapping, adds the difference between the folded totals
+ * and that copy, which keeps the changes committed after the snapshot.
+ *
+ * Both kinds fold all group balance stripes into their aggregate rows while
+ * writers are paused, before reading any aggregate.
+ *
+ * Changes still waiting in balance_outbox are read while writers are paused
+ * and subtracted from what both kinds write, since the projector applies them
+ * afterwards.
+ */
+@Service
+@Slf4j
+public class BalanceRebuildService {
+
+    private static final long REBUILD_LOCK_KEY = 0x5B_0002L;
+
+    private static final String EXPENSE_CHUNK_END_SQL = "SELECT max(id) FROM " +
+            "(SELECT id FROM expenses WHERE id > ? AND id <= ? ORDER BY id LIMIT ?) AS chunk";
+
+    static final String EXPENSE_ROWS_SELECT = "SELECT e.id, e.paid_by, e.amount, " +
+            "p.user_id, p.amount, p.source, p.source_id, p.is_paid, e.currency " +
+            "FROM expenses e JOIN expense_participants p ON p.expense_id = e.id ";
+
+    private static final String EXPENSE_ROWS_SQL = EXPENSE_ROWS_SELECT +
+            "WHERE e.id > ? AND e.id <= ? ORDER BY e.id, p.id";
+
+    // Expenses where one of the pair paid and the other took part
+    private static final String FRIEND_PAIR_EXPENSES_SQL = "SELECT p.expense_id FROM expense_participants p " +
+            "JOIN expenses e ON e.id = p.expense_id " +
+            "WHERE (e.paid_by = ? AND p.user_id = ?) OR (e.paid_by = ? AND p.user_id = ?)";
+
+    private static final String GROUP_EXPENSES_SQL = "SELECT expense_id FROM expense_participants " +
+            "WHERE source = 'GROUP' AND source_id = ?";
+
+    private static final String USER_EXPENSES_SQL = "SELECT id FROM expenses WHERE paid_by = ? " +
+            "UNION SELECT expense_id FROM expense_participants WHERE user_id = ?";
+
+    private static final String FRIEND_PAIR_CONDITION = BalanceLedgerJdbcRepository.FRIEND_KEY_CONDITION;
+
+    private static final String GROUP_CONDITION = "balance_type = 'USER_TO_GROUP' AND group_id = ?";
+
+    private static final String USER_CONDITION = "(balance_type = 'FRIEND_TO_FRIEND' AND (user1_id = ? OR user2_id = ?))" +
+            " OR (balance_type = 'USER_TO_GROUP' AND user_id = ?)";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final int parallelism;
+    private final int chunkSize;
+
+    public BalanceRebuildService(DataSource dataSource, JdbcTemplate jdbcTemplate,
+            @Value("${balance.rebuild.parallelism:4}") int parallelism,
+            @Value("${balance.rebuild.chunk-size:1000}") int chunkSize) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Recompute the friend balance between two users
+     */
+    @Transactional
+    public long rebuildFriendPair(long userId, long friendId) {
+        long user1 = Math.min(userId, friendId);
+        long user2 = Math.max(userId, friendId);
+        return rebuildScope(FRIEND_PAIR_EXPENSES_SQL, new Object[] { user1, user2, user2, user1 },
+                FRIEND_PAIR_CONDITION, new Object[] { user1, user2 },
+                (first, second) -> first == user1 && second == user2,
+                (user, group) -> false, List.of());
+    }
+
+    /**
+     * Recompute the balance of every member of a group
+     */
+    @Transactional
+    public long rebuildGroup(long groupId) {
+        return rebuildScope(GROUP_EXPENSES_SQL, new Object[] { groupId },
+                GROUP_CONDITION, new Object[] { groupId },
+                (first, second) -> false,
+                (user, group) -> group == groupId, List.of());
+    }
+
+    /**
+     * Recompute every friend and group balance of a user
+     */
+    @Transactional
+    public long rebuildUser(long userId) {
+        return rebuildScope(USER_EXPENSES_SQL, new Object[] { userId, userId },
+                USER_CONDITION, new Object[] { userId, userId, userId },
+                (first, second) -> first == userId || second == userId,
+                (user, group) -> user == userId, List.of(userId));
+    }
+
+    /**
+     * Recompute every friend and group balance and swap the result in atomically
+     * @return the number of expenses scanned
+     * @throws IllegalStateException if another rebuild is already running
+     */
+    public long rebuildAllBalances() {
+        try (Connection control = dataSource.getConnection()) {
+            if (!tryLock(control, REBUILD_LOCK_KEY)) {
+                throw new IllegalStateException("A balance rebuild is already running");
+            }
+            try {
+                return rebuild(control);
+            } catch (SQLException | RuntimeException e) {
+                dropShadowTable(control);
+                throw e;
+            } finally {
+                unlock(control, REBUILD_LOCK_KEY);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Balance rebuild failed", e);
+        }
+    }
+
+    private long rebuild(Connection control) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+        LongAdder scannedExpenses = new LongAdder();
+        control.setAutoCommit(true);
+        try (Statement statement = control.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + SHADOW_TABLE);
+            statement.execute("CREATE TABLE " + SHADOW_TABLE + " (LIKE " + LIVE_TABLE + " INCLUDING ALL)");
+        }
+
+        LongPairSumMap currencyCorrections;
+        LocalDateTime snapshotAt;
+        try (Connection snapshotHolder = dataSource.getConnection()) {
+            snapshotHolder.setAutoCommit(false);
+            String snapshot;
+            long[] idRange;
+            BalanceDeltas pending;
+
+            // Deltas dual-written before this point are part of the snapshot
+            lock(control, WRITE_LOCK_KEY);
+            try {
+                BalanceAggregateJdbcRepository.foldAllStripes(control);
+                try (Statement statement = control.createStatement()) {
+                    statement.execute("TRUNCATE " + SHADOW_TABLE);
+                }
+                pending = readPendingChanges(control);
+                try (Statement statement = snapshotHolder.createStatement()) {
+                    statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                    try (ResultSet resultSet = statement.executeQuery("SELECT pg_export_snapshot()")) {
+                        resultSet.next();
+                        snapshot = resultSet.getString(1);
+                    }
+                }
+                snapshotAt = LocalDateTime.now();
+            } finally {
+                unlock(control, WRITE_LOCK_KEY);
+            }
+
+            try (Statement statement = snapshotHolder.createStatement();
+                    ResultSet resultSet = statement.executeQuery("SELECT coalesce(min(id), 0), coalesce(max(id), 0) FROM expenses")) {
+                resultSet.next();
+                idRange = new long[] { resultSet.getLong(1), resultSet.getLong(2) };
+            }
+            LongPairSumMap currencyBalances = UserBalanceSummaryJdbcRepository.readAllCurrencyBalances(snapshotHolder);
+
+            BalanceDeltas totals = scan(snapshot, idRange[0] - 1, idRange[1], scannedExpenses);
+            snapshotHolder.rollback();
+            totals.subtractAll(pending);
+
+            // What the per-currency balances lacked at the snapshot
+            currencyCorrections = totals.currencyDeltas();
+            for (int slot = 0; slot < currencyBalances.capacity(); slot++) {
+                if (currencyBalances.isUsed(slot)) {
+                    currencyCorrections.add(currencyBalances.firstKey(slot), currencyBalances.secondKey(slot),
+                            -currencyBalances.value(slot));
+                }
+            }
+
+            control.setAutoCommit(false);
+            try {
+                BalanceAggregateJdbcRepository.addBalances(control, SHADOW_TABLE,
+                        totals.friendDeltas(), totals.groupDeltas(), idRange[1]);
+                control.commit();
+            } finally {
+                control.setAutoCommit(true);
+            }
+            log.info("Scanned {} expenses into {} friend and {} group balances in {} ms",
+                    scannedExpenses.sum(), totals.friendDeltas().size(), totals.groupDeltas().size(),
+                    System.currentTimeMillis() - startedAt);
+        }
+
+        swapShadowTable(control, currencyCorrections, snapshotAt);
+        log.info("Balance rebuild completed in {} ms", System.currentTimeMillis() - startedAt);
+        return scannedExpenses.sum();
+    }
+
+    /**
+     * Replace the rows matched by {@code condition} with balances recomputed from
+     * the expenses returned by {@code expenseIdsSql}, keeping only the keys the
+     * filters accept, and the per-currency balances of {@code currencyUserIds},
+     * all of whose expenses those must be. The ledger gets correction rows for
+     * any difference.
+     * @return the number of expenses scanned
+     */
+    private long rebuildScope(String expenseIdsSql, Object[] expenseIdsArgs, String condition, Object[] conditionArgs,
+            KeyFilter friendFilter, KeyFilter groupFilter, Collection<Long> currencyUserIds) {
+        return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            // Writers that already applied deltas commit first; the rest wait for us
+            try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_xact_lock(?)")) {
+                statement.setLong(1, WRITE_LOCK_KEY);
+                statement.execute();
+            }
+            LocalDateTime correctedAt = LocalDateTime.now();
+            BalanceAggregateJdbcRepository.foldAllStripes(connection);
+
+            BalanceDeltas deltas = new BalanceDeltas();
+            LongAdder scannedExpenses = new LongAdder();
+            long lastExpenseId;
+            BalanceDeltas pending = readPendingChanges(connection);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    EXPENSE_ROWS_SELECT + "WHERE e.id IN (" + expenseIdsSql + ") ORDER BY e.id, p.id")) {
+                statement.setFetchSize(chunkSize);
+                bind(statement, expenseIdsArgs);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    lastExpenseId = foldRows(resultSet, deltas, scannedExpenses);
+                }
+            }
+            deltas.subtractAll(pending);
+
+            Set<Long> userIds = new HashSet<>();
+            LongPairSumMap friendPairs = new LongPairSumMap();
+            try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + LIVE_TABLE +
+                    " WHERE " + condition + " RETURNING balance_type, user1_id, user2_id, user_id")) {
+                bind(statement, conditionArgs);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        if ("FRIEND_TO_FRIEND".equals(resultSet.getString(1))) {
+                            friendPairs.add(resultSet.getLong(2), resultSet.getLong(3), 0);
+                            userIds.add(resultSet.getLong(2));
+                            userIds.add(resultSet.getLong(3));
+                        } else {
+                            userIds.add(resultSet.getLong(4));
+                        }
+                    }
+                }
+            }
+            LongTripleSumMap friendDeltas = filter(deltas.friendDeltas(), friendFilter);
+            LongTripleSumMap groupDeltas = filter(deltas.groupDeltas(), groupFilter);
+            BalanceAggregateJdbcRepository.addBalances(connection, LIVE_TABLE, friendDeltas, groupDeltas,
+                    lastExpenseId);
+            for (int slot = 0; slot < friendDeltas.capacity(); slot++) {
+                if (friendDeltas.isUsed(slot)) {
+                    friendPairs.add(friendDeltas.firstKey(slot), friendDeltas.secondKey(slot), 0);
+                }
+            }
+            addUserIds(userIds, friendDeltas, true);
+            addUserIds(userIds, groupDeltas, false);
+            BalanceAggregateJdbcRepository.refreshFriendBalances(connection, friendPairs);
+            UserBalanceSummaryJdbcRepository.refreshUsers(connection, userIds);
+            UserBalanceSummaryJdbcRepository.replaceCurrencyBalances(connection, currencyUserIds,
+                    filter(deltas.currencyDeltas(), (user, currency) -> currencyUserIds.contains(user)));
+            try (PreparedStatement statement = connection.prepareStatement(
+                    BalanceLedgerJdbcRepository.appendCorrectionsSql(LIVE_TABLE, condition))) {
+                bind(statement, new Object[] { correctedAt }, conditionArgs, conditionArgs, conditionArgs);
+                statement.executeUpdate();
+            }
+            return scannedExpenses.sum();
+        });
+    }
+
+    /**
+     * Fold expenses with lowId < id <= highId into deltas, one worker per slice
+     */
+    private BalanceDeltas scan(String snapshot, long lowId, long highId, LongAdder scannedExpenses) throws SQLException {
+        int slices = parallelism * 4;
+        long sliceWidth = Math.max(1, (highId - lowId + slices - 1) / slices);
+        List<Callable<BalanceDeltas>> workers = new ArrayList<>();
+        for (long start = lowId; start < highId; start += sliceWidth) {
+            long sliceStart = start;
+            long sliceEnd = Math.min(highId, start + sliceWidth);
+            workers.add(() -> scanSlice(snapshot, sliceStart, sliceEnd, scannedExpenses));
+        }
+
+        BalanceDeltas totals = new BalanceDeltas();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Future<BalanceDeltas> result : pool.invokeAll(workers)) {
+                totals.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Balance rebuild interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException sqlException) {
+                throw sqlException;
+            }
+            throw new IllegalStateException("Balance rebuild worker failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return totals;
+    }
+
+    private BalanceDeltas scanSlice(String snapshot, long afterId, long lastId, LongAdder scannedExpenses) throws SQLException {
+        BalanceDeltas deltas = new BalanceDeltas();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+            }
+
+            try (PreparedStatement chunkEnd = connection.prepareStatement(EXPENSE_CHUNK_END_SQL);
+                    PreparedStatement rows = connection.prepareStatement(EXPENSE_ROWS_SQL)) {
+                rows.setFetchSize(chunkSize);
+                long cursor = afterId;
+                while (cursor < lastId) {
+                    chunkEnd.setLong(1, cursor);
+                    chunkEnd.setLong(2, lastId);
+                    chunkEnd.setInt(3, chunkSize);
+                    long end;
+                    try (ResultSet resultSet = chunkEnd.executeQuery()) {
+                        resultSet.next();
+                        end = resultSet.getLong(1);
+                        if (resultSet.wasNull()) {
+                            break;
+                        }
+                    }
+
+                    rows.setLong(1, cursor);
+                    rows.setLong(2, end);
+                    try (ResultSet resultSet = rows.executeQuery()) {
+                        foldRows(resultSet, deltas, scannedExpenses);
+                    }
+                    cursor = end;
+                }
+            }
+            connection.rollback();
+        }
+        return deltas;
+    }
+
+    /**
+     * Rows arrive grouped by expense; each expense is rebuilt as a transient
+     * object so the same contribution rules as the incremental path apply
+     * @return the id of the last expense folded, or 0 if there was none
+     */
+    static long foldRows(ResultSet resultSet, BalanceDeltas deltas, LongAdder scannedExpenses)
+            throws SQLException {
+        Expense expense = null;
+        while (resultSet.next()) {
+            long expenseId = resultSet.getLong(1);
+            if (expense == null || expense.getId() != expenseId) {
+                if (expense != null) {
+                    deltas.addExpense(expense, 1);
+                }
+                expense = new Expense();
+                expense.setId(expenseId);
+                scannedExpenses.increment();
+                expense.setPaidBy(userWithId(resultSet.getLong(2)));
+                expense.setAmount(resultSet.getBigDecimal(3));
+                expense.setCurrency(resultSet.getString(9));
+            }
+
+            ExpenseParticipant participant = new ExpenseParticipant();
+            participant.setUser(userWithId(resultSet.getLong(4)));
+            participant.setAmount(resultSet.getBigDecimal(5));
+            participant.setSource(ExpenseParticipant.ParticipantSource.valueOf(resultSet.getString(6)));
+            long sourceId = resultSet.getLong(7);
+            participant.setSourceId(resultSet.wasNull() ? null : sourceId);
+            participant.setPaid(resultSet.getBoolean(8));
+            expense.getParticipants().add(participant);
+        }
+        if (expense == null) {
+            return 0;
+        }
+        deltas.addExpense(expense, 1);
+        return expense.getId();
+    }
+
+    /**
+     * Sum of the changes still waiting in the outbox. Their expenses are
+     * already in the tables being scanned, so rebuilds leave them out of the
+     * balances they write and the projector adds them later.
+     */
+    static BalanceDeltas readPendingChanges(Connection connection) throws SQLException {
+        BalanceDeltas pending = new BalanceDeltas();
+        for (OutboxEntry entry : BalanceOutboxJdbcRepository.readPending(connection)) {
+            pending.addAll(BalanceChange.of(entry).deltas());
+        }
+        return pending;
+    }
+
+    private static LongPairSumMap filter(LongPairSumMap deltas, KeyFilter keyFilter) {
+        LongPairSumMap filtered = new LongPairSumMap();
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot) && keyFilter.test(deltas.firstKey(slot), deltas.secondKey(slot))) {
+                filtered.add(deltas.firstKey(slot), deltas.secondKey(slot), deltas.value(slot));
+            }
+        }
+        return filtered;
+    }
+
+    private static LongTripleSumMap filter(LongTripleSumMap deltas, KeyFilter keyFilter) {
+        LongTripleSumMap filtered = new LongTripleSumMap();
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot) && keyFilter.test(deltas.firstKey(slot), deltas.secondKey(slot))) {
+                filtered.add(deltas.firstKey(slot), deltas.secondKey(slot), deltas.thirdKey(slot), deltas.value(slot));
+            }
+        }
+        return filtered;
+    }
+
+    private static void addUserIds(Set<Long> userIds, LongTripleSumMap deltas, boolean bothKeys) {
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (deltas.isUsed(slot)) {
+                userIds.add(deltas.firstKey(slot));
+                if (bothKeys) {
+                    userIds.add(deltas.secondKey(slot));
+                }
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object[]... argGroups) throws SQLException {
+        int index = 1;
+        for (Object[] args : argGroups) {
+            for (Object arg : args) {
+                statement.setObject(index++, arg);
+            }
+        }
+    }
+
+    private void swapShadowTable(Connection control, LongPairSumMap currencyCorrections, LocalDateTime snapshotAt)
+            throws SQLException {
+        control.setAutoCommit(false);
+        try (Statement statement = control.createStatement()) {
+            statement.execute("SELECT pg_advisory_xact_lock(" + WRITE_LOCK_KEY + ")");
+            try (PreparedStatement corrections = control.prepareStatement(
+                    BalanceLedgerJdbcRepository.appendCorrectionsSql(SHADOW_TABLE, "TRUE"))) {
+                corrections.setObject(1, snapshotAt);
+                corrections.executeUpdate();
+            }
+            statement.execute("DELETE FROM " + LIVE_TABLE);
+            statement.execute("INSERT INTO " + LIVE_TABLE + " SELECT * FROM " + SHADOW_TABLE);
+            BalanceAggregateJdbcRepository.refreshAllFriendBalances(control);
+            statement.execute(UserBalanceSummaryJdbcRepository.REFRESH_ALL_SQL);
+            UserBalanceSummaryJdbcRepository.addCurrencyBalances(control, currencyCorrections);
+            statement.execute("DROP TABLE " + SHADOW_TABLE);
+            control.commit();
+        } catch (SQLException | RuntimeException e) {
+            control.rollback();
+            throw e;
+        } finally {
+            control.setAutoCommit(true);
+        }
+    }
+
+    private void dropShadowTable(Connection control) {
+        try {
+            if (!control.getAutoCommit()) {
+                control.rollback();
+                control.setAutoCommit(true);
+            }
+            try (Statement statement = control.createStatement()) {
+                statement.execute("DROP TABLE IF EXISTS " + SHADOW_TABLE);
+            }
+        } catch (SQLException e) {
+            log.warn("Could not drop {} after a failed rebuild", SHADOW_TABLE, e);
+        }
+    }
+
+    private static User userWithId(long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+
+    private static boolean tryLock(Connection connection, long key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+            statement.setLong(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private static void lock(Connection connection, long key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_lock(?)")) {
+            statement.setLong(1, key);
+            statement.execute();
+        }
+    }
+
+    private static void unlock(Connection connection, long key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+            statement.setLong(1, key);
+            statement.execute();
+        }
+    }
+
+    @FunctionalInterface
+    private interface KeyFilter {
+        boolean test(long first, long second);
+    }
+}
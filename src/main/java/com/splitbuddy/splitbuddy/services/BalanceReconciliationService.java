@@ -0,0 +1,298 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.LIVE_TABLE;
+import static com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository.STRIPES_TABLE;
+
+/**
+ * Checks balance_aggregates against the expenses it is derived from in the
+ * background, a chunk at a time.
+ *
+ * Every {@code balance.reconciliation.interval} the next
+ * {@code balance.reconciliation.chunk-size} rows in id order are read in one
+ * repeatable-read snapshot together with every expense touching their friend
+ * pairs and groups and the changes still in balance_outbox. The expenses are
+ * folded with the rebuild's rules, so paid shares count as they do on the
+ * write path, and compared with the rows plus their stripes without taking any
+ * lock. With {@code balance.reconciliation.repair} the mismatched pairs and
+ * groups are rewritten by the scoped rebuilds. The cursor is kept in memory
+ * and starts over after the last row.
+ *
+ * The job holds at most {@code balance.reconciliation.pool-share} of the
+ * Hikari pool's connections, and never less than one. Scheduled chunks are
+ * skipped while other threads wait for a connection.
+ *
+ * {@code balance.reconciliation.checked} and {@code .mismatches} count
+ * balances by {@code type}, {@code .repaired} counts rewritten pairs and
+ * groups, and {@code .chunk} times the chunks.
+ */
+@Service
+@Slf4j
+public class BalanceReconciliationService {
+
+    private static final String CHUNK_SQL = "SELECT a.id, a.balance_type, a.user1_id, a.user2_id, a.user_id, " +
+            "a.group_id, a.currency, a.balance + coalesce((SELECT sum(s.balance) FROM " + STRIPES_TABLE + " s " +
+            "WHERE s.user_id = a.user_id AND s.group_id = a.group_id AND s.currency = a.currency), 0) " +
+            "FROM " + LIVE_TABLE + " a WHERE a.id > ? ORDER BY a.id LIMIT ?";
+
+    // Expenses where one user of a pair paid and the other took part, and
+    // every expense shared in one of the groups
+    private static final String CHUNK_EXPENSES_SQL = "SELECT p.expense_id FROM expense_participants p " +
+            "JOIN expenses e ON e.id = p.expense_id " +
+            "JOIN unnest(?::bigint[], ?::bigint[]) AS pair(user1_id, user2_id) " +
+            "ON (e.paid_by = pair.user1_id AND p.user_id = pair.user2_id) " +
+            "OR (e.paid_by = pair.user2_id AND p.user_id = pair.user1_id) " +
+            "UNION SELECT expense_id FROM expense_participants WHERE source = 'GROUP' AND source_id = ANY(?)";
+
+    private static final String FRIEND_TYPE = "FRIEND_TO_FRIEND";
+    private static final String GROUP_TYPE = "USER_TO_GROUP";
+
+    private final DataSource dataSource;
+    private final BalanceService balanceService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean repair;
+    private final int chunkSize;
+    private final Semaphore connections;
+    private final Timer chunkTimer;
+    private final AtomicLong cursor = new AtomicLong();
+
+    public BalanceReconciliationService(DataSource dataSource, BalanceService balanceService,
+            MeterRegistry meterRegistry,
+            @Value("${balance.reconciliation.enabled:true}") boolean enabled,
+            @Value("${balance.reconciliation.repair:false}") boolean repair,
+            @Value("${balance.reconciliation.chunk-size:200}") int chunkSize,
+            @Value("${balance.reconciliation.pool-share:0.1}") double poolShare) {
+        this.dataSource = dataSource;
+        this.balanceService = balanceService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.repair = repair;
+        this.chunkSize = chunkSize;
+        HikariDataSource hikari = hikari(dataSource);
+        int poolSize = hikari != null ? hikari.getMaximumPoolSize() : 1;
+        this.connections = new Semaphore(Math.max(1, (int) (poolSize * poolShare)));
+        this.chunkTimer = Timer.builder("balance.reconciliation.chunk")
+                .description("Time to check one chunk of balance aggregates")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${balance.reconciliation.interval:PT5S}")
+    public void reconcileScheduled() {
+        if (!enabled || poolUnderPressure() || !connections.tryAcquire()) {
+            return;
+        }
+
+        long afterId = cursor.get();
+        Chunk chunk;
+        try {
+            chunk = chunkTimer.record(() -> verifyChunk(afterId));
+        } finally {
+            connections.release();
+        }
+        cursor.set(chunk.rows() < chunkSize ? 0 : chunk.lastId());
+        if (chunk.rows() < chunkSize) {
+            log.debug("Finished a pass over the balance aggregates");
+        }
+        repair(chunk.mismatches());
+    }
+
+    /**
+     * Check every aggregate row from the first one on, independently of the
+     * scheduled cursor, and repair the mismatches if repairs are enabled
+     * @return the balances that did not match their expenses
+     */
+    public List<Mismatch> reconcileAll() {
+        List<Mismatch> mismatches = new ArrayList<>();
+        long afterId = 0;
+        Chunk chunk;
+        do {
+            long chunkStart = afterId;
+            connections.acquireUninterruptibly();
+            try {
+                chunk = chunkTimer.record(() -> verifyChunk(chunkStart));
+            } finally {
+                connections.release();
+            }
+            mismatches.addAll(chunk.mismatches());
+            afterId = chunk.lastId();
+        } while (chunk.rows() == chunkSize);
+
+        repair(mismatches);
+        return mismatches;
+    }
+
+    private Chunk verifyChunk(long afterId) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ, READ ONLY");
+                }
+                return verifyChunk(connection, afterId);
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Balance reconciliation failed after aggregate " + afterId, e);
+        }
+    }
+
+    private Chunk verifyChunk(Connection connection, long afterId) throws SQLException {
+        List<AggregateRow> rows = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(CHUNK_SQL)) {
+            statement.setLong(1, afterId);
+            statement.setInt(2, chunkSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    boolean friend = FRIEND_TYPE.equals(resultSet.getString(2));
+                    rows.add(new AggregateRow(resultSet.getLong(1), friend,
+                            resultSet.getLong(friend ? 3 : 5), resultSet.getLong(friend ? 4 : 6),
+                            resultSet.getString(7), MoneyUtil.toCents(resultSet.getBigDecimal(8))));
+                }
+            }
+        }
+        if (rows.isEmpty()) {
+            return new Chunk(0, afterId, List.of());
+        }
+
+        List<Long> pairUsers1 = new ArrayList<>();
+        List<Long> pairUsers2 = new ArrayList<>();
+        Set<Long> groupIds = new LinkedHashSet<>();
+        for (AggregateRow row : rows) {
+            if (row.friend()) {
+                pairUsers1.add(row.first());
+                pairUsers2.add(row.second());
+            } else {
+                groupIds.add(row.second());
+            }
+        }
+
+        BalanceDeltas expected = new BalanceDeltas();
+        try (PreparedStatement statement = connection.prepareStatement(BalanceRebuildService.EXPENSE_ROWS_SELECT +
+                "WHERE e.id IN (" + CHUNK_EXPENSES_SQL + ") ORDER BY e.id, p.id")) {
+            statement.setArray(1, connection.createArrayOf("bigint", pairUsers1.toArray()));
+            statement.setArray(2, connection.createArrayOf("bigint", pairUsers2.toArray()));
+            statement.setArray(3, connection.createArrayOf("bigint", groupIds.toArray()));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                BalanceRebuildService.foldRows(resultSet, expected, new LongAdder());
+            }
+        }
+        // Committed with their expenses but not applied to the rows yet
+        expected.subtractAll(BalanceRebuildService.readPendingChanges(connection));
+
+        List<Mismatch> mismatches = new ArrayList<>();
+        int friendRows = 0;
+        for (AggregateRow row : rows) {
+            LongTripleSumMap deltas = row.friend() ? expected.friendDeltas() : expected.groupDeltas();
+            long expectedCents = deltas.get(row.first(), row.second(), MoneyUtil.currencyKey(row.currency()));
+            if (expectedCents != row.cents()) {
+                mismatches.add(new Mismatch(row.friend() ? FRIEND_TYPE : GROUP_TYPE, row.first(), row.second(),
+                        row.currency(), expectedCents, row.cents()));
+                meterRegistry.counter("balance.reconciliation.mismatches",
+                        "type", row.friend() ? FRIEND_TYPE : GROUP_TYPE).increment();
+            }
+            if (row.friend()) {
+                friendRows++;
+            }
+        }
+        meterRegistry.counter("balance.reconciliation.checked", "type", FRIEND_TYPE).increment(friendRows);
+        meterRegistry.counter("balance.reconciliation.checked", "type", GROUP_TYPE).increment(rows.size() - friendRows);
+        if (!mismatches.isEmpty()) {
+            log.warn("Found {} balance aggregates that do not match their expenses: {}", mismatches.size(), mismatches);
+        }
+        return new Chunk(rows.size(), rows.get(rows.size() - 1).id(), mismatches);
+    }
+
+    /**
+     * Rewrite each mismatched friend pair and each group with a mismatched
+     * member once, one connection at a time
+     */
+    private void repair(List<Mismatch> mismatches) {
+        if (!repair || mismatches.isEmpty()) {
+            return;
+        }
+
+        Set<List<Long>> friendPairs = new LinkedHashSet<>();
+        Set<Long> groupIds = new LinkedHashSet<>();
+        for (Mismatch mismatch : mismatches) {
+            if (FRIEND_TYPE.equals(mismatch.balanceType())) {
+                friendPairs.add(List.of(mismatch.first(), mismatch.second()));
+            } else {
+                groupIds.add(mismatch.second());
+            }
+        }
+        for (List<Long> pair : friendPairs) {
+            repairWith(() -> balanceService.recalculateFriendBalance(pair.get(0), pair.get(1)));
+        }
+        for (Long groupId : groupIds) {
+            repairWith(() -> balanceService.recalculateGroupBalances(groupId));
+        }
+    }
+
+    private void repairWith(Runnable rewrite) {
+        connections.acquireUninterruptibly();
+        try {
+            rewrite.run();
+            meterRegistry.counter("balance.reconciliation.repaired").increment();
+        } catch (RuntimeException e) {
+            log.warn("Could not repair a mismatched balance aggregate", e);
+        } finally {
+            connections.release();
+        }
+    }
+
+    private boolean poolUnderPressure() {
+        HikariDataSource hikari = hikari(dataSource);
+        HikariPoolMXBean pool = hikari != null ? hikari.getHikariPoolMXBean() : null;
+        return pool != null && pool.getThreadsAwaitingConnection() > 0;
+    }
+
+    private static HikariDataSource hikari(DataSource dataSource) {
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A balance whose row differs from its expenses, in cents. {@code first}
+     * and {@code second} are user1 and user2 of a friend pair or the user and
+     * group of a group balance.
+     */
+    public record Mismatch(String balanceType, long first, long second, String currency, long expectedCents,
+            long actualCents) {
+    }
+
+    private record AggregateRow(long id, boolean friend, long first, long second, String currency, long cents) {
+    }
+
+    private record Chunk(int rows, long lastId, List<Mismatch> mismatches) {
+    }
+}
@@ -1,28 +1,52 @@
 package com.splitbuddy.splitbuddy.services;
 
+import com.splitbuddy.splitbuddy.dto.response.CurrencyBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpensePage;
 import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendExpensesResponse;
 import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.exceptions.GroupNotFoundException;
 import com.splitbuddy.splitbuddy.exceptions.UserNotFoundException;
 import com.splitbuddy.splitbuddy.models.BalanceAggregate;
+import com.splitbuddy.splitbuddy.models.BalanceLedgerEntry;
 import com.splitbuddy.splitbuddy.models.Expense;
 import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.FriendBalance;
 import com.splitbuddy.splitbuddy.models.Group;
 import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.models.UserBalanceSummary;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository;
 import com.splitbuddy.splitbuddy.repositories.BalanceAggregateRepository;
+import com.splitbuddy.splitbuddy.repositories.BalanceOutboxJdbcRepository;
 import com.splitbuddy.splitbuddy.repositories.ExpenseRepository;
+import com.splitbuddy.splitbuddy.repositories.FriendBalanceRepository;
 import com.splitbuddy.splitbuddy.repositories.GroupRepository;
+import com.splitbuddy.splitbuddy.repositories.UserBalanceSummaryJdbcRepository;
+import com.splitbuddy.splitbuddy.repositories.UserBalanceSummaryJdbcRepository.CurrencyBalances;
+import com.splitbuddy.splitbuddy.repositories.UserBalanceSummaryRepository;
 import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.stream.Collectors;
 
 @Service
@@ -32,269 +56,371 @@ public class BalanceService {
     @Autowired
     private BalanceAggregateRepository balanceAggregateRepository;
 
+    @Autowired
+    private BalanceAggregateJdbcRepository balanceAggregateJdbcRepository;
+
+    @Autowired
+    private FriendBalanceRepository friendBalanceRepository;
+
+    @Autowired
+    private UserBalanceSummaryJdbcRepository userBalanceSummaryJdbcRepository;
+
+    @Autowired
+    private UserBalanceSummaryRepository userBalanceSummaryRepository;
+
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
     @Autowired
     private GroupRepository groupRepository;
 
     @Autowired
-    private ExpenseRepository expenseRepository;
+    private SettlementService settlementService;
+
+    @Autowired
+    private BalanceRebuildService balanceRebuildService;
+
+    @Autowired
+    private BalanceLedgerService balanceLedgerService;
+
+    @Autowired
+    private BalanceCacheService balanceCacheService;
+
+    @Autowired
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @Autowired
+    private BalanceReadStore balanceReadStore;
+
+    @Autowired
+    private FxRateService fxRateService;
+
+    @Autowired
+    private RequestCoalescer requestCoalescer;
+
+    @Autowired
+    private ExpensePager expensePager;
+
+    @Autowired
+    private BalanceOutboxJdbcRepository balanceOutboxJdbcRepository;
+
+    @Autowired
+    private BalanceStripeService balanceStripeService;
+
+    @Value("${balance.projection.outbox.enabled:false}")
+    private boolean outboxEnabled;
 
     /**
-     * Update balances when a new expense is created
+     * Update balances when a new expense is created.
+     * All friend-pair and user-group deltas are folded in memory first and then
+     * applied with one upsert per balance type, regardless of participant count.
+     * The ledger records the change as of the expense's paidAt.
+     * @return the outbox version of the change, or null when it was applied right away
      */
     @Transactional
-    public void updateBalancesForExpense(Expense expense) {
+    public Long updateBalancesForExpense(Expense expense) {
         log.info("Updating balances for expense ID: {}", expense.getId());
 
-        User payer = expense.getPaidBy();
-        BigDecimal expenseAmount = expense.getAmount();
+        return applyDeltas(Map.of(expense.getPaidAt(), BalanceDeltas.forExpense(expense)), expense.getId(),
+                BalanceLedgerEntry.Operation.EXPENSE_CREATED);
+    }
 
-        // Update friend-to-friend balances
-        updateFriendBalances(expense, payer);
+    /**
+     * Update balances for many new expenses at once. Their deltas are folded
+     * into one upsert per balance type; the ledger still records each expense
+     * as of its own paidAt.
+     * @return the outbox version of the changes, or null when they were applied right away
+     */
+    @Transactional
+    public Long updateBalancesForExpenses(List<Expense> expenses) {
+        log.info("Updating balances for {} expenses", expenses.size());
 
-        // Update group balances
-        updateGroupBalances(expense, payer);
+        List<BalanceChange> changes = new ArrayList<>(expenses.size());
+        for (Expense expense : expenses) {
+            changes.add(new BalanceChange(expense.getId(), BalanceLedgerEntry.Operation.EXPENSE_CREATED,
+                    expense.getPaidAt(), BalanceDeltas.forExpense(expense)));
+        }
+        return applyOrQueue(changes);
     }
 
     /**
-     * Reverse balances when an expense is deleted or before it's updated
+     * Reverse balances when an expense is deleted or before it's updated.
+     * Shares already marked as paid were settled separately and are not reversed
+     * a second time. The ledger records the reversal at the times the reversed
+     * changes took effect, so balances as of earlier dates no longer include
+     * the expense.
+     * @return the outbox version of the reversal, or null when it was applied right away
      */
     @Transactional
-    public void reverseBalancesForExpense(Expense expense) {
+    public Long reverseBalancesForExpense(Expense expense) {
         log.info("Reversing balances for expense ID: {}", expense.getId());
 
-        User payer = expense.getPaidBy();
-
-        // Reverse friend-to-friend balances
+        Map<LocalDateTime, BalanceDeltas> changes = new LinkedHashMap<>();
+        changesAt(changes, expense.getPaidAt(), expense).addShares(expense, -1);
         for (ExpenseParticipant participant : expense.getParticipants()) {
-            User participantUser = participant.getUser();
-
-            if (participantUser.getId().equals(payer.getId())) {
-                continue;
-            }
-
-            BigDecimal participantAmount = participant.getAmount();
-            Long userId1 = Math.min(payer.getId(), participantUser.getId());
-            Long userId2 = Math.max(payer.getId(), participantUser.getId());
-
-            Optional<BalanceAggregate> existingBalance = balanceAggregateRepository
-                    .findFriendBalance(userId1, userId2);
-
-            if (existingBalance.isPresent()) {
-                BalanceAggregate balance = existingBalance.get();
-                BigDecimal balanceChange;
-                if (payer.getId() < participantUser.getId()) {
-                    balanceChange = participantAmount.negate(); // Reverse: subtract instead of add
-                } else {
-                    balanceChange = participantAmount; // Reverse: add instead of subtract
-                }
-                balance.setBalance(balance.getBalance().add(balanceChange));
-                balanceAggregateRepository.save(balance);
+            if (participant.isPaid()) {
+                changesAt(changes, effectiveTime(participant.getPaidAt(), expense), expense)
+                        .addPayment(expense, participant, -1);
             }
         }
+        return applyDeltas(changes, expense.getId(), BalanceLedgerEntry.Operation.EXPENSE_REVERSED);
+    }
+
+    /**
+     * Apply deltas as database-side increments (balance = balance + delta), so
+     * concurrent writers to the same pair or group never lose an update. The
+     * aggregates receive the net change in one upsert per balance type, followed
+     * by the users' summaries; the ledger receives each part under {@code operation} at its effective time.
+     * With the outbox enabled, the parts are only appended to balance_outbox and
+     * {@link BalanceProjector} applies them later.
+     */
+    private Long applyDeltas(Map<LocalDateTime, BalanceDeltas> changes, Long expenseId,
+            BalanceLedgerEntry.Operation operation) {
+        List<BalanceChange> parts = new ArrayList<>(changes.size());
+        changes.forEach((effectiveAt, part) -> parts.add(new BalanceChange(expenseId, operation, effectiveAt, part)));
+        return applyOrQueue(parts);
+    }
 
-        // Reverse group balances
-        Map<Long, List<ExpenseParticipant>> groupParticipants = expense.getParticipants().stream()
-                .filter(ep -> ep.getSource() == ExpenseParticipant.ParticipantSource.GROUP)
-                .collect(Collectors.groupingBy(ExpenseParticipant::getSourceId));
-
-        for (Map.Entry<Long, List<ExpenseParticipant>> entry : groupParticipants.entrySet()) {
-            Long groupId = entry.getKey();
-            List<ExpenseParticipant> participants = entry.getValue();
-
-            for (ExpenseParticipant participant : participants) {
-                User participantUser = participant.getUser();
-                BigDecimal participantAmount = participant.getAmount();
-
-                Optional<BalanceAggregate> existingBalance = balanceAggregateRepository
-                        .findGroupBalance(participantUser.getId(), groupId);
-
-                if (existingBalance.isPresent()) {
-                    BalanceAggregate balance = existingBalance.get();
-                    BigDecimal balanceChange;
-                    if (participantUser.getId().equals(payer.getId())) {
-                        balanceChange = (expense.getAmount().subtract(participantAmount)).negate();
-                    } else {
-                        balanceChange = participantAmount; // Reverse: add instead of negate
-                    }
-                    balance.setBalance(balance.getBalance().add(balanceChange));
-                    balanceAggregateRepository.save(balance);
-                }
+    // Queued changes return the version for the client to read its writes with
+    private Long applyOrQueue(List<BalanceChange> changes) {
+        if (outboxEnabled) {
+            long version = 0;
+            for (BalanceChange change : changes) {
+                version = balanceOutboxJdbcRepository.append(change.expenseId(), change.operation(),
+                        change.effectiveAt(), change.deltas().friendDeltas(), change.deltas().groupDeltas(),
+                        change.deltas().currencyDeltas());
             }
+            return version;
         }
+        applyChanges(changes);
+        return null;
     }
 
+    /**
+     * Apply changes in one upsert per balance type, whatever their number, and
+     * record each in the ledger. Hot group balances get their deltas in a
+     * stripe (see {@link BalanceStripeService}). Coalesced changes from the outbox record the
+     * newest expense as having last updated every row they touch.
+     */
+    void applyChanges(List<BalanceChange> changes) {
+        BalanceDeltas deltas;
+        if (changes.size() == 1) {
+            deltas = changes.get(0).deltas();
+        } else {
+            deltas = new BalanceDeltas();
+            changes.forEach(change -> deltas.addAll(change.deltas()));
+        }
 
-    private void updateFriendBalances(Expense expense, User payer) {
-        Map<Long, BigDecimal> participantAmounts = expense.getParticipants().stream()
-                .collect(Collectors.toMap(
-                        ep -> ep.getUser().getId(),
-                        ExpenseParticipant::getAmount));
-
-        // Update balance between payer and each participant
-        for (ExpenseParticipant participant : expense.getParticipants()) {
-            User participantUser = participant.getUser();
+        Long lastExpenseId = changes.get(changes.size() - 1).expenseId();
+        balanceAggregateJdbcRepository.upsertFriendBalances(deltas.friendDeltas(), lastExpenseId);
+        balanceStripeService.recordWrites(deltas.groupDeltas());
+        balanceAggregateJdbcRepository.upsertGroupBalances(deltas.groupDeltas(), lastExpenseId,
+                balanceStripeService::isHot, balanceStripeService.currentStripe());
+        userBalanceSummaryJdbcRepository.applyDeltas(deltas.friendDeltas(), deltas.groupDeltas());
+        userBalanceSummaryJdbcRepository.applyCurrencyDeltas(deltas.currencyDeltas());
+        changes.forEach(change -> balanceAggregateJdbcRepository.appendLedger(change.deltas().friendDeltas(),
+                change.deltas().groupDeltas(), change.expenseId(), change.operation(), change.effectiveAt()));
+        evictCaches(deltas);
+    }
 
-            // Skip if this is the payer
-            if (participantUser.getId().equals(payer.getId())) {
-                continue;
-            }
+    private static BalanceDeltas changesAt(Map<LocalDateTime, BalanceDeltas> changes, LocalDateTime effectiveAt,
+            Expense expense) {
+        return changes.computeIfAbsent(effectiveAt, time -> new BalanceDeltas(expense.getParticipants().size()));
+    }
 
-            BigDecimal participantAmount = participant.getAmount();
-            Long userId1 = Math.min(payer.getId(), participantUser.getId());
-            Long userId2 = Math.max(payer.getId(), participantUser.getId());
-
-            // Find existing balance or create new one
-            Optional<BalanceAggregate> existingBalance = balanceAggregateRepository
-                    .findFriendBalance(userId1, userId2);
-
-            BigDecimal balanceChange;
-            if (payer.getId() < participantUser.getId()) {
-                // Payer is user1, so positive balance means participant owes payer
-                balanceChange = participantAmount;
-            } else {
-                // Payer is user2, so negative balance means participant owes payer
-                balanceChange = participantAmount.negate();
-            }
+    // Payment times are stored as instants, ledger times as local times like paidAt
+    static LocalDateTime effectiveTime(Instant paidAt, Expense expense) {
+        return paidAt == null ? expense.getPaidAt() : LocalDateTime.ofInstant(paidAt, ZoneId.systemDefault());
+    }
 
-            if (existingBalance.isPresent()) {
-                BalanceAggregate balance = existingBalance.get();
-                balance.setBalance(balance.getBalance().add(balanceChange));
-                balance.setLastExpenseId(expense.getId());
-                balanceAggregateRepository.save(balance);
-            } else {
-                User user1 = userRepository.findById(userId1).orElseThrow();
-                User user2 = userRepository.findById(userId2).orElseThrow();
-                BalanceAggregate newBalance = new BalanceAggregate(user1, user2, balanceChange, expense.getId());
-                balanceAggregateRepository.save(newBalance);
+    private void evictCaches(BalanceDeltas deltas) {
+        LongTripleSumMap friendDeltas = deltas.friendDeltas();
+        LongTripleSumMap groupDeltas = deltas.groupDeltas();
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> groupIds = new HashSet<>();
+        for (int slot = 0; slot < friendDeltas.capacity(); slot++) {
+            if (friendDeltas.isUsed(slot)) {
+                userIds.add(friendDeltas.firstKey(slot));
+                userIds.add(friendDeltas.secondKey(slot));
             }
         }
-    }
-
-    private void updateGroupBalances(Expense expense, User payer) {
-        // Group expenses are handled differently - we track user's balance with the
-        // group
-        Map<Long, List<ExpenseParticipant>> groupParticipants = expense.getParticipants().stream()
-                .filter(ep -> ep.getSource() == ExpenseParticipant.ParticipantSource.GROUP)
-                .collect(Collectors.groupingBy(ExpenseParticipant::getSourceId));
-
-        for (Map.Entry<Long, List<ExpenseParticipant>> entry : groupParticipants.entrySet()) {
-            Long groupId = entry.getKey();
-            List<ExpenseParticipant> participants = entry.getValue();
-
-            // Update balance for each participant with the group
-            for (ExpenseParticipant participant : participants) {
-                User participantUser = participant.getUser();
-                BigDecimal participantAmount = participant.getAmount();
-
-                Optional<BalanceAggregate> existingBalance = balanceAggregateRepository
-                        .findGroupBalance(participantUser.getId(), groupId);
-
-                BigDecimal balanceChange;
-                if (participantUser.getId().equals(payer.getId())) {
-                    // Participant paid, so they have a positive balance with the group
-                    balanceChange = expense.getAmount().subtract(participantAmount);
-                } else {
-                    // Someone else paid, so participant owes their share
-                    balanceChange = participantAmount.negate();
-                }
-
-                if (existingBalance.isPresent()) {
-                    BalanceAggregate balance = existingBalance.get();
-                    balance.setBalance(balance.getBalance().add(balanceChange));
-                    balance.setLastExpenseId(expense.getId());
-                    balanceAggregateRepository.save(balance);
-                } else {
-                    Group group = groupRepository.findById(groupId).orElseThrow();
-                    BalanceAggregate newBalance = new BalanceAggregate(participantUser, group, balanceChange,
-                            expense.getId());
-                    balanceAggregateRepository.save(newBalance);
-                }
+        for (int slot = 0; slot < groupDeltas.capacity(); slot++) {
+            if (groupDeltas.isUsed(slot)) {
+                userIds.add(groupDeltas.firstKey(slot));
+                groupIds.add(groupDeltas.secondKey(slot));
             }
         }
+        balanceCacheService.evictUsers(userIds);
+        requestCoalescer.forgetAfterCommit(userIds, groupIds);
+        groupIds.forEach(settlementService::evictGroupSettlements);
     }
 
     /**
-     * Get user balance summary using aggregated data
+     * Get user balance summary from the materialized summary row
      */
     public UserBalanceSummaryResponse getUserBalanceSummary(Long userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new UserNotFoundException("User not found: " + userId));
-
-        BigDecimal totalFriendBalance = balanceAggregateRepository.getTotalFriendBalanceForUser(userId);
-        BigDecimal totalGroupBalance = balanceAggregateRepository.getTotalGroupBalanceForUser(userId);
-        BigDecimal netBalance = totalFriendBalance.add(totalGroupBalance);
+        return balanceCacheService.getSummary(userId,
+                () -> requestCoalescer.forUser("balance.summary", userId, () -> loadUserBalanceSummary(userId)));
+    }
 
+    private UserBalanceSummaryResponse loadUserBalanceSummary(Long userId) {
         UserBalanceSummaryResponse response = new UserBalanceSummaryResponse();
         response.setUserId(userId);
-        response.setUserName(user.getName());
-        response.setTotalOwed(netBalance.compareTo(BigDecimal.ZERO) > 0 ? netBalance : BigDecimal.ZERO);
-        response.setTotalOwes(netBalance.compareTo(BigDecimal.ZERO) < 0 ? netBalance.abs() : BigDecimal.ZERO);
-        response.setNetBalance(netBalance);
 
+        Optional<UserBalanceSummary> summary = userBalanceSummaryRepository.findWithUserByUserId(userId);
+        if (summary.isPresent()) {
+            response.setUserName(summary.get().getUser().getName());
+            response.setTotalOwed(summary.get().getTotalOwed());
+            response.setTotalOwes(summary.get().getTotalOwes());
+            response.setNetBalance(summary.get().getNetBalance());
+            setCurrencyBalances(response, userBalanceSummaryJdbcRepository.findCurrencyBalances(userId));
+            return response;
+        }
+
+        // No balance has changed since the user was created
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new UserNotFoundException("User not found: " + userId));
+        response.setUserName(user.getName());
+        response.setTotalOwed(BigDecimal.ZERO);
+        response.setTotalOwes(BigDecimal.ZERO);
+        response.setNetBalance(BigDecimal.ZERO);
+        setCurrencyBalances(response, new CurrencyBalances(new long[0], new long[0]));
         return response;
     }
 
+    private void setCurrencyBalances(UserBalanceSummaryResponse response, CurrencyBalances balances) {
+        List<CurrencyBalanceResponse> currencyBalances = new ArrayList<>(balances.size());
+        for (int i = 0; i < balances.size(); i++) {
+            CurrencyBalanceResponse currencyBalance = new CurrencyBalanceResponse();
+            currencyBalance.setCurrency(MoneyUtil.currencyCode(balances.currencyKeys()[i]));
+            currencyBalance.setNetBalance(MoneyUtil.fromCents(balances.cents()[i]));
+            currencyBalances.add(currencyBalance);
+        }
+        response.setCurrencyBalances(currencyBalances);
+        response.setBaseCurrency(fxRateService.getBaseCurrency());
+        fxRateService.toBaseCents(balances.currencyKeys(), balances.cents(), balances.size())
+                .ifPresent(cents -> response.setConvertedNetBalance(MoneyUtil.fromCents(cents)));
+    }
+
     /**
      * Get friend balances using aggregated data
      */
     public List<FriendBalanceResponse> getFriendBalances(Long userId) {
-        List<BalanceAggregate> friendBalances = balanceAggregateRepository.findAllFriendBalancesForUser(userId);
-
-        return friendBalances.stream()
-                .map(balance -> {
-                    FriendBalanceResponse response = new FriendBalanceResponse();
-
-                    // Determine which user is the friend and calculate the balance from user's
-                    // perspective
-                    if (balance.getUser1().getId().equals(userId)) {
-                        response.setFriendId(balance.getUser2().getId());
-                        response.setFriendName(balance.getUser2().getName());
-                        response.setBalance(balance.getBalance()); // Positive means friend owes user
-                    } else {
-                        response.setFriendId(balance.getUser1().getId());
-                        response.setFriendName(balance.getUser1().getName());
-                        response.setBalance(balance.getBalance().negate()); // Negative means user owes friend
-                    }
-
-                    return response;
-                })
-                .collect(Collectors.toList());
+        return balanceCacheService.getFriendBalances(userId, () -> balanceReadStore.getFriendBalances(userId));
     }
 
     /**
-     * Get balance between two specific friends
+     * Get the balance with one friend from the user's perspective, as of
+     * {@code asOf} (inclusive) when given or currently otherwise. The balance
+     * is converted to the base currency and also returned per currency.
      */
-    public FriendExpensesResponse getFriendExpenses(Long userId, Long friendId) {
+    public FriendBalanceResponse getFriendBalance(Long userId, Long friendId, LocalDateTime asOf) {
         User friend = userRepository.findById(friendId)
                 .orElseThrow(() -> new UserNotFoundException("Friend not found: " + friendId));
 
-        // Get aggregated balance
-        Optional<BalanceAggregate> balanceOpt = balanceAggregateRepository.findFriendBalance(userId, friendId);
-        BigDecimal netBalance = balanceOpt.map(BalanceAggregate::getBalance).orElse(BigDecimal.ZERO);
+        Map<String, BigDecimal> balances;
+        if (asOf != null) {
+            balances = balanceLedgerService.getFriendBalanceAsOf(userId, friendId, asOf);
+        } else {
+            balances = friendBalanceRepository.findFriendBalances(userId, friendId).stream()
+                    .collect(Collectors.toMap(FriendBalance::getCurrency, FriendBalance::getBalance,
+                            BigDecimal::add, TreeMap::new));
+        }
 
-        // Adjust balance based on user order
-        if (balanceOpt.isPresent() && balanceOpt.get().getUser2().getId().equals(userId)) {
-            netBalance = netBalance.negate();
+        FriendBalanceResponse response = new FriendBalanceResponse();
+        response.setFriendId(friendId);
+        response.setFriendName(friend.getName());
+        response.setBalance(toBaseCurrency(balances));
+        response.setCurrency(fxRateService.getBaseCurrency());
+        response.setCurrencyBalances(toCurrencyBalances(balances));
+        return response;
+    }
+
+    /**
+     * Get the user's balance in one group, as of {@code asOf} (inclusive) when
+     * given or currently otherwise. The balance is converted to the base
+     * currency and also returned per currency.
+     */
+    public GroupBalanceResponse getGroupBalance(Long userId, Long groupId, LocalDateTime asOf) {
+        Group group = groupRepository.findById(groupId)
+                .orElseThrow(() -> new GroupNotFoundException("Group not found: " + groupId));
+
+        Map<String, BigDecimal> balances = asOf != null
+                ? balanceLedgerService.getGroupBalanceAsOf(userId, groupId, asOf)
+                : balanceAggregateRepository.findGroupBalances(userId, groupId).stream()
+                        .collect(Collectors.toMap(BalanceAggregate::getCurrency, BalanceAggregate::getTotalBalance,
+                                BigDecimal::add, TreeMap::new));
+
+        GroupBalanceResponse response = new GroupBalanceResponse();
+        response.setGroupId(groupId);
+        response.setGroupName(group.getName());
+        response.setBalance(toBaseCurrency(balances));
+        response.setCurrency(fxRateService.getBaseCurrency());
+        response.setCurrencyBalances(toCurrencyBalances(balances));
+        return response;
+    }
+
+    // Sum of the balances converted to the base currency, null when one has no rate
+    private BigDecimal toBaseCurrency(Map<String, BigDecimal> balances) {
+        long[] currencyKeys = new long[balances.size()];
+        long[] cents = new long[balances.size()];
+        int count = 0;
+        for (Map.Entry<String, BigDecimal> balance : balances.entrySet()) {
+            currencyKeys[count] = MoneyUtil.currencyKey(balance.getKey());
+            cents[count++] = MoneyUtil.toCents(balance.getValue());
         }
+        OptionalLong baseCents = fxRateService.toBaseCents(currencyKeys, cents, count);
+        return baseCents.isPresent() ? MoneyUtil.fromCents(baseCents.getAsLong()) : null;
+    }
 
-        // Get recent expenses for context (increased limit to 50)
-        List<Expense> recentExpenses = expenseRepository.findExpensesBetweenFriends(userId, friendId)
-                .stream()
-                .limit(50)
-                .collect(Collectors.toList());
+    // Non-zero balances in currency order
+    private static List<CurrencyBalanceResponse> toCurrencyBalances(Map<String, BigDecimal> balances) {
+        List<CurrencyBalanceResponse> currencyBalances = new ArrayList<>(balances.size());
+        balances.forEach((currency, balance) -> {
+            if (balance.signum() != 0) {
+                CurrencyBalanceResponse currencyBalance = new CurrencyBalanceResponse();
+                currencyBalance.setCurrency(currency);
+                currencyBalance.setNetBalance(balance);
+                currencyBalances.add(currencyBalance);
+            }
+        });
+        return currencyBalances;
+    }
+
+    /**
+     * Get balance between two specific friends, with one page of the expenses
+     * they share, newest first
+     */
+    public FriendExpensesResponse getFriendExpenses(Long userId, Long friendId, String pageToken, Integer size) {
+        User friend = userRepository.findById(friendId)
+                .orElseThrow(() -> new UserNotFoundException("Friend not found: " + friendId));
+
+        // Get aggregated balances from the user's side, totalled in the base currency
+        Map<String, BigDecimal> balances = friendBalanceRepository.findFriendBalances(userId, friendId).stream()
+                .collect(Collectors.toMap(FriendBalance::getCurrency, FriendBalance::getBalance,
+                        BigDecimal::add, TreeMap::new));
+        BigDecimal netBalance = toBaseCurrency(balances);
+
+        ExpensePage sharedExpenses = expensePager.read(pageToken, size,
+                (createdAt, id, limit) -> expenseRepository.findExpenseIdsBetweenFriendsBefore(userId, friendId,
+                        createdAt, id, limit),
+                this::convertToExpenseResponse);
 
         FriendExpensesResponse response = new FriendExpensesResponse();
         response.setFriendId(friendId);
         response.setFriendName(friend.getName());
-        response.setTotalOwedToFriend(netBalance.compareTo(BigDecimal.ZERO) < 0 ? netBalance.abs() : BigDecimal.ZERO);
-        response.setTotalOwedByFriend(netBalance.compareTo(BigDecimal.ZERO) > 0 ? netBalance : BigDecimal.ZERO);
-        response.setNetBalance(netBalance);
-        response.setSharedExpenses(recentExpenses.stream()
-                .map(this::convertToExpenseResponse)
-                .collect(Collectors.toList()));
+        if (netBalance != null) {
+            response.setTotalOwedToFriend(netBalance.signum() < 0 ? netBalance.abs() : BigDecimal.ZERO);
+            response.setTotalOwedByFriend(netBalance.signum() > 0 ? netBalance : BigDecimal.ZERO);
+            response.setNetBalance(netBalance);
+        }
+        response.setCurrency(fxRateService.getBaseCurrency());
+        response.setCurrencyBalances(toCurrencyBalances(balances));
+        response.setSharedExpenses(sharedExpenses.getExpenses());
+        response.setNextPageToken(sharedExpenses.getNextPageToken());
 
         return response;
     }
@@ -303,23 +429,17 @@ public class BalanceService {
      * Get group balances for a user
      */
     public List<GroupBalanceResponse> getGroupBalances(Long userId) {
-        List<BalanceAggregate> groupBalances = balanceAggregateRepository.findAllGroupBalancesForUser(userId);
-
-        return groupBalances.stream()
-                .map(balance -> {
-                    GroupBalanceResponse response = new GroupBalanceResponse();
-                    response.setGroupId(balance.getGroup().getId());
-                    response.setGroupName(balance.getGroup().getName());
-                    response.setBalance(balance.getBalance());
-                    return response;
-                })
-                .collect(Collectors.toList());
+        return balanceCacheService.getGroupBalances(userId, () -> balanceReadStore.getGroupBalances(userId));
     }
 
     /**
      * Get all balances for a specific group
      */
     public List<GroupBalanceResponse> getGroupBalancesForGroup(Long groupId) {
+        return requestCoalescer.forGroup("balance.group-members", groupId, () -> loadGroupBalancesForGroup(groupId));
+    }
+
+    private List<GroupBalanceResponse> loadGroupBalancesForGroup(Long groupId) {
         List<BalanceAggregate> groupBalances = balanceAggregateRepository.findAllBalancesForGroup(groupId);
 
         return groupBalances.stream()
@@ -329,29 +449,70 @@ public class BalanceService {
                     response.setGroupName(balance.getGroup().getName());
                     response.setUserId(balance.getUser().getId());
                     response.setUserName(balance.getUser().getName());
-                    response.setBalance(balance.getBalance());
+                    response.setBalance(balance.getTotalBalance());
+                    response.setCurrency(balance.getCurrency());
                     return response;
                 })
                 .collect(Collectors.toList());
     }
 
     /**
-     * Recalculate all balances (for data migration or fixing inconsistencies)
+     * Recalculate all balances (for data migration or fixing inconsistencies).
+     * The rebuild streams expenses into a shadow table and swaps it in, so
+     * readers keep seeing the current balances until it completes.
      */
-    @Transactional
     public void recalculateAllBalances() {
         log.info("Starting full balance recalculation...");
 
-        // Clear all existing balances
-        balanceAggregateRepository.deleteAll();
+        long expenseCount = balanceRebuildService.rebuildAllBalances();
+        cacheInvalidationBus.evictAll();
+
+        log.info("Completed full balance recalculation for {} expenses", expenseCount);
+    }
+
+    /**
+     * Recalculate the balance between two friends only
+     */
+    @Transactional
+    public void recalculateFriendBalance(Long userId, Long friendId) {
+        requireUser(userId);
+        requireUser(friendId);
+
+        long expenseCount = balanceRebuildService.rebuildFriendPair(userId, friendId);
+        balanceCacheService.evictUsers(List.of(userId, friendId));
+        log.info("Recalculated balance between users {} and {} from {} expenses", userId, friendId, expenseCount);
+    }
 
-        // Get all expenses and recalculate
-        List<Expense> allExpenses = expenseRepository.findAll();
-        for (Expense expense : allExpenses) {
-            updateBalancesForExpense(expense);
+    /**
+     * Recalculate the balances of every member of one group
+     */
+    @Transactional
+    public void recalculateGroupBalances(Long groupId) {
+        if (!groupRepository.existsById(groupId)) {
+            throw new GroupNotFoundException("Group not found: " + groupId);
         }
 
-        log.info("Completed full balance recalculation for {} expenses", allExpenses.size());
+        long expenseCount = balanceRebuildService.rebuildGroup(groupId);
+        cacheInvalidationBus.evictAll();
+        log.info("Recalculated balances for group {} from {} expenses", groupId, expenseCount);
+    }
+
+    /**
+     * Recalculate every friend and group balance touching one user
+     */
+    @Transactional
+    public void recalculateUserBalances(Long userId) {
+        requireUser(userId);
+
+        long expenseCount = balanceRebuildService.rebuildUser(userId);
+        cacheInvalidationBus.evictAll();
+        log.info("Recalculated balances for user {} from {} expenses", userId, expenseCount);
+    }
+
+    private void requireUser(Long userId) {
+        if (!userRepository.existsById(userId)) {
+            throw new UserNotFoundException("User not found: " + userId);
+        }
     }
 
     private com.splitbuddy.splitbuddy.dto.response.ExpenseResponse convertToExpenseResponse(Expense expense) {
@@ -393,136 +554,23 @@ public class BalanceService {
     }
 
     /**
-     * Update balance when a participant's payment status changes
+     * Update balance when a participant's payment status changes.
+     * Marking a share as paid settles the participant's debt to the payer, and
+     * for group shares moves both the participant's and the payer's group
+     * balance back by the share. Marking it unpaid re-applies the debt.
      * @param expense The expense
      * @param participant The participant whose status changed
      * @param isPaid The new payment status
+     * @param paidAt When the share was paid; when unmarking, when it had been marked paid
+     * @return the outbox version of the change, or null when it was applied right away
      */
     @Transactional
-    public void updateBalanceForPayment(Expense expense, ExpenseParticipant participant, boolean isPaid) {
-        User payer = expense.getPaidBy();
-        User participantUser = participant.getUser();
-        BigDecimal amount = participant.getAmount();
-
-        // If user is the payer, this logic doesn't apply (payer doesn't owe themselves)
-        if (payer.getId().equals(participantUser.getId())) {
-            return;
-        }
-
-        // Determine the impact on balance
-        // If marked as PAID: The debt is settled, so we REVERSE the balance impact
-        // If marked as UNPAID: The debt is active again, so we APPLY the balance impact
-        
-        // We can reuse the logic by thinking about "balance change"
-        // Original logic: Payer paid -> Participant owes Payer
-        // If Payer < Participant: Balance += Amount (positive means Payer is owed)
-        // If Payer > Participant: Balance -= Amount (negative means Payer is owed)
-        
-        // When marking as PAID (settled):
-        // We need to negate the original impact.
-        // If Payer < Participant: Balance -= Amount
-        // If Payer > Participant: Balance += Amount
-        
-        // When marking as UNPAID (active debt):
-        // We re-apply the original impact.
-        // If Payer < Participant: Balance += Amount
-        // If Payer > Participant: Balance -= Amount
-        
-        BigDecimal balanceChange;
-        
-        if (isPaid) {
-            // Debt settled - reverse the balance
-            if (payer.getId() < participantUser.getId()) {
-                balanceChange = amount.negate();
-            } else {
-                balanceChange = amount;
-            }
-        } else {
-            // Debt active - add the balance
-            if (payer.getId() < participantUser.getId()) {
-                balanceChange = amount;
-            } else {
-                balanceChange = amount.negate();
-            }
-        }
-        
-        // Update Friend Balance
-        Long userId1 = Math.min(payer.getId(), participantUser.getId());
-        Long userId2 = Math.max(payer.getId(), participantUser.getId());
-        
-        Optional<BalanceAggregate> existingBalance = balanceAggregateRepository
-                .findFriendBalance(userId1, userId2);
-
-        if (existingBalance.isPresent()) {
-            BalanceAggregate balance = existingBalance.get();
-            balance.setBalance(balance.getBalance().add(balanceChange));
-            balance.setLastExpenseId(expense.getId());
-            balanceAggregateRepository.save(balance);
-        } else {
-            // This suggests a balance record was missing, which is odd if an expense exists,
-            // but we can create it.
-             User user1 = userRepository.findById(userId1).orElseThrow();
-            User user2 = userRepository.findById(userId2).orElseThrow();
-            BalanceAggregate newBalance = new BalanceAggregate(user1, user2, balanceChange, expense.getId());
-            balanceAggregateRepository.save(newBalance);
-        }
-        
-        // Update Group Balance if applicable
-        if (participant.getSource() == ExpenseParticipant.ParticipantSource.GROUP && participant.getSourceId() != null) {
-            Long groupId = participant.getSourceId();
-            
-            // For group balances:
-            // Payer balance with group: +Amount (they paid on behalf of group)
-            // Participant balance with group: -Amount (they owe the group)
-            
-            // When PAID (Settled):
-            // Effectively, the participant has "paid back" the group (or rather, the payer via the group context).
-            // But usually "Mark as Paid" in a group context implies the debt to the PAYER is settled.
-            // In Splitwise/similar apps, "Mark as Paid" usually creates a "Payment" transaction.
-            // Here we are modifying the state of the original expense participation.
-            
-            // If we strictly follow the logic that "Participant owes Payer":
-            // The Group Balance Aggregate tracks "How much does User X owe the Group?".
-            // If User X pays User Y (Payer) directly, that settles the debt effectively.
-            
-            // Update Participant's Group Balance
-            Optional<BalanceAggregate> partGroupBalance = balanceAggregateRepository
-                    .findGroupBalance(participantUser.getId(), groupId);
-            
-            if (partGroupBalance.isPresent()) {
-                BalanceAggregate balance = partGroupBalance.get();
-                // If PAId: Participant no longer owes the group (add amount effectively)
-                // If UNPAID: Participant owes the group (subtract amount)
-                 BigDecimal change = isPaid ? amount : amount.negate();
-                 balance.setBalance(balance.getBalance().add(change));
-                 balanceAggregateRepository.save(balance);
-            }
-            
-            // We do NOT update the Payer's group balance here because the Payer "spent" the money regardless.
-            // The fact that they got paid back is a separate settlement details.
-            // However, for "Net Balance" calculation, if the Payer is "owed" less, their net balance should decrease.
-            // Our Group Balance model might be "User vs Group", where positive = User is Owed by Group.
-            
-            // Let's look at `updateGroupBalances`:
-             // Payer: balance += (Total - OwnShare)  [Positive = Group owes Payer]
-             // Participant: balance -= Share         [Negative = Participant owes Group]
-             
-             // So if Participant PAYS Payer:
-             // Participant: balance += Share (Debt erased, moves towards 0)
-             // Payer: balance -= Share (They are owed less by the group/network)
-             
-             Optional<BalanceAggregate> payerGroupBalance = balanceAggregateRepository
-                    .findGroupBalance(payer.getId(), groupId);
-             
-             if (payerGroupBalance.isPresent()) {
-                 BalanceAggregate balance = payerGroupBalance.get();
-                 // If PAID: Payer is owed less (Subtract share)
-                 // If UNPAID: Payer is owed more (Add share)
-                 BigDecimal change = isPaid ? amount.negate() : amount;
-                 balance.setBalance(balance.getBalance().add(change));
-                 balanceAggregateRepository.save(balance);
-             }
-        }
+    public Long updateBalanceForPayment(Expense expense, ExpenseParticipant participant, boolean isPaid,
+            Instant paidAt) {
+        Map<LocalDateTime, BalanceDeltas> changes = new LinkedHashMap<>();
+        changesAt(changes, effectiveTime(paidAt, expense), expense).addPayment(expense, participant, isPaid ? 1 : -1);
+        return applyDeltas(changes, expense.getId(), isPaid
+                ? BalanceLedgerEntry.Operation.PAYMENT_MARKED
+                : BalanceLedgerEntry.Operation.PAYMENT_UNMARKED);
     }
 }
-
@@ -0,0 +1,135 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateJdbcRepository;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which group balances are written to stripes and folds the stripes
+ * back.
+ *
+ * Every node counts the writes to each (user, group) balance per
+ * {@code balance.stripes.window} (default one second). A balance written at
+ * least {@code balance.stripes.hot-writes} times in a window becomes hot and
+ * stays hot until its count drops below half of that. Writes to
+ * a hot balance go to one of {@code balance.stripes.count} stripes chosen by
+ * the writing thread, so concurrent writers rarely wait for each other. Every
+ * {@code balance.stripes.compact-interval} the stripes of each balance are
+ * folded into its aggregate row in a short transaction of their own.
+ *
+ * {@code balance.stripes.hot-keys} reports how many balances this node
+ * currently stripes.
+ */
+@Service
+@Slf4j
+public class BalanceStripeService {
+
+    private final BalanceAggregateJdbcRepository balanceAggregateJdbcRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int stripeCount;
+    private final long hotWrites;
+
+    private volatile Map<GroupKey, LongAdder> writes = new ConcurrentHashMap<>();
+    private volatile Set<GroupKey> hotKeys = Set.of();
+
+    public BalanceStripeService(BalanceAggregateJdbcRepository balanceAggregateJdbcRepository,
+            TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+            @Value("${balance.stripes.enabled:true}") boolean enabled,
+            @Value("${balance.stripes.count:8}") int stripeCount,
+            @Value("${balance.stripes.hot-writes:20}") long hotWrites) {
+        this.balanceAggregateJdbcRepository = balanceAggregateJdbcRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.stripeCount = stripeCount;
+        this.hotWrites = hotWrites;
+        Gauge.builder("balance.stripes.hot-keys", this, service -> service.hotKeys.size())
+                .description("Group balances this node writes to stripes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Count one write to every group balance in {@code groupDeltas}
+     */
+    public void recordWrites(LongTripleSumMap groupDeltas) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<GroupKey, LongAdder> current = writes;
+        for (int slot = 0; slot < groupDeltas.capacity(); slot++) {
+            if (groupDeltas.isUsed(slot)) {
+                current.computeIfAbsent(new GroupKey(groupDeltas.firstKey(slot), groupDeltas.secondKey(slot)),
+                        key -> new LongAdder()).increment();
+            }
+        }
+    }
+
+    public boolean isHot(long userId, long groupId) {
+        Set<GroupKey> hot = hotKeys;
+        return !hot.isEmpty() && hot.contains(new GroupKey(userId, groupId));
+    }
+
+    /**
+     * The stripe the current thread writes to
+     */
+    public int currentStripe() {
+        return (int) Math.floorMod(Thread.currentThread().getId(), (long) stripeCount);
+    }
+
+    /**
+     * Close the current window and pick the hot balances from it
+     */
+    @Scheduled(fixedRateString = "${balance.stripes.window:PT1S}")
+    public void rotateWindow() {
+        Map<GroupKey, LongAdder> window = writes;
+        writes = new ConcurrentHashMap<>();
+
+        Set<GroupKey> previous = hotKeys;
+        Set<GroupKey> hot = new HashSet<>();
+        window.forEach((key, writeCount) -> {
+            long count = writeCount.sum();
+            if (count >= hotWrites || (previous.contains(key) && 2 * count >= hotWrites)) {
+                hot.add(key);
+            }
+        });
+        if (!hot.equals(previous)) {
+            log.info("Striping {} hot group balances", hot.size());
+        }
+        hotKeys = Set.copyOf(hot);
+    }
+
+    @Scheduled(fixedDelayString = "${balance.stripes.compact-interval:PT5S}")
+    public void compactScheduled() {
+        compact();
+    }
+
+    /**
+     * Fold the stripes of every group balance into its aggregate row
+     * @return the number of balances folded
+     */
+    public int compact() {
+        List<long[]> keys = balanceAggregateJdbcRepository.findStripedKeys();
+        int folded = 0;
+        for (long[] key : keys) {
+            folded += transactionTemplate.execute(status -> balanceAggregateJdbcRepository.foldStripes(key[0], key[1]));
+        }
+        return folded;
+    }
+
+    private record GroupKey(long userId, long groupId) {
+    }
+}
@@ -0,0 +1,255 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.utility.TransactionHooks;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Tells the other nodes sharing the database which cached users and groups
+ * changed, over PostgreSQL LISTEN/NOTIFY.
+ *
+ * Publishing sends {@code pg_notify} on the caller's connection, so inside a
+ * transaction the message goes out only if and when it commits. Each node
+ * listens on its own connection outside the pool and turns messages from other
+ * nodes into {@link CacheInvalidationEvent}s for the local caches; its own
+ * messages are skipped as the caches already evicted locally.
+ *
+ * Notifications sent while a node is disconnected are lost, so every time the
+ * listener (re)connects it publishes a local event evicting everything.
+ */
+@Service
+@Slf4j
+public class CacheInvalidationBus {
+
+    static final String CHANNEL = "splitbuddy_cache";
+
+    // NOTIFY payloads are limited to 8000 bytes; larger changes flush everything
+    private static final int MAX_PAYLOAD_LENGTH = 7900;
+
+    private static final String ALL = "*";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final boolean enabled;
+    private final Duration reconnectDelay;
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private volatile boolean running;
+    private volatile boolean listening;
+    private volatile Connection listenerConnection;
+    private Thread listenerThread;
+
+    public CacheInvalidationBus(JdbcTemplate jdbcTemplate, DataSourceProperties dataSourceProperties,
+            ApplicationEventPublisher eventPublisher,
+            @Value("${balance.cache.notify.enabled:true}") boolean enabled,
+            @Value("${balance.cache.notify.reconnect-delay:PT1S}") Duration reconnectDelay) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.eventPublisher = eventPublisher;
+        this.enabled = enabled;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    /**
+     * Tell the other nodes that the cached entries of these users changed
+     */
+    public void publishUsers(Collection<Long> userIds) {
+        publish(userIds, Set.of());
+    }
+
+    /**
+     * Tell the other nodes that the cached entries of these groups changed
+     */
+    public void publishGroups(Collection<Long> groupIds) {
+        publish(Set.of(), groupIds);
+    }
+
+    /**
+     * Evict every cached entry on every node once the current transaction
+     * commits: the other nodes through a single notification, this one
+     * through a local {@link CacheInvalidationEvent}
+     */
+    public void evictAll() {
+        notify(ALL);
+        TransactionHooks.afterCommit(() -> eventPublisher.publishEvent(CacheInvalidationEvent.everything()));
+    }
+
+    /**
+     * Id of this node, also the application name of its listener connection
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public boolean isListening() {
+        return listening;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+
+        running = true;
+        listenerThread = new Thread(this::listen, "cache-invalidation-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        closeQuietly(listenerConnection);
+        listenerThread.interrupt();
+        listenerThread.join(reconnectDelay.toMillis() + 5000);
+    }
+
+    private void publish(Collection<Long> userIds, Collection<Long> groupIds) {
+        if (userIds.isEmpty() && groupIds.isEmpty()) {
+            return;
+        }
+
+        String keys = "u:" + join(userIds) + " g:" + join(groupIds);
+        notify(keys.length() > MAX_PAYLOAD_LENGTH ? ALL : keys);
+    }
+
+    private void notify(String keys) {
+        if (enabled) {
+            jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, nodeId + " " + keys);
+        }
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection connection = connect()) {
+                listenerConnection = connection;
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                listening = true;
+                eventPublisher.publishEvent(CacheInvalidationEvent.everything());
+                log.info("Listening for cache invalidations as node {}", nodeId);
+
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(5000);
+                    if (notifications == null || notifications.length == 0) {
+                        // Fails if the connection was lost while idle
+                        try (Statement statement = connection.createStatement()) {
+                            statement.execute("SELECT 1");
+                        }
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        try {
+                            handle(notification.getParameter());
+                        } catch (RuntimeException e) {
+                            // A malformed payload or a failing listener must not stop the others
+                            log.warn("Skipping cache invalidation '{}'", notification.getParameter(), e);
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Cache invalidation listener disconnected, reconnecting in {}: {}",
+                            reconnectDelay, e.getMessage());
+                }
+            } catch (RuntimeException e) {
+                if (running) {
+                    log.error("Cache invalidation listener failed, reconnecting in {}", reconnectDelay, e);
+                }
+            } finally {
+                listening = false;
+                listenerConnection = null;
+            }
+
+            if (running) {
+                try {
+                    Thread.sleep(reconnectDelay.toMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", dataSourceProperties.determineUsername());
+        properties.setProperty("password", dataSourceProperties.determinePassword());
+        properties.setProperty("ApplicationName", nodeId);
+        return DriverManager.getConnection(dataSourceProperties.determineUrl(), properties);
+    }
+
+    // Payload: "<node id> *" or "<node id> u:<ids> g:<ids>" with comma-separated ids
+    private void handle(String payload) {
+        int space = payload.indexOf(' ');
+        if (space < 0 || payload.substring(0, space).equals(nodeId)) {
+            return;
+        }
+
+        String keys = payload.substring(space + 1);
+        if (keys.equals(ALL)) {
+            eventPublisher.publishEvent(CacheInvalidationEvent.everything());
+            return;
+        }
+
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> groupIds = new HashSet<>();
+        for (String part : keys.split(" ")) {
+            Set<Long> target = part.startsWith("u:") ? userIds : part.startsWith("g:") ? groupIds : null;
+            if (target == null) {
+                continue;
+            }
+            for (String id : part.substring(2).split(",")) {
+                if (!id.isEmpty()) {
+                    target.add(Long.parseLong(id));
+                }
+            }
+        }
+        eventPublisher.publishEvent(new CacheInvalidationEvent(userIds, groupIds, false));
+    }
+
+    private static String join(Collection<Long> ids) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Closing the cache invalidation listener connection failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.splitbuddy.splitbuddy.services;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Set;
+
+/**
+ * Cache keys another node changed, as received by {@link CacheInvalidationBus}.
+ * When {@code all} is set every cached entry must go, either because a node
+ * (this one included) changed too much to list or because notifications may
+ * have been missed.
+ */
+@Getter
+@AllArgsConstructor
+public class CacheInvalidationEvent {
+
+    private final Set<Long> userIds;
+    private final Set<Long> groupIds;
+    private final boolean all;
+
+    public static CacheInvalidationEvent everything() {
+        return new CacheInvalidationEvent(Set.of(), Set.of(), true);
+    }
+}
@@ -0,0 +1,303 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse.ParticipantResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.exceptions.UserNotFoundException;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import com.splitbuddy.splitbuddy.utility.CsvWriter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+/**
+ * Streams a user's, a group's or a friend pair's expenses as CSV or NDJSON.
+ *
+ * Expenses are read with their payer and participants in one scan, ordered so
+ * that the rows of an expense are adjacent, through a forward-only cursor that
+ * fetches {@code expense.export.fetch-size} rows at a time; each expense is
+ * written as soon as its last participant is read. Only one expense is held at
+ * a time, so memory does not grow with the history. Access is checked and the
+ * current user resolved before the response starts; the scan then runs on the
+ * response thread, in a read-only transaction on a connection of its own,
+ * which it holds until the client has received everything.
+ */
+@Service
+@Slf4j
+public class ExpenseExportService {
+
+    public static final List<String> CSV_COLUMNS = List.of("id", "title", "description", "amount", "currency",
+            "category", "paid_at", "paid_by", "paid_by_name", "group_id", "participants", "created_at");
+
+    private static final DateTimeFormatter CSV_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final String EXPORT_SQL = "SELECT e.id, e.title, e.description, e.amount, e.currency, " +
+            "e.category, e.paid_at, e.created_at, e.updated_at, e.paid_by, payer.name, " +
+            "p.id, p.user_id, u.name, p.amount, p.source, p.source_id, p.is_active, p.is_paid, p.paid_at " +
+            "FROM expenses e JOIN users payer ON payer.id = e.paid_by " +
+            "LEFT JOIN expense_participants p ON p.expense_id = e.id " +
+            "LEFT JOIN users u ON u.id = p.user_id " +
+            "WHERE e.id IN (%s) ORDER BY e.created_at, e.id, p.id";
+
+    // Expenses a user paid or takes part in
+    private static final String USER_EXPENSES_SQL = "SELECT id FROM expenses WHERE paid_by = ? " +
+            "UNION SELECT expense_id FROM expense_participants WHERE user_id = ?";
+
+    private static final String GROUP_EXPENSES_SQL = "SELECT expense_id FROM expense_participants " +
+            "WHERE source = 'GROUP' AND source_id = ?";
+
+    private static final String IS_MEMBER_SQL = "SELECT EXISTS (SELECT 1 FROM group_members " +
+            "WHERE group_id = ? AND user_id = ?)";
+
+    private final DataSource dataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final UserRepository userRepository;
+    private final ObjectMapper objectMapper;
+    private final int fetchSize;
+
+    public ExpenseExportService(DataSource dataSource, JdbcTemplate jdbcTemplate, UserRepository userRepository,
+            ObjectMapper objectMapper, @Value("${expense.export.fetch-size:1000}") int fetchSize) {
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.userRepository = userRepository;
+        this.objectMapper = objectMapper;
+        this.fetchSize = fetchSize;
+    }
+
+    public enum Format {
+        CSV("csv", new MediaType("text", "csv", StandardCharsets.UTF_8)),
+        NDJSON("ndjson", MediaType.APPLICATION_NDJSON);
+
+        private final String extension;
+        private final MediaType contentType;
+
+        Format(String extension, MediaType contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public static Format of(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new InvalidOperationException("Unsupported export format: " + name);
+            }
+        }
+    }
+
+    /**
+     * A prepared export: the body runs the scan when the response is written
+     */
+    public record Export(String fileName, MediaType contentType, StreamingResponseBody body) {
+    }
+
+    /**
+     * Every expense the current user paid or takes part in
+     */
+    public Export exportForUser(String format) {
+        Long userId = currentUserId();
+        return export("expenses-user-" + userId, Format.of(format), USER_EXPENSES_SQL, userId, userId);
+    }
+
+    /**
+     * Every expense shared in a group the current user belongs to
+     */
+    public Export exportForGroup(Long groupId, String format) {
+        Long userId = currentUserId();
+        if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_MEMBER_SQL, Boolean.class, groupId, userId))) {
+            throw new InvalidOperationException("You are not a member of group " + groupId);
+        }
+        return export("expenses-group-" + groupId, Format.of(format), GROUP_EXPENSES_SQL, groupId);
+    }
+
+    /**
+     * Every expense both the current user and the friend paid or take part
+     * in, as for {@code GET /api/expenses/friend/{friendId}/expenses}
+     */
+    public Export exportForFriend(Long friendId, String format) {
+        Long userId = currentUserId();
+        if (!userRepository.existsById(friendId)) {
+            throw new UserNotFoundException("Friend not found: " + friendId);
+        }
+        return export("expenses-friend-" + friendId, Format.of(format),
+                "(" + USER_EXPENSES_SQL + ") INTERSECT (" + USER_EXPENSES_SQL + ")", userId, userId, friendId, friendId);
+    }
+
+    private Export export(String name, Format format, String scopeSql, Object... parameters) {
+        String sql = String.format(EXPORT_SQL, scopeSql);
+        return new Export(name + "." + format.extension, format.contentType, output -> {
+            long expenses = format == Format.CSV ? stream(sql, parameters, csv(output))
+                    : stream(sql, parameters, ndjson(output));
+            log.info("Exported {} expenses to {}.{}", expenses, name, format.extension);
+        });
+    }
+
+    private long stream(String sql, Object[] parameters, ExpenseSink sink) throws IOException {
+        long expenses = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            // PostgreSQL only fetches through a cursor inside a transaction
+            connection.setAutoCommit(false);
+            connection.setReadOnly(true);
+            try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)) {
+                statement.setFetchSize(fetchSize);
+                for (int i = 0; i < parameters.length; i++) {
+                    statement.setObject(i + 1, parameters[i]);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    ExpenseResponse expense = null;
+                    while (resultSet.next()) {
+                        long expenseId = resultSet.getLong(1);
+                        if (expense == null || expense.getId() != expenseId) {
+                            if (expense != null) {
+                                sink.write(expense);
+                                expenses++;
+                            }
+                            expense = readExpense(resultSet);
+                        }
+                        if (resultSet.getObject(12) != null) {
+                            expense.getParticipants().add(readParticipant(resultSet));
+                        }
+                    }
+                    if (expense != null) {
+                        sink.write(expense);
+                        expenses++;
+                    }
+                }
+            } finally {
+                connection.rollback();
+                connection.setReadOnly(false);
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Expense export failed after " + expenses + " expenses", e);
+        }
+        sink.finish();
+        return expenses;
+    }
+
+    private static ExpenseResponse readExpense(ResultSet resultSet) throws SQLException {
+        ExpenseResponse expense = new ExpenseResponse();
+        expense.setId(resultSet.getLong(1));
+        expense.setTitle(resultSet.getString(2));
+        expense.setDescription(resultSet.getString(3));
+        expense.setAmount(resultSet.getBigDecimal(4));
+        expense.setCurrency(resultSet.getString(5));
+        expense.setCategory(resultSet.getString(6));
+        expense.setPaidAt(resultSet.getObject(7, LocalDateTime.class));
+        expense.setCreatedAt(resultSet.getObject(8, LocalDateTime.class));
+        expense.setUpdatedAt(resultSet.getObject(9, LocalDateTime.class));
+        expense.setPaidBy(resultSet.getLong(10));
+        expense.setPaidByName(resultSet.getString(11));
+        expense.setParticipants(new ArrayList<>());
+        return expense;
+    }
+
+    private static ParticipantResponse readParticipant(ResultSet resultSet) throws SQLException {
+        ParticipantResponse participant = new ParticipantResponse();
+        participant.setId(resultSet.getLong(12));
+        participant.setUserId(resultSet.getLong(13));
+        participant.setUserName(resultSet.getString(14));
+        participant.setAmount(resultSet.getBigDecimal(15));
+        participant.setSource(ParticipantSource.valueOf(resultSet.getString(16)));
+        participant.setSourceId((Long) resultSet.getObject(17));
+        participant.setActive(resultSet.getBoolean(18));
+        participant.setPaid(resultSet.getBoolean(19));
+        Timestamp paidAt = resultSet.getTimestamp(20);
+        participant.setPaidAt(paidAt != null ? paidAt.toInstant() : null);
+        return participant;
+    }
+
+    /**
+     * One expense per record in the column format {@code POST
+     * /api/expenses/import} reads, so an export can be imported again
+     */
+    private static ExpenseSink csv(OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 65536);
+        CsvWriter csv = new CsvWriter(writer);
+        csv.writeRecord(CSV_COLUMNS);
+        return new ExpenseSink() {
+            @Override
+            public void write(ExpenseResponse expense) throws IOException {
+                String groupId = expense.getParticipants().stream()
+                        .filter(participant -> participant.getSource() == ParticipantSource.GROUP)
+                        .map(participant -> String.valueOf(participant.getSourceId()))
+                        .findFirst()
+                        .orElse(null);
+                String participants = expense.getParticipants().stream()
+                        .map(participant -> participant.getUserId() + ":" + participant.getAmount().toPlainString())
+                        .collect(Collectors.joining(";"));
+                csv.writeRecord(Arrays.asList(String.valueOf(expense.getId()), expense.getTitle(),
+                        expense.getDescription(), expense.getAmount().toPlainString(), expense.getCurrency(),
+                        expense.getCategory(), format(expense.getPaidAt()), String.valueOf(expense.getPaidBy()),
+                        expense.getPaidByName(), groupId, participants, format(expense.getCreatedAt())));
+            }
+
+            @Override
+            public void finish() throws IOException {
+                writer.flush();
+            }
+        };
+    }
+
+    /**
+     * One {@code ExpenseResponse} JSON object per line
+     */
+    private ExpenseSink ndjson(OutputStream output) {
+        OutputStream buffered = new BufferedOutputStream(output, 65536);
+        return new ExpenseSink() {
+            @Override
+            public void write(ExpenseResponse expense) throws IOException {
+                buffered.write(objectMapper.writeValueAsBytes(expense));
+                buffered.write('\n');
+            }
+
+            @Override
+            public void finish() throws IOException {
+                buffered.flush();
+            }
+        };
+    }
+
+    private static String format(LocalDateTime dateTime) {
+        return dateTime != null ? dateTime.format(CSV_DATE_TIME) : null;
+    }
+
+    private static Long currentUserId() {
+        return Long.valueOf(SecurityContextHolder.getContext().getAuthentication().getName());
+    }
+
+    private interface ExpenseSink {
+
+        void write(ExpenseResponse expense) throws IOException;
+
+        void finish() throws IOException;
+    }
+}
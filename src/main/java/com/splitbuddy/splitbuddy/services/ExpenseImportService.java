@@ -0,0 +1,531 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest.ParticipantRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse.RowError;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+import com.splitbuddy.splitbuddy.utility.CsvReader;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import com.splitbuddy.splitbuddy.utility.OfxReader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Imports expenses from CSV files and OFX bank statements while they stream
+ * in.
+ *
+ * Records are parsed one at a time and checked against the importing user's
+ * friends, the friendships among them and the members of the user's groups,
+ * which are loaded once per import. Valid rows are collected into batches of
+ * {@code expense.import.batch-size} and written with
+ * {@link ExpenseService#createExpenses}, which also applies their balances.
+ * The next record is only read once a full batch is written, so a slow
+ * database slows the upload down instead of buffering it, and memory holds one
+ * batch, one record and at most {@code expense.import.max-errors} errors
+ * whatever the size of the file. Each batch is its own transaction: the rows
+ * of written batches stay when a later row fails or the upload breaks off.
+ */
+@Service
+@Slf4j
+public class ExpenseImportService {
+
+    static final String DEFAULT_CURRENCY = "USD";
+    static final String DEFAULT_CATEGORY = "Other";
+
+    private static final int MAX_TEXT_LENGTH = 255;
+    private static final String BATCH_ERROR_PREFIX = "Expense 0: ";
+
+    // Friendships among the importing user and their friends
+    private static final String FRIENDSHIPS_SQL = "WITH known AS (SELECT CAST(? AS bigint) AS id " +
+            "UNION SELECT friend_id FROM friendships WHERE user_id = ? " +
+            "UNION SELECT user_id FROM friendships WHERE friend_id = ?) " +
+            "SELECT f.user_id, f.friend_id FROM friendships f " +
+            "WHERE f.user_id IN (SELECT id FROM known) AND f.friend_id IN (SELECT id FROM known)";
+
+    private static final String GROUP_MEMBERS_SQL = "SELECT m.group_id, m.user_id FROM group_members m " +
+            "WHERE m.group_id IN (SELECT group_id FROM group_members WHERE user_id = ?)";
+
+    private final ExpenseService expenseService;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int batchSize;
+    private final int maxErrors;
+    private final int maxRecordLength;
+    private final Timer batchTimer;
+
+    public ExpenseImportService(ExpenseService expenseService, JdbcTemplate jdbcTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${expense.import.batch-size:500}") int batchSize,
+            @Value("${expense.import.max-errors:100}") int maxErrors,
+            @Value("${expense.import.max-record-length:65536}") int maxRecordLength) {
+        this.expenseService = expenseService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.batchSize = batchSize;
+        this.maxErrors = maxErrors;
+        this.maxRecordLength = maxRecordLength;
+        this.batchTimer = Timer.builder("expense.import.batch")
+                .description("Time to write one batch of imported expenses")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Import one expense per CSV record. The header names the columns, in any
+     * order: title and amount are required; currency, category, paid_at,
+     * paid_by (the current user when empty), group_id, participants and
+     * description are optional. Participants are user ids separated by
+     * semicolons, either all with an amount ({@code 12:10.50}) or none, to
+     * split the amount evenly; without participants the payer owes it all.
+     */
+    public ExpenseImportResponse importCsv(Reader input) {
+        Long userId = currentUserId();
+        CsvReader reader = new CsvReader(input, maxRecordLength);
+        Map<String, Integer> columns = readHeader(reader);
+        Lookups lookups = loadLookups(userId);
+        log.info("Importing CSV expenses for user {}", userId);
+
+        return importRows(() -> {
+            List<String> record = reader.next();
+            while (record != null && record.size() == 1 && record.get(0).isBlank()) {
+                record = reader.next();
+            }
+            if (record == null) {
+                return null;
+            }
+            try {
+                return Row.of(reader.recordLine(), parseCsvRecord(record, columns, userId));
+            } catch (InvalidOperationException e) {
+                return Row.failed(reader.recordLine(), e.getMessage());
+            }
+        }, reader::line, lookups, userId);
+    }
+
+    /**
+     * Import the debits of an OFX bank statement as expenses paid by the
+     * current user, split evenly among the members of {@code groupId} when it
+     * is given. Credits are skipped.
+     */
+    public ExpenseImportResponse importOfx(Reader input, Long groupId) {
+        Long userId = currentUserId();
+        Lookups lookups = loadLookups(userId);
+        List<Long> members = null;
+        if (groupId != null) {
+            Set<Long> groupMembers = lookups.groupMembers().get(groupId);
+            if (groupMembers == null) {
+                throw new InvalidOperationException("Group not found: " + groupId);
+            }
+            members = groupMembers.stream().sorted().toList();
+        }
+        log.info("Importing OFX expenses for user {}", userId);
+
+        OfxReader reader = new OfxReader(input, maxRecordLength);
+        List<Long> groupMembers = members;
+        return importRows(() -> {
+            Map<String, String> transaction = reader.next();
+            if (transaction == null) {
+                return null;
+            }
+            try {
+                CreateExpenseRequest request = parseOfxTransaction(transaction, reader.currency(), userId,
+                        groupId, groupMembers);
+                return request != null ? Row.of(reader.transactionLine(), request)
+                        : Row.skipped(reader.transactionLine());
+            } catch (InvalidOperationException e) {
+                return Row.failed(reader.transactionLine(), e.getMessage());
+            }
+        }, reader::line, lookups, userId);
+    }
+
+    private ExpenseImportResponse importRows(RowSource source, LongSupplier currentLine, Lookups lookups,
+            Long userId) {
+        ExpenseImportResponse response = new ExpenseImportResponse();
+        List<Row> batch = new ArrayList<>(batchSize);
+        try {
+            Row row;
+            while ((row = source.next()) != null) {
+                response.setRowsRead(response.getRowsRead() + 1);
+                if (row.request() == null && row.error() == null) {
+                    response.setSkipped(response.getSkipped() + 1);
+                    meterRegistry.counter("expense.import.rows", "outcome", "skipped").increment();
+                    continue;
+                }
+
+                String error = row.error() != null ? row.error() : validate(row.request(), userId, lookups);
+                if (error != null) {
+                    fail(response, row.line(), error);
+                    continue;
+                }
+                batch.add(row);
+                if (batch.size() >= batchSize) {
+                    write(batch, response);
+                }
+            }
+            response.setCompleted(true);
+        } catch (IllegalArgumentException e) {
+            // The file is malformed from here on; keep what was read before
+            fail(response, currentLine.getAsLong(), e.getMessage());
+        } catch (IOException e) {
+            log.warn("Expense import stopped reading the upload: {}", e.getMessage());
+            fail(response, currentLine.getAsLong(), "Could not read the upload: " + e.getMessage());
+        }
+        write(batch, response);
+
+        log.info("Expense import for user {} finished: {} rows read, {} imported, {} skipped, {} failed",
+                userId, response.getRowsRead(), response.getImported(), response.getSkipped(), response.getFailed());
+        return response;
+    }
+
+    private void write(List<Row> batch, ExpenseImportResponse response) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<CreateExpenseRequest> requests = batch.stream().map(Row::request).toList();
+        try {
+            imported(response, batchTimer.record(() -> expenseService.createExpenses(requests)));
+        } catch (RuntimeException e) {
+            // Something changed since the lookups were loaded; find the rows at fault
+            log.warn("Expense import batch failed, retrying its rows one by one: {}", e.getMessage());
+            for (Row row : batch) {
+                try {
+                    imported(response, expenseService.createExpenses(List.of(row.request())));
+                } catch (RuntimeException rowError) {
+                    String message = String.valueOf(rowError.getMessage());
+                    fail(response, row.line(), message.startsWith(BATCH_ERROR_PREFIX)
+                            ? message.substring(BATCH_ERROR_PREFIX.length()) : message);
+                }
+            }
+        }
+        batch.clear();
+        log.info("Expense import progress: {} rows read, {} imported, {} failed",
+                response.getRowsRead(), response.getImported(), response.getFailed());
+    }
+
+    private void imported(ExpenseImportResponse response, List<ExpenseResponse> expenses) {
+        response.setImported(response.getImported() + expenses.size());
+        meterRegistry.counter("expense.import.rows", "outcome", "imported").increment(expenses.size());
+        // Later batches are queued after earlier ones, so the last version covers them all
+        Long balanceVersion = expenses.get(expenses.size() - 1).getBalanceVersion();
+        if (balanceVersion != null) {
+            response.setBalanceVersion(balanceVersion);
+        }
+    }
+
+    private void fail(ExpenseImportResponse response, long line, String message) {
+        response.setFailed(response.getFailed() + 1);
+        meterRegistry.counter("expense.import.rows", "outcome", "failed").increment();
+        if (response.getErrors().size() < maxErrors) {
+            response.getErrors().add(new RowError(line, message));
+        } else {
+            response.setErrorsTruncated(true);
+        }
+    }
+
+    /**
+     * Check that the importing user may record a parsed row, then check it
+     * against the lookups with {@link ExpenseService#validateExpense}, the
+     * rules of {@link ExpenseService#createExpense}. Returns the error, or
+     * null when the row is valid.
+     */
+    private String validate(CreateExpenseRequest request, Long userId, Lookups lookups) {
+        Long payerId = request.getPaidBy();
+        if (!lookups.users().contains(payerId)) {
+            return "Payer must be you or one of your friends: " + payerId;
+        }
+        if (!payerId.equals(userId) && request.getParticipants().stream()
+                .noneMatch(participant -> userId.equals(participant.getUserId()))) {
+            return "You must be the payer or a participant";
+        }
+
+        try {
+            expenseService.validateExpense(request,
+                    friendId -> lookups.friendPairs().contains(friendPair(payerId, friendId)),
+                    groupId -> Optional.ofNullable(lookups.groupMembers().get(groupId)));
+            return null;
+        } catch (InvalidOperationException e) {
+            return e.getMessage();
+        }
+    }
+
+    private Map<String, Integer> readHeader(CsvReader reader) {
+        List<String> header;
+        try {
+            header = reader.next();
+        } catch (IOException | IllegalArgumentException e) {
+            throw new InvalidOperationException("Could not read the CSV header: " + e.getMessage());
+        }
+        if (header == null) {
+            throw new InvalidOperationException("The CSV file is empty");
+        }
+
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < header.size(); i++) {
+            String name = header.get(i).replace("\uFEFF", "").trim().toLowerCase(Locale.ROOT).replace(' ', '_');
+            columns.putIfAbsent(name, i);
+        }
+        if (!columns.containsKey("title") || !columns.containsKey("amount")) {
+            throw new InvalidOperationException("The CSV header must name the title and amount columns");
+        }
+        return columns;
+    }
+
+    private CreateExpenseRequest parseCsvRecord(List<String> record, Map<String, Integer> columns, Long userId) {
+        String currency = field(record, columns, "currency").toUpperCase(Locale.ROOT);
+        String paidBy = field(record, columns, "paid_by");
+        String groupId = field(record, columns, "group_id");
+
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle(text(field(record, columns, "title"), "Title"));
+        if (request.getTitle().isEmpty()) {
+            throw new InvalidOperationException("Title is required");
+        }
+        String description = text(field(record, columns, "description"), "Description");
+        request.setDescription(description.isEmpty() ? null : description);
+        request.setAmount(parsePositiveAmount(field(record, columns, "amount")));
+        request.setCurrency(currency.isEmpty() ? DEFAULT_CURRENCY : currency);
+        String category = text(field(record, columns, "category"), "Category");
+        request.setCategory(category.isEmpty() ? DEFAULT_CATEGORY : category);
+        request.setPaidAt(parseDateTime(field(record, columns, "paid_at")));
+        request.setPaidBy(paidBy.isEmpty() ? userId : parseId(paidBy));
+        request.setParticipants(parseParticipants(field(record, columns, "participants"), request,
+                groupId.isEmpty() ? null : parseId(groupId)));
+        return request;
+    }
+
+    private List<ParticipantRequest> parseParticipants(String value, CreateExpenseRequest request, Long groupId) {
+        ParticipantSource source = groupId != null ? ParticipantSource.GROUP : ParticipantSource.FRIEND;
+        if (value.isEmpty()) {
+            return List.of(participant(request.getPaidBy(), request.getAmount(), source, groupId));
+        }
+
+        List<Long> userIds = new ArrayList<>();
+        List<BigDecimal> amounts = new ArrayList<>();
+        for (String entry : value.split(";")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int separator = trimmed.indexOf(':');
+            userIds.add(parseId(separator < 0 ? trimmed : trimmed.substring(0, separator).trim()));
+            if (separator >= 0) {
+                amounts.add(parsePositiveAmount(trimmed.substring(separator + 1).trim()));
+            }
+        }
+        if (!amounts.isEmpty() && amounts.size() != userIds.size()) {
+            throw new InvalidOperationException("Participants must all have an amount or none");
+        }
+        if (amounts.isEmpty()) {
+            return evenShares(userIds, request, source, groupId);
+        }
+
+        List<ParticipantRequest> participants = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            participants.add(participant(userIds.get(i), amounts.get(i), source, groupId));
+        }
+        return participants;
+    }
+
+    private CreateExpenseRequest parseOfxTransaction(Map<String, String> transaction, String currency, Long userId,
+            Long groupId, List<Long> groupMembers) {
+        BigDecimal amount = parseAmount(transaction.getOrDefault("TRNAMT", "").replace(',', '.'));
+        if (amount.signum() >= 0) {
+            return null;
+        }
+
+        String name = transaction.get("NAME");
+        String memo = transaction.get("MEMO");
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle(text(name != null ? name : memo != null ? memo : "Bank transaction", "Title"));
+        request.setDescription(name != null && memo != null && !memo.equals(name) ? text(memo, "Memo") : null);
+        request.setAmount(amount.negate());
+        request.setCurrency(currency != null ? currency.toUpperCase(Locale.ROOT) : DEFAULT_CURRENCY);
+        request.setCategory(DEFAULT_CATEGORY);
+        request.setPaidAt(parseOfxDateTime(transaction.get("DTPOSTED")));
+        request.setPaidBy(userId);
+        request.setParticipants(groupMembers != null
+                ? evenShares(groupMembers, request, ParticipantSource.GROUP, groupId)
+                : List.of(participant(userId, request.getAmount(), ParticipantSource.FRIEND, null)));
+        return request;
+    }
+
+    // Split the amount evenly, giving the cents left over to the first users
+    private static List<ParticipantRequest> evenShares(List<Long> userIds, CreateExpenseRequest request,
+            ParticipantSource source, Long groupId) {
+        long cents = MoneyUtil.toCents(request.getAmount());
+        long share = cents / userIds.size();
+        long remainder = cents % userIds.size();
+        List<ParticipantRequest> participants = new ArrayList<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            long userCents = share + (i < remainder ? 1 : 0);
+            participants.add(participant(userIds.get(i), BigDecimal.valueOf(userCents, 2), source, groupId));
+        }
+        return participants;
+    }
+
+    private static ParticipantRequest participant(Long userId, BigDecimal amount, ParticipantSource source,
+            Long groupId) {
+        ParticipantRequest participant = new ParticipantRequest();
+        participant.setUserId(userId);
+        participant.setAmount(amount);
+        participant.setSource(source);
+        participant.setSourceId(groupId);
+        return participant;
+    }
+
+    private static String field(List<String> record, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index != null && index < record.size() ? record.get(index).trim() : "";
+    }
+
+    private static String text(String value, String name) {
+        if (value.length() > MAX_TEXT_LENGTH) {
+            throw new InvalidOperationException(name + " is longer than " + MAX_TEXT_LENGTH + " characters");
+        }
+        return value;
+    }
+
+    private static BigDecimal parseAmount(String value) {
+        try {
+            BigDecimal amount = new BigDecimal(value);
+            if (amount.signum() == 0) {
+                throw new InvalidOperationException("Amount must not be zero");
+            }
+            return amount;
+        } catch (NumberFormatException e) {
+            throw new InvalidOperationException("Invalid amount: " + value);
+        }
+    }
+
+    private static BigDecimal parsePositiveAmount(String value) {
+        BigDecimal amount = parseAmount(value);
+        if (amount.signum() < 0) {
+            throw new InvalidOperationException("Amount must be positive: " + value);
+        }
+        return amount;
+    }
+
+    private static Long parseId(String value) {
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new InvalidOperationException("Invalid user or group id: " + value);
+        }
+    }
+
+    // ISO dates or date-times, with a space or a T between date and time
+    private static LocalDateTime parseDateTime(String value) {
+        if (value.isEmpty()) {
+            return LocalDateTime.now();
+        }
+        try {
+            return value.length() <= 10 ? LocalDate.parse(value).atStartOfDay()
+                    : LocalDateTime.parse(value.replace(' ', 'T'));
+        } catch (DateTimeParseException e) {
+            throw new InvalidOperationException("Invalid date: " + value);
+        }
+    }
+
+    // YYYYMMDD, optionally followed by HHMMSS, fractions and a time zone
+    private static LocalDateTime parseOfxDateTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return LocalDateTime.now();
+        }
+        try {
+            LocalDate date = LocalDate.of(Integer.parseInt(value.substring(0, 4)),
+                    Integer.parseInt(value.substring(4, 6)), Integer.parseInt(value.substring(6, 8)));
+            LocalTime time = value.length() >= 14 ? LocalTime.of(Integer.parseInt(value.substring(8, 10)),
+                    Integer.parseInt(value.substring(10, 12)), Integer.parseInt(value.substring(12, 14)))
+                    : LocalTime.MIDNIGHT;
+            return date.atTime(time);
+        } catch (RuntimeException e) {
+            throw new InvalidOperationException("Invalid date: " + value);
+        }
+    }
+
+    private Lookups loadLookups(Long userId) {
+        Set<Long> users = new HashSet<>();
+        users.add(userId);
+        Set<List<Long>> friendPairs = new HashSet<>();
+        jdbcTemplate.query(FRIENDSHIPS_SQL, (RowCallbackHandler) resultSet -> {
+            long first = resultSet.getLong(1);
+            long second = resultSet.getLong(2);
+            friendPairs.add(friendPair(first, second));
+            if (first == userId) {
+                users.add(second);
+            } else if (second == userId) {
+                users.add(first);
+            }
+        }, userId, userId, userId);
+
+        Map<Long, Set<Long>> groupMembers = new HashMap<>();
+        jdbcTemplate.query(GROUP_MEMBERS_SQL, (RowCallbackHandler) resultSet -> groupMembers
+                .computeIfAbsent(resultSet.getLong(1), groupId -> new HashSet<>())
+                .add(resultSet.getLong(2)), userId);
+        return new Lookups(users, friendPairs, groupMembers);
+    }
+
+    private static Long currentUserId() {
+        return Long.valueOf(SecurityContextHolder.getContext().getAuthentication().getName());
+    }
+
+    // Friendships may be stored in either direction
+    private static List<Long> friendPair(Long userId, Long friendId) {
+        return userId < friendId ? List.of(userId, friendId) : List.of(friendId, userId);
+    }
+
+    /**
+     * The importing user and their friends, the friendships among them, and
+     * the members of each group the user belongs to
+     */
+    private record Lookups(Set<Long> users, Set<List<Long>> friendPairs, Map<Long, Set<Long>> groupMembers) {
+    }
+
+    /**
+     * A parsed record: a request to validate, a parse error, or neither when
+     * the record is skipped
+     */
+    private record Row(long line, CreateExpenseRequest request, String error) {
+
+        static Row of(long line, CreateExpenseRequest request) {
+            return new Row(line, request, null);
+        }
+
+        static Row failed(long line, String error) {
+            return new Row(line, null, error);
+        }
+
+        static Row skipped(long line) {
+            return new Row(line, null, null);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowSource {
+        Row next() throws IOException;
+    }
+}
@@ -0,0 +1,128 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpensePage;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.repositories.ExpenseRepository;
+import com.splitbuddy.splitbuddy.utility.ExpenseCursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Reads expense lists one keyset page at a time.
+ *
+ * A page is found in two queries whatever the size of the list: one walks the
+ * (created_at, id) index from the page token's cursor and returns at most one
+ * id more than the page size, the extra one telling whether another page
+ * follows; the other loads those expenses with their payer and participants.
+ * Page sizes default to {@code expense.page.default-size} and are capped at
+ * {@code expense.page.max-size}.
+ *
+ * Requests with neither a page token nor a size still get the whole list, as
+ * before lists were paged. That is deprecated and answered with a
+ * {@value #DEPRECATION_HEADER} header; it goes away in the next release.
+ */
+@Service
+public class ExpensePager {
+
+    public static final String NEXT_PAGE_HEADER = "X-Next-Page-Token";
+    public static final String DEPRECATION_HEADER = "Deprecation";
+
+    private final ExpenseRepository expenseRepository;
+    private final int defaultSize;
+    private final int maxSize;
+
+    public ExpensePager(ExpenseRepository expenseRepository,
+            @Value("${expense.page.default-size:50}") int defaultSize,
+            @Value("${expense.page.max-size:200}") int maxSize) {
+        this.expenseRepository = expenseRepository;
+        this.defaultSize = defaultSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Ids of up to {@code limit} expenses before a cursor, newest first
+     */
+    @FunctionalInterface
+    public interface IdQuery {
+        List<Long> find(LocalDateTime createdAt, long id, int limit);
+    }
+
+    /**
+     * Whether a request asks for no page at all, which returns the whole list
+     */
+    public static boolean isUnpaged(String pageToken, Integer size) {
+        return (pageToken == null || pageToken.isEmpty()) && size == null;
+    }
+
+    /**
+     * Whether a request is for the first page at the default size, the one
+     * concurrent readers can share
+     */
+    public boolean isFirstPage(String pageToken, Integer size) {
+        return (pageToken == null || pageToken.isEmpty()) && (size == null || size == defaultSize);
+    }
+
+    /**
+     * Read the page after {@code pageToken}, or the first page when it is null
+     *
+     * @throws InvalidOperationException if the token is invalid or the size is
+     *                                   not positive
+     */
+    public ExpensePage read(String pageToken, Integer size, IdQuery query,
+            Function<Expense, ExpenseResponse> converter) {
+        int pageSize = pageSize(size);
+        ExpenseCursor cursor = ExpenseCursor.fromToken(pageToken);
+        List<Long> ids = query.find(cursor.createdAt(), cursor.id(), pageSize + 1);
+        boolean hasMore = ids.size() > pageSize;
+        if (hasMore) {
+            ids = ids.subList(0, pageSize);
+        }
+
+        Map<Long, Expense> expenses = ids.isEmpty() ? Map.of()
+                : expenseRepository.findWithParticipantsByIdIn(ids).stream()
+                        .collect(Collectors.toMap(Expense::getId, Function.identity()));
+        List<Expense> page = ids.stream()
+                .map(expenses::get)
+                .filter(Objects::nonNull) // Deleted since the ids were read
+                .toList();
+
+        String nextPageToken = null;
+        if (hasMore && !page.isEmpty()) {
+            Expense last = page.get(page.size() - 1);
+            nextPageToken = new ExpenseCursor(last.getCreatedAt(), last.getId()).toToken();
+        }
+        return new ExpensePage(page.stream().map(converter).collect(Collectors.toList()), nextPageToken);
+    }
+
+    /**
+     * Read the whole list, newest first, one page of {@code expense.page.max-size}
+     * at a time
+     */
+    public ExpensePage readAll(IdQuery query, Function<Expense, ExpenseResponse> converter) {
+        List<ExpenseResponse> expenses = new ArrayList<>();
+        String pageToken = null;
+        do {
+            ExpensePage page = read(pageToken, maxSize, query, converter);
+            expenses.addAll(page.getExpenses());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
+        return new ExpensePage(expenses, null);
+    }
+
+    private int pageSize(Integer size) {
+        if (size != null && size < 1) {
+            throw new InvalidOperationException("Page size must be positive");
+        }
+        return Math.min(size != null ? size : defaultSize, maxSize);
+    }
+}
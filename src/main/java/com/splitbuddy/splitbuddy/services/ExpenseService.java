@@ -2,6 +2,7 @@ package com.splitbuddy.splitbuddy.services;
 
 import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
 import com.splitbuddy.splitbuddy.dto.request.UpdateExpenseRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpensePage;
 import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
 import com.splitbuddy.splitbuddy.dto.response.FriendExpensesResponse;
@@ -12,14 +13,17 @@ import com.splitbuddy.splitbuddy.exceptions.ExpenseNotFoundException;
 import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
 import com.splitbuddy.splitbuddy.exceptions.UserNotFoundException;
 import com.splitbuddy.splitbuddy.models.*;
+import com.splitbuddy.splitbuddy.repositories.ExpenseJdbcRepository;
 import com.splitbuddy.splitbuddy.repositories.ExpenseParticipantRepository;
 import com.splitbuddy.splitbuddy.repositories.ExpenseRepository;
 import com.splitbuddy.splitbuddy.repositories.FriendshipRepository;
 import com.splitbuddy.splitbuddy.repositories.GroupRepository;
 import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
@@ -28,6 +32,10 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 
@@ -36,12 +44,21 @@ import java.util.stream.Collectors;
 @Slf4j
 public class ExpenseService {
 
+    private static final BigDecimal SHARE_TOLERANCE = new BigDecimal("0.01");
+
     private final ExpenseRepository expenseRepository;
     private final ExpenseParticipantRepository expenseParticipantRepository;
+    private final ExpenseJdbcRepository expenseJdbcRepository;
     private final UserRepository userRepository;
     private final GroupRepository groupRepository;
     private final FriendshipRepository friendshipRepository;
     private final BalanceService balanceService;
+    private final SettlementService settlementService;
+    private final RequestCoalescer requestCoalescer;
+    private final ExpensePager expensePager;
+
+    @Value("${expense.batch.max-size:1000}")
+    private int maxBatchSize;
 
     @Transactional
     public ExpenseResponse createExpense(CreateExpenseRequest request) {
@@ -51,6 +68,123 @@ public class ExpenseService {
         User payer = userRepository.findById(request.getPaidBy())
                 .orElseThrow(() -> new UserNotFoundException("Payer not found"));
 
+        Expense expense = buildExpense(request, payer,
+                userId -> userRepository.findById(userId)
+                        .orElseThrow(() -> new UserNotFoundException("Participant user not found: " + userId)),
+                participantDto -> validateParticipantSource(participantDto, payer));
+
+        // Save expense and participants
+        Expense savedExpense = expenseRepository.save(expense);
+
+        // Update balance aggregates
+        Long balanceVersion = balanceService.updateBalancesForExpense(savedExpense);
+
+        log.info("Expense created successfully with ID: {}", savedExpense.getId());
+        ExpenseResponse response = convertToResponse(savedExpense);
+        response.setBalanceVersion(balanceVersion);
+        return response;
+    }
+
+    /**
+     * Create many expenses at once, for imports. Every expense is validated
+     * before any is written, with the users, friendships and groups they refer
+     * to loaded once for the whole batch. Rows are inserted in JDBC batches and
+     * the balances of all expenses are applied as one set of folded deltas.
+     */
+    @Transactional
+    public List<ExpenseResponse> createExpenses(List<CreateExpenseRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            throw new InvalidOperationException("At least one expense is required");
+        }
+        if (requests.size() > maxBatchSize) {
+            throw new InvalidOperationException("At most " + maxBatchSize + " expenses can be created at once");
+        }
+        log.info("Creating {} expenses", requests.size());
+
+        Set<Long> userIds = new HashSet<>();
+        Set<Long> groupIds = new HashSet<>();
+        for (CreateExpenseRequest request : requests) {
+            userIds.add(request.getPaidBy());
+            for (CreateExpenseRequest.ParticipantRequest participantDto : request.getParticipants()) {
+                userIds.add(participantDto.getUserId());
+                if (participantDto.getSource() == ExpenseParticipant.ParticipantSource.GROUP
+                        && participantDto.getSourceId() != null) {
+                    groupIds.add(participantDto.getSourceId());
+                }
+            }
+        }
+        userIds.remove(null);
+
+        Map<Long, User> users = userRepository.findAllById(userIds).stream()
+                .collect(Collectors.toMap(User::getId, user -> user));
+        Set<List<Long>> friendPairs = friendshipRepository.findAllBetween(userIds).stream()
+                .map(friendship -> friendPair(friendship.getUser().getId(), friendship.getFriend().getId()))
+                .collect(Collectors.toSet());
+        Map<Long, Set<Long>> groupMembers = groupRepository.findAllById(groupIds).stream()
+                .collect(Collectors.toMap(Group::getId, group -> group.getMembers().stream()
+                        .map(User::getId)
+                        .collect(Collectors.toSet())));
+
+        List<Expense> expenses = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            CreateExpenseRequest request = requests.get(i);
+            String prefix = "Expense " + i + ": ";
+            try {
+                User payer = Optional.ofNullable(users.get(request.getPaidBy()))
+                        .orElseThrow(() -> new UserNotFoundException("Payer not found"));
+                expenses.add(buildExpense(request, payer,
+                        userId -> Optional.ofNullable(users.get(userId))
+                                .orElseThrow(() -> new UserNotFoundException("Participant user not found: " + userId)),
+                        participantDto -> validateParticipantSource(participantDto, payer,
+                                friendId -> friendPairs.contains(friendPair(payer.getId(), friendId)),
+                                groupId -> Optional.ofNullable(groupMembers.get(groupId)))));
+            } catch (UserNotFoundException e) {
+                throw new UserNotFoundException(prefix + e.getMessage());
+            } catch (InvalidOperationException e) {
+                throw new InvalidOperationException(prefix + e.getMessage());
+            }
+        }
+
+        expenseJdbcRepository.insertAll(expenses);
+        Long balanceVersion = balanceService.updateBalancesForExpenses(expenses);
+
+        log.info("Created {} expenses", expenses.size());
+        List<ExpenseResponse> responses = expenses.stream()
+                .map(this::convertToResponse)
+                .collect(Collectors.toList());
+        responses.forEach(response -> response.setBalanceVersion(balanceVersion));
+        return responses;
+    }
+
+    /**
+     * Check a request with the rules of {@link #createExpense} against
+     * friendships and group members the caller has already loaded, for
+     * imports that reject rows before they reach a batch. Nothing is read or
+     * written; errors are thrown as by createExpense. Whether the payer and
+     * participants exist is left to the write.
+     */
+    void validateExpense(CreateExpenseRequest request, Predicate<Long> isFriendOfPayer,
+            Function<Long, Optional<Set<Long>>> groupMemberIds) {
+        User payer = userReference(request.getPaidBy());
+        buildExpense(request, payer, ExpenseService::userReference,
+                participantDto -> validateParticipantSource(participantDto, payer, isFriendOfPayer, groupMemberIds));
+    }
+
+    private static User userReference(Long userId) {
+        User user = new User();
+        user.setId(userId);
+        return user;
+    }
+
+    /**
+     * Build an unsaved expense with its participants from a request, skipping
+     * duplicate participants and checking that their shares add up to the
+     * amount
+     */
+    private Expense buildExpense(CreateExpenseRequest request, User payer, Function<Long, User> participantUsers,
+            Consumer<CreateExpenseRequest.ParticipantRequest> participantValidator) {
+        requireCurrencyCode(request.getCurrency());
+
         // Create the expense
         Expense expense = new Expense();
         expense.setTitle(request.getTitle());
@@ -73,12 +207,10 @@ public class ExpenseService {
             }
 
             // Validate user exists
-            User participantUser = userRepository.findById(participantDto.getUserId())
-                    .orElseThrow(() -> new UserNotFoundException(
-                            "Participant user not found: " + participantDto.getUserId()));
+            User participantUser = participantUsers.apply(participantDto.getUserId());
 
             // Validate friendship or group membership based on source
-            validateParticipantSource(participantDto, payer);
+            participantValidator.accept(participantDto);
 
             // Create participant
             ExpenseParticipant participant = new ExpenseParticipant();
@@ -92,26 +224,31 @@ public class ExpenseService {
             processedUserIds.add(participantDto.getUserId());
         }
 
-        // Validate total amount matches (with small tolerance for rounding)
+        // Validate total amount matches (with a one cent tolerance for rounding),
+        // comparing the shares as sent so sub-cent splits are not rounded apart
         BigDecimal totalParticipantAmount = participants.stream()
                 .map(ExpenseParticipant::getAmount)
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
-
         BigDecimal difference = request.getAmount().subtract(totalParticipantAmount).abs();
-        if (difference.compareTo(BigDecimal.valueOf(0.01)) > 0) {
+        if (difference.compareTo(SHARE_TOLERANCE) > 0) {
             throw new InvalidOperationException("Total participant amount (" + totalParticipantAmount +
                     ") does not match expense amount (" + request.getAmount() + ")");
         }
 
-        // Save expense and participants
         expense.setParticipants(participants);
-        Expense savedExpense = expenseRepository.save(expense);
-
-        // Update balance aggregates
-        balanceService.updateBalancesForExpense(savedExpense);
+        return expense;
+    }
 
-        log.info("Expense created successfully with ID: {}", savedExpense.getId());
-        return convertToResponse(savedExpense);
+    private static void requireCurrencyCode(String currency) {
+        if (currency == null) {
+            throw new InvalidOperationException("Expense currency is required");
+        }
+        if (!MoneyUtil.isCurrencyCode(currency)) {
+            throw new InvalidOperationException("Unknown currency code: " + currency);
+        }
+        if (!MoneyUtil.hasCents(currency)) {
+            throw new InvalidOperationException("Only currencies with two decimal places are supported: " + currency);
+        }
     }
 
     /**
@@ -136,6 +273,10 @@ public class ExpenseService {
             throw new InvalidOperationException("You don't have permission to update this expense");
         }
 
+        if (request.getCurrency() != null) {
+            requireCurrencyCode(request.getCurrency());
+        }
+
         // Reverse existing balance aggregates before updating
         balanceService.reverseBalancesForExpense(expense);
 
@@ -190,17 +331,20 @@ public class ExpenseService {
         Expense updatedExpense = expenseRepository.save(expense);
 
         // Recalculate balance aggregates
-        balanceService.updateBalancesForExpense(updatedExpense);
+        Long balanceVersion = balanceService.updateBalancesForExpense(updatedExpense);
 
         log.info("Expense updated successfully: {}", expenseId);
-        return convertToResponse(updatedExpense);
+        ExpenseResponse response = convertToResponse(updatedExpense);
+        response.setBalanceVersion(balanceVersion);
+        return response;
     }
 
     /**
      * Delete an expense
+     * @return the outbox version of the balance change, or null when it was applied right away
      */
     @Transactional
-    public void deleteExpense(Long expenseId) {
+    public Long deleteExpense(Long expenseId) {
         log.info("Deleting expense ID: {}", expenseId);
 
         // Find the expense
@@ -216,20 +360,22 @@ public class ExpenseService {
         }
 
         // Reverse balance aggregates
-        balanceService.reverseBalancesForExpense(expense);
+        Long balanceVersion = balanceService.reverseBalancesForExpense(expense);
 
         // Delete participants and expense
         expenseParticipantRepository.deleteAll(expense.getParticipants());
         expenseRepository.delete(expense);
 
         log.info("Expense deleted successfully: {}", expenseId);
+        return balanceVersion;
     }
 
     /**
      * Update payment status of a participant
+     * @return the outbox version of the balance change, or null when there was none or it was applied right away
      */
     @Transactional
-    public void updateParticipantPaymentStatus(Long expenseId, Long participantId, boolean isPaid) {
+    public Long updateParticipantPaymentStatus(Long expenseId, Long participantId, boolean isPaid) {
         log.info("Updating payment status for participant {} in expense {}: isPaid={}", participantId, expenseId, isPaid);
 
         // Find the participant
@@ -249,18 +395,42 @@ public class ExpenseService {
             throw new InvalidOperationException("Only the payer can mark payments");
         }
 
+        // Marking twice would settle the share twice
+        if (participant.isPaid() == isPaid) {
+            log.info("Payment status already {}", isPaid ? "paid" : "unpaid");
+            return null;
+        }
+
         // Update payment status
+        Instant paidAt = isPaid ? Instant.now() : participant.getPaidAt();
         participant.setPaid(isPaid);
-        participant.setPaidAt(isPaid ? Instant.now() : null);
+        participant.setPaidAt(isPaid ? paidAt : null);
         expenseParticipantRepository.save(participant);
 
         // Update balances
-        balanceService.updateBalanceForPayment(participant.getExpense(), participant, isPaid);
+        Long balanceVersion = balanceService.updateBalanceForPayment(participant.getExpense(), participant, isPaid,
+                paidAt);
 
         log.info("Payment status updated successfully");
+        return balanceVersion;
     }
 
     private void validateParticipantSource(CreateExpenseRequest.ParticipantRequest participantDto, User payer) {
+        validateParticipantSource(participantDto, payer,
+                friendId -> {
+                    User participantUser = userRepository.findById(friendId)
+                            .orElseThrow(() -> new UserNotFoundException("Participant user not found: " + friendId));
+                    return friendshipRepository.existsByUserAndFriend(payer, participantUser) ||
+                            friendshipRepository.existsByUserAndFriend(participantUser, payer);
+                },
+                groupId -> groupRepository.findById(groupId)
+                        .map(group -> group.getMembers().stream()
+                                .map(User::getId)
+                                .collect(Collectors.toSet())));
+    }
+
+    private void validateParticipantSource(CreateExpenseRequest.ParticipantRequest participantDto, User payer,
+            Predicate<Long> isFriendOfPayer, Function<Long, Optional<Set<Long>>> groupMemberIds) {
         // Skip validation if the participant is the same as the payer (user can't be
         // friends with themselves)
         if (participantDto.getUserId().equals(payer.getId())) {
@@ -270,13 +440,7 @@ public class ExpenseService {
 
         if (participantDto.getSource() == ExpenseParticipant.ParticipantSource.FRIEND) {
             // Validate friendship exists - sourceId is optional for friends
-            User participantUser = userRepository.findById(participantDto.getUserId())
-                    .orElseThrow(() -> new UserNotFoundException(
-                            "Participant user not found: " + participantDto.getUserId()));
-
-            boolean friendshipExists = friendshipRepository.existsByUserAndFriend(payer, participantUser) ||
-                    friendshipRepository.existsByUserAndFriend(participantUser, payer);
-            if (!friendshipExists) {
+            if (!isFriendOfPayer.test(participantDto.getUserId())) {
                 throw new InvalidOperationException("User is not a friend: " + participantDto.getUserId());
             }
         } else if (participantDto.getSource() == ExpenseParticipant.ParticipantSource.GROUP) {
@@ -285,26 +449,19 @@ public class ExpenseService {
                 throw new InvalidOperationException("Source ID is required for GROUP participants");
             }
 
-            Group group = groupRepository.findById(participantDto.getSourceId())
+            Set<Long> memberIds = groupMemberIds.apply(participantDto.getSourceId())
                     .orElseThrow(
                             () -> new InvalidOperationException("Group not found: " + participantDto.getSourceId()));
 
-            boolean isGroupMember = group.getMembers().stream()
-                    .anyMatch(member -> member.getId().equals(participantDto.getUserId()));
-            if (!isGroupMember) {
+            if (!memberIds.contains(participantDto.getUserId())) {
                 throw new InvalidOperationException("User is not a member of the group: " + participantDto.getUserId());
             }
         }
     }
 
-    public List<ExpenseResponse> getExpensesForUser() {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String userIdString = authentication.getName();
-        Long userId = Long.valueOf(userIdString);
-        List<Expense> expenses = expenseRepository.findExpensesByParticipantId(userId);
-        return expenses.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    // Friendships may be stored in either direction
+    private static List<Long> friendPair(Long userId, Long friendId) {
+        return userId < friendId ? List.of(userId, friendId) : List.of(friendId, userId);
     }
 
     public ExpenseResponse getExpenseById(Long expenseId) {
@@ -313,23 +470,42 @@ public class ExpenseService {
         return convertToResponse(expense);
     }
 
-    public List<ExpenseResponse> getExpensesByGroup(Long groupId) {
-        List<Expense> expenses = expenseRepository.findExpensesByGroupId(groupId);
-        return expenses.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    /**
+     * One page of a group's expenses, newest first, or all of them when
+     * neither a page token nor a size is given (deprecated). Concurrent
+     * requests for the first page or the whole list share one read.
+     */
+    public ExpensePage getExpensesByGroup(Long groupId, String pageToken, Integer size) {
+        ExpensePager.IdQuery query = (createdAt, id, limit) -> expenseRepository.findGroupExpenseIdsBefore(groupId,
+                createdAt, id, limit);
+        if (ExpensePager.isUnpaged(pageToken, size)) {
+            return requestCoalescer.forGroup("expenses.group.unpaged", groupId,
+                    () -> expensePager.readAll(query, this::convertToResponse));
+        }
+        Supplier<ExpensePage> loader = () -> expensePager.read(pageToken, size, query, this::convertToResponse);
+        return expensePager.isFirstPage(pageToken, size)
+                ? requestCoalescer.forGroup("expenses.group", groupId, loader)
+                : loader.get();
     }
 
-    public List<ExpenseResponse> getExpensesByUser() {
-
+    /**
+     * One page of the expenses the current user takes part in, newest first,
+     * or all of them when neither a page token nor a size is given (deprecated)
+     */
+    public ExpensePage getExpensesByUser(String pageToken, Integer size) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
-        System.out.println("userId: " + userId);
-        List<Expense> expenses = expenseRepository.findExpensesByParticipantId(userId);
-        return expenses.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        ExpensePager.IdQuery query = (createdAt, id, limit) -> expenseRepository.findParticipantExpenseIdsBefore(
+                userId, createdAt, id, limit);
+        if (ExpensePager.isUnpaged(pageToken, size)) {
+            return requestCoalescer.forUser("expenses.participant.unpaged", userId,
+                    () -> expensePager.readAll(query, this::convertToResponse));
+        }
+        Supplier<ExpensePage> loader = () -> expensePager.read(pageToken, size, query, this::convertToResponse);
+        return expensePager.isFirstPage(pageToken, size)
+                ? requestCoalescer.forUser("expenses.participant", userId, loader)
+                : loader.get();
     }
 
     public List<FriendBalanceResponse> getFriendBalances(String userIdString) {
@@ -342,17 +518,18 @@ public class ExpenseService {
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
 
-        List<Expense> expenses = expenseRepository.findAllExpensesForUser(userId);
-        return expenses.stream()
-                .sorted((e1, e2) -> e2.getCreatedAt().compareTo(e1.getCreatedAt())) // Most recent first
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+        return requestCoalescer.forUser("expenses.recent", userId, () -> {
+            List<Expense> expenses = expenseRepository.findAllExpensesForUser(userId);
+            return expenses.stream()
+                    .sorted((e1, e2) -> e2.getCreatedAt().compareTo(e1.getCreatedAt())) // Most recent first
+                    .map(this::convertToResponse)
+                    .collect(Collectors.toList());
+        });
     }
 
     public List<SettlementResponse> getSettlements(String userIdString) {
         Long userId = Long.valueOf(userIdString);
-        // TODO: Implement settlement calculation logic
-        return new ArrayList<>();
+        return settlementService.getSettlementsForUser(userId);
     }
 
     public UserBalanceSummaryResponse getUserBalanceSummary() {
@@ -368,20 +545,26 @@ public class ExpenseService {
         return balanceService.getUserBalanceSummary(userId);
     }
 
-    public FriendExpensesResponse getExpensesBetweenFriends(String friendIdString) {
+    public FriendExpensesResponse getExpensesBetweenFriends(String friendIdString, String pageToken, Integer size) {
         Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
         String userIdString = authentication.getName();
         Long userId = Long.valueOf(userIdString);
         Long friendId = Long.valueOf(friendIdString);
 
-        return balanceService.getFriendExpenses(userId, friendId);
+        return balanceService.getFriendExpenses(userId, friendId, pageToken, size);
     }
 
-    public List<ExpenseResponse> getAllExpensesForGroup(Long groupId) {
-        List<Expense> expenses = expenseRepository.findAllExpensesForGroup(groupId);
-        return expenses.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public ExpensePage getAllExpensesForGroup(Long groupId, String pageToken, Integer size) {
+        ExpensePager.IdQuery query = (createdAt, id, limit) -> expenseRepository.findGroupExpenseIdsBefore(groupId,
+                createdAt, id, limit);
+        if (ExpensePager.isUnpaged(pageToken, size)) {
+            return requestCoalescer.forGroup("expenses.group-all.unpaged", groupId,
+                    () -> expensePager.readAll(query, this::convertToResponse));
+        }
+        Supplier<ExpensePage> loader = () -> expensePager.read(pageToken, size, query, this::convertToResponse);
+        return expensePager.isFirstPage(pageToken, size)
+                ? requestCoalescer.forGroup("expenses.group-all", groupId, loader)
+                : loader.get();
     }
 
     public List<GroupBalanceResponse> getGroupBalances(Long groupId) {
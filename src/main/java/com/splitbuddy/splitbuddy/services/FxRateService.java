@@ -0,0 +1,121 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.TreeMap;
+
+/**
+ * Node-local copy of the fx_rates table.
+ *
+ * Rates are reloaded every {@code balance.fx.refresh-interval} into a new
+ * immutable table of sorted currency keys and rates, published through a
+ * volatile field, so lookups never lock. Rates are kept as the exact decimals
+ * stored in the table and each currency's amount is converted and rounded to
+ * cents half-even on its own, so a total never depends on binary fractions or
+ * on the order currencies are added in. The base currency
+ * ({@code balance.fx.base-currency}) always converts at 1. When the rates
+ * change, cached summaries are evicted so their converted totals follow.
+ */
+@Service
+@Slf4j
+public class FxRateService {
+
+    private final JdbcTemplate jdbcTemplate;
+    private final BalanceCacheService balanceCacheService;
+    private final String baseCurrency;
+    private volatile Rates rates;
+
+    public FxRateService(JdbcTemplate jdbcTemplate, BalanceCacheService balanceCacheService,
+            @Value("${balance.fx.base-currency:USD}") String baseCurrency) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.balanceCacheService = balanceCacheService;
+        this.baseCurrency = baseCurrency;
+        this.rates = Rates.of(Map.of(MoneyUtil.currencyKey(baseCurrency), BigDecimal.ONE));
+    }
+
+    public String getBaseCurrency() {
+        return baseCurrency;
+    }
+
+    /**
+     * Reload the rates from fx_rates
+     * @return the number of currencies with a rate, base currency included
+     */
+    @Scheduled(fixedDelayString = "${balance.fx.refresh-interval:PT10M}")
+    public int refresh() {
+        Map<Long, BigDecimal> loaded = new TreeMap<>();
+        jdbcTemplate.query("SELECT currency, rate FROM fx_rates", resultSet -> {
+            loaded.put(MoneyUtil.currencyKey(resultSet.getString(1)), resultSet.getBigDecimal(2));
+        });
+        loaded.put(MoneyUtil.currencyKey(baseCurrency), BigDecimal.ONE);
+
+        Rates refreshed = Rates.of(loaded);
+        if (!refreshed.equals(rates)) {
+            rates = refreshed;
+            balanceCacheService.evictSummaries();
+            log.info("Loaded FX rates for {} currencies into {}", refreshed.size(), baseCurrency);
+        }
+        return refreshed.size();
+    }
+
+    /**
+     * Sum of {@code cents[i]} in currency {@code currencyKeys[i]}, each amount
+     * converted to base currency cents and rounded half-even before adding
+     * @return the total in base currency cents, or empty when a currency has no rate
+     */
+    public OptionalLong toBaseCents(long[] currencyKeys, long[] cents, int count) {
+        Rates current = rates;
+        long total = 0;
+        for (int i = 0; i < count; i++) {
+            int index = Arrays.binarySearch(current.currencyKeys, currencyKeys[i]);
+            if (index < 0) {
+                return OptionalLong.empty();
+            }
+            total = Math.addExact(total, BigDecimal.valueOf(cents[i]).multiply(current.rates[index])
+                    .setScale(0, RoundingMode.HALF_EVEN).longValueExact());
+        }
+        return OptionalLong.of(total);
+    }
+
+    private record Rates(long[] currencyKeys, BigDecimal[] rates) {
+
+        static Rates of(Map<Long, BigDecimal> rateByCurrency) {
+            Map<Long, BigDecimal> sorted = new TreeMap<>(rateByCurrency);
+            long[] currencyKeys = new long[sorted.size()];
+            BigDecimal[] rates = new BigDecimal[sorted.size()];
+            int i = 0;
+            for (Map.Entry<Long, BigDecimal> entry : sorted.entrySet()) {
+                currencyKeys[i] = entry.getKey();
+                // Without trailing zeros, equal rates are equal whatever scale they were read at
+                rates[i] = entry.getValue().stripTrailingZeros();
+                i++;
+            }
+            return new Rates(currencyKeys, rates);
+        }
+
+        int size() {
+            return currencyKeys.length;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Rates that
+                    && Arrays.equals(currencyKeys, that.currencyKeys) && Arrays.equals(rates, that.rates);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(currencyKeys) + Arrays.hashCode(rates);
+        }
+    }
+}
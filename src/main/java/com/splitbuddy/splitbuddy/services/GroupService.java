@@ -27,6 +27,8 @@ public class GroupService {
 
     private final GroupRepository groupRepository;
     private final UserRepository userRepository;
+    private final SettlementService settlementService;
+    private final BalanceCacheService balanceCacheService;
 
     public List<Group> getAllGroups() {
         return groupRepository.findAll();
@@ -100,19 +102,22 @@ public class GroupService {
         }
 
         Set<User> members = new HashSet<>(group.getMembers());
+        Set<Long> addedIds = new HashSet<>();
         
         for (String memberIdString : memberIds) {
             try {
                 Long memberId = Long.valueOf(memberIdString);
                 Optional<User> userOpt = userRepository.findById(memberId);
-                userOpt.ifPresent(members::add);
+                userOpt.filter(members::add).ifPresent(user -> addedIds.add(user.getId()));
             } catch (NumberFormatException ignored) {
                 // skip invalid Long values silently
             }
         }
         
         group.setMembers(members);
-        return groupRepository.save(group);
+        Group saved = groupRepository.save(group);
+        evictMembershipCaches(group.getId(), addedIds);
+        return saved;
     }
 
     @Transactional
@@ -149,6 +154,7 @@ public class GroupService {
         
         group.setMembers(members);
         groupRepository.save(group);
+        evictMembershipCaches(group.getId(), Set.of(memberToRemoveId));
     }
 
     public void deleteGroup(String id) {
@@ -162,5 +168,10 @@ public class GroupService {
             throw new GroupNotFoundException("Invalid group ID format: " + id);
         }
     }
-}
 
+    // Every node drops the cached group plan and the changed members' balances
+    private void evictMembershipCaches(Long groupId, Set<Long> memberIds) {
+        settlementService.evictGroupSettlements(groupId);
+        balanceCacheService.evictUsers(memberIds);
+    }
+}
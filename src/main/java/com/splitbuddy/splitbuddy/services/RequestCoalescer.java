@@ -0,0 +1,118 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.utility.TransactionHooks;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent identical reads share one computation.
+ *
+ * The first caller for a key runs the loader; callers arriving while it runs
+ * wait for and return the same result, or the same exception. Nothing is kept
+ * once the loader finishes, so this only collapses bursts and never serves a
+ * result computed before the caller arrived, except when it is still running.
+ * Balance changes forget the in-flight reads of the users and groups they touch
+ * when they commit, so later callers start a fresh read that sees them.
+ *
+ * Calls are counted in {@code request.coalescing.calls}, tagged with the read
+ * name and {@code role=leader} or {@code role=follower}; the collapse rate is
+ * the follower share.
+ */
+@Service
+public class RequestCoalescer {
+
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public RequestCoalescer(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Run or join the read {@code name} of one user
+     */
+    public <T> T forUser(String name, Long userId, Supplier<T> loader) {
+        return execute(new Key(name, false, userId), loader);
+    }
+
+    /**
+     * Run or join the read {@code name} of one group
+     */
+    public <T> T forGroup(String name, Long groupId, Supplier<T> loader) {
+        return execute(new Key(name, true, groupId), loader);
+    }
+
+    /**
+     * Stop sharing in-flight reads of these users and groups once the current
+     * transaction commits
+     */
+    public void forgetAfterCommit(Collection<Long> userIds, Collection<Long> groupIds) {
+        if (userIds.isEmpty() && groupIds.isEmpty()) {
+            return;
+        }
+
+        TransactionHooks.afterCommit(() -> inFlight.keySet().removeIf(key -> key.group()
+                ? groupIds.contains(key.id())
+                : userIds.contains(key.id())));
+    }
+
+    @EventListener
+    public void onCacheInvalidation(CacheInvalidationEvent event) {
+        if (event.isAll()) {
+            inFlight.clear();
+        } else {
+            inFlight.keySet().removeIf(key -> key.group()
+                    ? event.getGroupIds().contains(key.id())
+                    : event.getUserIds().contains(key.id()));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T execute(Key key, Supplier<T> loader) {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            calls(key.name(), "follower").increment();
+            try {
+                return (T) running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        calls(key.name(), "leader").increment();
+        try {
+            T value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private Counter calls(String name, String role) {
+        return Counter.builder("request.coalescing.calls")
+                .description("Reads that ran (leader) or joined an identical in-flight read (follower)")
+                .tag("name", name)
+                .tag("role", role)
+                .register(meterRegistry);
+    }
+
+    private record Key(String name, boolean group, Long id) {
+    }
+}
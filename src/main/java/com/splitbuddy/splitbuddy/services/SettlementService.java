@@ -0,0 +1,267 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.SettlementResponse;
+import com.splitbuddy.splitbuddy.models.BalanceAggregate;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateRepository;
+import com.splitbuddy.splitbuddy.repositories.FriendBalanceRepository;
+import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import com.splitbuddy.splitbuddy.utility.DebtSimplifier;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import com.splitbuddy.splitbuddy.utility.TransactionHooks;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Builds settle-up plans from the balance aggregates.
+ *
+ * A user's plan is computed over their "circle": the user, every counterparty
+ * they have a friend balance with, and the balances between those
+ * counterparties. Net positions are packed into primitive arrays and handed to
+ * {@link DebtSimplifier}, and the transfers the user takes part in are
+ * returned.
+ *
+ * A group's plan turns each member's USER_TO_GROUP net into direct transfers
+ * between members. Balances only net to zero when every payer of the group's
+ * expenses took part in them through the group; what the members owe a payer
+ * outside the group, or are owed by one, is settled with
+ * {@link #OUTSIDE_GROUP} instead of being shifted onto another member.
+ *
+ * Both kinds are computed once per currency, so each transfer settles debts
+ * in a single currency. Group plans are cached per group and evicted by
+ * {@link BalanceService} whenever that group's balances change, on this node
+ * and, through {@link CacheInvalidationBus}, on every other one.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class SettlementService {
+
+    private final BalanceAggregateRepository balanceAggregateRepository;
+    private final FriendBalanceRepository friendBalanceRepository;
+    private final UserRepository userRepository;
+    private final CacheInvalidationBus cacheInvalidationBus;
+
+    private final Map<Long, List<SettlementResponse>> groupSettlementCache = new ConcurrentHashMap<>();
+    // Bumped on every eviction so a plan computed concurrently with a balance
+    // change is not cached
+    private final AtomicLong groupEvictions = new AtomicLong();
+
+    /** Stands in for whoever outside the group the members' unmatched balance is with */
+    static final long OUTSIDE_GROUP = -1L;
+
+    private static final ThreadLocal<DebtSimplifier> SIMPLIFIER = ThreadLocal.withInitial(DebtSimplifier::new);
+
+    /**
+     * Get the simplified list of transfers that settle the user's balances
+     */
+    public List<SettlementResponse> getSettlementsForUser(Long userId) {
+        Map<String, List<Object[]>> rowsByCurrency = friendBalanceRepository.findFriendBalanceCircleForUser(userId)
+                .stream()
+                .collect(Collectors.groupingBy(row -> (String) row[2], TreeMap::new, Collectors.toList()));
+        if (rowsByCurrency.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<long[]> transfers = new ArrayList<>();
+        List<Long> involvedUserIds = new ArrayList<>();
+        rowsByCurrency.forEach((currency, rows) ->
+                settleCircle(userId, rows, MoneyUtil.currencyKey(currency), transfers, involvedUserIds));
+        involvedUserIds.add(userId);
+
+        Map<Long, User> users = userRepository.findAllById(involvedUserIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        return toResponses(transfers, users);
+    }
+
+    // Adds the transfers of one currency's circle that involve the user
+    private void settleCircle(Long userId, List<Object[]> rows, long currencyKey, List<long[]> transfers,
+            List<Long> involvedUserIds) {
+        int rowCount = rows.size();
+        long[] user1Ids = new long[rowCount];
+        long[] user2Ids = new long[rowCount];
+        long[] balances = new long[rowCount];
+        long[] ids = new long[rowCount * 2];
+        for (int i = 0; i < rowCount; i++) {
+            Object[] row = rows.get(i);
+            user1Ids[i] = ((Number) row[0]).longValue();
+            user2Ids[i] = ((Number) row[1]).longValue();
+            balances[i] = MoneyUtil.toCents((BigDecimal) row[3]);
+            ids[i * 2] = user1Ids[i];
+            ids[i * 2 + 1] = user2Ids[i];
+        }
+        int size = sortDistinct(ids);
+
+        // Positive balance means user2 owes user1
+        long[] net = new long[size];
+        for (int i = 0; i < rowCount; i++) {
+            net[Arrays.binarySearch(ids, 0, size, user1Ids[i])] += balances[i];
+            net[Arrays.binarySearch(ids, 0, size, user2Ids[i])] -= balances[i];
+        }
+
+        DebtSimplifier simplifier = SIMPLIFIER.get();
+        simplifier.simplify(net, size);
+
+        int involving = 0;
+        for (int i = 0; i < simplifier.transferCount(); i++) {
+            long from = ids[simplifier.fromIndex(i)];
+            long to = ids[simplifier.toIndex(i)];
+            if (from != userId && to != userId) {
+                continue;
+            }
+            transfers.add(new long[] { from, to, simplifier.amount(i), currencyKey });
+            involvedUserIds.add(from == userId ? to : from);
+            involving++;
+        }
+
+        log.debug("Settlement plan for user {} in {}: {} participants, {} transfers, {} involve the user",
+                userId, MoneyUtil.currencyCode(currencyKey), size, simplifier.transferCount(), involving);
+    }
+
+    /**
+     * Get the list of direct transfers between members that settles a group
+     */
+    public List<SettlementResponse> getSettlementsForGroup(Long groupId) {
+        List<SettlementResponse> cached = groupSettlementCache.get(groupId);
+        if (cached != null) {
+            return cached;
+        }
+
+        long evictionsBefore = groupEvictions.get();
+        List<SettlementResponse> settlements = Collections.unmodifiableList(computeGroupSettlements(groupId));
+        // Checked under the entry's lock, which an eviction of the group also
+        // takes after bumping the counter
+        groupSettlementCache.compute(groupId,
+                (id, current) -> groupEvictions.get() == evictionsBefore ? settlements : current);
+        return settlements;
+    }
+
+    /**
+     * Evict the cached plan of a group once the current transaction commits
+     */
+    public void evictGroupSettlements(Long groupId) {
+        cacheInvalidationBus.publishGroups(List.of(groupId));
+        TransactionHooks.afterCommit(() -> {
+            groupEvictions.incrementAndGet();
+            groupSettlementCache.remove(groupId);
+        });
+    }
+
+    @EventListener
+    public void onCacheInvalidation(CacheInvalidationEvent event) {
+        groupEvictions.incrementAndGet();
+        if (event.isAll()) {
+            groupSettlementCache.clear();
+        } else {
+            event.getGroupIds().forEach(groupSettlementCache::remove);
+        }
+    }
+
+    private List<SettlementResponse> computeGroupSettlements(Long groupId) {
+        Map<String, List<BalanceAggregate>> balancesByCurrency = balanceAggregateRepository
+                .findAllBalancesForGroup(groupId).stream()
+                .collect(Collectors.groupingBy(BalanceAggregate::getCurrency, TreeMap::new, Collectors.toList()));
+
+        List<long[]> transfers = new ArrayList<>();
+        List<Long> involvedUserIds = new ArrayList<>();
+        balancesByCurrency.forEach((currency, balances) ->
+                settleGroup(groupId, balances, MoneyUtil.currencyKey(currency), transfers, involvedUserIds));
+
+        Map<Long, User> users = userRepository.findAllById(involvedUserIds).stream()
+                .collect(Collectors.toMap(User::getId, Function.identity()));
+
+        return toResponses(transfers, users);
+    }
+
+    // Adds the transfers that settle the group's balances in one currency
+    private void settleGroup(Long groupId, List<BalanceAggregate> balances, long currencyKey, List<long[]> transfers,
+            List<Long> involvedUserIds) {
+        int size = balances.size();
+        // One spare slot for OUTSIDE_GROUP
+        long[] memberIds = new long[size + 1];
+        long[] net = new long[size + 1];
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            BalanceAggregate balance = balances.get(i);
+            memberIds[i] = balance.getUser().getId();
+            net[i] = MoneyUtil.toCents(balance.getTotalBalance());
+            total += net[i];
+        }
+        // Balances are stored in whole cents, so nothing is left over from
+        // rounding; whatever does not net to zero is owed outside the group
+        if (total != 0) {
+            log.info("{} balances of group {} are off by {} with payers outside the group",
+                    MoneyUtil.currencyCode(currencyKey), groupId, MoneyUtil.fromCents(total));
+            memberIds[size] = OUTSIDE_GROUP;
+            net[size] = -total;
+            size++;
+        }
+
+        DebtSimplifier simplifier = SIMPLIFIER.get();
+        simplifier.simplify(net, size);
+
+        for (int i = 0; i < simplifier.transferCount(); i++) {
+            long from = memberIds[simplifier.fromIndex(i)];
+            long to = memberIds[simplifier.toIndex(i)];
+            transfers.add(new long[] { from, to, simplifier.amount(i), currencyKey });
+            involvedUserIds.add(from);
+            involvedUserIds.add(to);
+        }
+
+        log.debug("Settlement plan for group {} in {}: {} members, {} transfers", groupId,
+                MoneyUtil.currencyCode(currencyKey), size, simplifier.transferCount());
+    }
+
+    private static List<SettlementResponse> toResponses(List<long[]> transfers, Map<Long, User> users) {
+        return transfers.stream()
+                .map(transfer -> {
+                    SettlementResponse response = new SettlementResponse();
+                    if (transfer[0] == OUTSIDE_GROUP || transfer[1] == OUTSIDE_GROUP) {
+                        response.setOutsideGroup(true);
+                    }
+                    if (transfer[0] != OUTSIDE_GROUP) {
+                        response.setFromUserId(transfer[0]);
+                        response.setFromUserName(nameOf(users.get(transfer[0])));
+                    }
+                    if (transfer[1] != OUTSIDE_GROUP) {
+                        response.setToUserId(transfer[1]);
+                        response.setToUserName(nameOf(users.get(transfer[1])));
+                    }
+                    response.setAmount(MoneyUtil.fromCents(transfer[2]));
+                    response.setCurrency(MoneyUtil.currencyCode(transfer[3]));
+                    return response;
+                })
+                .collect(Collectors.toList());
+    }
+
+    private static String nameOf(User user) {
+        return user != null ? user.getName() : null;
+    }
+
+    // Sorts the array in place and moves distinct values to the front
+    private static int sortDistinct(long[] values) {
+        Arrays.sort(values);
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (size == 0 || values[size - 1] != values[i]) {
+                values[size++] = values[i];
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,51 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.repositories.UserBalanceSummaryJdbcRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Checks the materialized user balance summaries against the sums of the
+ * balance aggregates they are derived from, and repairs any that drifted.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class UserBalanceSummaryService {
+
+    private final UserBalanceSummaryJdbcRepository userBalanceSummaryJdbcRepository;
+    private final BalanceCacheService balanceCacheService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Scheduled(cron = "${balance.summary.verify-cron:0 45 3 * * *}")
+    public void verifyScheduled() {
+        verifySummaries();
+    }
+
+    /**
+     * Compare every summary with its user's aggregates and recompute the ones
+     * that differ
+     * @return the ids of the users whose summary was wrong
+     */
+    public List<Long> verifySummaries() {
+        List<Long> mismatched = userBalanceSummaryJdbcRepository.findMismatchedUserIds();
+        if (mismatched.isEmpty()) {
+            log.info("All user balance summaries match their aggregates");
+            return mismatched;
+        }
+
+        // The check reads one snapshot without locking; only a repair pauses writers
+        int repaired = transactionTemplate.execute(status -> {
+            balanceCacheService.evictUsers(mismatched);
+            return userBalanceSummaryJdbcRepository.refreshUsers(mismatched);
+        });
+        log.warn("Repaired {} of {} user balance summaries that did not match their aggregates: {}",
+                repaired, mismatched.size(), mismatched);
+        return mismatched;
+    }
+}
@@ -0,0 +1,140 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming RFC 4180 reader returning one record at a time.
+ *
+ * Fields are separated by commas and may be quoted, with doubled quotes for a
+ * quote and line breaks inside quotes; records end at LF or CRLF. Quotes inside
+ * unquoted fields are kept as they are. Only the current record is held, and a
+ * record longer than {@code maxRecordLength} characters is rejected, so memory
+ * does not depend on the size of the input. An instance is not thread-safe.
+ */
+public class CsvReader {
+
+    private final Reader reader;
+    private final int maxRecordLength;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    private long line = 1;
+    private long recordLine;
+    private int recordLength;
+
+    public CsvReader(Reader reader, int maxRecordLength) {
+        this.reader = reader;
+        this.maxRecordLength = maxRecordLength;
+    }
+
+    /**
+     * Read the fields of the next record, or null at the end of the input
+     *
+     * @throws IllegalArgumentException if a quoted field is not closed or the
+     *                                  record is too long
+     */
+    public List<String> next() throws IOException {
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+        recordLine = line;
+        recordLength = 0;
+
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        boolean atFieldStart = true;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IllegalArgumentException("Unterminated quoted field starting on line " + recordLine);
+                }
+                if (c == '"') {
+                    c = read();
+                    if (c == '"') {
+                        append(field, '"');
+                        c = read();
+                    } else {
+                        quoted = false;
+                    }
+                    continue;
+                }
+                if (c == '\n') {
+                    line++;
+                }
+                append(field, (char) c);
+                c = read();
+                continue;
+            }
+
+            if (c == '"' && atFieldStart) {
+                quoted = true;
+                atFieldStart = false;
+                c = read();
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                atFieldStart = true;
+                c = read();
+            } else if (c == '\n' || c == -1) {
+                if (c == '\n') {
+                    line++;
+                }
+                fields.add(field.toString());
+                return fields;
+            } else if (c == '\r') {
+                int following = read();
+                if (following == '\n' || following == -1) {
+                    c = following;
+                } else {
+                    append(field, '\r');
+                    atFieldStart = false;
+                    c = following;
+                }
+            } else {
+                append(field, (char) c);
+                atFieldStart = false;
+                c = read();
+            }
+        }
+    }
+
+    /**
+     * Line the reader has reached
+     */
+    public long line() {
+        return line;
+    }
+
+    /**
+     * Line on which the record last returned by {@link #next()} starts
+     */
+    public long recordLine() {
+        return recordLine;
+    }
+
+    private void append(StringBuilder field, char c) {
+        if (++recordLength > maxRecordLength) {
+            throw new IllegalArgumentException("Record on line " + recordLine + " is longer than " +
+                    maxRecordLength + " characters");
+        }
+        field.append(c);
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+}
@@ -0,0 +1,157 @@
+package com.splitbuddy.splitbuddy.utility;
+
+/**
+ * Greedy min-cash-flow debt simplifier working on primitive arrays.
+ *
+ * Input is one net position per participant in minor units (cents), where a
+ * positive value means the participant is owed money and a negative value
+ * means they owe money. The simplifier repeatedly matches the largest creditor
+ * with the largest debtor using two binary max-heaps of participant indexes.
+ * Every match settles at least one side, so the plan has at most n - 1
+ * transfers and runs in O(n log n).
+ *
+ * Instances keep their heap and result buffers between calls and only grow
+ * them when a larger input arrives, so repeated calls do not allocate. An
+ * instance is not thread-safe; use one per thread or per call.
+ */
+public class DebtSimplifier {
+
+    private long[] remaining = new long[16];
+    private int[] creditorHeap = new int[16];
+    private int[] debtorHeap = new int[16];
+    private int creditorCount;
+    private int debtorCount;
+
+    private int[] fromIndexes = new int[16];
+    private int[] toIndexes = new int[16];
+    private long[] amounts = new long[16];
+    private int transferCount;
+
+    /**
+     * Compute a settlement plan for the first {@code size} entries of
+     * {@code netCents}. The input array is not modified. Results are read back
+     * through {@link #transferCount()}, {@link #fromIndex(int)},
+     * {@link #toIndex(int)} and {@link #amount(int)} until the next call.
+     *
+     * @throws IllegalArgumentException if the positions do not sum to zero
+     */
+    public void simplify(long[] netCents, int size) {
+        ensureCapacity(size);
+        creditorCount = 0;
+        debtorCount = 0;
+        transferCount = 0;
+
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            long net = netCents[i];
+            remaining[i] = net;
+            total += net;
+            if (net > 0) {
+                creditorHeap[creditorCount++] = i;
+            } else if (net < 0) {
+                debtorHeap[debtorCount++] = i;
+            }
+        }
+        if (total != 0) {
+            throw new IllegalArgumentException("Net positions must sum to zero but sum to " + total);
+        }
+
+        heapify(creditorHeap, creditorCount, 1L);
+        heapify(debtorHeap, debtorCount, -1L);
+
+        while (creditorCount > 0 && debtorCount > 0) {
+            int creditor = creditorHeap[0];
+            int debtor = debtorHeap[0];
+            long amount = Math.min(remaining[creditor], -remaining[debtor]);
+
+            fromIndexes[transferCount] = debtor;
+            toIndexes[transferCount] = creditor;
+            amounts[transferCount] = amount;
+            transferCount++;
+
+            remaining[creditor] -= amount;
+            remaining[debtor] += amount;
+
+            if (remaining[creditor] == 0) {
+                creditorCount = pop(creditorHeap, creditorCount, 1L);
+            } else {
+                siftDown(creditorHeap, creditorCount, 0, 1L);
+            }
+            if (remaining[debtor] == 0) {
+                debtorCount = pop(debtorHeap, debtorCount, -1L);
+            } else {
+                siftDown(debtorHeap, debtorCount, 0, -1L);
+            }
+        }
+    }
+
+    public int transferCount() {
+        return transferCount;
+    }
+
+    /** Index of the participant who pays in transfer {@code i}. */
+    public int fromIndex(int i) {
+        return fromIndexes[i];
+    }
+
+    /** Index of the participant who receives transfer {@code i}. */
+    public int toIndex(int i) {
+        return toIndexes[i];
+    }
+
+    /** Amount of transfer {@code i} in minor units, always positive. */
+    public long amount(int i) {
+        return amounts[i];
+    }
+
+    private void ensureCapacity(int size) {
+        if (remaining.length >= size) {
+            return;
+        }
+        int capacity = Math.max(size, remaining.length * 2);
+        remaining = new long[capacity];
+        creditorHeap = new int[capacity];
+        debtorHeap = new int[capacity];
+        fromIndexes = new int[capacity];
+        toIndexes = new int[capacity];
+        amounts = new long[capacity];
+    }
+
+    // sign is 1 for the creditor heap (largest positive first) and -1 for the
+    // debtor heap (most negative first)
+    private void heapify(int[] heap, int count, long sign) {
+        for (int i = (count >>> 1) - 1; i >= 0; i--) {
+            siftDown(heap, count, i, sign);
+        }
+    }
+
+    private int pop(int[] heap, int count, long sign) {
+        int last = count - 1;
+        heap[0] = heap[last];
+        if (last > 0) {
+            siftDown(heap, last, 0, sign);
+        }
+        return last;
+    }
+
+    private void siftDown(int[] heap, int count, int position, long sign) {
+        int item = heap[position];
+        long key = remaining[item] * sign;
+        while (true) {
+            int child = (position << 1) + 1;
+            if (child >= count) {
+                break;
+            }
+            int right = child + 1;
+            if (right < count && remaining[heap[right]] * sign > remaining[heap[child]] * sign) {
+                child = right;
+            }
+            if (remaining[heap[child]] * sign <= key) {
+                break;
+            }
+            heap[position] = heap[child];
+            position = child;
+        }
+        heap[position] = item;
+    }
+}
@@ -0,0 +1,49 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Position in an expense list ordered newest first by (createdAt, id).
+ *
+ * A page holds the expenses strictly before the cursor, so the next page
+ * starts after the last expense returned whatever is inserted meanwhile.
+ * Clients see the cursor only as an opaque page token.
+ */
+public record ExpenseCursor(LocalDateTime createdAt, long id) {
+
+    /**
+     * Cursor before which every expense lies
+     */
+    public static final ExpenseCursor FIRST = new ExpenseCursor(LocalDateTime.of(9999, 12, 31, 23, 59, 59),
+            Long.MAX_VALUE);
+
+    /**
+     * Cursor of a page token, or {@link #FIRST} when there is none
+     *
+     * @throws InvalidOperationException if the token was not issued by
+     *                                   {@link #toToken()}
+     */
+    public static ExpenseCursor fromToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return FIRST;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = value.lastIndexOf('|');
+            return new ExpenseCursor(LocalDateTime.parse(value.substring(0, separator)),
+                    Long.parseLong(value.substring(separator + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | DateTimeParseException e) {
+            throw new InvalidOperationException("Invalid page token");
+        }
+    }
+
+    public String toToken() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((createdAt + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,148 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from three longs to a running long sum.
+ *
+ * Used to fold balance deltas per (user1, user2, currency) or
+ * (user, group, currency) key without boxing, the currency being a
+ * {@link MoneyUtil#currencyKey}. Entries are visited by slot like those of
+ * {@link LongPairSumMap}, and entries summing to zero stay likewise. Not
+ * thread-safe.
+ */
+public class LongTripleSumMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] firstKeys;
+    private long[] secondKeys;
+    private long[] thirdKeys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int resizeAt;
+
+    public LongTripleSumMap() {
+        this(16);
+    }
+
+    public LongTripleSumMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+        allocate(capacity);
+    }
+
+    /**
+     * Add {@code delta} to the sum stored for (first, second, third), creating
+     * the entry at zero when it does not exist yet.
+     */
+    public void add(long first, long second, long third, long delta) {
+        int mask = used.length - 1;
+        int slot = hash(first, second, third) & mask;
+        while (used[slot]) {
+            if (firstKeys[slot] == first && secondKeys[slot] == second && thirdKeys[slot] == third) {
+                values[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        firstKeys[slot] = first;
+        secondKeys[slot] = second;
+        thirdKeys[slot] = third;
+        values[slot] = delta;
+        if (++size > resizeAt) {
+            rehash(used.length * 2);
+        }
+    }
+
+    /** Sum stored for (first, second, third), or 0 when absent. */
+    public long get(long first, long second, long third) {
+        int mask = used.length - 1;
+        int slot = hash(first, second, third) & mask;
+        while (used[slot]) {
+            if (firstKeys[slot] == first && secondKeys[slot] == second && thirdKeys[slot] == third) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0L;
+    }
+
+    /** Add every entry of {@code other} into this map. */
+    public void addAll(LongTripleSumMap other) {
+        for (int i = 0; i < other.capacity(); i++) {
+            if (other.used[i]) {
+                add(other.firstKeys[i], other.secondKeys[i], other.thirdKeys[i], other.values[i]);
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int capacity() {
+        return used.length;
+    }
+
+    public boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    public long firstKey(int slot) {
+        return firstKeys[slot];
+    }
+
+    public long secondKey(int slot) {
+        return secondKeys[slot];
+    }
+
+    public long thirdKey(int slot) {
+        return thirdKeys[slot];
+    }
+
+    public long value(int slot) {
+        return values[slot];
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void allocate(int capacity) {
+        firstKeys = new long[capacity];
+        secondKeys = new long[capacity];
+        thirdKeys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        long[] oldFirstKeys = firstKeys;
+        long[] oldSecondKeys = secondKeys;
+        long[] oldThirdKeys = thirdKeys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                add(oldFirstKeys[i], oldSecondKeys[i], oldThirdKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int hash(long first, long second, long third) {
+        long h = (first * 0x9E3779B97F4A7C15L + second) * 0x9E3779B97F4A7C15L + third;
+        h ^= (h >>> 32);
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 29));
+    }
+}
@@ -0,0 +1,85 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Conversions between the BigDecimal amounts stored on entities and long
+ * minor units (cents), and between currency codes and the long keys they are
+ * folded under.
+ *
+ * Balance, settlement and import code does its arithmetic on primitive cents
+ * keyed by {@link #currencyKey}, converting through {@link #toCents} when
+ * reading entities and requests and {@link #fromCents} when building
+ * responses.
+ */
+public final class MoneyUtil {
+
+    private static final int SCALE = 2;
+
+    private MoneyUtil() {
+    }
+
+    public static long toCents(BigDecimal amount) {
+        if (amount == null) {
+            return 0L;
+        }
+        // Moving the point to scale 0 keeps small amounts in BigDecimal's compact
+        // long form, which unscaledValue() would copy into a BigInteger
+        return amount.setScale(SCALE, RoundingMode.HALF_UP).movePointRight(SCALE).longValueExact();
+    }
+
+    public static BigDecimal fromCents(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Whether the code is a known ISO 4217 currency, so {@link #currencyKey}
+     * will accept it
+     */
+    public static boolean isCurrencyCode(String currency) {
+        if (currency == null) {
+            return false;
+        }
+        try {
+            Currency.getInstance(currency);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Whether amounts in a known currency have two decimal places, the scale
+     * of {@link #toCents} and of the amount and balance columns. Currencies
+     * such as JPY (none) or KWD (three) would be mislabelled or rounded.
+     */
+    public static boolean hasCents(String currency) {
+        return Currency.getInstance(currency).getDefaultFractionDigits() == SCALE;
+    }
+
+    /**
+     * A three-letter currency code packed into a long, so amounts can be keyed
+     * by currency in primitive maps
+     */
+    public static long currencyKey(String currency) {
+        if (currency == null || currency.length() != 3) {
+            throw new IllegalArgumentException("Not a three-letter currency code: " + currency);
+        }
+        long key = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = currency.charAt(i);
+            if (c > 0x7F) {
+                throw new IllegalArgumentException("Not a three-letter currency code: " + currency);
+            }
+            key = key << 8 | c;
+        }
+        return key;
+    }
+
+    public static String currencyCode(long currencyKey) {
+        return new String(new char[] {
+                (char) (currencyKey >>> 16 & 0xFF), (char) (currencyKey >>> 8 & 0xFF), (char) (currencyKey & 0xFF) });
+    }
+}
@@ -0,0 +1,163 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming reader for the transactions of an OFX bank statement, in the SGML
+ * form of OFX 1.x or the XML form of 2.x.
+ *
+ * Returns the elements of one STMTTRN aggregate at a time, keyed by upper case
+ * tag name. An element's value is the text up to the next tag, so SGML
+ * elements without an end tag are read like XML ones; the header, processing
+ * instructions and aggregates other than STMTTRN are skipped. Only the current
+ * transaction is held, and one longer than {@code maxTransactionLength}
+ * characters is rejected, so memory does not depend on the size of the input.
+ * An instance is not thread-safe.
+ */
+public class OfxReader {
+
+    private static final String TRANSACTION = "STMTTRN";
+    private static final String CURRENCY = "CURDEF";
+
+    private final Reader reader;
+    private final int maxTransactionLength;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+
+    private long line = 1;
+    private long transactionLine;
+    private String currency;
+
+    public OfxReader(Reader reader, int maxTransactionLength) {
+        this.reader = reader;
+        this.maxTransactionLength = maxTransactionLength;
+    }
+
+    /**
+     * Read the elements of the next transaction, or null at the end of the
+     * input
+     *
+     * @throws IllegalArgumentException if a tag is not closed or the
+     *                                  transaction is too long
+     */
+    public Map<String, String> next() throws IOException {
+        Map<String, String> transaction = null;
+        StringBuilder text = new StringBuilder();
+        String element = null;
+        int length = 0;
+        int c = read();
+        while (c != -1) {
+            if (c != '<') {
+                if (element != null) {
+                    if (++length > maxTransactionLength) {
+                        throw new IllegalArgumentException("Element on line " + line + " makes its transaction " +
+                                "longer than " + maxTransactionLength + " characters");
+                    }
+                    text.append((char) c);
+                }
+                c = read();
+                continue;
+            }
+
+            if (element != null) {
+                String value = decode(text.toString().trim());
+                if (CURRENCY.equals(element)) {
+                    currency = value;
+                } else if (transaction != null && !value.isEmpty()) {
+                    transaction.put(element, value);
+                }
+                element = null;
+                text.setLength(0);
+                if (transaction == null) {
+                    length = 0;
+                }
+            }
+
+            String tag = readTag();
+            if (tag.startsWith("/")) {
+                if (transaction != null && TRANSACTION.equals(tag.substring(1))) {
+                    return transaction;
+                }
+            } else if (TRANSACTION.equals(tag)) {
+                transaction = new HashMap<>();
+                transactionLine = line;
+                length = 0;
+            } else if (!tag.startsWith("?") && !tag.startsWith("!") && !tag.endsWith("/")) {
+                element = tag;
+            }
+            c = read();
+        }
+        if (transaction != null) {
+            throw new IllegalArgumentException("Unterminated transaction starting on line " + transactionLine);
+        }
+        return null;
+    }
+
+    /**
+     * Line the reader has reached
+     */
+    public long line() {
+        return line;
+    }
+
+    /**
+     * Line on which the transaction last returned by {@link #next()} starts
+     */
+    public long transactionLine() {
+        return transactionLine;
+    }
+
+    /**
+     * Default currency of the statement read so far, or null
+     */
+    public String currency() {
+        return currency;
+    }
+
+    private String readTag() throws IOException {
+        long tagLine = line;
+        StringBuilder tag = new StringBuilder();
+        int c = read();
+        while (c != '>') {
+            if (c == -1 || tag.length() > 256) {
+                throw new IllegalArgumentException("Unterminated tag on line " + tagLine);
+            }
+            tag.append((char) c);
+            c = read();
+        }
+        return tag.toString().trim().toUpperCase(Locale.ROOT);
+    }
+
+    private static String decode(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        return value.replace("&lt;", "<")
+                .replace("&gt;", ">")
+                .replace("&quot;", "\"")
+                .replace("&apos;", "'")
+                .replace("&nbsp;", " ")
+                .replace("&amp;", "&");
+    }
+
+    private int read() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        char c = buffer[position++];
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,15 @@
+-- V10: Transactional outbox for asynchronous balance projection
+-- With balance.projection.outbox.enabled, expense changes only insert their
+-- deltas here; BalanceProjector applies them to the aggregates in batches and
+-- deletes the rows. Deltas are flattened (first key, second key, cents) triples.
+
+CREATE TABLE IF NOT EXISTS balance_outbox (
+    id BIGSERIAL PRIMARY KEY,
+    expense_id BIGINT,
+    operation VARCHAR(20) NOT NULL,
+    effective_at TIMESTAMP NOT NULL,
+    friend_deltas BIGINT[] NOT NULL,
+    group_deltas BIGINT[] NOT NULL,
+    currency_deltas BIGINT[] NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
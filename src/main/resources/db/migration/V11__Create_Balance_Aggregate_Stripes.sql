@@ -0,0 +1,14 @@
+-- V11: Striped sub-rows for hot group balances
+-- Writers spread deltas of a USER_TO_GROUP balance with a high write rate over
+-- several stripes; reads add them to the balance_aggregates row and a
+-- compactor folds them back into it.
+
+CREATE TABLE IF NOT EXISTS balance_aggregate_stripes (
+    user_id BIGINT NOT NULL,
+    group_id BIGINT NOT NULL,
+    stripe INTEGER NOT NULL,
+    balance DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+    last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    CONSTRAINT balance_aggregate_stripes_pkey PRIMARY KEY (user_id, group_id, stripe)
+);
@@ -0,0 +1,11 @@
+-- V13: Indexes for keyset pagination of expense lists
+-- Pages are read newest first by (created_at, id) from a page token's cursor.
+-- The first index lets the scan start at the cursor and stop after one page;
+-- the participant indexes answer "does this user or group take part in this
+-- expense" from the index alone, and list a small group's or user's expenses
+-- without touching the table.
+
+CREATE INDEX IF NOT EXISTS idx_expenses_created_at_id ON expenses(created_at, id);
+CREATE INDEX IF NOT EXISTS idx_expenses_paid_by_created_at_id ON expenses(paid_by, created_at, id);
+CREATE INDEX IF NOT EXISTS idx_expense_participants_user_expense ON expense_participants(user_id, expense_id);
+CREATE INDEX IF NOT EXISTS idx_expense_participants_source_expense ON expense_participants(source, source_id, expense_id);
@@ -0,0 +1,48 @@
+-- V14: Balances keyed by currency
+-- Friend and group balances, their stripes, ledger rows, snapshot and
+-- checkpoint entries carry the expense currency as part of their key, so
+-- amounts in different currencies are never added together. Existing rows are
+-- taken to be in USD; the next full rebuild (POST /api/balances/recalculate)
+-- moves any other currency to its own rows and records the move in the ledger.
+
+ALTER TABLE balance_aggregates ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+ALTER TABLE friend_balances ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+ALTER TABLE balance_aggregate_stripes ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+ALTER TABLE balance_ledger ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+ALTER TABLE balance_snapshot_entries ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+ALTER TABLE balance_checkpoint_entries ADD COLUMN IF NOT EXISTS currency VARCHAR(3) NOT NULL DEFAULT 'USD';
+
+-- Schemas created by Hibernate hold the same unique keys under generated names
+DO $$
+DECLARE
+    old_key record;
+BEGIN
+    FOR old_key IN SELECT conname FROM pg_constraint
+            WHERE conrelid = 'balance_aggregates'::regclass AND contype = 'u' LOOP
+        EXECUTE format('ALTER TABLE balance_aggregates DROP CONSTRAINT %I', old_key.conname);
+    END LOOP;
+END $$;
+
+ALTER TABLE balance_aggregates ADD CONSTRAINT uk_friend_balance UNIQUE (user1_id, user2_id, balance_type, currency);
+ALTER TABLE balance_aggregates ADD CONSTRAINT uk_group_balance UNIQUE (user_id, group_id, balance_type, currency);
+
+ALTER TABLE friend_balances DROP CONSTRAINT friend_balances_pkey;
+ALTER TABLE friend_balances ADD CONSTRAINT friend_balances_pkey
+    PRIMARY KEY (owner_id, counterparty_id, currency) INCLUDE (balance);
+
+ALTER TABLE balance_aggregate_stripes DROP CONSTRAINT balance_aggregate_stripes_pkey;
+ALTER TABLE balance_aggregate_stripes ADD CONSTRAINT balance_aggregate_stripes_pkey
+    PRIMARY KEY (user_id, group_id, currency, stripe);
+
+-- Pending outbox deltas become (first key, second key, currency key, cents)
+-- quadruples. All deltas of a row come from one expense, so its currency is
+-- the one of its currency deltas (5591876 is the key of USD).
+UPDATE balance_outbox SET
+    friend_deltas = coalesce((SELECT array_agg(q.value ORDER BY i, q.position)
+        FROM generate_series(1, coalesce(array_length(friend_deltas, 1), 0), 3) AS i
+        CROSS JOIN LATERAL (VALUES (1, friend_deltas[i]), (2, friend_deltas[i + 1]),
+            (3, coalesce(currency_deltas[2], 5591876)), (4, friend_deltas[i + 2])) AS q(position, value)), '{}'),
+    group_deltas = coalesce((SELECT array_agg(q.value ORDER BY i, q.position)
+        FROM generate_series(1, coalesce(array_length(group_deltas, 1), 0), 3) AS i
+        CROSS JOIN LATERAL (VALUES (1, group_deltas[i]), (2, group_deltas[i + 1]),
+            (3, coalesce(currency_deltas[2], 5591876)), (4, group_deltas[i + 2])) AS q(position, value)), '{}');
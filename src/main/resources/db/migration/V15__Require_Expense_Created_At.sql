@@ -0,0 +1,9 @@
+-- V15: expenses.created_at is required
+-- Expense pages walk (created_at, id) newest first. A NULL created_at fails
+-- the row comparison with every cursor, so such an expense would be missing
+-- from every page. Hibernate only declares the column NOT NULL when it creates
+-- the table, so older schemas may still allow NULL. Those rows take their last
+-- update or payment time.
+
+UPDATE expenses SET created_at = COALESCE(updated_at, paid_at, now()) WHERE created_at IS NULL;
+ALTER TABLE expenses ALTER COLUMN created_at SET NOT NULL;
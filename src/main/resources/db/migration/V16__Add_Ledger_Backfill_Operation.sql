@@ -0,0 +1,11 @@
+-- V16: BACKFILL ledger rows
+-- Balances carried over by V5 took effect when it was deployed, so balances as
+-- of any earlier date read zero. The changes of the expenses behind them are
+-- recorded as BACKFILL rows at the times they took effect (see
+-- BalanceLedgerService.backfillOpeningBalances). Schemas created by Hibernate
+-- only allow the operations that existed when the table was created.
+
+ALTER TABLE balance_ledger DROP CONSTRAINT IF EXISTS balance_ledger_operation_check;
+ALTER TABLE balance_ledger ADD CONSTRAINT balance_ledger_operation_check CHECK (operation IN (
+    'OPENING_BALANCE', 'EXPENSE_CREATED', 'EXPENSE_REVERSED', 'PAYMENT_MARKED', 'PAYMENT_UNMARKED',
+    'RECALCULATION', 'BACKFILL'));
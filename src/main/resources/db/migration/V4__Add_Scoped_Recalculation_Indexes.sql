@@ -0,0 +1,7 @@
+-- V4: Indexes used by scoped balance recalculation
+-- Recomputing one friend pair, group or user streams only the expenses touching it
+
+CREATE INDEX IF NOT EXISTS idx_expense_participants_expense ON expense_participants(expense_id);
+CREATE INDEX IF NOT EXISTS idx_expense_participants_user ON expense_participants(user_id);
+CREATE INDEX IF NOT EXISTS idx_expense_participants_source ON expense_participants(source, source_id);
+CREATE INDEX IF NOT EXISTS idx_expenses_paid_by ON expenses(paid_by);
@@ -0,0 +1,48 @@
+-- V5: Append-only balance ledger with compacted snapshots
+-- Every balance change is recorded as a signed delta; snapshots let a balance
+-- be recomputed from one snapshot entry plus the ledger rows written after it
+
+CREATE TABLE IF NOT EXISTS balance_ledger (
+    id BIGSERIAL PRIMARY KEY,
+    balance_type VARCHAR(20) NOT NULL,
+    user1_id BIGINT,
+    user2_id BIGINT,
+    user_id BIGINT,
+    group_id BIGINT,
+    expense_id BIGINT,
+    operation VARCHAR(20) NOT NULL,
+    delta DECIMAL(12,2) NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_friend ON balance_ledger(user1_id, user2_id, id);
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_group ON balance_ledger(user_id, group_id, id);
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_expense ON balance_ledger(expense_id);
+
+CREATE TABLE IF NOT EXISTS balance_snapshots (
+    id BIGSERIAL PRIMARY KEY,
+    ledger_high_water_mark BIGINT NOT NULL,
+    entry_count INTEGER NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS balance_snapshot_entries (
+    id BIGSERIAL PRIMARY KEY,
+    snapshot_id BIGINT NOT NULL,
+    balance_type VARCHAR(20) NOT NULL,
+    user1_id BIGINT,
+    user2_id BIGINT,
+    user_id BIGINT,
+    group_id BIGINT,
+    balance DECIMAL(12,2) NOT NULL,
+    last_expense_id BIGINT
+);
+
+CREATE INDEX IF NOT EXISTS idx_balance_snapshot_entries_friend ON balance_snapshot_entries(snapshot_id, user1_id, user2_id);
+CREATE INDEX IF NOT EXISTS idx_balance_snapshot_entries_group ON balance_snapshot_entries(snapshot_id, user_id, group_id);
+
+-- Carry existing balances over so the ledger starts in step with balance_aggregates
+INSERT INTO balance_ledger (balance_type, user1_id, user2_id, user_id, group_id, expense_id, operation, delta, created_at)
+SELECT balance_type, user1_id, user2_id, user_id, group_id, last_expense_id, 'OPENING_BALANCE', balance, CURRENT_TIMESTAMP
+FROM balance_aggregates
+WHERE balance <> 0;
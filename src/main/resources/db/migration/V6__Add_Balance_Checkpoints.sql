@@ -0,0 +1,34 @@
+-- V6: Point-in-time balances
+-- Ledger rows record when each change takes effect, and monthly checkpoints
+-- hold every balance as of the start of a month so a balance at any date is
+-- one checkpoint entry plus the ledger rows since
+
+ALTER TABLE balance_ledger ADD COLUMN IF NOT EXISTS effective_at TIMESTAMP;
+UPDATE balance_ledger SET effective_at = created_at WHERE effective_at IS NULL;
+ALTER TABLE balance_ledger ALTER COLUMN effective_at SET NOT NULL;
+
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_friend_effective ON balance_ledger(user1_id, user2_id, effective_at);
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_group_effective ON balance_ledger(user_id, group_id, effective_at);
+CREATE INDEX IF NOT EXISTS idx_balance_ledger_effective ON balance_ledger(effective_at);
+
+CREATE TABLE IF NOT EXISTS balance_checkpoints (
+    id BIGSERIAL PRIMARY KEY,
+    period_end TIMESTAMP NOT NULL UNIQUE,
+    ledger_high_water_mark BIGINT NOT NULL,
+    entry_count INTEGER NOT NULL DEFAULT 0,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS balance_checkpoint_entries (
+    id BIGSERIAL PRIMARY KEY,
+    checkpoint_id BIGINT NOT NULL,
+    balance_type VARCHAR(20) NOT NULL,
+    user1_id BIGINT,
+    user2_id BIGINT,
+    user_id BIGINT,
+    group_id BIGINT,
+    balance DECIMAL(12,2) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_balance_checkpoint_entries_friend ON balance_checkpoint_entries(checkpoint_id, user1_id, user2_id);
+CREATE INDEX IF NOT EXISTS idx_balance_checkpoint_entries_group ON balance_checkpoint_entries(checkpoint_id, user_id, group_id);
@@ -0,0 +1,27 @@
+-- V7: Materialized per-user balance summary
+-- Kept in step with balance_aggregates so the summary endpoint is one
+-- primary-key lookup instead of two SUM queries
+
+CREATE TABLE IF NOT EXISTS user_balance_summary (
+    user_id BIGINT PRIMARY KEY,
+    total_owed DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+    total_owes DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+    net_balance DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+    version BIGINT NOT NULL DEFAULT 0,
+    last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    CONSTRAINT fk_user_balance_summary_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Seed every user from the current aggregates
+INSERT INTO user_balance_summary (user_id, total_owed, total_owes, net_balance, version, last_updated)
+SELECT u.id, greatest(coalesce(t.net, 0), 0), greatest(-coalesce(t.net, 0), 0), coalesce(t.net, 0), 1, CURRENT_TIMESTAMP
+FROM users u
+LEFT JOIN (
+    SELECT user_id, sum(balance) AS net FROM (
+        SELECT user1_id AS user_id, balance FROM balance_aggregates WHERE balance_type = 'FRIEND_TO_FRIEND'
+        UNION ALL SELECT user2_id, -balance FROM balance_aggregates WHERE balance_type = 'FRIEND_TO_FRIEND'
+        UNION ALL SELECT user_id, balance FROM balance_aggregates WHERE balance_type = 'USER_TO_GROUP'
+    ) AS b GROUP BY user_id
+) AS t ON t.user_id = u.id
+ON CONFLICT (user_id) DO NOTHING;
@@ -0,0 +1,27 @@
+-- V8: Directional friend balances
+-- Every FRIEND_TO_FRIEND aggregate stored once from each side, so a user's
+-- friend balances are one range of the primary key instead of an OR over
+-- user1_id and user2_id. Positive balance means the counterparty owes the owner.
+
+CREATE TABLE IF NOT EXISTS friend_balances (
+    owner_id BIGINT NOT NULL,
+    counterparty_id BIGINT NOT NULL,
+    balance DECIMAL(10,2) NOT NULL DEFAULT 0.00,
+    last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    -- Covering: per-user and per-pair reads are answered from the index alone
+    CONSTRAINT friend_balances_pkey PRIMARY KEY (owner_id, counterparty_id) INCLUDE (balance),
+    CONSTRAINT fk_friend_balances_owner FOREIGN KEY (owner_id) REFERENCES users(id) ON DELETE CASCADE,
+    CONSTRAINT fk_friend_balances_counterparty FOREIGN KEY (counterparty_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Seed both sides of every friend aggregate
+INSERT INTO friend_balances (owner_id, counterparty_id, balance, last_updated)
+SELECT v.owner_id, v.counterparty_id, v.balance, ba.last_updated
+FROM balance_aggregates ba
+CROSS JOIN LATERAL (VALUES
+    (ba.user1_id, ba.user2_id, ba.balance),
+    (ba.user2_id, ba.user1_id, -ba.balance)
+) AS v(owner_id, counterparty_id, balance)
+WHERE ba.balance_type = 'FRIEND_TO_FRIEND'
+ON CONFLICT (owner_id, counterparty_id) DO NOTHING;
@@ -0,0 +1,22 @@
+-- V9: Per-currency user balances and FX rates
+-- user_currency_balances splits each user's net balance by expense currency,
+-- so mixed-currency balances are no longer added up as one number. It is
+-- filled by the next full rebuild (POST /api/balances/recalculate), which
+-- reconciles it with the expenses.
+
+CREATE TABLE IF NOT EXISTS user_currency_balances (
+    user_id BIGINT NOT NULL,
+    currency VARCHAR(3) NOT NULL,
+    net_balance DECIMAL(12,2) NOT NULL DEFAULT 0.00,
+    last_updated TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+
+    CONSTRAINT user_currency_balances_pkey PRIMARY KEY (user_id, currency),
+    CONSTRAINT fk_user_currency_balances_user FOREIGN KEY (user_id) REFERENCES users(id) ON DELETE CASCADE
+);
+
+-- Units of the base currency (balance.fx.base-currency) per unit of currency
+CREATE TABLE IF NOT EXISTS fx_rates (
+    currency VARCHAR(3) PRIMARY KEY,
+    rate DECIMAL(20,10) NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,78 @@
+package com.splitbuddy.splitbuddy.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.splitbuddy.splitbuddy.utility.DebtSimplifier;
+
+/**
+ * Settlement engine benchmark for users with thousands of counterparties.
+ *
+ * Run with:
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath com.splitbuddy.splitbuddy.benchmarks.DebtSimplifierBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DebtSimplifierBenchmark {
+
+    @Param({ "1000", "5000", "20000" })
+    private int counterparties;
+
+    private long[] net;
+    private DebtSimplifier simplifier;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        net = new long[counterparties + 1];
+        long total = 0;
+        for (int i = 1; i <= counterparties; i++) {
+            net[i] = random.nextInt(2_000_000) - 1_000_000;
+            total += net[i];
+        }
+        // The user at index 0 balances the circle
+        net[0] = -total;
+        simplifier = new DebtSimplifier();
+    }
+
+    @Benchmark
+    public int simplify() {
+        simplifier.simplify(net, net.length);
+        return simplifier.transferCount();
+    }
+
+    @Benchmark
+    public int simplifyWithFreshInstance() {
+        DebtSimplifier fresh = new DebtSimplifier();
+        fresh.simplify(net, net.length);
+        return fresh.transferCount();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(DebtSimplifierBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
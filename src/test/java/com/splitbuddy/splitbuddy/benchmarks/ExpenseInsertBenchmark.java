@@ -0,0 +1,218 @@
+package com.splitbuddy.splitbuddy.benchmarks;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Inserting one expense with its participants the way Hibernate does it with
+ * IDENTITY ids (one statement and round trip per row, reading each generated
+ * key back) against pooled sequence ids (a nextval per 50 ids, and the
+ * participants sent as one batch). Each operation is rolled back.
+ *
+ * Needs a database with the V12 migration and at least one user; set
+ * -Dbenchmark.db.url, -Dbenchmark.db.username and -Dbenchmark.db.password to
+ * point it elsewhere than the local development database. Run with:
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath com.splitbuddy.splitbuddy.benchmarks.ExpenseInsertBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpenseInsertBenchmark {
+
+    private static final String INSERT_EXPENSE_SQL = "INSERT INTO expenses (%stitle, amount, currency, " +
+            "category, paid_at, created_at, updated_at, paid_by) VALUES (%s?, ?, 'USD', 'Food', ?, ?, ?, ?)";
+
+    private static final String INSERT_PARTICIPANT_SQL = "INSERT INTO expense_participants (%sexpense_id, " +
+            "user_id, amount, source, is_active, is_paid) VALUES (%s?, ?, ?, 'FRIEND', true, false)";
+
+    @Param({ "50" })
+    private int participants;
+
+    private Connection connection;
+    private long[] userIds;
+    private PooledIds expenseIds;
+    private PooledIds participantIds;
+
+    @Setup
+    public void setUp() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", System.getProperty("benchmark.db.username", "postgres"));
+        properties.setProperty("password", System.getProperty("benchmark.db.password", "postgres"));
+        properties.setProperty("reWriteBatchedInserts", "true");
+        connection = DriverManager.getConnection(
+                System.getProperty("benchmark.db.url", "jdbc:postgresql://localhost:5432/splitbuddy_db"), properties);
+        connection.setAutoCommit(false);
+
+        List<Long> users = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery("SELECT id FROM users ORDER BY id LIMIT " + participants)) {
+            while (resultSet.next()) {
+                users.add(resultSet.getLong(1));
+            }
+        }
+        if (users.isEmpty()) {
+            throw new IllegalStateException("The benchmark needs at least one user");
+        }
+        // Participants repeat users when there are fewer than requested
+        userIds = new long[participants];
+        for (int i = 0; i < participants; i++) {
+            userIds[i] = users.get(i % users.size());
+        }
+        expenseIds = new PooledIds(connection, "expenses_id_seq");
+        participantIds = new PooledIds(connection, "expense_participants_id_seq");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public long identity() throws SQLException {
+        long expenseId;
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(INSERT_EXPENSE_SQL, "", ""), Statement.RETURN_GENERATED_KEYS)) {
+            bindExpense(statement, 1);
+            statement.executeUpdate();
+            expenseId = generatedKey(statement);
+        }
+
+        long lastId = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(INSERT_PARTICIPANT_SQL, "", ""), Statement.RETURN_GENERATED_KEYS)) {
+            for (long userId : userIds) {
+                bindParticipant(statement, 1, expenseId, userId);
+                statement.executeUpdate();
+                lastId = generatedKey(statement);
+            }
+        }
+        connection.rollback();
+        return lastId;
+    }
+
+    @Benchmark
+    public long pooled() throws SQLException {
+        long expenseId = expenseIds.next();
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(INSERT_EXPENSE_SQL, "id, ", "?, "))) {
+            statement.setLong(1, expenseId);
+            bindExpense(statement, 2);
+            statement.executeUpdate();
+        }
+
+        long lastId = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                String.format(INSERT_PARTICIPANT_SQL, "id, ", "?, "))) {
+            for (long userId : userIds) {
+                lastId = participantIds.next();
+                statement.setLong(1, lastId);
+                bindParticipant(statement, 2, expenseId, userId);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        connection.rollback();
+        return lastId;
+    }
+
+    private void bindExpense(PreparedStatement statement, int first) throws SQLException {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        statement.setString(first, "Benchmark");
+        statement.setBigDecimal(first + 1, BigDecimal.valueOf(participants * 1000L, 2));
+        statement.setTimestamp(first + 2, now);
+        statement.setTimestamp(first + 3, now);
+        statement.setTimestamp(first + 4, now);
+        statement.setLong(first + 5, userIds[0]);
+    }
+
+    private void bindParticipant(PreparedStatement statement, int first, long expenseId, long userId)
+            throws SQLException {
+        statement.setLong(first, expenseId);
+        statement.setLong(first + 1, userId);
+        statement.setBigDecimal(first + 2, BigDecimal.valueOf(1000, 2));
+    }
+
+    private static long generatedKey(PreparedStatement statement) throws SQLException {
+        try (ResultSet keys = statement.getGeneratedKeys()) {
+            keys.next();
+            return keys.getLong(1);
+        }
+    }
+
+    /**
+     * Hands out the ids v - n + 1 to v for each value v of a sequence that
+     * increments by n, like Hibernate's pooled optimizer
+     */
+    private static final class PooledIds {
+
+        private final Connection connection;
+        private final String sequence;
+        private final long increment;
+        private long next;
+        private long last = -1;
+
+        PooledIds(Connection connection, String sequence) throws SQLException {
+            this.connection = connection;
+            this.sequence = sequence;
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT increment_by FROM pg_sequences WHERE sequencename = ?")) {
+                statement.setString(1, sequence);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    increment = resultSet.getLong(1);
+                }
+            }
+        }
+
+        long next() throws SQLException {
+            if (next > last) {
+                try (Statement statement = connection.createStatement();
+                        ResultSet resultSet = statement.executeQuery("SELECT nextval('" + sequence + "')")) {
+                    resultSet.next();
+                    last = resultSet.getLong(1);
+                }
+                next = Math.max(1, last - increment + 1);
+            }
+            return next++;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(ExpenseInsertBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,141 @@
+package com.splitbuddy.splitbuddy.repositories;
+
+import com.splitbuddy.splitbuddy.models.BalanceAggregate;
+import com.splitbuddy.splitbuddy.models.BalanceAggregate.BalanceType;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.services.BalanceTestData;
+import com.splitbuddy.splitbuddy.utility.LongTripleSumMap;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class BalanceAggregateJdbcRepositoryTest {
+
+    @Autowired
+    private BalanceAggregateJdbcRepository balanceAggregateJdbcRepository;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void upserts_ShouldLeaveTheRowsThePerRowJpaPathLeft() {
+        // Given: new and existing rows, several currencies, a zero and a negative key order
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        long u0 = users.get(0).getId();
+        long u1 = users.get(1).getId();
+        long u2 = users.get(2).getId();
+        long usd = MoneyUtil.currencyKey("USD");
+        long eur = MoneyUtil.currencyKey("EUR");
+        LongTripleSumMap friendDeltas = new LongTripleSumMap();
+        friendDeltas.add(u0, u1, usd, 1250);
+        friendDeltas.add(u0, u2, usd, -300);
+        friendDeltas.add(u0, u2, eur, 75);
+        LongTripleSumMap groupDeltas = new LongTripleSumMap();
+        groupDeltas.add(u0, group.getId(), usd, 2000);
+        groupDeltas.add(u1, group.getId(), usd, -1000);
+        groupDeltas.add(u2, group.getId(), eur, 0);
+
+        // When: the deltas go through the old find-or-create and save path twice
+        for (long expenseId = 1; expenseId <= 2; expenseId++) {
+            long lastExpenseId = expenseId;
+            transactionTemplate.executeWithoutResult(status -> {
+                saveRowByRow(friendDeltas, BalanceType.FRIEND_TO_FRIEND, lastExpenseId);
+                saveRowByRow(groupDeltas, BalanceType.USER_TO_GROUP, lastExpenseId);
+            });
+        }
+        Map<String, String> expected = rowsOf(users);
+        jdbcTemplate.update("DELETE FROM balance_aggregates WHERE user1_id = ANY(?) OR user_id = ANY(?)",
+                ids(users), ids(users));
+
+        // And: through one upsert per balance type twice
+        for (long expenseId = 1; expenseId <= 2; expenseId++) {
+            long lastExpenseId = expenseId;
+            transactionTemplate.executeWithoutResult(status -> {
+                balanceAggregateJdbcRepository.upsertFriendBalances(friendDeltas, lastExpenseId);
+                balanceAggregateJdbcRepository.upsertGroupBalances(groupDeltas, lastExpenseId);
+            });
+        }
+
+        // Then
+        assertEquals(6, expected.size());
+        assertEquals(expected, rowsOf(users));
+    }
+
+    // What BalanceService did per participant before deltas were folded
+    private void saveRowByRow(LongTripleSumMap deltas, BalanceType balanceType, long lastExpenseId) {
+        String keyColumns = balanceType == BalanceType.FRIEND_TO_FRIEND
+                ? "ba.user1.id = :first AND ba.user2.id = :second"
+                : "ba.user.id = :first AND ba.group.id = :second";
+        for (int slot = 0; slot < deltas.capacity(); slot++) {
+            if (!deltas.isUsed(slot)) {
+                continue;
+            }
+            long first = deltas.firstKey(slot);
+            long second = deltas.secondKey(slot);
+            String currency = MoneyUtil.currencyCode(deltas.thirdKey(slot));
+            BalanceAggregate balance = entityManager.createQuery("SELECT ba FROM BalanceAggregate ba " +
+                            "WHERE ba.balanceType = :type AND ba.currency = :currency AND " + keyColumns,
+                            BalanceAggregate.class)
+                    .setParameter("type", balanceType)
+                    .setParameter("currency", currency)
+                    .setParameter("first", first)
+                    .setParameter("second", second)
+                    .getResultStream()
+                    .findFirst()
+                    .orElseGet(() -> {
+                        BalanceAggregate created = balanceType == BalanceType.FRIEND_TO_FRIEND
+                                ? new BalanceAggregate(entityManager.getReference(User.class, first),
+                                        entityManager.getReference(User.class, second), MoneyUtil.fromCents(0),
+                                        lastExpenseId)
+                                : new BalanceAggregate(entityManager.getReference(User.class, first),
+                                        entityManager.getReference(Group.class, second), MoneyUtil.fromCents(0),
+                                        lastExpenseId);
+                        created.setCurrency(currency);
+                        return created;
+                    });
+            balance.setBalance(balance.getBalance().add(MoneyUtil.fromCents(deltas.value(slot))));
+            balance.setLastExpenseId(lastExpenseId);
+            entityManager.persist(balance);
+            entityManager.flush();
+        }
+    }
+
+    private Map<String, String> rowsOf(List<User> users) {
+        return jdbcTemplate.query("SELECT balance_type, user1_id, user2_id, user_id, group_id, currency, balance, " +
+                        "last_expense_id FROM balance_aggregates WHERE user1_id = ANY(?) OR user_id = ANY(?)",
+                (rs, rowNum) -> Map.entry(rs.getString(1) + ":" + rs.getLong(2) + ":" + rs.getLong(3) + ":" +
+                                rs.getLong(4) + ":" + rs.getLong(5) + ":" + rs.getString(6),
+                        rs.getBigDecimal(7).toPlainString() + "@" + rs.getLong(8)),
+                ids(users), ids(users)).stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+    }
+
+    private static Long[] ids(List<User> users) {
+        return users.stream().map(User::getId).toArray(Long[]::new);
+    }
+}
@@ -0,0 +1,103 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.models.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class BalanceCacheServiceTest {
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void balanceChange_ShouldEvictOnlyTheUsersItTouched() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        User first = users.get(0);
+        User second = users.get(1);
+        User third = users.get(2);
+        testData.createEvenExpense(first, users, null, 300, LocalDateTime.now());
+        for (User user : users) {
+            balanceService.getUserBalanceSummary(user.getId());
+        }
+        List<FriendBalanceResponse> thirdFriends = balanceService.getFriendBalances(third.getId());
+        double hitsBefore = gets("balance.summary", "hit");
+        double missesBefore = gets("balance.summary", "miss");
+
+        // When
+        testData.createEvenExpense(first, List.of(first, second), null, 500, LocalDateTime.now());
+
+        // Then
+        assertEquals(0, new BigDecimal("11.00").compareTo(balanceService.getUserBalanceSummary(first.getId()).getNetBalance()));
+        assertEquals(0, new BigDecimal("-8.00").compareTo(balanceService.getUserBalanceSummary(second.getId()).getNetBalance()));
+        assertEquals(0, new BigDecimal("-3.00").compareTo(balanceService.getUserBalanceSummary(third.getId()).getNetBalance()));
+        assertEquals(missesBefore + 2, gets("balance.summary", "miss"));
+        assertEquals(hitsBefore + 1, gets("balance.summary", "hit"));
+        assertSame(thirdFriends, balanceService.getFriendBalances(third.getId()));
+    }
+
+    @Test
+    void rebuild_ShouldEvictEveryUser() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        testData.createEvenExpense(users.get(0), users, null, 400, LocalDateTime.now());
+        long userId = users.get(1).getId();
+        BigDecimal net = balanceService.getUserBalanceSummary(userId).getNetBalance();
+        jdbcTemplate.update("UPDATE user_balance_summary SET net_balance = net_balance + 1 WHERE user_id = ?", userId);
+        assertEquals(0, net.compareTo(balanceService.getUserBalanceSummary(userId).getNetBalance()));
+
+        // When
+        balanceService.recalculateAllBalances();
+
+        // Then
+        assertEquals(0, new BigDecimal("-4.00").compareTo(balanceService.getUserBalanceSummary(userId).getNetBalance()));
+    }
+
+    @Test
+    void getSummary_ShouldNotShareTheCachedInstance() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        testData.createEvenExpense(users.get(0), users, null, 400, LocalDateTime.now());
+        long userId = users.get(0).getId();
+        UserBalanceSummaryResponse first = balanceService.getUserBalanceSummary(userId);
+
+        // When
+        first.setNetBalance(BigDecimal.TEN);
+        first.getCurrencyBalances().clear();
+
+        // Then
+        UserBalanceSummaryResponse second = balanceService.getUserBalanceSummary(userId);
+        assertNotSame(first, second);
+        assertEquals(0, new BigDecimal("4.00").compareTo(second.getNetBalance()));
+        assertEquals(1, second.getCurrencyBalances().size());
+    }
+
+    private double gets(String cache, String result) {
+        return meterRegistry.get("cache.gets").tags("cache", cache, "result", result).functionCounter().count();
+    }
+}
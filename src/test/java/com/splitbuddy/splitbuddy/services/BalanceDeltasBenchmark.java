@@ -0,0 +1,124 @@
+package com.splitbuddy.splitbuddy.services;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.User;
+
+/**
+ * The balance changes of one group expense computed the way the balance
+ * updates used to, adding or negating each participant's BigDecimal share
+ * onto the current friend and group balances, against
+ * {@link BalanceDeltas#forExpense}, which folds the same changes in cents.
+ * Kept beside BalanceDeltas, which is package-private.
+ *
+ * Run with (add -prof gc to the arguments for allocation rates):
+ * mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java
+ * "-Dexec.args=-cp %classpath com.splitbuddy.splitbuddy.services.BalanceDeltasBenchmark"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BalanceDeltasBenchmark {
+
+    private static final long GROUP_ID = 7;
+
+    @Param({ "3", "20", "200" })
+    private int participants;
+
+    private Expense expense;
+    private BigDecimal[] friendBalances;
+    private BigDecimal[] groupBalances;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        expense = new Expense();
+        expense.setCurrency("USD");
+        expense.setParticipants(new ArrayList<>());
+        friendBalances = new BigDecimal[participants];
+        groupBalances = new BigDecimal[participants];
+        long total = 0;
+        for (int i = 0; i < participants; i++) {
+            User user = new User();
+            user.setId(1000L + i);
+            long cents = 1 + random.nextInt(50_000);
+            total += cents;
+
+            ExpenseParticipant participant = new ExpenseParticipant();
+            participant.setExpense(expense);
+            participant.setUser(user);
+            participant.setAmount(BigDecimal.valueOf(cents, 2));
+            participant.setSource(ExpenseParticipant.ParticipantSource.GROUP);
+            participant.setSourceId(GROUP_ID);
+            expense.getParticipants().add(participant);
+
+            friendBalances[i] = BigDecimal.valueOf(random.nextInt(100_000) - 50_000, 2);
+            groupBalances[i] = BigDecimal.valueOf(random.nextInt(100_000) - 50_000, 2);
+        }
+        // The payer is the first participant
+        expense.setPaidBy(expense.getParticipants().get(0).getUser());
+        expense.setAmount(BigDecimal.valueOf(total, 2));
+    }
+
+    @Benchmark
+    public void bigDecimal(Blackhole blackhole) {
+        User payer = expense.getPaidBy();
+        BigDecimal payerCredit = expense.getAmount();
+        for (int i = 0; i < participants; i++) {
+            ExpenseParticipant participant = expense.getParticipants().get(i);
+            User participantUser = participant.getUser();
+            BigDecimal participantAmount = participant.getAmount();
+            if (participantUser.getId().equals(payer.getId())) {
+                payerCredit = payerCredit.subtract(participantAmount);
+                continue;
+            }
+
+            BigDecimal balanceChange = payer.getId() < participantUser.getId()
+                    ? participantAmount
+                    : participantAmount.negate();
+            blackhole.consume(friendBalances[i].add(balanceChange));
+            blackhole.consume(groupBalances[i].add(participantAmount.negate()));
+        }
+        blackhole.consume(groupBalances[0].add(payerCredit));
+    }
+
+    @Benchmark
+    public BalanceDeltas cents() {
+        return BalanceDeltas.forExpense(expense);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(BalanceDeltasBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
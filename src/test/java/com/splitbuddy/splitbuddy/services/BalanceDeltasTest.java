@@ -0,0 +1,106 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.Expense;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BalanceDeltasTest {
+
+    private static final long GROUP_ID = 40;
+
+    @Test
+    void forExpense_ShouldSkipThePayersOwnShare() {
+        // Given: user 5 pays 30.00 for themselves and friends 3 and 8
+        Expense expense = expense(5, "30.00", "USD");
+        participant(expense, 5, "10.00", ParticipantSource.FRIEND);
+        participant(expense, 3, "10.00", ParticipantSource.FRIEND);
+        participant(expense, 8, "10.00", ParticipantSource.FRIEND);
+        long usd = MoneyUtil.currencyKey("USD");
+
+        // When
+        BalanceDeltas deltas = BalanceDeltas.forExpense(expense);
+
+        // Then: keyed by the smaller user id first, positive when user2 owes user1
+        assertEquals(2, deltas.friendDeltas().size());
+        assertEquals(-1000, deltas.friendDeltas().get(3, 5, usd));
+        assertEquals(1000, deltas.friendDeltas().get(5, 8, usd));
+        assertEquals(0, deltas.groupDeltas().size());
+        assertEquals(2000, deltas.currencyDeltas().get(5, usd));
+        assertEquals(-1000, deltas.currencyDeltas().get(3, usd));
+        assertEquals(-1000, deltas.currencyDeltas().get(8, usd));
+    }
+
+    @Test
+    void forExpense_ShouldCreditGroupsForGroupSharesOnly() {
+        // Given: user 5 pays 30.00 EUR, shared with group member 8 and friend 3
+        Expense expense = expense(5, "30.00", "EUR");
+        participant(expense, 5, "10.00", ParticipantSource.GROUP);
+        participant(expense, 3, "10.00", ParticipantSource.FRIEND);
+        ExpenseParticipant member = participant(expense, 8, "10.00", ParticipantSource.GROUP);
+        long eur = MoneyUtil.currencyKey("EUR");
+
+        // When
+        BalanceDeltas deltas = BalanceDeltas.forExpense(expense);
+
+        // Then: the payer is owed what they paid beyond their own share
+        assertEquals(-1000, deltas.friendDeltas().get(3, 5, eur));
+        assertEquals(1000, deltas.friendDeltas().get(5, 8, eur));
+        assertEquals(2, deltas.groupDeltas().size());
+        assertEquals(2000, deltas.groupDeltas().get(5, GROUP_ID, eur));
+        assertEquals(-1000, deltas.groupDeltas().get(8, GROUP_ID, eur));
+        assertEquals(0, deltas.friendDeltas().get(3, 5, MoneyUtil.currencyKey("USD")));
+
+        // When: the group member has paid their share
+        member.setPaid(true);
+        BalanceDeltas paid = BalanceDeltas.forExpense(expense);
+
+        // Then
+        assertEquals(-1000, paid.friendDeltas().get(3, 5, eur));
+        assertEquals(0, paid.friendDeltas().get(5, 8, eur));
+        assertEquals(1000, paid.groupDeltas().get(5, GROUP_ID, eur));
+        assertEquals(0, paid.groupDeltas().get(8, GROUP_ID, eur));
+
+        // When: the expense is reversed
+        paid.addExpense(expense, -1);
+
+        // Then
+        assertEquals(0, paid.friendDeltas().get(3, 5, eur));
+        assertEquals(0, paid.groupDeltas().get(5, GROUP_ID, eur));
+        assertEquals(0, paid.currencyDeltas().get(5, eur));
+    }
+
+    private static Expense expense(long payerId, String amount, String currency) {
+        Expense expense = new Expense();
+        expense.setPaidBy(user(payerId));
+        expense.setAmount(new BigDecimal(amount));
+        expense.setCurrency(currency);
+        expense.setParticipants(new ArrayList<>());
+        return expense;
+    }
+
+    private static ExpenseParticipant participant(Expense expense, long userId, String amount,
+            ParticipantSource source) {
+        ExpenseParticipant participant = new ExpenseParticipant();
+        participant.setExpense(expense);
+        participant.setUser(user(userId));
+        participant.setAmount(new BigDecimal(amount));
+        participant.setSource(source);
+        participant.setSourceId(source == ParticipantSource.GROUP ? GROUP_ID : null);
+        expense.getParticipants().add(participant);
+        return participant;
+    }
+
+    private static User user(long id) {
+        User user = new User();
+        user.setId(id);
+        return user;
+    }
+}
@@ -0,0 +1,248 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.models.BalanceCheckpoint;
+import com.splitbuddy.splitbuddy.models.BalanceSnapshot;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class BalanceLedgerServiceTest {
+
+    @Autowired
+    private BalanceLedgerService balanceLedgerService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void ledger_ShouldMatchAggregatesAcrossSnapshots() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 20, 1);
+        testData.settleFirstOtherParticipant(expenses.get(0), false);
+        testData.runAs(expenses.get(1).getPaidBy(), () -> expenseService.deleteExpense(expenses.get(1).getId()));
+
+        // When
+        BalanceSnapshot snapshot = balanceLedgerService.createSnapshot();
+        testData.createRandomExpenses(users, group, 10, 2);
+
+        // Then
+        assertTrue(snapshot.getEntryCount() > 0);
+        assertLedgerMatchesAggregates(users, group);
+    }
+
+    @Test
+    void rebuildFromLedger_ShouldRestoreCorruptedAggregates() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 20, 3);
+        balanceLedgerService.createSnapshot();
+        testData.createRandomExpenses(users, group, 5, 4);
+        Map<String, BigDecimal> expected = testData.balancesOf(users);
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 3 WHERE user_id = ?", users.get(0).getId());
+
+        // When
+        balanceLedgerService.rebuildFromLedger();
+
+        // Then
+        assertEquals(expected, testData.balancesOf(users));
+    }
+
+    @Test
+    void recalculateUserBalances_ShouldOnlyRecordDifferencesFromLedger() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 20, 5);
+        long userId = users.get(0).getId();
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 7 WHERE user_id = ?", userId);
+        jdbcTemplate.update("DELETE FROM balance_ledger WHERE ctid = (SELECT ctid FROM balance_ledger " +
+                "WHERE user1_id = ? OR user2_id = ? ORDER BY id DESC LIMIT 1)", userId, userId);
+
+        // When
+        balanceService.recalculateUserBalances(userId);
+
+        // Then
+        Integer corrections = jdbcTemplate.queryForObject("SELECT count(*) FROM balance_ledger " +
+                "WHERE operation = 'RECALCULATION' AND (user1_id = ? OR user2_id = ? OR user_id = ?)",
+                Integer.class, userId, userId, userId);
+        assertEquals(1, corrections);
+        assertLedgerMatchesAggregates(users, group);
+    }
+
+    @Test
+    void balancesAsOf_ShouldFollowEffectiveTimesAcrossCheckpoints() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        User first = users.get(0);
+        User second = users.get(1);
+        Group group = testData.createGroup(users);
+        ExpenseResponse january = testData.createEvenExpense(first, List.of(first, second), null, 1000,
+                LocalDateTime.of(2024, 1, 10, 12, 0));
+        testData.createEvenExpense(first, users, group, 300, LocalDateTime.of(2024, 2, 20, 12, 0));
+        ExpenseResponse march = testData.createEvenExpense(second, List.of(first, second), null, 400,
+                LocalDateTime.of(2024, 3, 5, 12, 0));
+        jdbcTemplate.update("DELETE FROM balance_checkpoint_entries");
+        jdbcTemplate.update("DELETE FROM balance_checkpoints");
+        List<BalanceCheckpoint> checkpoints = balanceLedgerService.createMissingCheckpoints();
+
+        // When: changes recorded after the checkpoints, some taking effect before them
+        testData.createEvenExpense(first, List.of(first, second), null, 100, LocalDateTime.of(2024, 1, 20, 12, 0));
+        testData.runAs(second.getId(), () -> expenseService.deleteExpense(march.getId()));
+        testData.settleFirstOtherParticipant(january, true);
+
+        // Then
+        assertTrue(checkpoints.stream()
+                .anyMatch(checkpoint -> checkpoint.getPeriodEnd().equals(LocalDateTime.of(2024, 2, 1, 0, 0))));
+        assertFriendBalanceAsOf("10.00", first, second, LocalDateTime.of(2024, 1, 15, 0, 0));
+        assertFriendBalanceAsOf("11.00", first, second, LocalDateTime.of(2024, 1, 31, 23, 59));
+        assertFriendBalanceAsOf("11.00", first, second, LocalDateTime.of(2024, 2, 15, 0, 0));
+        assertFriendBalanceAsOf("-14.00", second, first, LocalDateTime.of(2024, 3, 10, 0, 0));
+        assertFriendBalanceAsOf("4.00", first, second, LocalDateTime.now());
+        assertEquals(0, new BigDecimal("4.00").compareTo(
+                balanceService.getFriendBalance(first.getId(), second.getId(), null).getBalance()));
+
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getGroupBalance(first.getId(), group.getId(),
+                LocalDateTime.of(2024, 2, 19, 0, 0)).getBalance()));
+        assertEquals(0, new BigDecimal("6.00").compareTo(balanceService.getGroupBalance(first.getId(), group.getId(),
+                LocalDateTime.of(2024, 3, 1, 0, 0)).getBalance()));
+        assertEquals(0, new BigDecimal("-3.00").compareTo(balanceService.getGroupBalance(second.getId(), group.getId(),
+                LocalDateTime.now()).getBalance()));
+        assertLedgerMatchesAggregates(users, group);
+    }
+
+    @Test
+    void balancesAsOf_ShouldTakeRebuildCorrectionsFromTheRebuildOn() {
+        // Given: a change the ledger lost
+        List<User> users = testData.createFriends(2);
+        User first = users.get(0);
+        User second = users.get(1);
+        testData.createEvenExpense(first, users, null, 1000, LocalDateTime.of(2024, 1, 10, 12, 0));
+        ExpenseResponse lost = testData.createEvenExpense(first, users, null, 600,
+                LocalDateTime.of(2024, 2, 10, 12, 0));
+        jdbcTemplate.update("DELETE FROM balance_ledger WHERE expense_id = ?", lost.getId());
+        LocalDateTime beforeRebuild = LocalDateTime.now();
+
+        // When
+        balanceService.recalculateFriendBalance(first.getId(), second.getId());
+        LocalDateTime afterRebuild = LocalDateTime.now();
+        testData.createEvenExpense(first, users, null, 200, afterRebuild.plusDays(1));
+        jdbcTemplate.update("DELETE FROM balance_checkpoint_entries");
+        jdbcTemplate.update("DELETE FROM balance_checkpoints");
+        balanceLedgerService.createMissingCheckpoints();
+
+        // Then: the correction takes effect when the rebuild read the expenses
+        LocalDateTime correctedAt = jdbcTemplate.queryForObject("SELECT effective_at FROM balance_ledger " +
+                "WHERE operation = 'RECALCULATION' AND user1_id = ? AND user2_id = ?", LocalDateTime.class,
+                Math.min(first.getId(), second.getId()), Math.max(first.getId(), second.getId()));
+        assertTrue(!correctedAt.isBefore(beforeRebuild) && !correctedAt.isAfter(afterRebuild), "at " + correctedAt);
+        assertFriendBalanceAsOf("10.00", first, second, LocalDateTime.of(2024, 3, 1, 0, 0));
+        assertFriendBalanceAsOf("10.00", first, second, correctedAt.minusNanos(1000));
+        assertFriendBalanceAsOf("16.00", first, second, correctedAt);
+        assertFriendBalanceAsOf("16.00", first, second, afterRebuild);
+        assertFriendBalanceAsOf("-18.00", second, first, afterRebuild.plusDays(2));
+    }
+
+    @Test
+    void backfillOpeningBalances_ShouldDateBalancesCarriedOverFromBeforeTheLedger() {
+        // Given: expenses from before the ledger, carried over as opening balances
+        LocalDateTime openedAt = LocalDateTime.of(2024, 6, 1, 0, 0);
+        List<User> users = testData.createFriends(3);
+        User first = users.get(0);
+        User second = users.get(1);
+        Group group = testData.createGroup(users);
+        ExpenseResponse january = testData.createEvenExpense(first, List.of(first, second), null, 1000,
+                LocalDateTime.of(2024, 1, 10, 12, 0));
+        ExpenseResponse february = testData.createEvenExpense(first, users, group, 300,
+                LocalDateTime.of(2024, 2, 20, 12, 0));
+        ExpenseResponse march = testData.createEvenExpense(second, List.of(first, second), null, 400,
+                LocalDateTime.of(2024, 3, 5, 12, 0));
+        Long[] expenseIds = { january.getId(), february.getId(), march.getId() };
+        Long[] userIds = users.stream().map(User::getId).toArray(Long[]::new);
+        jdbcTemplate.update("DELETE FROM balance_ledger WHERE expense_id = ANY(?)", (Object) expenseIds);
+        jdbcTemplate.update("UPDATE expenses SET created_at = paid_at WHERE id = ANY(?)", (Object) expenseIds);
+        jdbcTemplate.update("INSERT INTO balance_ledger (balance_type, user1_id, user2_id, user_id, group_id, " +
+                "currency, delta, operation, effective_at, created_at) " +
+                "SELECT balance_type, user1_id, user2_id, user_id, group_id, currency, balance, 'OPENING_BALANCE', ?, " +
+                "now() FROM balance_aggregates WHERE user1_id = ANY(?) OR user_id = ANY(?)",
+                openedAt, userIds, userIds);
+        testData.settleFirstOtherParticipant(january, true);
+        testData.runAs(second.getId(), () -> expenseService.deleteExpense(march.getId()));
+        assertFriendBalanceAsOf("0.00", first, second, LocalDateTime.of(2024, 1, 15, 0, 0));
+
+        // When
+        int backfilled = balanceLedgerService.backfillOpeningBalances();
+
+        // Then
+        assertTrue(backfilled >= 3, "backfilled " + backfilled);
+        assertFriendBalanceAsOf("10.00", first, second, LocalDateTime.of(2024, 1, 15, 0, 0));
+        assertFriendBalanceAsOf("13.00", first, second, LocalDateTime.of(2024, 3, 10, 0, 0));
+        assertFriendBalanceAsOf("13.00", first, second, openedAt);
+        assertFriendBalanceAsOf("3.00", first, second, LocalDateTime.now());
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getGroupBalance(first.getId(), group.getId(),
+                LocalDateTime.of(2024, 2, 19, 0, 0)).getBalance()));
+        assertEquals(0, new BigDecimal("6.00").compareTo(balanceService.getGroupBalance(first.getId(), group.getId(),
+                LocalDateTime.of(2024, 3, 1, 0, 0)).getBalance()));
+        assertLedgerMatchesAggregates(users, group);
+        Integer rows = jdbcTemplate.queryForObject("SELECT count(*) FROM balance_ledger", Integer.class);
+        assertEquals(0, balanceLedgerService.backfillOpeningBalances());
+        assertEquals(rows, jdbcTemplate.queryForObject("SELECT count(*) FROM balance_ledger", Integer.class));
+    }
+
+    private void assertFriendBalanceAsOf(String expected, User user, User friend, LocalDateTime asOf) {
+        BigDecimal balance = balanceService.getFriendBalance(user.getId(), friend.getId(), asOf).getBalance();
+        assertEquals(0, new BigDecimal(expected).compareTo(balance), "as of " + asOf + " was " + balance);
+    }
+
+    private void assertLedgerMatchesAggregates(List<User> users, Group group) {
+        for (User user : users) {
+            for (User friend : users) {
+                if (user != friend) {
+                    long user1 = Math.min(user.getId(), friend.getId());
+                    long user2 = Math.max(user.getId(), friend.getId());
+                    BigDecimal aggregate = aggregate(
+                            "SELECT balance FROM balance_aggregates WHERE user1_id = ? AND user2_id = ?", user1, user2);
+                    BigDecimal ledger = balanceLedgerService.getFriendBalance(user.getId(), friend.getId())
+                            .getOrDefault("USD", BigDecimal.ZERO);
+                    assertEquals(0, (user.getId() == user1 ? aggregate : aggregate.negate()).compareTo(ledger));
+                }
+            }
+            BigDecimal groupAggregate = aggregate(
+                    "SELECT balance FROM balance_aggregates WHERE user_id = ? AND group_id = ?", user.getId(), group.getId());
+            assertEquals(0, groupAggregate.compareTo(balanceLedgerService.getGroupBalance(user.getId(), group.getId())
+                    .getOrDefault("USD", BigDecimal.ZERO)));
+        }
+    }
+
+    private BigDecimal aggregate(String sql, long first, long second) {
+        return jdbcTemplate.queryForList(sql, BigDecimal.class, first, second).stream()
+                .findFirst()
+                .orElse(BigDecimal.ZERO);
+    }
+}
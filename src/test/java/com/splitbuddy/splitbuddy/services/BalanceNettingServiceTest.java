@@ -0,0 +1,73 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.NetBalanceResponse.ContextBalance;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant.ParticipantSource;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class BalanceNettingServiceTest {
+
+    @Autowired
+    private BalanceNettingService balanceNettingService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Test
+    void directAndGroupDebts_ShouldNetToOneAmountPerCounterparty() {
+        // Given: the user owes the friend 40 directly and is owed 55 in a group
+        List<User> users = testData.createFriends(2);
+        User user = users.get(0);
+        User friend = users.get(1);
+        Group group = testData.createGroup(users);
+        testData.createEvenExpense(friend, users, null, 4000, LocalDateTime.now());
+        ExpenseResponse groupExpense = testData.createEvenExpense(user, users, group, 5500, LocalDateTime.now());
+
+        // When
+        List<NetBalanceResponse> netBalances = balanceNettingService.getNetBalances(user.getId());
+
+        // Then
+        assertEquals(1, netBalances.size());
+        NetBalanceResponse netBalance = netBalances.get(0);
+        assertEquals(friend.getId(), netBalance.getCounterpartyId());
+        assertEquals(0, new BigDecimal("15.00").compareTo(netBalance.getNetBalance()));
+        List<ContextBalance> contexts = netBalance.getContexts();
+        assertEquals(2, contexts.size());
+        assertEquals(ParticipantSource.FRIEND, contexts.get(0).getSource());
+        assertNull(contexts.get(0).getGroupId());
+        assertEquals(0, new BigDecimal("-40.00").compareTo(contexts.get(0).getBalance()));
+        assertEquals(ParticipantSource.GROUP, contexts.get(1).getSource());
+        assertEquals(group.getId(), contexts.get(1).getGroupId());
+        assertEquals(0, new BigDecimal("55.00").compareTo(contexts.get(1).getBalance()));
+        assertEquals(0, new BigDecimal("-15.00").compareTo(
+                balanceNettingService.getNetBalances(friend.getId()).get(0).getNetBalance()));
+        assertSame(netBalances, balanceNettingService.getNetBalances(user.getId()));
+
+        // When: the friend's group share is settled
+        testData.settleFirstOtherParticipant(groupExpense, true);
+        netBalances = balanceNettingService.getNetBalances(user.getId());
+
+        // Then
+        assertEquals(0, new BigDecimal("-40.00").compareTo(netBalances.get(0).getNetBalance()));
+        assertEquals(1, netBalances.get(0).getContexts().size());
+        assertTrue(netBalances.get(0).getContexts().stream()
+                .allMatch(context -> context.getSource() == ParticipantSource.FRIEND));
+    }
+}
@@ -0,0 +1,109 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "balance.projection.outbox.enabled=true",
+        "balance.projection.outbox.interval=PT1H"
+})
+@Import(BalanceTestData.class)
+class BalanceProjectorTest {
+
+    @Autowired
+    private BalanceProjector balanceProjector;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void queuedChanges_ShouldOnlyReachBalancesOnceProjected() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 15, 17);
+        testData.settleFirstOtherParticipant(expenses.get(0), true);
+        AtomicReference<Long> version = new AtomicReference<>();
+        testData.runAs(expenses.get(1).getPaidBy(),
+                () -> version.set(expenseService.deleteExpense(expenses.get(1).getId())));
+        assertEquals(latestVersion(), version.get());
+        assertTrue(testData.balancesOf(users).isEmpty());
+        assertEquals(0, BigDecimal.ZERO.compareTo(balanceService.getUserBalanceSummary(users.get(0).getId())
+                .getNetBalance()));
+
+        // When
+        balanceProjector.awaitVersion(version.get());
+
+        // Then: the projected balances match a rebuild from the expenses
+        Map<String, BigDecimal> projected = testData.balancesOf(users);
+        assertFalse(projected.isEmpty());
+        users.forEach(user -> balanceService.recalculateUserBalances(user.getId()));
+        assertEquals(projected, testData.balancesOf(users));
+        assertEquals(0, balanceService.getUserBalanceSummary(users.get(0).getId()).getNetBalance()
+                .compareTo(netBalance(users.get(0))));
+        assertEquals(0.0, meterRegistry.get("balance.projection.lag").gauge().value());
+    }
+
+    @Test
+    void rebuilds_ShouldLeavePendingChangesToTheProjector() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        User payer = users.get(0);
+        String pairKey = "FRIEND_TO_FRIEND:" + payer.getId() + ":" + users.get(1).getId() + ":0:0";
+        testData.createEvenExpense(payer, users, null, 200, LocalDateTime.now());
+
+        // When
+        balanceService.recalculateUserBalances(payer.getId());
+        balanceProjector.drain();
+
+        // Then
+        assertEquals(Map.of(pairKey, new BigDecimal("2.00")), testData.balancesOf(users));
+
+        // When
+        testData.createEvenExpense(payer, users, null, 300, LocalDateTime.now());
+        balanceService.recalculateAllBalances();
+        balanceProjector.drain();
+
+        // Then
+        assertEquals(Map.of(pairKey, new BigDecimal("5.00")), testData.balancesOf(users));
+        assertEquals(0, new BigDecimal("5.00").compareTo(netBalance(payer)));
+    }
+
+    private long latestVersion() {
+        return jdbcTemplate.queryForObject("SELECT max(id) FROM balance_outbox", Long.class);
+    }
+
+    private BigDecimal netBalance(User user) {
+        return jdbcTemplate.queryForObject("SELECT net_balance FROM user_balance_summary WHERE user_id = ?",
+                BigDecimal.class, user.getId());
+    }
+}
@@ -0,0 +1,95 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class BalanceReadStoreTest {
+
+    @Autowired
+    private BalanceReadStore balanceReadStore;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void fullLoad_ShouldMatchTheDatabaseAndReportItsSize() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 20, 31);
+        balanceReadStore.evictUsers(users.stream().map(User::getId).toList());
+        long loadsBefore = meterRegistry.get("balance.read-store.load").timer().count();
+
+        // When
+        int loaded = balanceReadStore.loadAll();
+
+        // Then
+        assertTrue(loaded >= users.size());
+        assertEquals(loadsBefore + 1, meterRegistry.get("balance.read-store.load").timer().count());
+        assertTrue(meterRegistry.get("balance.read-store.users").gauge().value() >= users.size());
+        assertTrue(meterRegistry.get("balance.read-store.entries").gauge().value() > 0);
+        assertTrue(meterRegistry.get("balance.read-store.memory").gauge().value() > 0);
+        for (User user : users) {
+            assertMatchesDatabase(user.getId());
+        }
+    }
+
+    @Test
+    void reads_ShouldComeFromMemoryUntilABalanceChangeEvictsTheUser() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        User payer = users.get(0);
+        testData.createEvenExpense(payer, users, null, 200, LocalDateTime.now());
+        assertMatchesDatabase(payer.getId());
+        jdbcTemplate.update("UPDATE friend_balances SET balance = balance + 1 WHERE owner_id = ?", payer.getId());
+        assertEquals(0, new BigDecimal("2.00").compareTo(
+                balanceReadStore.getFriendBalances(payer.getId()).get(0).getBalance()));
+
+        // When
+        testData.createEvenExpense(payer, users, null, 300, LocalDateTime.now());
+
+        // Then
+        assertEquals(0, new BigDecimal("6.00").compareTo(
+                balanceReadStore.getFriendBalances(payer.getId()).get(0).getBalance()));
+        assertMatchesDatabase(payer.getId());
+    }
+
+    private void assertMatchesDatabase(long userId) {
+        List<String> friends = jdbcTemplate.query("SELECT counterparty_id, balance FROM friend_balances " +
+                        "WHERE owner_id = ? ORDER BY counterparty_id",
+                (rs, rowNum) -> rs.getLong(1) + "=" + rs.getBigDecimal(2).setScale(2), userId);
+        List<String> groups = jdbcTemplate.query("SELECT group_id, balance FROM balance_aggregates " +
+                        "WHERE balance_type = 'USER_TO_GROUP' AND user_id = ? ORDER BY group_id",
+                (rs, rowNum) -> rs.getLong(1) + "=" + rs.getBigDecimal(2).setScale(2), userId);
+        assertFalse(friends.isEmpty());
+
+        assertEquals(friends, balanceReadStore.getFriendBalances(userId).stream()
+                .map(balance -> balance.getFriendId() + "=" + balance.getBalance().setScale(2))
+                .toList());
+        assertEquals(groups, balanceReadStore.getGroupBalances(userId).stream()
+                .map(balance -> balance.getGroupId() + "=" + balance.getBalance().setScale(2))
+                .toList());
+    }
+}
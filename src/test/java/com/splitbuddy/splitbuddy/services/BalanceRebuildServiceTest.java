@@ -0,0 +1,155 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = { "balance.rebuild.parallelism=3", "balance.rebuild.chunk-size=7" })
+@Import(BalanceTestData.class)
+class BalanceRebuildServiceTest {
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private UserBalanceSummaryService userBalanceSummaryService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void recalculateAllBalances_ShouldMatchIncrementalBalances() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 60, 42);
+        Map<String, BigDecimal> expected = testData.balancesOf(users);
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 1 WHERE user1_id = ? OR user_id = ?",
+                users.get(0).getId(), users.get(0).getId());
+
+        // When
+        balanceService.recalculateAllBalances();
+
+        // Then
+        assertEquals(expected, testData.balancesOf(users));
+        assertNull(jdbcTemplate.queryForObject("SELECT to_regclass('balance_aggregates_shadow')", String.class));
+    }
+
+    @Test
+    void recalculateAllBalances_ShouldKeepWritesMadeDuringRebuild() throws Exception {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        Random random = new Random(7);
+        for (int i = 0; i < 40; i++) {
+            expenseService.createExpense(testData.randomExpense(random, users, group));
+        }
+
+        // When
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        List<CreateExpenseRequest> concurrentExpenses = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            concurrentExpenses.add(testData.randomExpense(random, users, group));
+        }
+        Future<?> writes;
+        try {
+            writes = executor.submit(() -> concurrentExpenses.forEach(expenseService::createExpense));
+            balanceService.recalculateAllBalances();
+            writes.get(2, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+        Map<String, BigDecimal> afterConcurrentRebuild = testData.balancesOf(users);
+        balanceService.recalculateAllBalances();
+
+        // Then
+        assertFalse(afterConcurrentRebuild.isEmpty());
+        assertEquals(testData.balancesOf(users), afterConcurrentRebuild);
+        assertTrue(userBalanceSummaryService.verifySummaries().isEmpty());
+    }
+
+    @Test
+    void recalculateFriendBalance_ShouldRepairOnlyThatPair() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 30, 30);
+        Map<String, BigDecimal> expected = testData.balancesOf(users);
+        long user1 = Math.min(users.get(0).getId(), users.get(1).getId());
+        long user2 = Math.max(users.get(0).getId(), users.get(1).getId());
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 5 " +
+                "WHERE balance_type = 'FRIEND_TO_FRIEND' AND user1_id = ? AND user2_id = ?", user1, user2);
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 5 WHERE user_id = ?",
+                users.get(2).getId());
+
+        // When
+        balanceService.recalculateFriendBalance(users.get(1).getId(), users.get(0).getId());
+
+        // Then
+        Map<String, BigDecimal> actual = testData.balancesOf(users);
+        String pairKey = "FRIEND_TO_FRIEND:" + user1 + ":" + user2 + ":0:0";
+        assertEquals(expected.get(pairKey), actual.get(pairKey));
+        String untouchedKey = "USER_TO_GROUP:0:0:" + users.get(2).getId() + ":" + group.getId();
+        assertEquals(expected.get(untouchedKey).add(new BigDecimal("5")), actual.get(untouchedKey));
+    }
+
+    @Test
+    void recalculateGroupBalances_ShouldRepairEveryMember() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 30, 30);
+        Map<String, BigDecimal> expected = testData.balancesOf(users);
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 5 WHERE group_id = ?", group.getId());
+
+        // When
+        balanceService.recalculateGroupBalances(group.getId());
+
+        // Then
+        assertEquals(expected, testData.balancesOf(users));
+    }
+
+    @Test
+    void recalculateUserBalances_ShouldRepairEveryRowOfUser() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 30, 30);
+        Map<String, BigDecimal> expected = testData.balancesOf(users);
+        long userId = users.get(1).getId();
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = 0 WHERE user1_id = ? OR user2_id = ? OR user_id = ?",
+                userId, userId, userId);
+
+        // When
+        balanceService.recalculateUserBalances(userId);
+
+        // Then
+        assertEquals(expected, testData.balancesOf(users));
+    }
+}
@@ -0,0 +1,89 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.services.BalanceReconciliationService.Mismatch;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "balance.reconciliation.repair=true",
+        "balance.reconciliation.interval=PT1H",
+        "balance.reconciliation.chunk-size=50"
+})
+@Import(BalanceTestData.class)
+class BalanceReconciliationServiceTest {
+
+    @Autowired
+    private BalanceReconciliationService balanceReconciliationService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Test
+    void driftedAggregates_ShouldBeReportedAndRepaired() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 20, 23);
+        testData.settleFirstOtherParticipant(expenses.get(0), true);
+        Map<String, BigDecimal> balances = testData.balancesOf(users);
+        long friendPair = drift("balance_type = 'FRIEND_TO_FRIEND' AND user1_id = ?", users.get(0));
+        long groupMember = drift("balance_type = 'USER_TO_GROUP' AND group_id = ? AND user_id = " +
+                users.get(1).getId(), group);
+        double mismatchesBefore = mismatchCount();
+
+        // When
+        List<Mismatch> mismatches = ours(balanceReconciliationService.reconcileAll(), users);
+
+        // Then
+        assertEquals(Set.of(friendPair, groupMember), mismatches.stream()
+                .map(mismatch -> mismatch.actualCents() - mismatch.expectedCents())
+                .collect(Collectors.toSet()));
+        assertTrue(mismatchCount() - mismatchesBefore >= 2);
+        assertEquals(balances, testData.balancesOf(users));
+        assertTrue(ours(balanceReconciliationService.reconcileAll(), users).isEmpty());
+    }
+
+    // Adds a distinct number of cents to the first row matching the condition
+    private long drift(String condition, Object scope) {
+        long cents = condition.contains("FRIEND") ? 101 : 202;
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + ? WHERE id = " +
+                "(SELECT min(id) FROM balance_aggregates WHERE " + condition + ")",
+                BigDecimal.valueOf(cents, 2), scope instanceof User user ? user.getId() : ((Group) scope).getId());
+        return cents;
+    }
+
+    private List<Mismatch> ours(List<Mismatch> mismatches, List<User> users) {
+        Set<Long> userIds = users.stream().map(User::getId).collect(Collectors.toSet());
+        return mismatches.stream()
+                .filter(mismatch -> userIds.contains(mismatch.first()))
+                .toList();
+    }
+
+    private double mismatchCount() {
+        return meterRegistry.find("balance.reconciliation.mismatches").counters().stream()
+                .mapToDouble(counter -> counter.count())
+                .sum();
+    }
+}
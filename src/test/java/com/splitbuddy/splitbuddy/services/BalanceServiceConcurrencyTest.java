@@ -0,0 +1,130 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.Friendship;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.FriendshipRepository;
+import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class BalanceServiceConcurrencyTest {
+
+    private static final int THREADS = 16;
+    private static final int EXPENSES_PAID_BY_FIRST = 1500;
+    private static final int EXPENSES_PAID_BY_SECOND = 500;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private FriendshipRepository friendshipRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void concurrentExpensesOnSamePair_ShouldNotLoseUpdates() throws Exception {
+        // Given
+        User first = createUser("first");
+        User second = createUser("second");
+        Friendship friendship = new Friendship();
+        friendship.setUser(first);
+        friendship.setFriend(second);
+        friendshipRepository.save(friendship);
+
+        List<User> payers = new ArrayList<>();
+        for (int i = 0; i < EXPENSES_PAID_BY_FIRST; i++) {
+            payers.add(first);
+        }
+        for (int i = 0; i < EXPENSES_PAID_BY_SECOND; i++) {
+            payers.add(second);
+        }
+
+        // When
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (User payer : payers) {
+                User other = payer == first ? second : first;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    expenseService.createExpense(splitEvenly(payer, other));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Then
+        long low = Math.min(first.getId(), second.getId());
+        long high = Math.max(first.getId(), second.getId());
+        BigDecimal balance = jdbcTemplate.queryForObject(
+                "SELECT balance FROM balance_aggregates WHERE user1_id = ? AND user2_id = ? AND balance_type = 'FRIEND_TO_FRIEND'",
+                BigDecimal.class, low, high);
+        Integer rows = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM balance_aggregates WHERE user1_id = ? AND user2_id = ? AND balance_type = 'FRIEND_TO_FRIEND'",
+                Integer.class, low, high);
+
+        // Each expense moves 0.50 towards its payer: 1500 * 0.50 - 500 * 0.50
+        BigDecimal owedToFirst = new BigDecimal("500.00");
+        BigDecimal expected = first.getId() == low ? owedToFirst : owedToFirst.negate();
+        assertEquals(1, rows);
+        assertTrue(expected.compareTo(balance) == 0, "expected " + expected + " but was " + balance);
+    }
+
+    private User createUser(String name) {
+        User user = new User();
+        user.setName(name);
+        user.setEmail(name + "-" + UUID.randomUUID() + "@example.com");
+        user.setPasswordHash("hash");
+        return userRepository.save(user);
+    }
+
+    private CreateExpenseRequest splitEvenly(User payer, User other) {
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle("Coffee");
+        request.setAmount(new BigDecimal("1.00"));
+        request.setCurrency("USD");
+        request.setCategory("Food");
+        request.setPaidAt(LocalDateTime.now());
+        request.setPaidBy(payer.getId());
+        request.setParticipants(List.of(participant(payer), participant(other)));
+        return request;
+    }
+
+    private CreateExpenseRequest.ParticipantRequest participant(User user) {
+        CreateExpenseRequest.ParticipantRequest participant = new CreateExpenseRequest.ParticipantRequest();
+        participant.setUserId(user.getId());
+        participant.setAmount(new BigDecimal("0.50"));
+        participant.setSource(ExpenseParticipant.ParticipantSource.FRIEND);
+        return participant;
+    }
+}
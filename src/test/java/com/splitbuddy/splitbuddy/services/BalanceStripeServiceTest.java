@@ -0,0 +1,133 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "balance.stripes.hot-writes=1",
+        "balance.stripes.window=PT1H",
+        "balance.stripes.compact-interval=PT1H"
+})
+@Import(BalanceTestData.class)
+class BalanceStripeServiceTest {
+
+    @Autowired
+    private BalanceStripeService balanceStripeService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private UserBalanceSummaryService userBalanceSummaryService;
+
+    @Autowired
+    private BalanceAggregateRepository balanceAggregateRepository;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void hotGroupBalances_ShouldBeStripedAndFoldedBack() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        User payer = users.get(0);
+        testData.createEvenExpense(payer, users, group, 200, LocalDateTime.now());
+        balanceStripeService.rotateWindow();
+        assertTrue(balanceStripeService.isHot(payer.getId(), group.getId()));
+
+        // When
+        testData.createEvenExpense(payer, users, group, 200, LocalDateTime.now());
+
+        // Then: the rows keep the first expense and the stripes the second
+        assertTrue(stripeCount(group) > 0);
+        assertEquals(0, new BigDecimal("4.00").compareTo(rowBalance(payer, group)));
+        assertGroupBalances(users, group);
+        assertTrue(userBalanceSummaryService.verifySummaries().stream()
+                .noneMatch(userId -> users.stream().anyMatch(user -> user.getId().equals(userId))));
+
+        // When
+        balanceStripeService.compact();
+
+        // Then
+        assertEquals(0, stripeCount(group));
+        assertEquals(0, new BigDecimal("8.00").compareTo(rowBalance(payer, group)));
+        assertGroupBalances(users, group);
+    }
+
+    @Test
+    void rebuilds_ShouldFoldStripesFirst() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        User payer = users.get(0);
+        testData.createEvenExpense(payer, users, group, 200, LocalDateTime.now());
+        balanceStripeService.rotateWindow();
+        testData.createEvenExpense(payer, users, group, 200, LocalDateTime.now());
+        assertTrue(stripeCount(group) > 0);
+
+        // When
+        balanceService.recalculateGroupBalances(group.getId());
+
+        // Then
+        assertEquals(0, stripeCount(group));
+        assertGroupBalances(users, group);
+        assertFalse(testData.balancesOf(users).isEmpty());
+    }
+
+    // Two expenses of 2.00 each per user paid by the first user
+    private void assertGroupBalances(List<User> users, Group group) {
+        Map<Long, BigDecimal> expected = Map.of(
+                users.get(0).getId(), new BigDecimal("8.00"),
+                users.get(1).getId(), new BigDecimal("-4.00"),
+                users.get(2).getId(), new BigDecimal("-4.00"));
+
+        Map<Long, BigDecimal> forGroup = transactionTemplate.execute(status ->
+                balanceService.getGroupBalancesForGroup(group.getId()).stream()
+                        .collect(Collectors.toMap(GroupBalanceResponse::getUserId,
+                                balance -> balance.getBalance().setScale(2))));
+        assertEquals(expected, forGroup);
+        for (User user : users) {
+            BigDecimal balance = expected.get(user.getId());
+            assertEquals(0, balance.compareTo(
+                    balanceService.getGroupBalance(user.getId(), group.getId(), null).getBalance()));
+            assertEquals(0, balance.compareTo(balanceService.getGroupBalances(user.getId()).get(0).getBalance()));
+            assertEquals(0, balance.compareTo(balanceAggregateRepository.getTotalGroupBalanceForUser(user.getId())));
+        }
+    }
+
+    private int stripeCount(Group group) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM balance_aggregate_stripes WHERE group_id = ?",
+                Integer.class, group.getId());
+    }
+
+    private BigDecimal rowBalance(User user, Group group) {
+        return jdbcTemplate.queryForObject("SELECT balance FROM balance_aggregates " +
+                "WHERE balance_type = 'USER_TO_GROUP' AND user_id = ? AND group_id = ?",
+                BigDecimal.class, user.getId(), group.getId());
+    }
+}
@@ -0,0 +1,194 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.Friendship;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.FriendshipRepository;
+import com.splitbuddy.splitbuddy.repositories.GroupRepository;
+import com.splitbuddy.splitbuddy.repositories.UserRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.test.context.TestComponent;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Creates users, friendships, groups and random expenses for balance
+ * integration tests, and reads back the balance rows of a set of users.
+ */
+@TestComponent
+@RequiredArgsConstructor
+public class BalanceTestData {
+
+    private static final ExpenseParticipant.ParticipantSource FRIEND = ExpenseParticipant.ParticipantSource.FRIEND;
+    private static final ExpenseParticipant.ParticipantSource GROUP = ExpenseParticipant.ParticipantSource.GROUP;
+
+    private final ExpenseService expenseService;
+    private final UserRepository userRepository;
+    private final GroupRepository groupRepository;
+    private final FriendshipRepository friendshipRepository;
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Create {@code count} users who are all friends with each other
+     */
+    public List<User> createFriends(int count) {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setName("user" + i);
+            user.setEmail("user" + i + "-" + UUID.randomUUID() + "@example.com");
+            user.setPasswordHash("hash");
+            users.add(userRepository.save(user));
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                Friendship friendship = new Friendship();
+                friendship.setUser(users.get(i));
+                friendship.setFriend(users.get(j));
+                friendshipRepository.save(friendship);
+            }
+        }
+        return users;
+    }
+
+    public Group createGroup(List<User> members) {
+        Group group = new Group();
+        group.setName("Trip");
+        group.setCreatedBy(members.get(0));
+        group.setMembers(new HashSet<>(members));
+        return groupRepository.save(group);
+    }
+
+    /**
+     * Create {@code count} random friend and group expenses, settling one share
+     * of every fourth expense
+     */
+    public List<ExpenseResponse> createRandomExpenses(List<User> users, Group group, int count, long seed) {
+        Random random = new Random(seed);
+        List<ExpenseResponse> expenses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ExpenseResponse expense = expenseService.createExpense(randomExpense(random, users, group));
+            if (i % 4 == 0) {
+                settleFirstOtherParticipant(expense, true);
+            }
+            expenses.add(expense);
+        }
+        return expenses;
+    }
+
+    /**
+     * Create an expense paid by {@code payer} in which every user owes
+     * {@code centsEach}, within {@code group} when it is not null
+     */
+    public ExpenseResponse createEvenExpense(User payer, List<User> users, Group group, long centsEach,
+            LocalDateTime paidAt) {
+        return createEvenExpense(payer, users, group, centsEach, paidAt, "USD");
+    }
+
+    /**
+     * Same as {@link #createEvenExpense(User, List, Group, long, LocalDateTime)}
+     * in {@code currency}
+     */
+    public ExpenseResponse createEvenExpense(User payer, List<User> users, Group group, long centsEach,
+            LocalDateTime paidAt, String currency) {
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle("Expense");
+        request.setAmount(BigDecimal.valueOf(centsEach * users.size(), 2));
+        request.setCurrency(currency);
+        request.setCategory("Food");
+        request.setPaidAt(paidAt);
+        request.setPaidBy(payer.getId());
+        request.setParticipants(users.stream()
+                .map(user -> participant(user, centsEach, group != null ? GROUP : FRIEND,
+                        group != null ? group.getId() : null))
+                .toList());
+        return expenseService.createExpense(request);
+    }
+
+    public CreateExpenseRequest randomExpense(Random random, List<User> users, Group group) {
+        boolean inGroup = random.nextBoolean();
+        User payer = users.get(random.nextInt(users.size()));
+        List<CreateExpenseRequest.ParticipantRequest> participants = new ArrayList<>();
+        long total = 0;
+        for (User user : users) {
+            if (user != payer && !inGroup && random.nextInt(3) == 0) {
+                continue;
+            }
+            long cents = 1 + random.nextInt(5000);
+            total += cents;
+            participants.add(participant(user, cents, inGroup ? GROUP : FRIEND, inGroup ? group.getId() : null));
+        }
+
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle("Expense");
+        request.setAmount(BigDecimal.valueOf(total, 2));
+        request.setCurrency("USD");
+        request.setCategory("Food");
+        request.setPaidAt(LocalDateTime.now());
+        request.setPaidBy(payer.getId());
+        request.setParticipants(participants);
+        return request;
+    }
+
+    /**
+     * Mark the first participant other than the payer as paid or unpaid
+     */
+    public void settleFirstOtherParticipant(ExpenseResponse expense, boolean isPaid) {
+        runAs(expense.getPaidBy(), () -> expense.getParticipants().stream()
+                .filter(participant -> !participant.getUserId().equals(expense.getPaidBy()))
+                .findFirst()
+                .ifPresent(participant -> expenseService.updateParticipantPaymentStatus(
+                        expense.getId(), participant.getId(), isPaid)));
+    }
+
+    public void runAs(Long userId, Runnable action) {
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(userId.toString(), null, List.of()));
+        try {
+            action.run();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Balance rows touching any of the users, keyed by
+     * "type:user1:user2:user:group" with absent ids as 0
+     */
+    public Map<String, BigDecimal> balancesOf(List<User> users) {
+        Long[] ids = users.stream().map(User::getId).toArray(Long[]::new);
+        return jdbcTemplate.query(
+                "SELECT balance_type, user1_id, user2_id, user_id, group_id, balance FROM balance_aggregates " +
+                        "WHERE user1_id = ANY(?) OR user_id = ANY(?)",
+                (rs, rowNum) -> Map.entry(
+                        rs.getString(1) + ":" + rs.getLong(2) + ":" + rs.getLong(3) + ":" + rs.getLong(4) + ":" + rs.getLong(5),
+                        rs.getBigDecimal(6)),
+                ids, ids).stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+    }
+
+    private CreateExpenseRequest.ParticipantRequest participant(User user, long cents,
+            ExpenseParticipant.ParticipantSource source, Long sourceId) {
+        CreateExpenseRequest.ParticipantRequest participant = new CreateExpenseRequest.ParticipantRequest();
+        participant.setUserId(user.getId());
+        participant.setAmount(BigDecimal.valueOf(cents, 2));
+        participant.setSource(source);
+        participant.setSourceId(sourceId);
+        return participant;
+    }
+}
@@ -0,0 +1,145 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.SplitbuddyApplication;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a second application instance against the same database and checks
+ * that changes made on one node evict the caches of the other.
+ */
+@SpringBootTest
+@Import(BalanceTestData.class)
+class CacheInvalidationBusTest {
+
+    private static ConfigurableApplicationContext otherNode;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private CacheInvalidationBus cacheInvalidationBus;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    static void startOtherNode() {
+        otherNode = new SpringApplicationBuilder(SplitbuddyApplication.class, BalanceTestData.class)
+                .web(WebApplicationType.NONE)
+                .run();
+    }
+
+    @AfterAll
+    static void stopOtherNode() {
+        otherNode.close();
+    }
+
+    @BeforeEach
+    void awaitListeners() {
+        awaitTrue(cacheInvalidationBus::isListening);
+        awaitTrue(otherNode.getBean(CacheInvalidationBus.class)::isListening);
+    }
+
+    @Test
+    void expenseOnOtherNode_ShouldEvictCachedBalances() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        User payer = users.get(0);
+        testData.createEvenExpense(payer, users, null, 200, LocalDateTime.now());
+        assertNet("2.00", payer);
+        assertEquals(0, new BigDecimal("2.00").compareTo(
+                balanceService.getFriendBalances(payer.getId()).get(0).getBalance()));
+
+        // When
+        otherNode.getBean(BalanceTestData.class).createEvenExpense(payer, users, null, 300, LocalDateTime.now());
+
+        // Then
+        awaitTrue(() -> new BigDecimal("5.00").compareTo(
+                balanceService.getUserBalanceSummary(payer.getId()).getNetBalance()) == 0);
+        awaitTrue(() -> new BigDecimal("5.00").compareTo(
+                balanceService.getFriendBalances(payer.getId()).get(0).getBalance()) == 0);
+    }
+
+    @Test
+    void reconnect_ShouldFlushEverything() {
+        // Given: a cached summary the database no longer matches
+        List<User> users = testData.createFriends(2);
+        User payer = users.get(0);
+        testData.createEvenExpense(payer, users, null, 200, LocalDateTime.now());
+        assertNet("2.00", payer);
+        jdbcTemplate.update("UPDATE user_balance_summary SET net_balance = 7 WHERE user_id = ?", payer.getId());
+        assertNet("2.00", payer);
+
+        // When
+        jdbcTemplate.queryForList("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE application_name = ?",
+                cacheInvalidationBus.getNodeId());
+
+        // Then
+        awaitTrue(() -> new BigDecimal("7.00").compareTo(
+                balanceService.getUserBalanceSummary(payer.getId()).getNetBalance()) == 0);
+        awaitTrue(cacheInvalidationBus::isListening);
+    }
+
+    @Test
+    void malformedNotification_ShouldBeSkippedWithoutReconnecting() {
+        // Given: cached summaries the database no longer matches
+        List<User> users = testData.createFriends(2);
+        User payer = users.get(0);
+        User other = users.get(1);
+        testData.createEvenExpense(payer, users, null, 200, LocalDateTime.now());
+        assertNet("2.00", payer);
+        assertNet("-2.00", other);
+        jdbcTemplate.update("UPDATE user_balance_summary SET net_balance = 7 WHERE user_id IN (?, ?)",
+                payer.getId(), other.getId());
+
+        // When
+        jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CacheInvalidationBus.CHANNEL, "other-node u:x,1");
+        jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CacheInvalidationBus.CHANNEL,
+                "other-node u:" + payer.getId());
+
+        // Then: the valid notification still applies and nothing else was flushed
+        awaitTrue(() -> new BigDecimal("7.00").compareTo(
+                balanceService.getUserBalanceSummary(payer.getId()).getNetBalance()) == 0);
+        assertNet("-2.00", other);
+    }
+
+    private void assertNet(String expected, User user) {
+        assertEquals(0, new BigDecimal(expected).compareTo(balanceService.getUserBalanceSummary(user.getId())
+                .getNetBalance()));
+    }
+
+    private static void awaitTrue(Supplier<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (!condition.get()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for the condition");
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.CurrencyBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.GroupBalanceResponse;
+import com.splitbuddy.splitbuddy.dto.response.SettlementResponse;
+import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.utility.MoneyUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class CurrencyBalanceTest {
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private FxRateService fxRateService;
+
+    @Autowired
+    private SettlementService settlementService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void summary_ShouldSplitBalancesByCurrencyAndConvertTheirTotal() {
+        // Given: XCD has a rate and ZAR has none
+        jdbcTemplate.update("INSERT INTO fx_rates (currency, rate, updated_at) VALUES ('XCD', 2.5, now()) " +
+                "ON CONFLICT (currency) DO UPDATE SET rate = EXCLUDED.rate");
+        jdbcTemplate.update("DELETE FROM fx_rates WHERE currency = 'ZAR'");
+        fxRateService.refresh();
+        List<User> users = testData.createFriends(3);
+        User first = users.get(0);
+        User second = users.get(1);
+        User third = users.get(2);
+
+        // When
+        testData.createEvenExpense(first, List.of(first, second), null, 200, LocalDateTime.now());
+        testData.createEvenExpense(second, List.of(first, second), null, 300, LocalDateTime.now(), "XCD");
+        testData.createEvenExpense(third, List.of(first, third), null, 100, LocalDateTime.now(), "ZAR");
+
+        // Then
+        UserBalanceSummaryResponse summary = balanceService.getUserBalanceSummary(first.getId());
+        assertEquals(List.of("USD:2.00", "XCD:-3.00", "ZAR:-1.00"), currencies(summary));
+        assertEquals(0, new BigDecimal("-2.00").compareTo(summary.getNetBalance()));
+        assertNull(summary.getConvertedNetBalance());
+
+        UserBalanceSummaryResponse secondSummary = balanceService.getUserBalanceSummary(second.getId());
+        assertEquals(List.of("USD:-2.00", "XCD:3.00"), currencies(secondSummary));
+        assertEquals("USD", secondSummary.getBaseCurrency());
+        assertEquals(0, new BigDecimal("5.50").compareTo(secondSummary.getConvertedNetBalance()));
+    }
+
+    @Test
+    void friendAndGroupBalances_ShouldNeverAddAmountsInDifferentCurrencies() {
+        // Given
+        jdbcTemplate.update("INSERT INTO fx_rates (currency, rate, updated_at) VALUES ('XCD', 2.5, now()) " +
+                "ON CONFLICT (currency) DO UPDATE SET rate = EXCLUDED.rate");
+        fxRateService.refresh();
+        List<User> users = testData.createFriends(3);
+        User first = users.get(0);
+        User second = users.get(1);
+        User third = users.get(2);
+        Group group = testData.createGroup(users);
+
+        // When
+        testData.createEvenExpense(first, List.of(first, second), null, 200, LocalDateTime.now());
+        testData.createEvenExpense(second, List.of(first, second), null, 300, LocalDateTime.now(), "XCD");
+        testData.createEvenExpense(first, users, group, 100, LocalDateTime.now());
+        testData.createEvenExpense(third, users, group, 100, LocalDateTime.now(), "XCD");
+
+        // Then: one entry per currency, each in its own currency
+        assertEquals(List.of(second.getId() + ":USD:3.00", second.getId() + ":XCD:-3.00",
+                third.getId() + ":USD:1.00", third.getId() + ":XCD:-1.00"),
+                balanceService.getFriendBalances(first.getId()).stream()
+                        .map(balance -> balance.getFriendId() + ":" + balance.getCurrency() + ":" + balance.getBalance())
+                        .toList());
+        assertEquals(List.of(group.getId() + ":USD:2.00", group.getId() + ":XCD:-1.00"),
+                balanceService.getGroupBalances(first.getId()).stream()
+                        .map(balance -> balance.getGroupId() + ":" + balance.getCurrency() + ":" + balance.getBalance())
+                        .toList());
+
+        // Single balances are converted to the base currency: 3.00 - 3.00 * 2.5
+        FriendBalanceResponse friendBalance = balanceService.getFriendBalance(first.getId(), second.getId(), null);
+        assertEquals("USD", friendBalance.getCurrency());
+        assertEquals(0, new BigDecimal("-4.50").compareTo(friendBalance.getBalance()));
+        assertEquals(List.of("USD:3.00", "XCD:-3.00"), friendBalance.getCurrencyBalances().stream()
+                .map(balance -> balance.getCurrency() + ":" + balance.getNetBalance())
+                .toList());
+        GroupBalanceResponse groupBalance = balanceService.getGroupBalance(first.getId(), group.getId(), null);
+        assertEquals(0, new BigDecimal("-0.50").compareTo(groupBalance.getBalance()));
+
+        // Settlements transfer each currency on its own
+        assertEquals(Set.of(
+                        second.getId() + ">" + first.getId() + ":USD:1.00",
+                        third.getId() + ">" + first.getId() + ":USD:1.00",
+                        first.getId() + ">" + third.getId() + ":XCD:1.00",
+                        second.getId() + ">" + third.getId() + ":XCD:1.00"),
+                transfers(settlementService.getSettlementsForGroup(group.getId())));
+        List<SettlementResponse> userSettlements = settlementService.getSettlementsForUser(first.getId());
+        assertEquals(0, new BigDecimal("4.00").compareTo(received(userSettlements, first, "USD")));
+        assertEquals(0, new BigDecimal("-4.00").compareTo(received(userSettlements, first, "XCD")));
+
+        // A rebuild keeps the currencies apart
+        List<FriendBalanceResponse> beforeRebuild = balanceService.getFriendBalances(first.getId());
+        balanceService.recalculateAllBalances();
+        assertEquals(beforeRebuild, balanceService.getFriendBalances(first.getId()));
+    }
+
+    @Test
+    void toBaseCents_ShouldRoundEachCurrencyHalfEven() {
+        // Given
+        jdbcTemplate.update("INSERT INTO fx_rates (currency, rate, updated_at) VALUES ('XCD', 0.5, now()) " +
+                "ON CONFLICT (currency) DO UPDATE SET rate = EXCLUDED.rate");
+        fxRateService.refresh();
+        long usd = MoneyUtil.currencyKey("USD");
+        long xcd = MoneyUtil.currencyKey("XCD");
+
+        // When / Then: 2.5 and 3.5 cents round to the even neighbour, not both up
+        assertEquals(3, fxRateService.toBaseCents(new long[] { xcd, usd }, new long[] { 5, 1 }, 2).getAsLong());
+        assertEquals(5, fxRateService.toBaseCents(new long[] { xcd, usd }, new long[] { 7, 1 }, 2).getAsLong());
+        assertEquals(-2, fxRateService.toBaseCents(new long[] { xcd }, new long[] { -3 }, 1).getAsLong());
+    }
+
+    @Test
+    void currencyBalances_ShouldAddUpToTheNetBalanceAndSurviveRebuilds() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 20, 41);
+        testData.createEvenExpense(users.get(1), users, group, 250, LocalDateTime.now(), "XCD");
+        testData.createEvenExpense(users.get(2), users.subList(2, 4), null, 125, LocalDateTime.now(), "XCD");
+        testData.settleFirstOtherParticipant(expenses.get(0), false);
+        testData.runAs(expenses.get(1).getPaidBy(), () -> expenseService.deleteExpense(expenses.get(1).getId()));
+        List<String> expected = currencyRows(users);
+        for (User user : users) {
+            UserBalanceSummaryResponse summary = balanceService.getUserBalanceSummary(user.getId());
+            assertEquals(0, summary.getNetBalance().compareTo(summary.getCurrencyBalances().stream()
+                    .map(CurrencyBalanceResponse::getNetBalance)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add)));
+        }
+
+        // When / Then
+        long userId = users.get(2).getId();
+        jdbcTemplate.update("UPDATE user_currency_balances SET net_balance = net_balance + 1 WHERE user_id = ?", userId);
+        balanceService.recalculateUserBalances(userId);
+        assertEquals(expected, currencyRows(users));
+
+        jdbcTemplate.update("UPDATE user_currency_balances SET net_balance = net_balance + 1 WHERE user_id = ?", userId);
+        jdbcTemplate.update("DELETE FROM user_currency_balances WHERE user_id = ?", users.get(0).getId());
+        balanceService.recalculateAllBalances();
+        assertEquals(expected, currencyRows(users));
+    }
+
+    private static Set<String> transfers(List<SettlementResponse> settlements) {
+        return settlements.stream()
+                .map(settlement -> settlement.getFromUserId() + ">" + settlement.getToUserId() + ":" +
+                        settlement.getCurrency() + ":" + settlement.getAmount())
+                .collect(Collectors.toSet());
+    }
+
+    // Net amount the user receives in one currency, negative when they pay
+    private static BigDecimal received(List<SettlementResponse> settlements, User user, String currency) {
+        return settlements.stream()
+                .filter(settlement -> settlement.getCurrency().equals(currency))
+                .map(settlement -> settlement.getToUserId().equals(user.getId()) ? settlement.getAmount()
+                        : settlement.getAmount().negate())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private static List<String> currencies(UserBalanceSummaryResponse summary) {
+        return summary.getCurrencyBalances().stream()
+                .map(balance -> balance.getCurrency() + ":" + balance.getNetBalance())
+                .toList();
+    }
+
+    private List<String> currencyRows(List<User> users) {
+        Long[] ids = users.stream().map(User::getId).toArray(Long[]::new);
+        return jdbcTemplate.query("SELECT user_id, currency, net_balance FROM user_currency_balances " +
+                        "WHERE user_id = ANY(?) AND net_balance <> 0 ORDER BY user_id, currency",
+                (rs, rowNum) -> rs.getLong(1) + ":" + rs.getString(2) + ":" + rs.getBigDecimal(3), (Object) ids);
+    }
+}
@@ -0,0 +1,149 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class ExpenseBatchTest {
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private UserBalanceSummaryService userBalanceSummaryService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void createExpenses_ShouldInsertEveryExpenseAndMatchARebuild() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        Random random = new Random(31);
+        List<CreateExpenseRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            requests.add(testData.randomExpense(random, users, group));
+        }
+
+        // When
+        List<ExpenseResponse> created = expenseService.createExpenses(requests);
+
+        // Then
+        assertEquals(60, created.size());
+        ExpenseResponse last = created.get(59);
+        ExpenseResponse reloaded = transactionTemplate.execute(status -> expenseService.getExpenseById(last.getId()));
+        assertEquals(0, requests.get(59).getAmount().compareTo(reloaded.getAmount()));
+        assertEquals(last.getParticipants().size(), reloaded.getParticipants().size());
+        assertEquals(last.getParticipants().get(0).getId(), reloaded.getParticipants().get(0).getId());
+        assertEquals(60, countExpenses(users));
+
+        Map<String, BigDecimal> balances = testData.balancesOf(users);
+        assertFalse(balances.isEmpty());
+        users.forEach(user -> balanceService.recalculateUserBalances(user.getId()));
+        assertEquals(balances, testData.balancesOf(users));
+        assertTrue(userBalanceSummaryService.verifySummaries().stream()
+                .noneMatch(userId -> users.stream().anyMatch(user -> user.getId().equals(userId))));
+        // Expenses only the payer took part in change no balance
+        long sharedExpenses = created.stream()
+                .filter(expense -> expense.getParticipants().stream()
+                        .anyMatch(participant -> !participant.getUserId().equals(expense.getPaidBy())))
+                .count();
+        assertEquals(sharedExpenses, (long) jdbcTemplate.queryForObject("SELECT count(DISTINCT expense_id) FROM balance_ledger " +
+                "WHERE expense_id = ANY(?) AND operation = 'EXPENSE_CREATED'", Long.class,
+                (Object) created.stream().map(ExpenseResponse::getId).toArray(Long[]::new)));
+    }
+
+    @Test
+    void createExpenses_ShouldRejectTheWholeBatchWhenOneExpenseIsInvalid() {
+        // Given: the fourth expense has a participant who is nobody's friend
+        List<User> users = testData.createFriends(3);
+        User stranger = testData.createFriends(1).get(0);
+        Group group = testData.createGroup(users);
+        Random random = new Random(37);
+        List<CreateExpenseRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(testData.randomExpense(random, users, group));
+        }
+        CreateExpenseRequest.ParticipantRequest participant = new CreateExpenseRequest.ParticipantRequest();
+        participant.setUserId(stranger.getId());
+        participant.setAmount(new BigDecimal("1.00"));
+        participant.setSource(ExpenseParticipant.ParticipantSource.FRIEND);
+        CreateExpenseRequest invalid = testData.randomExpense(random, users, group);
+        invalid.setParticipants(new ArrayList<>(invalid.getParticipants()));
+        invalid.getParticipants().add(participant);
+        invalid.setAmount(invalid.getAmount().add(new BigDecimal("1.00")));
+        requests.add(3, invalid);
+
+        // When
+        InvalidOperationException exception = assertThrows(InvalidOperationException.class,
+                () -> expenseService.createExpenses(requests));
+
+        // Then
+        assertTrue(exception.getMessage().startsWith("Expense 3: "));
+        assertEquals(0, countExpenses(users));
+        assertTrue(testData.balancesOf(users).isEmpty());
+    }
+
+    @Test
+    void createExpenseAndCreateExpenses_ShouldDrawDistinctIdsFromTheSameSequences() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        Random random = new Random(41);
+        List<ExpenseResponse> created = new ArrayList<>();
+
+        // When: single and bulk inserts take id blocks in turn
+        for (int round = 0; round < 3; round++) {
+            created.add(testData.createEvenExpense(users.get(round), users, group, 100, LocalDateTime.now()));
+            created.addAll(expenseService.createExpenses(List.of(
+                    testData.randomExpense(random, users, group), testData.randomExpense(random, users, group))));
+        }
+
+        // Then
+        assertEquals(created.size(), created.stream().map(ExpenseResponse::getId).distinct().count());
+        List<Long> participantIds = created.stream()
+                .flatMap(expense -> expense.getParticipants().stream())
+                .map(ExpenseResponse.ParticipantResponse::getId)
+                .toList();
+        assertEquals(participantIds.size(), participantIds.stream().distinct().count());
+        assertEquals(created.size(), countExpenses(users));
+    }
+
+    private int countExpenses(List<User> users) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM expenses WHERE paid_by = ANY(?)", Integer.class,
+                (Object) users.stream().map(User::getId).toArray(Long[]::new));
+    }
+}
@@ -0,0 +1,165 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.services.ExpenseExportService.Export;
+import com.splitbuddy.splitbuddy.utility.CsvReader;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "expense.export.fetch-size=2")
+@Import(BalanceTestData.class)
+class ExpenseExportServiceTest {
+
+    @Autowired
+    private ExpenseExportService expenseExportService;
+
+    @Autowired
+    private ExpenseImportService expenseImportService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Test
+    void export_ShouldStreamEveryExpenseInScopeWithItsParticipants() throws IOException {
+        // Given
+        List<User> users = testData.createFriends(3);
+        User u0 = users.get(0);
+        User u1 = users.get(1);
+        User u2 = users.get(2);
+        Group group = testData.createGroup(users);
+        List<Long> groupExpenses = new ArrayList<>();
+        List<Long> u0Expenses = new ArrayList<>();
+        testData.runAs(u0.getId(), () -> {
+            for (int i = 0; i < 3; i++) {
+                ExpenseResponse expense = testData.createEvenExpense(u0, users, group, 250 + i,
+                        LocalDateTime.of(2024, 5, 1 + i, 12, 0));
+                groupExpenses.add(expense.getId());
+                u0Expenses.add(expense.getId());
+            }
+            u0Expenses.add(testData.createEvenExpense(u1, List.of(u0, u1), null, 400,
+                    LocalDateTime.of(2024, 5, 4, 9, 0)).getId());
+        });
+        testData.runAs(u1.getId(), () -> testData.createEvenExpense(u1, List.of(u1, u2), null, 100,
+                LocalDateTime.of(2024, 5, 5, 9, 0)));
+
+        // When
+        String csv = exportAs(u0.getId(), () -> expenseExportService.exportForUser("csv"));
+
+        // Then
+        CsvReader reader = new CsvReader(new StringReader(csv), 65536);
+        assertEquals(ExpenseExportService.CSV_COLUMNS, reader.next());
+        List<List<String>> records = new ArrayList<>();
+        for (List<String> record = reader.next(); record != null; record = reader.next()) {
+            records.add(record);
+        }
+        assertEquals(u0Expenses.stream().map(String::valueOf).toList(),
+                records.stream().map(record -> record.get(0)).toList());
+        assertEquals(List.of(String.valueOf(groupExpenses.get(0)), "Expense", "", "7.50", "USD", "Food",
+                "2024-05-01 12:00:00", String.valueOf(u0.getId()), u0.getName(), String.valueOf(group.getId()),
+                u0.getId() + ":2.50;" + u1.getId() + ":2.50;" + u2.getId() + ":2.50"),
+                records.get(0).subList(0, 11));
+        assertEquals("", records.get(3).get(9));
+
+        // When
+        String ndjson = exportAs(u1.getId(), () -> expenseExportService.exportForGroup(group.getId(), "ndjson"));
+
+        // Then
+        List<ExpenseResponse> expenses = new ArrayList<>();
+        for (String line : ndjson.split("\n")) {
+            expenses.add(objectMapper.readValue(line, ExpenseResponse.class));
+        }
+        assertEquals(groupExpenses, expenses.stream().map(ExpenseResponse::getId).toList());
+        assertEquals(List.of(3, 3, 3), expenses.stream().map(expense -> expense.getParticipants().size()).toList());
+        assertEquals(u2.getName(), expenses.get(2).getParticipants().get(2).getUserName());
+
+        // When: only expenses both friends share are exported
+        String shared = exportAs(u2.getId(), () -> expenseExportService.exportForFriend(u0.getId(), "ndjson"));
+
+        // Then
+        assertEquals(groupExpenses, shared.lines()
+                .map(line -> readExpense(line).getId())
+                .toList());
+    }
+
+    @Test
+    void export_ShouldProduceCsvThatImportsAgain() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        User u0 = users.get(0);
+        Group group = testData.createGroup(users);
+        testData.runAs(u0.getId(), () -> {
+            testData.createEvenExpense(u0, users, group, 125, LocalDateTime.of(2024, 6, 1, 8, 30));
+            testData.createEvenExpense(users.get(1), users, null, 300, LocalDateTime.of(2024, 6, 2, 19, 0));
+        });
+        String csv = exportAs(u0.getId(), () -> expenseExportService.exportForUser("csv"));
+
+        // When
+        AtomicReference<ExpenseImportResponse> response = new AtomicReference<>();
+        testData.runAs(u0.getId(), () -> response.set(expenseImportService.importCsv(new StringReader(csv))));
+
+        // Then
+        assertEquals(2, response.get().getImported());
+        assertEquals(0, response.get().getFailed());
+        String exportedAgain = exportAs(u0.getId(), () -> expenseExportService.exportForUser("csv"));
+        assertEquals(5, exportedAgain.split("\r\n").length);
+    }
+
+    @Test
+    void export_ShouldRejectOutsidersAndUnknownFormats() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        Group group = testData.createGroup(users.subList(0, 1));
+        Long outsider = users.get(1).getId();
+
+        // When / Then
+        testData.runAs(outsider, () -> {
+            assertThrows(InvalidOperationException.class,
+                    () -> expenseExportService.exportForGroup(group.getId(), "csv"));
+            assertThrows(InvalidOperationException.class, () -> expenseExportService.exportForUser("xlsx"));
+        });
+    }
+
+    private String exportAs(long userId, Supplier<Export> action) {
+        AtomicReference<Export> export = new AtomicReference<>();
+        testData.runAs(userId, () -> export.set(action.get()));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            export.get().body().writeTo(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private ExpenseResponse readExpense(String line) {
+        try {
+            return objectMapper.readValue(line, ExpenseResponse.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseImportResponse.RowError;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = "expense.import.batch-size=2")
+@Import(BalanceTestData.class)
+class ExpenseImportServiceTest {
+
+    @Autowired
+    private ExpenseImportService expenseImportService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void importCsv_ShouldWriteValidRowsInBatchesAndReportTheOthers() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        long u0 = users.get(0).getId();
+        long u1 = users.get(1).getId();
+        long u2 = users.get(2).getId();
+        long stranger = testData.createFriends(1).get(0).getId();
+        Group group = testData.createGroup(users);
+        String csv = "title,amount,paid_by,participants,group_id,paid_at,description\r\n" +
+                "\"Dinner, with \"\"friends\"\"\",30.00,," + u0 + ";" + u1 + ";" + u2 + ",,2024-05-01,\r\n" +
+                "Taxi,12.50," + u1 + "," + u0 + ":6.25;" + u1 + ":6.25,,2024-05-02 18:30:00,\r\n" +
+                "Hotel,100.00,," + u0 + ";" + u1 + ";" + u2 + "," + group.getId() + ",,\r\n" +
+                "Bad,abc,,,,,\r\n" +
+                "Gift,10.00,," + u0 + ":5.00;" + stranger + ":5.00,,,\r\n" +
+                "Lunch,10.00,," + u0 + ":3.00;" + u1 + ":3.00,,,\r\n" +
+                "\r\n" +
+                "Museum,20.00,," + u0 + ";" + u1 + ",,2024-05-03,\"line one\nline two\"\r\n" +
+                "Not mine,8.00," + u1 + "," + u1 + ";" + u2 + ",,,\r\n";
+
+        // When
+        ExpenseImportResponse response = importAs(u0, () -> expenseImportService.importCsv(new StringReader(csv)));
+
+        // Then
+        assertTrue(response.isCompleted());
+        assertEquals(8, response.getRowsRead());
+        assertEquals(4, response.getImported());
+        assertEquals(4, response.getFailed());
+        assertEquals(List.of(5L, 6L, 7L, 11L), response.getErrors().stream().map(RowError::getLine).toList());
+        assertEquals("Invalid amount: abc", response.getErrors().get(0).getMessage());
+        assertEquals("User is not a friend: " + stranger, response.getErrors().get(1).getMessage());
+        assertEquals("You must be the payer or a participant", response.getErrors().get(3).getMessage());
+        assertEquals(4, countExpenses(users));
+        assertEquals("Dinner, with \"friends\"", jdbcTemplate.queryForObject(
+                "SELECT title FROM expenses WHERE paid_by = ? AND amount = 30.00", String.class, u0));
+
+        Map<String, BigDecimal> balances = testData.balancesOf(users);
+        users.forEach(user -> balanceService.recalculateUserBalances(user.getId()));
+        assertEquals(balances, testData.balancesOf(users));
+    }
+
+    @Test
+    void importOfx_ShouldSplitDebitsInTheGroupAndSkipCredits() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        long u0 = users.get(0).getId();
+        Group group = testData.createGroup(users);
+        String header = "OFXHEADER:100\nDATA:OFXSGML\nVERSION:102\n\n<OFX>\n<BANKMSGSRSV1><STMTTRNRS><STMTRS>\n" +
+                "<CURDEF>EUR\n<BANKTRANLIST>\n";
+        String debit = "<STMTTRN>\n<TRNTYPE>DEBIT\n<DTPOSTED>20240501120000.000[-5:EST]\n<TRNAMT>-10.00\n" +
+                "<FITID>1\n<NAME>Groceries &amp; more\n<MEMO>Card payment\n</STMTTRN>\n";
+        String credit = "<STMTTRN>\n<TRNTYPE>CREDIT\n<DTPOSTED>20240502\n<TRNAMT>250.00\n<FITID>2\n" +
+                "<NAME>Salary\n</STMTTRN>\n";
+        String footer = "</BANKTRANLIST>\n</STMTRS></STMTTRNRS></BANKMSGSRSV1>\n</OFX>\n";
+        String ofx = header + debit + credit + debit.replace("-10.00", "-4.50") + footer;
+
+        // When
+        ExpenseImportResponse response = importAs(u0,
+                () -> expenseImportService.importOfx(new StringReader(ofx), group.getId()));
+
+        // Then
+        assertTrue(response.isCompleted());
+        assertEquals(3, response.getRowsRead());
+        assertEquals(2, response.getImported());
+        assertEquals(1, response.getSkipped());
+        assertEquals(List.of("3.34", "3.33", "3.33"), jdbcTemplate.queryForList(
+                "SELECT p.amount::text FROM expense_participants p JOIN expenses e ON e.id = p.expense_id " +
+                        "WHERE e.paid_by = ? AND e.amount = 10.00 AND e.currency = 'EUR' " +
+                        "AND e.title = 'Groceries & more' AND p.source = 'GROUP' ORDER BY p.user_id",
+                String.class, u0));
+
+        // When: the statement breaks off inside a transaction
+        ExpenseImportResponse truncated = importAs(u0, () -> expenseImportService.importOfx(
+                new StringReader(header + debit + "<STMTTRN>\n<TRNAMT>-1.00\n"), group.getId()));
+
+        // Then
+        assertFalse(truncated.isCompleted());
+        assertEquals(1, truncated.getImported());
+        assertEquals(1, truncated.getFailed());
+        assertEquals(3, countExpenses(users));
+    }
+
+    @Test
+    void importCsv_ShouldApplyTheRulesOfCreateExpense() {
+        // Given: a duplicate participant, which createExpense skips
+        List<User> users = testData.createFriends(2);
+        long u0 = users.get(0).getId();
+        long u1 = users.get(1).getId();
+        String csv = "title,amount,participants,currency\n" +
+                "Tickets,10.00," + u0 + ":5.00;" + u1 + ":5.00;" + u1 + ":5.00,\n" +
+                "Snacks,10.00," + u0 + ":5.00;" + u1 + ":5.00,ZZZ\n" +
+                "Fees,1.005," + u0 + ":0.500;" + u1 + ":0.505,KWD\n";
+
+        // When
+        ExpenseImportResponse response = importAs(u0, () -> expenseImportService.importCsv(new StringReader(csv)));
+
+        // Then
+        assertEquals(1, response.getImported());
+        assertEquals(List.of(new RowError(3, "Unknown currency code: ZZZ"),
+                new RowError(4, "Only currencies with two decimal places are supported: KWD")), response.getErrors());
+        assertEquals(2, jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM expense_participants p JOIN expenses e ON e.id = p.expense_id " +
+                        "WHERE e.paid_by = ? AND e.title = 'Tickets'", Integer.class, u0));
+    }
+
+    private ExpenseImportResponse importAs(long userId, Supplier<ExpenseImportResponse> action) {
+        AtomicReference<ExpenseImportResponse> response = new AtomicReference<>();
+        testData.runAs(userId, () -> response.set(action.get()));
+        return response.get();
+    }
+
+    private int countExpenses(List<User> users) {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM expenses WHERE paid_by = ANY(?)", Integer.class,
+                (Object) users.stream().map(User::getId).toArray(Long[]::new));
+    }
+}
@@ -0,0 +1,185 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpensePage;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.FriendExpensesResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest(properties = "expense.page.max-size=4")
+@Import(BalanceTestData.class)
+class ExpensePaginationTest {
+
+    private static final LocalDateTime PAID_AT = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Test
+    void getExpensesByGroup_ShouldWalkPagesNewestFirstWithoutRepeatsOrGaps() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        List<Long> created = new ArrayList<>();
+        testData.runAs(users.get(0).getId(), () -> {
+            for (int i = 0; i < 5; i++) {
+                created.add(testData.createEvenExpense(users.get(0), users, group, 100 + i, PAID_AT).getId());
+            }
+        });
+        List<Long> newestFirst = new ArrayList<>(created);
+        Collections.reverse(newestFirst);
+
+        // When
+        ExpensePage first = expenseService.getExpensesByGroup(group.getId(), null, 2);
+        testData.runAs(users.get(0).getId(),
+                () -> testData.createEvenExpense(users.get(0), users, group, 200, PAID_AT));
+        List<Long> rest = collectIds(first.getNextPageToken(),
+                (token, size) -> expenseService.getExpensesByGroup(group.getId(), token, size), 2);
+
+        // Then: the expense added meanwhile is newer than the cursor and is not repeated
+        assertEquals(newestFirst.subList(0, 2), ids(first));
+        assertNotNull(first.getNextPageToken());
+        assertEquals(newestFirst.subList(2, 5), rest);
+        List<Long> fromTheTop = ids(expenseService.getAllExpensesForGroup(group.getId(), null, null));
+        assertFalse(created.contains(fromTheTop.get(0)));
+        assertEquals(newestFirst.subList(0, 3), fromTheTop.subList(1, 4));
+    }
+
+    @Test
+    void getFriendExpenses_ShouldPageSharedExpensesIncludingThosePaidForTheFriend() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        User u0 = users.get(0);
+        User u1 = users.get(1);
+        User u2 = users.get(2);
+        Group group = testData.createGroup(users);
+        List<Long> sharedWithU1 = new ArrayList<>();
+        List<Long> participating = new ArrayList<>();
+        testData.runAs(u0.getId(), () -> {
+            for (int i = 0; i < 3; i++) {
+                ExpenseResponse expense = testData.createEvenExpense(u0, users, group, 100 + i, PAID_AT);
+                sharedWithU1.add(expense.getId());
+                participating.add(expense.getId());
+            }
+            // Paid by u0 for u1 only: shared with u1, but u0 does not take part
+            sharedWithU1.add(testData.createEvenExpense(u0, List.of(u1), null, 500, PAID_AT).getId());
+            ExpenseResponse friendExpense = testData.createEvenExpense(u1, List.of(u0, u1), null, 300, PAID_AT);
+            sharedWithU1.add(friendExpense.getId());
+            participating.add(friendExpense.getId());
+        });
+        testData.runAs(u1.getId(), () -> testData.createEvenExpense(u1, List.of(u1, u2), null, 100, PAID_AT));
+        Collections.reverse(sharedWithU1);
+        Collections.reverse(participating);
+
+        // When
+        FriendExpensesResponse first = balanceService.getFriendExpenses(u0.getId(), u1.getId(), null, 3);
+        FriendExpensesResponse second = balanceService.getFriendExpenses(u0.getId(), u1.getId(),
+                first.getNextPageToken(), 3);
+
+        // Then
+        assertEquals(sharedWithU1.subList(0, 3), ids(first));
+        assertEquals(sharedWithU1.subList(3, 5), ids(second));
+        assertNull(second.getNextPageToken());
+        assertEquals(participating.subList(1, 4),
+                ids(balanceService.getFriendExpenses(u2.getId(), u0.getId(), null, null)));
+
+        // When: the current user's own list holds only what they take part in
+        AtomicReference<List<Long>> own = new AtomicReference<>();
+        testData.runAs(u0.getId(), () -> own.set(collectIds(null, expenseService::getExpensesByUser, 3)));
+
+        // Then
+        assertEquals(participating, own.get());
+    }
+
+    @Test
+    void pages_ShouldCapTheSizeAndRejectBadRequests() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        Group group = testData.createGroup(users);
+        testData.runAs(users.get(0).getId(), () -> {
+            for (int i = 0; i < 5; i++) {
+                testData.createEvenExpense(users.get(0), users, group, 100, PAID_AT);
+            }
+        });
+
+        // When
+        ExpensePage page = expenseService.getExpensesByGroup(group.getId(), null, 100);
+
+        // Then
+        assertEquals(4, page.getExpenses().size());
+        assertNotNull(page.getNextPageToken());
+        assertThrows(InvalidOperationException.class,
+                () -> expenseService.getExpensesByGroup(group.getId(), "not a token", null));
+        assertThrows(InvalidOperationException.class,
+                () -> expenseService.getExpensesByGroup(group.getId(), null, 0));
+    }
+
+    @Test
+    void lists_ShouldReturnEverythingWhenNoPageIsRequested() {
+        // Given: more expenses than the largest page
+        List<User> users = testData.createFriends(2);
+        Group group = testData.createGroup(users);
+        List<Long> created = new ArrayList<>();
+        testData.runAs(users.get(0).getId(), () -> {
+            for (int i = 0; i < 9; i++) {
+                created.add(testData.createEvenExpense(users.get(0), users, group, 100 + i, PAID_AT).getId());
+            }
+        });
+        Collections.reverse(created);
+
+        // When
+        ExpensePage byGroup = expenseService.getExpensesByGroup(group.getId(), null, null);
+        ExpensePage allForGroup = expenseService.getAllExpensesForGroup(group.getId(), "", null);
+        AtomicReference<ExpensePage> byUser = new AtomicReference<>();
+        testData.runAs(users.get(1).getId(), () -> byUser.set(expenseService.getExpensesByUser(null, null)));
+
+        // Then
+        assertEquals(created, ids(byGroup));
+        assertNull(byGroup.getNextPageToken());
+        assertEquals(created, ids(allForGroup));
+        assertEquals(created, ids(byUser.get()));
+        assertNull(byUser.get().getNextPageToken());
+    }
+
+    private static List<Long> collectIds(String token, BiFunction<String, Integer, ExpensePage> read, int size) {
+        List<Long> ids = new ArrayList<>();
+        do {
+            ExpensePage page = read.apply(token, size);
+            ids.addAll(ids(page));
+            token = page.getNextPageToken();
+        } while (token != null);
+        return ids;
+    }
+
+    private static List<Long> ids(ExpensePage page) {
+        return page.getExpenses().stream().map(ExpenseResponse::getId).toList();
+    }
+
+    private static List<Long> ids(FriendExpensesResponse response) {
+        return response.getSharedExpenses().stream().map(ExpenseResponse::getId).toList();
+    }
+}
@@ -0,0 +1,88 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.request.CreateExpenseRequest;
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.exceptions.InvalidOperationException;
+import com.splitbuddy.splitbuddy.models.ExpenseParticipant;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.ExpenseRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class ExpenseServiceTest {
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Test
+    void createExpense_ShouldCompareSharesAsSentWithinOneCent() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        CreateExpenseRequest subCentShares = request(users, "20.00", "10.005", "10.005");
+        CreateExpenseRequest shortByTwoCents = request(users, "20.02", "10.00", "10.00");
+
+        // When
+        AtomicReference<ExpenseResponse> created = new AtomicReference<>();
+        testData.runAs(users.get(0).getId(), () -> created.set(expenseService.createExpense(subCentShares)));
+
+        // Then
+        assertEquals(0, new BigDecimal("20.00").compareTo(created.get().getAmount()));
+        testData.runAs(users.get(0).getId(), () -> assertThrows(InvalidOperationException.class,
+                () -> expenseService.createExpense(shortByTwoCents)));
+    }
+
+    @Test
+    void createExpense_ShouldRejectCodesThatAreNotIso4217BeforeWriting() {
+        // Given
+        List<User> users = testData.createFriends(2);
+        long expensesBefore = expenseRepository.count();
+
+        // When / Then
+        for (String currency : List.of("US", "usd", "EURO", "ZZZ")) {
+            CreateExpenseRequest request = request(users, "20.00", "10.00", "10.00");
+            request.setCurrency(currency);
+            testData.runAs(users.get(0).getId(), () -> assertThrows(InvalidOperationException.class,
+                    () -> expenseService.createExpense(request)));
+        }
+        assertEquals(expensesBefore, expenseRepository.count());
+    }
+
+    private static CreateExpenseRequest request(List<User> users, String amount, String... shares) {
+        CreateExpenseRequest request = new CreateExpenseRequest();
+        request.setTitle("Expense");
+        request.setAmount(new BigDecimal(amount));
+        request.setCurrency("USD");
+        request.setCategory("Food");
+        request.setPaidAt(LocalDateTime.of(2024, 5, 1, 12, 0));
+        request.setPaidBy(users.get(0).getId());
+        List<CreateExpenseRequest.ParticipantRequest> participants = new ArrayList<>();
+        for (int i = 0; i < shares.length; i++) {
+            CreateExpenseRequest.ParticipantRequest participant = new CreateExpenseRequest.ParticipantRequest();
+            participant.setUserId(users.get(i).getId());
+            participant.setAmount(new BigDecimal(shares[i]));
+            participant.setSource(ExpenseParticipant.ParticipantSource.FRIEND);
+            participants.add(participant);
+        }
+        request.setParticipants(participants);
+        return request;
+    }
+}
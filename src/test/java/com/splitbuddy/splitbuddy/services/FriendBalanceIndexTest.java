@@ -0,0 +1,121 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.FriendBalanceResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class FriendBalanceIndexTest {
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    void friendBalances_ShouldMirrorAggregatesAfterEveryKindOfChange() {
+        // Given
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+
+        // When
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 30, 21);
+        testData.settleFirstOtherParticipant(expenses.get(1), false);
+        testData.runAs(expenses.get(2).getPaidBy(), () -> expenseService.deleteExpense(expenses.get(2).getId()));
+        jdbcTemplate.update("UPDATE friend_balances SET balance = balance + 1 WHERE owner_id = ?", users.get(3).getId());
+        balanceService.recalculateUserBalances(users.get(3).getId());
+        jdbcTemplate.update("UPDATE friend_balances SET balance = balance + 1 WHERE owner_id = ?", users.get(0).getId());
+        balanceService.recalculateAllBalances();
+
+        // Then
+        Map<String, BigDecimal> expected = bothSidesOfAggregates(users);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, friendBalancesOf(users));
+        for (User user : users) {
+            for (FriendBalanceResponse balance : balanceService.getFriendBalances(user.getId())) {
+                assertEquals(0, expected.get(user.getId() + ":" + balance.getFriendId()).compareTo(balance.getBalance()));
+            }
+        }
+    }
+
+    @Test
+    void friendBalanceReads_ShouldUseOnePrimaryKeyRangeWithoutOr() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        testData.createRandomExpenses(users, testData.createGroup(users), 5, 22);
+        long userId = users.get(0).getId();
+        long friendId = users.get(1).getId();
+
+        // When
+        String forUser = explain("SELECT fb.counterparty_id, fb.balance FROM friend_balances fb WHERE fb.owner_id = ?",
+                userId);
+        String forPair = explain("SELECT fb.balance FROM friend_balances fb " +
+                "WHERE fb.owner_id = ? AND fb.counterparty_id = ?", userId, friendId);
+        String total = explain("SELECT COALESCE(SUM(fb.balance), 0) FROM friend_balances fb WHERE fb.owner_id = ?",
+                userId);
+
+        // Then
+        for (String plan : List.of(forUser, forPair, total)) {
+            assertTrue(plan.contains("friend_balances_pkey"), plan);
+            assertFalse(plan.contains("BitmapOr"), plan);
+            assertFalse(plan.contains("Filter:"), plan);
+        }
+    }
+
+    // Plan of the query with sequential scans disabled, as a small test table
+    // would otherwise be scanned whatever indexes exist
+    private String explain(String sql, Object... args) {
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL enable_seqscan = off");
+            return String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, args));
+        });
+    }
+
+    private Map<String, BigDecimal> bothSidesOfAggregates(List<User> users) {
+        Long[] ids = users.stream().map(User::getId).toArray(Long[]::new);
+        return jdbcTemplate.query("SELECT user1_id, user2_id, balance FROM balance_aggregates " +
+                        "WHERE balance_type = 'FRIEND_TO_FRIEND' AND user1_id = ANY(?)",
+                (rs, rowNum) -> new Object[] { rs.getLong(1), rs.getLong(2), rs.getBigDecimal(3) }, (Object) ids)
+                .stream()
+                .flatMap(row -> Map.of(
+                        row[0] + ":" + row[1], (BigDecimal) row[2],
+                        row[1] + ":" + row[0], ((BigDecimal) row[2]).negate()).entrySet().stream())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+    }
+
+    private Map<String, BigDecimal> friendBalancesOf(List<User> users) {
+        Long[] ids = users.stream().map(User::getId).toArray(Long[]::new);
+        return jdbcTemplate.query("SELECT owner_id, counterparty_id, balance FROM friend_balances WHERE owner_id = ANY(?)",
+                (rs, rowNum) -> Map.entry(rs.getLong(1) + ":" + rs.getLong(2), rs.getBigDecimal(3)), (Object) ids)
+                .stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, TreeMap::new));
+    }
+}
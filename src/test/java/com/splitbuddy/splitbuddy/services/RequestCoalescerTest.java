@@ -0,0 +1,130 @@
+package com.splitbuddy.splitbuddy.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RequestCoalescerTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RequestCoalescer coalescer = new RequestCoalescer(meterRegistry);
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    @AfterEach
+    void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallers_ShouldShareOneComputation() throws Exception {
+        // Given
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<List<String>>> results = new ArrayList<>();
+
+        // When: seven callers join while the first one is still loading
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> coalescer.forGroup("expenses.group", 1L, () -> {
+                loads.incrementAndGet();
+                await(release);
+                return List.of("expense");
+            })));
+        }
+        awaitCalls("follower", 7);
+        release.countDown();
+
+        // Then
+        List<String> first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<List<String>> result : results) {
+            assertSame(first, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, calls("leader"));
+        assertEquals(7, calls("follower"));
+    }
+
+    @Test
+    void followers_ShouldReceiveTheLeadersException() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        Future<Object> leader = executor.submit(() -> coalescer.forUser("balance.summary", 2L, () -> {
+            await(release);
+            throw new IllegalStateException("query failed");
+        }));
+        awaitCalls("leader", 1);
+        Future<Object> follower = executor.submit(() -> coalescer.forUser("balance.summary", 2L, () -> "unused"));
+        awaitCalls("follower", 1);
+
+        // When
+        release.countDown();
+
+        // Then
+        for (Future<Object> result : List.of(leader, follower)) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertInstanceOf(IllegalStateException.class, e.getCause());
+        }
+    }
+
+    @Test
+    void forget_ShouldStartAFreshComputationForLaterCallers() throws Exception {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> stale = executor.submit(() -> coalescer.forUser("balance.summary", 3L, () -> {
+            await(release);
+            return "before";
+        }));
+        awaitCalls("leader", 1);
+
+        // When
+        coalescer.forgetAfterCommit(Set.of(3L), Set.of());
+        String fresh = coalescer.forUser("balance.summary", 3L, () -> "after");
+        release.countDown();
+
+        // Then
+        assertEquals("after", fresh);
+        assertEquals("before", stale.get(10, TimeUnit.SECONDS));
+        assertEquals(2, calls("leader"));
+        assertEquals(0, calls("follower"));
+    }
+
+    private double calls(String role) {
+        return meterRegistry.find("request.coalescing.calls").tag("role", role).counters().stream()
+                .mapToDouble(counter -> counter.count())
+                .sum();
+    }
+
+    private void awaitCalls(String role, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (calls(role) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + count + " " + role + "s");
+            Thread.sleep(10);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.SettlementResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class SettlementServiceTest {
+
+    private static final LocalDateTime PAID_AT = LocalDateTime.of(2024, 5, 1, 12, 0);
+
+    @Autowired
+    private SettlementService settlementService;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void getSettlementsForGroup_ShouldSettleEveryMemberWithMinimalTransfers() {
+        // Given: u0 is owed 3.00, u1 owes 0.50, u2 owes 1.50 and u3 owes 1.00
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+        testData.runAs(users.get(0).getId(), () -> {
+            testData.createEvenExpense(users.get(0), users, group, 100, PAID_AT);
+            testData.createEvenExpense(users.get(1), users.subList(1, 3), group, 50, PAID_AT);
+        });
+
+        // When
+        List<SettlementResponse> settlements = settlementService.getSettlementsForGroup(group.getId());
+
+        // Then
+        assertEquals(Set.of(
+                transfer(users.get(1), users.get(0), "0.50"),
+                transfer(users.get(2), users.get(0), "1.50"),
+                transfer(users.get(3), users.get(0), "1.00")), transfers(settlements));
+    }
+
+    @Test
+    void getSettlementsForGroup_ShouldRecomputeThePlanAfterAnExpense() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.runAs(users.get(0).getId(),
+                () -> testData.createEvenExpense(users.get(0), users, group, 100, PAID_AT));
+        List<SettlementResponse> before = settlementService.getSettlementsForGroup(group.getId());
+        assertSame(before, settlementService.getSettlementsForGroup(group.getId()));
+
+        // When
+        testData.runAs(users.get(1).getId(),
+                () -> testData.createEvenExpense(users.get(1), users.subList(1, 3), group, 100, PAID_AT));
+
+        // Then
+        List<SettlementResponse> after = settlementService.getSettlementsForGroup(group.getId());
+        assertNotSame(before, after);
+        assertEquals(Set.of(
+                transfer(users.get(1), users.get(0), "1.00"),
+                transfer(users.get(2), users.get(0), "1.00")), transfers(before));
+        assertEquals(Set.of(transfer(users.get(2), users.get(0), "2.00")), transfers(after));
+    }
+
+    @Test
+    void getSettlementsForGroup_ShouldNotShiftAnUnmatchedBalanceOntoAnotherMember() {
+        // Given: a group balance one cent off, so the members net to 0.01
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.runAs(users.get(0).getId(),
+                () -> testData.createEvenExpense(users.get(0), users, group, 100, PAID_AT));
+        jdbcTemplate.update("UPDATE balance_aggregates SET balance = balance + 0.01 " +
+                "WHERE balance_type = 'USER_TO_GROUP' AND user_id = ? AND group_id = ?",
+                users.get(2).getId(), group.getId());
+
+        // When
+        List<SettlementResponse> settlements = settlementService.getSettlementsForGroup(group.getId());
+
+        // Then: the cent is settled from outside the group, not with another member
+        assertEquals(Set.of(
+                transfer(users.get(1), users.get(0), "1.00"),
+                transfer(users.get(2), users.get(0), "0.99"),
+                transfer(null, users.get(0), "0.01")), transfers(settlements));
+    }
+
+    @Test
+    void getSettlementsForGroup_ShouldSettleWithAPayerOutsideTheGroup() {
+        // Given: u3 is not a member and pays 2.00 each for u0, u1 and u2
+        // through the group, then u0 pays 1.00 each for the three
+        List<User> users = testData.createFriends(4);
+        List<User> members = users.subList(0, 3);
+        Group group = testData.createGroup(members);
+        testData.runAs(users.get(3).getId(),
+                () -> testData.createEvenExpense(users.get(3), members, group, 200, PAID_AT));
+        testData.runAs(users.get(0).getId(),
+                () -> testData.createEvenExpense(users.get(0), members, group, 100, PAID_AT));
+
+        // When
+        List<SettlementResponse> settlements = settlementService.getSettlementsForGroup(group.getId());
+
+        // Then: the 6.00 owed to u3 is paid outside the group, none of it to u0
+        assertEquals(Set.of(
+                transfer(users.get(1), null, "3.00"),
+                transfer(users.get(2), null, "3.00")), transfers(settlements));
+        settlements.forEach(settlement -> assertEquals(Boolean.TRUE, settlement.getOutsideGroup()));
+    }
+
+    private static Set<String> transfers(List<SettlementResponse> settlements) {
+        return settlements.stream()
+                .map(settlement -> settlement.getFromUserId() + "->" + settlement.getToUserId() + ":"
+                        + settlement.getAmount())
+                .collect(Collectors.toSet());
+    }
+
+    // A null user stands for the side outside the group
+    private static String transfer(User from, User to, String amount) {
+        return (from != null ? from.getId() : null) + "->" + (to != null ? to.getId() : null) + ":" + amount;
+    }
+}
@@ -0,0 +1,105 @@
+package com.splitbuddy.splitbuddy.services;
+
+import com.splitbuddy.splitbuddy.dto.response.ExpenseResponse;
+import com.splitbuddy.splitbuddy.dto.response.UserBalanceSummaryResponse;
+import com.splitbuddy.splitbuddy.models.Group;
+import com.splitbuddy.splitbuddy.models.User;
+import com.splitbuddy.splitbuddy.repositories.BalanceAggregateRepository;
+import com.splitbuddy.splitbuddy.repositories.FriendBalanceRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@Import(BalanceTestData.class)
+class UserBalanceSummaryServiceTest {
+
+    @Autowired
+    private UserBalanceSummaryService userBalanceSummaryService;
+
+    @Autowired
+    private BalanceService balanceService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private BalanceAggregateRepository balanceAggregateRepository;
+
+    @Autowired
+    private FriendBalanceRepository friendBalanceRepository;
+
+    @Autowired
+    private BalanceTestData testData;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void summary_ShouldMatchAggregateSumsAfterEveryKindOfChange() {
+        // Given
+        userBalanceSummaryService.verifySummaries();
+        List<User> users = testData.createFriends(4);
+        Group group = testData.createGroup(users);
+
+        // When
+        List<ExpenseResponse> expenses = testData.createRandomExpenses(users, group, 30, 11);
+        testData.settleFirstOtherParticipant(expenses.get(2), false);
+        testData.runAs(expenses.get(3).getPaidBy(), () -> expenseService.deleteExpense(expenses.get(3).getId()));
+        balanceService.recalculateGroupBalances(group.getId());
+
+        // Then
+        assertTrue(userBalanceSummaryService.verifySummaries().isEmpty());
+        for (User user : users) {
+            assertSummaryMatchesSums(user);
+        }
+    }
+
+    @Test
+    void verifySummaries_ShouldRepairDriftedSummary() {
+        // Given
+        List<User> users = testData.createFriends(3);
+        Group group = testData.createGroup(users);
+        testData.createRandomExpenses(users, group, 10, 12);
+        userBalanceSummaryService.verifySummaries();
+        long userId = users.get(1).getId();
+        jdbcTemplate.update("UPDATE user_balance_summary SET net_balance = net_balance + 2 WHERE user_id = ?", userId);
+
+        // When
+        List<Long> mismatched = userBalanceSummaryService.verifySummaries();
+
+        // Then
+        assertEquals(List.of(userId), mismatched);
+        assertSummaryMatchesSums(users.get(1));
+    }
+
+    @Test
+    void getUserBalanceSummary_ShouldBeZeroForUserWithoutBalances() {
+        // Given
+        User user = testData.createFriends(1).get(0);
+
+        // When
+        UserBalanceSummaryResponse summary = balanceService.getUserBalanceSummary(user.getId());
+
+        // Then
+        assertEquals(user.getName(), summary.getUserName());
+        assertEquals(0, BigDecimal.ZERO.compareTo(summary.getNetBalance()));
+    }
+
+    private void assertSummaryMatchesSums(User user) {
+        BigDecimal net = friendBalanceRepository.getTotalFriendBalanceForUser(user.getId())
+                .add(balanceAggregateRepository.getTotalGroupBalanceForUser(user.getId()));
+        UserBalanceSummaryResponse summary = balanceService.getUserBalanceSummary(user.getId());
+        assertEquals(0, net.compareTo(summary.getNetBalance()));
+        assertEquals(0, net.max(BigDecimal.ZERO).compareTo(summary.getTotalOwed()));
+        assertEquals(0, net.min(BigDecimal.ZERO).negate().compareTo(summary.getTotalOwes()));
+    }
+}
@@ -0,0 +1,80 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class DebtSimplifierTest {
+
+    @Test
+    void simplify_ShouldCollapseChainIntoSingleTransfer() {
+        // Given: 0 owes 1 ten, 1 owes 2 ten
+        long[] net = { -1000, 0, 1000 };
+        DebtSimplifier simplifier = new DebtSimplifier();
+
+        // When
+        simplifier.simplify(net, net.length);
+
+        // Then
+        assertEquals(1, simplifier.transferCount());
+        assertEquals(0, simplifier.fromIndex(0));
+        assertEquals(2, simplifier.toIndex(0));
+        assertEquals(1000, simplifier.amount(0));
+    }
+
+    @Test
+    void simplify_ShouldSettleEveryPositionWithAtMostNMinusOneTransfers() {
+        // Given
+        Random random = new Random(7);
+        int size = 5000;
+        long[] net = new long[size];
+        long total = 0;
+        for (int i = 1; i < size; i++) {
+            net[i] = random.nextInt(200_000) - 100_000;
+            total += net[i];
+        }
+        net[0] = -total;
+        DebtSimplifier simplifier = new DebtSimplifier();
+
+        // When
+        simplifier.simplify(net, size);
+
+        // Then
+        long[] settled = net.clone();
+        for (int i = 0; i < simplifier.transferCount(); i++) {
+            assertTrue(simplifier.amount(i) > 0);
+            settled[simplifier.fromIndex(i)] += simplifier.amount(i);
+            settled[simplifier.toIndex(i)] -= simplifier.amount(i);
+        }
+        for (long position : settled) {
+            assertEquals(0, position);
+        }
+        assertTrue(simplifier.transferCount() <= size - 1);
+    }
+
+    @Test
+    void simplify_ShouldReuseBuffersAcrossCalls() {
+        // Given
+        DebtSimplifier simplifier = new DebtSimplifier();
+        simplifier.simplify(new long[] { 500, -200, -300, 0, 0, 0 }, 6);
+
+        // When
+        simplifier.simplify(new long[] { -50, 50 }, 2);
+
+        // Then
+        assertEquals(1, simplifier.transferCount());
+        assertEquals(0, simplifier.fromIndex(0));
+        assertEquals(1, simplifier.toIndex(0));
+        assertEquals(50, simplifier.amount(0));
+    }
+
+    @Test
+    void simplify_ShouldRejectUnbalancedPositions() {
+        DebtSimplifier simplifier = new DebtSimplifier();
+        assertThrows(IllegalArgumentException.class, () -> simplifier.simplify(new long[] { 100, -50 }, 2));
+    }
+}
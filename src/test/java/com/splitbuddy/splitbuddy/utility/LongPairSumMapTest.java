@@ -0,0 +1,126 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class LongPairSumMapTest {
+
+    // Keys (f, s) and (f + 1, s - GOLDEN) hash alike, so they land in the same slot
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    @Test
+    void add_ShouldKeepCollidingKeysApart() {
+        // Given
+        LongPairSumMap map = new LongPairSumMap();
+
+        // When
+        map.add(1, 0, 10);
+        map.add(2, -GOLDEN, 20);
+        map.add(1, 0, 5);
+
+        // Then
+        assertEquals(2, map.size());
+        assertEquals(15, map.get(1, 0));
+        assertEquals(20, map.get(2, -GOLDEN));
+        assertEquals(0, map.get(3, -2 * GOLDEN));
+    }
+
+    @Test
+    void add_ShouldGrowAndKeepEverySum() {
+        // Given
+        LongPairSumMap map = new LongPairSumMap(1);
+        int initialCapacity = map.capacity();
+        Map<List<Long>, Long> expected = new HashMap<>();
+
+        // When: every key twice, with negative keys and sums among them
+        for (int round = 0; round < 2; round++) {
+            for (long first = -50; first < 50; first++) {
+                for (long second = -5; second < 5; second++) {
+                    long delta = first * 7 - second;
+                    map.add(first, second, delta);
+                    expected.merge(List.of(first, second), delta, Long::sum);
+                }
+            }
+        }
+
+        // Then
+        assertTrue(map.capacity() > initialCapacity);
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, sum) -> assertEquals(sum, map.get(key.get(0), key.get(1))));
+        assertEquals(expected, entries(map));
+        assertEquals(0, map.get(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    void add_ShouldTellKeysApartByOrderAndSign() {
+        // Given
+        LongPairSumMap map = new LongPairSumMap();
+
+        // When
+        map.add(3, 7, 1);
+        map.add(7, 3, 2);
+        map.add(-3, 7, 4);
+        map.add(Long.MIN_VALUE, -1, 8);
+
+        // Then
+        assertEquals(4, map.size());
+        assertEquals(1, map.get(3, 7));
+        assertEquals(2, map.get(7, 3));
+        assertEquals(4, map.get(-3, 7));
+        assertEquals(8, map.get(Long.MIN_VALUE, -1));
+    }
+
+    @Test
+    void add_ShouldKeepEntriesThatSumToZero() {
+        // Given
+        LongPairSumMap map = new LongPairSumMap();
+        map.add(1, 2, 250);
+
+        // When
+        map.add(1, 2, -250);
+
+        // Then: the key stays visited, as callers use the keys as the set of touched balances
+        assertEquals(1, map.size());
+        assertEquals(0, map.get(1, 2));
+        assertEquals(Map.of(List.of(1L, 2L), 0L), entries(map));
+    }
+
+    @Test
+    void addAllAndClear_ShouldMergeAndEmpty() {
+        // Given
+        LongPairSumMap map = new LongPairSumMap();
+        map.add(1, 2, 100);
+        LongPairSumMap other = new LongPairSumMap();
+        other.add(1, 2, -40);
+        other.add(2, 1, 40);
+
+        // When
+        map.addAll(other);
+
+        // Then
+        assertEquals(Map.of(List.of(1L, 2L), 60L, List.of(2L, 1L), 40L), entries(map));
+
+        // When
+        map.clear();
+
+        // Then
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.get(1, 2));
+    }
+
+    private static Map<List<Long>, Long> entries(LongPairSumMap map) {
+        Map<List<Long>, Long> entries = new HashMap<>();
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot)) {
+                entries.put(List.of(map.firstKey(slot), map.secondKey(slot)), map.value(slot));
+            }
+        }
+        return entries;
+    }
+}
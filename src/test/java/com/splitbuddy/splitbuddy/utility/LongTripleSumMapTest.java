@@ -0,0 +1,85 @@
+package com.splitbuddy.splitbuddy.utility;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class LongTripleSumMapTest {
+
+    // Keys (f, s, t) and (f, s + 1, t - GOLDEN) hash alike, so they land in the same slot
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    @Test
+    void add_ShouldKeepCollidingKeysApart() {
+        // Given
+        LongTripleSumMap map = new LongTripleSumMap();
+        long usd = MoneyUtil.currencyKey("USD");
+
+        // When
+        map.add(1, 2, usd, 10);
+        map.add(1, 3, usd - GOLDEN, 20);
+        map.add(1, 2, usd, -4);
+
+        // Then
+        assertEquals(2, map.size());
+        assertEquals(6, map.get(1, 2, usd));
+        assertEquals(20, map.get(1, 3, usd - GOLDEN));
+        assertEquals(0, map.get(1, 2, MoneyUtil.currencyKey("EUR")));
+    }
+
+    @Test
+    void add_ShouldGrowAndKeepEverySum() {
+        // Given
+        LongTripleSumMap map = new LongTripleSumMap(1);
+        int initialCapacity = map.capacity();
+        Map<List<Long>, Long> expected = new HashMap<>();
+        long[] currencies = { MoneyUtil.currencyKey("USD"), MoneyUtil.currencyKey("EUR"), -1 };
+
+        // When
+        for (long first = -40; first < 40; first++) {
+            for (long second = -3; second < 3; second++) {
+                for (long currency : currencies) {
+                    map.add(first, second, currency, first - second);
+                    map.add(first, second, currency, 1);
+                    expected.put(List.of(first, second, currency), first - second + 1);
+                }
+            }
+        }
+
+        // Then
+        assertTrue(map.capacity() > initialCapacity);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, entries(map));
+    }
+
+    @Test
+    void add_ShouldKeepEntriesThatSumToZero() {
+        // Given
+        LongTripleSumMap map = new LongTripleSumMap();
+        long eur = MoneyUtil.currencyKey("EUR");
+        map.add(4, 9, eur, -75);
+
+        // When
+        map.add(4, 9, eur, 75);
+        LongTripleSumMap copy = new LongTripleSumMap();
+        copy.addAll(map);
+
+        // Then
+        assertEquals(Map.of(List.of(4L, 9L, eur), 0L), entries(copy));
+    }
+
+    private static Map<List<Long>, Long> entries(LongTripleSumMap map) {
+        Map<List<Long>, Long> entries = new HashMap<>();
+        for (int slot = 0; slot < map.capacity(); slot++) {
+            if (map.isUsed(slot)) {
+                entries.put(List.of(map.firstKey(slot), map.secondKey(slot), map.thirdKey(slot)), map.value(slot));
+            }
+        }
+        return entries;
+    }
+}